@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.benchmarks;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.jcache.BLUCacheConcurrent;
+import com.io7m.jcache.BLUCacheConfig;
+import com.io7m.jcache.BLUCacheReceiptType;
+import com.io7m.jcache.BLUCacheTrivial;
+import com.io7m.jcache.BLUCacheType;
+
+/**
+ * <p>
+ * Measure the <code>bluCacheGet</code>/<code>returnToCache</code> cycle of
+ * {@link BLUCacheTrivial} and {@link BLUCacheConcurrent}, parameterized by
+ * capacity, key distribution, and value size.
+ * </p>
+ * <p>
+ * Each operation borrows one value and returns it. The <code>hit</code>
+ * benchmark draws keys from the cached keys only, and the
+ * <code>mixed</code> benchmark draws keys from a key space four times larger
+ * than the cache, so that borrowing frequently loads and evicts values.
+ * </p>
+ */
+
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS) @Warmup(
+  iterations = 5,
+  time = 1) @Measurement(iterations = 5, time = 1) @Fork(
+  value = 1,
+  jvmArgsAppend = { "-Xms2g", "-Xmx2g" }) public class BLUCacheBenchmark
+{
+  /**
+   * The benchmark state: a full cache, and a sequence of keys.
+   */
+
+  @State(Scope.Thread) public static class CycleState
+  {
+    @Param({ "trivial", "concurrent" }) public String implementation;
+    @Param({ "1000", "100000" }) public int capacity;
+    @Param({ "uniform", "zipf" }) public String distribution;
+    @Param({ "16", "1024" }) public int value_size;
+    @Param({ "1", "4" }) public int key_space_factor;
+
+    BLUCacheType<Integer, byte[], byte[], RuntimeException> cache;
+    int                                                     index;
+    Integer[]                                               keys;
+
+    /**
+     * Construct the state.
+     */
+
+    public CycleState()
+    {
+      // Nothing
+    }
+
+    /**
+     * Fill the cache.
+     */
+
+    @Setup(Level.Trial) public void setup()
+    {
+      final BLUCacheConfig config =
+        BLUCacheConfig
+          .empty()
+          .withMaximumCapacity(BigInteger.valueOf(this.capacity));
+      final BenchBytesLoader loader = new BenchBytesLoader(this.value_size);
+      if ("trivial".equals(this.implementation)) {
+        this.cache = BLUCacheTrivial.newCache(loader, config);
+      } else if ("concurrent".equals(this.implementation)) {
+        this.cache = BLUCacheConcurrent.newCache(loader, config);
+      } else {
+        throw new IllegalArgumentException(this.implementation);
+      }
+
+      final Integer[] all = BenchKeys.newKeys(this.capacity);
+      for (int i = 0; i < all.length; ++i) {
+        this.cache.bluCacheGet(all[i]).returnToCache();
+      }
+
+      this.keys =
+        BenchKeys.newSequence(
+          this.distribution,
+          this.capacity * this.key_space_factor);
+      this.index = 0;
+    }
+
+    /**
+     * Release the cache.
+     */
+
+    @TearDown(Level.Trial) public void tearDown()
+    {
+      this.cache.cacheDelete();
+    }
+  }
+
+  /**
+   * Construct the benchmark.
+   */
+
+  public BLUCacheBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Borrow a value and return it to the cache. With a
+   * <code>key_space_factor</code> of <code>1</code> every borrow is a hit;
+   * larger factors mix in loads and evictions.
+   *
+   * @param s
+   *          The state
+   * @return The borrowed value
+   */
+
+  @Benchmark public byte[] cycle(
+    final CycleState s)
+  {
+    final Integer[] k = s.keys;
+    final int i = s.index;
+    s.index = (i + 1 == k.length) ? 0 : i + 1;
+
+    final BLUCacheReceiptType<Integer, byte[]> r = s.cache.bluCacheGet(k[i]);
+    final byte[] v = r.getValue();
+    r.returnToCache();
+    return v;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.benchmarks;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import com.io7m.jcache.JCacheCodecType;
+import com.io7m.jcache.JCacheLoaderLongType;
+
+/**
+ * A loader that returns a freshly allocated array of <code>length</code>
+ * bytes for each key, with a constant size of <code>1</code>. Capacities are
+ * therefore counted in entries, and the value size changes only the amount
+ * of memory that each load allocates. The loader doubles as a codec for the
+ * off-heap cache.
+ */
+
+public final class BenchBytesLoader implements
+  JCacheLoaderLongType<Integer, byte[], RuntimeException>,
+  JCacheCodecType<byte[]>
+{
+  private final int length;
+
+  /**
+   * Construct a loader.
+   *
+   * @param in_length
+   *          The length of each loaded value
+   */
+
+  public BenchBytesLoader(
+    final int in_length)
+  {
+    this.length = in_length;
+  }
+
+  @Override public byte[] cacheCodecDecode(
+    final ByteBuffer source)
+  {
+    final byte[] v = new byte[source.remaining()];
+    source.get(v);
+    return v;
+  }
+
+  @Override public void cacheCodecEncode(
+    final byte[] value,
+    final ByteBuffer target)
+  {
+    target.put(value);
+  }
+
+  @Override public int cacheCodecSizeOf(
+    final byte[] value)
+  {
+    return value.length;
+  }
+
+  @Override public void cacheValueClose(
+    final byte[] v)
+  {
+    // Nothing
+  }
+
+  @Override public byte[] cacheValueLoad(
+    final Integer key)
+  {
+    final byte[] v = new byte[this.length];
+    v[0] = key.byteValue();
+    return v;
+  }
+
+  @Override public BigInteger cacheValueSizeOf(
+    final byte[] v)
+  {
+    return BigInteger.ONE;
+  }
+
+  @Override public long cacheValueSizeOfLong(
+    final byte[] v)
+  {
+    return 1L;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.benchmarks;
+
+import java.util.Random;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>
+ * Precomputed key sequences drawn from a fixed distribution.
+ * </p>
+ * <p>
+ * Benchmarks replay a sequence cyclically, so that neither drawing random
+ * numbers nor boxing keys is included in the measured time. The supported
+ * distributions are:
+ * </p>
+ * <ul>
+ * <li><code>uniform</code>: every key is equally likely.</li>
+ * <li><code>zipf</code>: the key of rank <code>r</code> is requested with
+ * probability proportional to <code>1 / r^0.99</code>, approximating the
+ * skew of typical read-through caches.</li>
+ * <li><code>scan</code>: the keys are requested in order, repeatedly.</li>
+ * </ul>
+ */
+
+public final class BenchKeys
+{
+  /**
+   * The length of generated sequences.
+   */
+
+  public static final int     LENGTH        = 1 << 16;
+
+  private static final long   SEED          = 0x5eedL;
+  private static final double ZIPF_EXPONENT = 0.99;
+
+  /**
+   * Generate a sequence of {@link #LENGTH} keys in the range
+   * <code>[0, count)</code>.
+   *
+   * @param distribution
+   *          The distribution: one of <code>uniform</code>,
+   *          <code>zipf</code>, or <code>scan</code>
+   * @param count
+   *          The number of distinct keys
+   * @return A sequence of keys
+   */
+
+  public static Integer[] newSequence(
+    final String distribution,
+    final int count)
+  {
+    final Integer[] keys = BenchKeys.newKeys(count);
+    final Integer[] seq = new Integer[BenchKeys.LENGTH];
+    final Random r = new Random(BenchKeys.SEED);
+
+    if ("uniform".equals(distribution)) {
+      for (int i = 0; i < seq.length; ++i) {
+        seq[i] = keys[r.nextInt(count)];
+      }
+      return seq;
+    }
+    if ("zipf".equals(distribution)) {
+      final double[] cdf = BenchKeys.zipfDistribution(count);
+      for (int i = 0; i < seq.length; ++i) {
+        seq[i] = keys[BenchKeys.zipfRank(cdf, r.nextDouble())];
+      }
+      return seq;
+    }
+    if ("scan".equals(distribution)) {
+      for (int i = 0; i < seq.length; ++i) {
+        seq[i] = keys[i % count];
+      }
+      return seq;
+    }
+    throw new IllegalArgumentException(distribution);
+  }
+
+  /**
+   * @param count
+   *          The number of keys
+   * @return The keys <code>[0, count)</code>, in order
+   */
+
+  public static Integer[] newKeys(
+    final int count)
+  {
+    final Integer[] keys = new Integer[count];
+    for (int i = 0; i < count; ++i) {
+      keys[i] = Integer.valueOf(i);
+    }
+    return keys;
+  }
+
+  private static double[] zipfDistribution(
+    final int count)
+  {
+    final double[] cdf = new double[count];
+    double sum = 0.0;
+    for (int i = 0; i < count; ++i) {
+      sum += 1.0 / Math.pow(i + 1, BenchKeys.ZIPF_EXPONENT);
+      cdf[i] = sum;
+    }
+    for (int i = 0; i < count; ++i) {
+      cdf[i] /= sum;
+    }
+    return cdf;
+  }
+
+  private static int zipfRank(
+    final double[] cdf,
+    final double u)
+  {
+    int lo = 0;
+    int hi = cdf.length - 1;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (cdf[mid] < u) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  private BenchKeys()
+  {
+    throw new UnreachableCodeException();
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.benchmarks;
+
+import java.math.BigInteger;
+
+import com.io7m.jcache.JCacheLoaderLongType;
+
+/**
+ * A loader that returns each key as its own value, with a constant size of
+ * <code>1</code>. The loader does no work of its own, so that benchmarks
+ * measure only the cost of the cache.
+ */
+
+public final class BenchLoader implements
+  JCacheLoaderLongType<Integer, Integer, RuntimeException>
+{
+  /**
+   * Construct a loader.
+   */
+
+  public BenchLoader()
+  {
+    // Nothing
+  }
+
+  @Override public void cacheValueClose(
+    final Integer v)
+  {
+    // Nothing
+  }
+
+  @Override public Integer cacheValueLoad(
+    final Integer key)
+  {
+    return key;
+  }
+
+  @Override public BigInteger cacheValueSizeOf(
+    final Integer v)
+  {
+    return BigInteger.ONE;
+  }
+
+  @Override public long cacheValueSizeOfLong(
+    final Integer v)
+  {
+    return 1L;
+  }
+}
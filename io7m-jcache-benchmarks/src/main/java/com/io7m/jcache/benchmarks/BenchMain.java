@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>
+ * The entry point of <code>benchmarks.jar</code>.
+ * </p>
+ * <p>
+ * Accepts the same arguments as the standard JMH launcher, but always
+ * attaches the GC profiler, so that each result is reported together with
+ * its allocation rate (<code>gc.alloc.rate.norm</code>, in bytes per
+ * operation).
+ * </p>
+ */
+
+public final class BenchMain
+{
+  /**
+   * Run the benchmarks.
+   *
+   * @param args
+   *          JMH command line arguments
+   * @throws Exception
+   *           On any error
+   */
+
+  public static void main(
+    final String[] args)
+    throws Exception
+  {
+    final CommandLineOptions cli = new CommandLineOptions(args);
+    if (cli.shouldHelp()) {
+      cli.showHelp();
+      return;
+    }
+    if (cli.shouldList()) {
+      new Runner(cli).list();
+      return;
+    }
+
+    final Options options =
+      new OptionsBuilder()
+        .parent(cli)
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+
+  private BenchMain()
+  {
+    throw new UnreachableCodeException();
+  }
+}
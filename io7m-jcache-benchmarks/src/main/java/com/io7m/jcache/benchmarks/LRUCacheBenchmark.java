@@ -0,0 +1,238 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.benchmarks;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.jcache.LRUCacheClock;
+import com.io7m.jcache.LRUCacheConcurrent;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheLinked;
+import com.io7m.jcache.LRUCacheTrivial;
+import com.io7m.jcache.LRUCacheType;
+
+/**
+ * <p>
+ * Compare the LRU cache implementations on hits and on evicting misses, at
+ * cache sizes from <code>10^3</code> to <code>10^7</code> entries.
+ * </p>
+ * <p>
+ * Keys are boxed once during setup, so the only allocations measured are
+ * those made by the caches themselves (run with {@link BenchMain} or
+ * <code>-prof gc</code> to see them).
+ * </p>
+ */
+
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS) @Warmup(
+  iterations = 5,
+  time = 1) @Measurement(iterations = 5, time = 1) @Fork(
+  value = 1,
+  jvmArgsAppend = { "-Xms4g", "-Xmx4g" }) public class LRUCacheBenchmark
+{
+  /**
+   * The state for cache hits: a full cache, and a random permutation of the
+   * cached keys.
+   */
+
+  @State(Scope.Thread) public static class HitState
+  {
+    @Param({ "trivial", "linked", "concurrent", "clock" }) public String implementation;
+    @Param({ "1000", "10000", "100000", "1000000", "10000000" }) public int size;
+
+    LRUCacheType<Integer, Integer, Integer, RuntimeException> cache;
+    int                                                       index;
+    Integer[]                                                 keys;
+
+    /**
+     * Construct the state.
+     */
+
+    public HitState()
+    {
+      // Nothing
+    }
+
+    /**
+     * Fill the cache.
+     */
+
+    @Setup(Level.Trial) public void setup()
+    {
+      this.cache =
+        LRUCacheBenchmark.newCache(this.implementation, this.size);
+      this.keys = BenchKeys.newKeys(this.size);
+      for (int i = 0; i < this.size; ++i) {
+        this.cache.cacheGetLU(this.keys[i]);
+      }
+      LRUCacheBenchmark.shuffle(this.keys);
+      this.index = 0;
+    }
+
+    /**
+     * Release the cache.
+     */
+
+    @TearDown(Level.Trial) public void tearDown()
+    {
+      this.cache.cacheDelete();
+    }
+  }
+
+  /**
+   * The state for evicting misses: a full cache of <code>size</code> entries
+   * that is scanned cyclically over <code>size + 1</code> keys, so that
+   * every request misses and evicts the least recently used entry.
+   */
+
+  @State(Scope.Thread) public static class MissState
+  {
+    @Param({ "trivial", "linked", "concurrent", "clock" }) public String implementation;
+    @Param({ "1000", "10000", "100000", "1000000", "10000000" }) public int size;
+
+    LRUCacheType<Integer, Integer, Integer, RuntimeException> cache;
+    int                                                       index;
+    Integer[]                                                 keys;
+
+    /**
+     * Construct the state.
+     */
+
+    public MissState()
+    {
+      // Nothing
+    }
+
+    /**
+     * Fill the cache.
+     */
+
+    @Setup(Level.Trial) public void setup()
+    {
+      this.cache =
+        LRUCacheBenchmark.newCache(this.implementation, this.size);
+      this.keys = BenchKeys.newKeys(this.size + 1);
+      for (int i = 0; i < this.size; ++i) {
+        this.cache.cacheGetLU(this.keys[i]);
+      }
+      this.index = this.size;
+    }
+
+    /**
+     * Release the cache.
+     */
+
+    @TearDown(Level.Trial) public void tearDown()
+    {
+      this.cache.cacheDelete();
+    }
+  }
+
+  static LRUCacheType<Integer, Integer, Integer, RuntimeException> newCache(
+    final String implementation,
+    final int size)
+  {
+    final LRUCacheConfig config =
+      LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(size));
+    final BenchLoader loader = new BenchLoader();
+
+    if ("trivial".equals(implementation)) {
+      return LRUCacheTrivial.newCache(loader, config);
+    }
+    if ("linked".equals(implementation)) {
+      return LRUCacheLinked.newCache(loader, config);
+    }
+    if ("concurrent".equals(implementation)) {
+      return LRUCacheConcurrent.newCache(loader, config);
+    }
+    if ("clock".equals(implementation)) {
+      return LRUCacheClock.newCache(loader, config);
+    }
+    throw new IllegalArgumentException(implementation);
+  }
+
+  static void shuffle(
+    final Integer[] keys)
+  {
+    final Random r = new Random(0x5eed);
+    for (int i = keys.length - 1; i > 0; --i) {
+      final int j = r.nextInt(i + 1);
+      final Integer t = keys[i];
+      keys[i] = keys[j];
+      keys[j] = t;
+    }
+  }
+
+  /**
+   * Construct the benchmark.
+   */
+
+  public LRUCacheBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Retrieve an object that is already cached.
+   *
+   * @param s
+   *          The state
+   * @return The cached object
+   */
+
+  @Benchmark public Integer hit(
+    final HitState s)
+  {
+    final Integer[] k = s.keys;
+    final int i = s.index;
+    s.index = (i + 1 == k.length) ? 0 : i + 1;
+    return s.cache.cacheGetLU(k[i]);
+  }
+
+  /**
+   * Retrieve an object that is not cached, evicting the least recently used
+   * object.
+   *
+   * @param s
+   *          The state
+   * @return The loaded object
+   */
+
+  @Benchmark public Integer miss(
+    final MissState s)
+  {
+    final Integer[] k = s.keys;
+    final int i = s.index;
+    s.index = (i + 1 == k.length) ? 0 : i + 1;
+    return s.cache.cacheGetLU(k[i]);
+  }
+}
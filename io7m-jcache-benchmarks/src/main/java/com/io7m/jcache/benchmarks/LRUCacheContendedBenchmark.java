@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.benchmarks;
+
+import java.math.BigInteger;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.jcache.LRUCacheClock;
+import com.io7m.jcache.LRUCacheConcurrent;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheLinked;
+import com.io7m.jcache.LRUCacheType;
+
+/**
+ * <p>
+ * Compare a globally locked LRU cache against {@link LRUCacheConcurrent}
+ * and {@link LRUCacheClock} when many threads request objects at once. The working set is twice the
+ * capacity of the cache, so requests are a mix of hits and misses.
+ * </p>
+ */
+
+@BenchmarkMode(Mode.Throughput) @OutputTimeUnit(TimeUnit.MICROSECONDS) @Warmup(
+  iterations = 5,
+  time = 1) @Measurement(iterations = 5, time = 1) @Fork(1) @Threads(8) public class LRUCacheContendedBenchmark
+{
+  /**
+   * The shared cache.
+   */
+
+  @State(Scope.Benchmark) public static class SharedState
+  {
+    @Param({ "locked", "concurrent", "clock" }) public String implementation;
+    @Param({ "10000", "1000000" }) public int        size;
+
+    LRUCacheType<Integer, Integer, Integer, RuntimeException> cache;
+    Integer[]                                                 keys;
+
+    /**
+     * Construct the state.
+     */
+
+    public SharedState()
+    {
+      // Nothing
+    }
+
+    /**
+     * Fill the cache.
+     */
+
+    @Setup(Level.Trial) public void setup()
+    {
+      final LRUCacheConfig config =
+        LRUCacheConfig.empty().withMaximumCapacity(
+          BigInteger.valueOf(this.size));
+      final BenchLoader loader = new BenchLoader();
+
+      if ("locked".equals(this.implementation)) {
+        this.cache =
+          new LockedCache(LRUCacheLinked.<Integer, Integer, Integer, RuntimeException> newCache(
+            loader,
+            config));
+      } else if ("clock".equals(this.implementation)) {
+        this.cache = LRUCacheClock.newCache(loader, config);
+      } else {
+        this.cache = LRUCacheConcurrent.newCache(loader, config);
+      }
+
+      this.keys = BenchKeys.newKeys(this.size * 2);
+      for (int i = 0; i < this.size; ++i) {
+        this.cache.cacheGetLU(this.keys[i]);
+      }
+    }
+
+    /**
+     * Release the cache.
+     */
+
+    @TearDown(Level.Trial) public void tearDown()
+    {
+      this.cache.cacheDelete();
+    }
+  }
+
+  /**
+   * Construct the benchmark.
+   */
+
+  public LRUCacheContendedBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Retrieve a random object.
+   *
+   * @param s
+   *          The state
+   * @return The object
+   */
+
+  @Benchmark public Integer get(
+    final SharedState s)
+  {
+    final Integer[] k = s.keys;
+    final ThreadLocalRandom r = ThreadLocalRandom.current();
+
+    /**
+     * Three quarters of the requests go to the first half of the keys.
+     */
+
+    final int half = k.length / 2;
+    final int i =
+      r.nextInt(4) == 0 ? half + r.nextInt(half) : r.nextInt(half);
+    return s.cache.cacheGetLU(k[i]);
+  }
+}
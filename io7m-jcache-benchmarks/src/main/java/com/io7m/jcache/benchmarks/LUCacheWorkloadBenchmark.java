@@ -0,0 +1,317 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.benchmarks;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.jcache.LRUCacheClock;
+import com.io7m.jcache.LRUCacheConcurrent;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheLinked;
+import com.io7m.jcache.LRUCacheOffHeap;
+import com.io7m.jcache.LRUCacheTrivial;
+import com.io7m.jcache.LUCacheGDSF;
+import com.io7m.jcache.LUCachePolicied;
+import com.io7m.jcache.LUCacheType;
+import com.io7m.jcache.LUCacheWTinyLFU;
+
+/**
+ * <p>
+ * Compare all of the least-used cache implementations on the hit, evicting
+ * miss, and mixed paths of <code>cacheGetLU</code>, parameterized by
+ * capacity, key distribution, and value size.
+ * </p>
+ * <ul>
+ * <li><code>hit</code> requests only keys that are cached.</li>
+ * <li><code>evict</code> scans cyclically over one more key than the cache
+ * can hold, so that every request loads a value and evicts another.</li>
+ * <li><code>mixed</code> requests keys drawn from <code>distribution</code>
+ * over a key space four times larger than the cache, so that the hit ratio
+ * depends on both the distribution and the eviction policy.</li>
+ * </ul>
+ * <p>
+ * Values are byte arrays of <code>value_size</code> bytes, allocated on each
+ * load. Run with {@link BenchMain} (or <code>-prof gc</code>) to report the
+ * allocation rate alongside the time per operation.
+ * </p>
+ */
+
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS) @Warmup(
+  iterations = 5,
+  time = 1) @Measurement(iterations = 5, time = 1) @Fork(
+  value = 1,
+  jvmArgsAppend = { "-Xms2g", "-Xmx2g" }) public class LUCacheWorkloadBenchmark
+{
+  /**
+   * The parameters shared by all states.
+   */
+
+  @State(Scope.Thread) public abstract static class Parameters
+  {
+    @Param({ "trivial", "linked", "concurrent", "clock", "offheap", "policied", "wtinylfu", "gdsf" }) public String implementation;
+    @Param({ "1000", "100000" }) public int capacity;
+    @Param({ "uniform", "zipf" }) public String distribution;
+    @Param({ "16", "1024" }) public int value_size;
+
+    LUCacheType<Integer, byte[], byte[], RuntimeException> cache;
+    int                                                    index;
+    Integer[]                                              keys;
+
+    /**
+     * Construct the state.
+     */
+
+    public Parameters()
+    {
+      // Nothing
+    }
+
+    /**
+     * Release the cache.
+     */
+
+    @TearDown(Level.Trial) public void tearDown()
+    {
+      this.cache.cacheDelete();
+    }
+
+    final void fill()
+    {
+      this.cache =
+        LUCacheWorkloadBenchmark.newCache(
+          this.implementation,
+          this.capacity,
+          this.value_size);
+      final Integer[] all = BenchKeys.newKeys(this.capacity);
+      for (int i = 0; i < all.length; ++i) {
+        this.cache.cacheGetLU(all[i]);
+      }
+      this.index = 0;
+    }
+  }
+
+  /**
+   * The state for cache hits: a full cache, and a sequence of cached keys
+   * drawn from <code>distribution</code>.
+   */
+
+  @State(Scope.Thread) public static class HitState extends Parameters
+  {
+    /**
+     * Construct the state.
+     */
+
+    public HitState()
+    {
+      // Nothing
+    }
+
+    /**
+     * Fill the cache.
+     */
+
+    @Setup(Level.Trial) public void setup()
+    {
+      this.fill();
+      this.keys = BenchKeys.newSequence(this.distribution, this.capacity);
+    }
+  }
+
+  /**
+   * The state for evicting misses: a full cache, scanned cyclically over
+   * <code>capacity + 1</code> keys. The distribution is ignored.
+   */
+
+  @State(Scope.Thread) public static class EvictState extends Parameters
+  {
+    /**
+     * Construct the state.
+     */
+
+    public EvictState()
+    {
+      // Nothing
+    }
+
+    /**
+     * Fill the cache.
+     */
+
+    @Setup(Level.Trial) public void setup()
+    {
+      this.fill();
+      this.keys = BenchKeys.newKeys(this.capacity + 1);
+      this.index = this.capacity;
+    }
+  }
+
+  /**
+   * The state for mixed workloads: a full cache, and a sequence of keys drawn
+   * from <code>distribution</code> over <code>4 * capacity</code> keys.
+   */
+
+  @State(Scope.Thread) public static class MixedState extends Parameters
+  {
+    /**
+     * Construct the state.
+     */
+
+    public MixedState()
+    {
+      // Nothing
+    }
+
+    /**
+     * Fill the cache.
+     */
+
+    @Setup(Level.Trial) public void setup()
+    {
+      this.fill();
+      this.keys =
+        BenchKeys.newSequence(this.distribution, this.capacity * 4);
+    }
+  }
+
+  static LUCacheType<Integer, byte[], byte[], RuntimeException> newCache(
+    final String implementation,
+    final int capacity,
+    final int value_size)
+  {
+    final LRUCacheConfig config =
+      LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(capacity));
+    final BenchBytesLoader loader = new BenchBytesLoader(value_size);
+
+    if ("trivial".equals(implementation)) {
+      return LRUCacheTrivial.newCache(loader, config);
+    }
+    if ("linked".equals(implementation)) {
+      return LRUCacheLinked.newCache(loader, config);
+    }
+    if ("concurrent".equals(implementation)) {
+      return LRUCacheConcurrent.newCache(loader, config);
+    }
+    if ("clock".equals(implementation)) {
+      return LRUCacheClock.newCache(loader, config);
+    }
+    if ("offheap".equals(implementation)) {
+      /**
+       * The off-heap cache accounts for the chunks that hold encoded values,
+       * so its capacity is scaled to hold the same number of entries. Its
+       * capacity must also hold at least one whole slab.
+       */
+
+      final long chunk =
+        Math.max(64L, Long.highestOneBit(((long) value_size * 2L) - 1L));
+      final long bytes = capacity * chunk;
+      final long slab =
+        Math.min(
+          LRUCacheOffHeap.DEFAULT_SLAB_SIZE,
+          Math.max(chunk, Long.highestOneBit(bytes / 16L)));
+      return LRUCacheOffHeap.newCache(
+        loader,
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(bytes)),
+        (int) slab);
+    }
+    if ("policied".equals(implementation)) {
+      return LUCachePolicied.newCache(loader, config);
+    }
+    if ("wtinylfu".equals(implementation)) {
+      return LUCacheWTinyLFU.newCache(loader, config);
+    }
+    if ("gdsf".equals(implementation)) {
+      return LUCacheGDSF.newCache(loader, config);
+    }
+    throw new IllegalArgumentException(implementation);
+  }
+
+  private static byte[] next(
+    final Parameters s)
+  {
+    final Integer[] k = s.keys;
+    final int i = s.index;
+    s.index = (i + 1 == k.length) ? 0 : i + 1;
+    return s.cache.cacheGetLU(k[i]);
+  }
+
+  /**
+   * Construct the benchmark.
+   */
+
+  public LUCacheWorkloadBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Retrieve an object that is already cached.
+   *
+   * @param s
+   *          The state
+   * @return The cached object
+   */
+
+  @Benchmark public byte[] hit(
+    final HitState s)
+  {
+    return LUCacheWorkloadBenchmark.next(s);
+  }
+
+  /**
+   * Retrieve an object that is not cached, evicting another object.
+   *
+   * @param s
+   *          The state
+   * @return The loaded object
+   */
+
+  @Benchmark public byte[] evict(
+    final EvictState s)
+  {
+    return LUCacheWorkloadBenchmark.next(s);
+  }
+
+  /**
+   * Retrieve an object that may or may not be cached.
+   *
+   * @param s
+   *          The state
+   * @return The cached or loaded object
+   */
+
+  @Benchmark public byte[] mixed(
+    final MixedState s)
+  {
+    return LUCacheWorkloadBenchmark.next(s);
+  }
+}
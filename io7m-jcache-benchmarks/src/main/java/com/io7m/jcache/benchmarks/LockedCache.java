@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.benchmarks;
+
+import java.math.BigInteger;
+
+import com.io7m.jcache.JCacheEventsType;
+import com.io7m.jcache.JCacheStatistics;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheType;
+
+/**
+ * An LRU cache protected by a single global lock, as was required before
+ * {@link com.io7m.jcache.LRUCacheConcurrent} existed.
+ */
+
+public final class LockedCache implements
+  LRUCacheType<Integer, Integer, Integer, RuntimeException>
+{
+  private final LRUCacheType<Integer, Integer, Integer, RuntimeException> cache;
+
+  /**
+   * Construct a locked cache.
+   *
+   * @param in_cache
+   *          The underlying cache
+   */
+
+  public LockedCache(
+    final LRUCacheType<Integer, Integer, Integer, RuntimeException> in_cache)
+  {
+    this.cache = in_cache;
+  }
+
+  @Override public synchronized void cacheDelete()
+  {
+    this.cache.cacheDelete();
+  }
+
+  @Override public synchronized void cacheEventsSubscribe(
+    final JCacheEventsType<Integer, Integer> events)
+  {
+    this.cache.cacheEventsSubscribe(events);
+  }
+
+  @Override public synchronized void cacheEventsUnsubscribe()
+  {
+    this.cache.cacheEventsUnsubscribe();
+  }
+
+  @Override public synchronized LRUCacheConfig cacheGetConfiguration()
+  {
+    return this.cache.cacheGetConfiguration();
+  }
+
+  @Override public synchronized Integer cacheGetLU(
+    final Integer key)
+  {
+    return this.cache.cacheGetLU(key);
+  }
+
+  @Override public synchronized boolean cacheIsCached(
+    final Integer key)
+  {
+    return this.cache.cacheIsCached(key);
+  }
+
+  @Override public synchronized BigInteger cacheItemCount()
+  {
+    return this.cache.cacheItemCount();
+  }
+
+  @Override public synchronized long cacheItemCountLong()
+  {
+    return this.cache.cacheItemCountLong();
+  }
+
+  @Override public synchronized void cacheSetConfiguration(
+    final LRUCacheConfig c)
+  {
+    this.cache.cacheSetConfiguration(c);
+  }
+
+  @Override public synchronized BigInteger cacheSize()
+  {
+    return this.cache.cacheSize();
+  }
+
+  @Override public synchronized long cacheSizeLong()
+  {
+    return this.cache.cacheSizeLong();
+  }
+
+  @Override public synchronized JCacheStatistics cacheStatistics()
+  {
+    return this.cache.cacheStatistics();
+  }
+
+  @Override public synchronized void cacheStatisticsReset()
+  {
+    this.cache.cacheStatisticsReset();
+  }
+
+  @Override public synchronized void cacheStatisticsSetHistogramsEnabled(
+    final boolean enabled)
+  {
+    this.cache.cacheStatisticsSetHistogramsEnabled(enabled);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.benchmarks;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.io7m.jcache.PCacheConfig;
+import com.io7m.jcache.PCacheTrivial;
+
+/**
+ * <p>
+ * Measure complete periods of {@link PCacheTrivial}: starting a period,
+ * retrieving <code>period_length</code> objects, and ending the period,
+ * parameterized by capacity, key distribution, and value size.
+ * </p>
+ * <p>
+ * Keys are drawn from a key space twice as large as the cache, and objects
+ * expire after not being used for <code>4</code> periods, so that ending a
+ * period regularly evicts objects both by age and by size.
+ * </p>
+ */
+
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MICROSECONDS) @Warmup(
+  iterations = 5,
+  time = 1) @Measurement(iterations = 5, time = 1) @Fork(
+  value = 1,
+  jvmArgsAppend = { "-Xms2g", "-Xmx2g" }) public class PCacheBenchmark
+{
+  /**
+   * The benchmark state: a cache, and a sequence of keys.
+   */
+
+  @State(Scope.Thread) public static class PeriodState
+  {
+    @Param({ "1000", "100000" }) public int capacity;
+    @Param({ "uniform", "zipf" }) public String distribution;
+    @Param({ "16", "1024" }) public int value_size;
+    @Param({ "10", "1000" }) public int period_length;
+
+    PCacheTrivial<Integer, byte[], byte[], RuntimeException> cache;
+    int                                                      index;
+    Integer[]                                                keys;
+
+    /**
+     * Construct the state.
+     */
+
+    public PeriodState()
+    {
+      // Nothing
+    }
+
+    /**
+     * Create the cache.
+     */
+
+    @Setup(Level.Trial) public void setup()
+    {
+      final PCacheConfig.BuilderType b = PCacheConfig.newBuilder();
+      b.setMaximumAge(BigInteger.valueOf(4));
+      b.setMaximumSize(BigInteger.valueOf(this.capacity));
+      this.cache =
+        PCacheTrivial.newCache(new BenchBytesLoader(this.value_size), b.create());
+      this.keys =
+        BenchKeys.newSequence(this.distribution, this.capacity * 2);
+      this.index = 0;
+    }
+
+    /**
+     * Release the cache.
+     */
+
+    @TearDown(Level.Trial) public void tearDown()
+    {
+      this.cache.cacheDelete();
+    }
+  }
+
+  /**
+   * Construct the benchmark.
+   */
+
+  public PCacheBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Run one complete period.
+   *
+   * @param s
+   *          The state
+   * @param bh
+   *          A blackhole consuming the retrieved objects
+   */
+
+  @Benchmark public void period(
+    final PeriodState s,
+    final Blackhole bh)
+  {
+    final Integer[] k = s.keys;
+    int i = s.index;
+
+    s.cache.cachePeriodStart();
+    for (int n = 0; n < s.period_length; ++n) {
+      bh.consume(s.cache.cacheGetPeriodic(k[i]));
+      i = (i + 1 == k.length) ? 0 : i + 1;
+    }
+    s.cache.cachePeriodEnd();
+    s.index = i;
+  }
+}
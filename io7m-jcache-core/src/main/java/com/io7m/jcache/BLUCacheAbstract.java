@@ -144,6 +144,11 @@ public abstract class BLUCacheAbstract<K, TVIEW, TCACHE extends TVIEW, E extends
     return this.cache.cacheItemCount();
   }
 
+  @Override public final long cacheItemCountLong()
+  {
+    return this.cache.cacheItemCountLong();
+  }
+
   @Override public final void cacheSetConfiguration(
     final BLUCacheConfig config)
   {
@@ -155,6 +160,27 @@ public abstract class BLUCacheAbstract<K, TVIEW, TCACHE extends TVIEW, E extends
     return this.cache.cacheSize();
   }
 
+  @Override public final long cacheSizeLong()
+  {
+    return this.cache.cacheSizeLong();
+  }
+
+  @Override public final JCacheStatistics cacheStatistics()
+  {
+    return this.cache.cacheStatistics();
+  }
+
+  @Override public final void cacheStatisticsReset()
+  {
+    this.cache.cacheStatisticsReset();
+  }
+
+  @Override public final void cacheStatisticsSetHistogramsEnabled(
+    final boolean enabled)
+  {
+    this.cache.cacheStatisticsSetHistogramsEnabled(enabled);
+  }
+
   @Override protected final void finalize()
     throws Throwable
   {
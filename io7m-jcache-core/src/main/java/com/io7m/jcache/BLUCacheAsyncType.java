@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jcache;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The type of borrowing caches that can lend values without blocking the
+ * calling thread.
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <TVIEW>
+ *          The type of cached values, as visible to users of the cache
+ * @param <TCACHE>
+ *          The type of cached values, as visible to cache implementations
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public interface BLUCacheAsyncType<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> extends
+  BLUCacheType<K, TVIEW, TCACHE, E>
+{
+  /**
+   * <p>
+   * Retrieve a value named <code>key</code>, as with
+   * {@link #bluCacheGet(Object)}, without blocking the calling thread.
+   * </p>
+   * <p>
+   * If a value is available, the returned future is already completed.
+   * Otherwise, if the borrowing limit for <code>key</code> has not been
+   * reached, a new value is loaded with
+   * {@link JCacheAsyncLoaderType#cacheValueLoadAsync(Object)} if the loader
+   * supports it, or with {@link JCacheLoaderType#cacheValueLoad(Object)} on
+   * another thread if it does not. Otherwise, the returned future completes
+   * when another caller returns a value of <code>key</code> to the cache;
+   * callers waiting for the same key are served in the order in which they
+   * started waiting.
+   * </p>
+   * <p>
+   * If loading fails, the returned future completes exceptionally with the
+   * exception of type <code>E</code> raised by the loader, or with a
+   * {@link JCacheException} if the value cannot be cached. If the returned
+   * future is cancelled, a value that would have completed it is returned to
+   * the cache.
+   * </p>
+   *
+   * @return A future that will complete with a receipt containing a cached
+   *         or loaded value associated with <code>key</code>
+   * @param key
+   *          The key identifying the value to be retrieved.
+   */
+
+  CompletableFuture<BLUCacheReceiptType<K, TVIEW>> bluCacheGetAsync(
+    final K key);
+}
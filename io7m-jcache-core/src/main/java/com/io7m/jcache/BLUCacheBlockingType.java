@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jcache;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * The type of borrowing caches that allow callers to wait for a value to be
+ * returned, instead of failing immediately, when the borrowing limits of
+ * the cache have been reached.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <TVIEW>
+ *          The type of cached values, as visible to users of the cache
+ * @param <TCACHE>
+ *          The type of cached values, as visible to cache implementations
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public interface BLUCacheBlockingType<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> extends
+  BLUCacheType<K, TVIEW, TCACHE, E>
+{
+  /**
+   * <p>
+   * Retrieve a value named <code>key</code>, as with
+   * {@link #bluCacheGet(Object)}. If the value cannot be borrowed because a
+   * borrowing limit of the cache has been reached, wait for at most
+   * <code>timeout</code> for another caller to return a value. Callers
+   * waiting for the same key are served in the order in which they started
+   * waiting.
+   * </p>
+   *
+   * @return A receipt containing a cached or loaded value associated with
+   *         <code>key</code>
+   * @param key
+   *          The key identifying the value to be retrieved.
+   * @param timeout
+   *          The maximum time to wait, <code>&gt;= 0</code>
+   * @param unit
+   *          The unit of <code>timeout</code>
+   * @throws E
+   *           Iff the value named <code>key</code> raises an exception of
+   *           type <code>E</code> upon loading.
+   * @throws JCacheException
+   *           Iff the value cannot be cached, or if no value could be
+   *           borrowed before <code>timeout</code> elapsed (in which case
+   *           the exception is a
+   *           {@link JCacheException.JCacheExceptionTooManyBorrows}).
+   */
+
+  BLUCacheReceiptType<K, TVIEW> bluCacheGetWaiting(
+    final K key,
+    final long timeout,
+    final TimeUnit unit)
+    throws E,
+      JCacheException;
+}
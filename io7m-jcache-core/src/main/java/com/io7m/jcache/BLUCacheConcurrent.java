@@ -0,0 +1,1882 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jcache;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jranges.RangeCheck;
+
+/**
+ * <p>
+ * A thread-safe borrowing LRU cache, suitable for use as a pool of objects
+ * shared between threads; the oldest non-<i>borrowed</i> objects are evicted
+ * from the cache first.
+ * </p>
+ * <p>
+ * Each key has its own lock, which is held only for the few constant-time
+ * operations needed to borrow or return an object: values are loaded, and
+ * events are delivered, without holding the lock of any key. A single
+ * eviction lock protects the order in which available objects will be
+ * evicted. The locks are {@link ReentrantLock} instances, so threads that
+ * wait for them (including virtual threads) are never pinned.
+ * </p>
+ * <p>
+ * If a key has reached the maximum number of borrows given by
+ * {@link BLUCacheConfig#getMaximumBorrowsPerKey()}, or the cache has reached
+ * the optional maximum number of borrowed objects given when the cache was
+ * created, {@link #bluCacheGet(Object)} fails immediately, as
+ * {@link BLUCacheTrivial} does.
+ * {@link #bluCacheGetWaiting(Object, long, TimeUnit)} instead waits until an
+ * object is returned, or a deadline passes. Callers waiting for the same key
+ * are served in the order in which they started waiting: a returned object
+ * is handed directly to the first waiting caller, and callers that arrive
+ * later cannot take it first. Callers waiting for the global limit are also
+ * served in order, and while any caller is waiting for it,
+ * {@link #bluCacheGet(Object)} fails rather than taking a freed place first.
+ * </p>
+ * <p>
+ * {@link #bluCacheGetAsync(Object)} never blocks the calling thread: a
+ * caller that would otherwise wait for a key joins the same queue of waiting
+ * callers, as a future that is completed by the thread that returns an
+ * object. Values are loaded on another thread, as for
+ * {@link LRUCacheConcurrent#cacheGetLUAsync(Object)}. The global limit is
+ * not waited for asynchronously: if it has been reached, or other callers
+ * are already waiting for it, the returned future fails immediately.
+ * </p>
+ * <p>
+ * Objects that are borrowed when the cache is deleted are closed
+ * immediately; returning their receipts afterwards has no effect. Objects
+ * that finish loading after the cache has been deleted are closed when they
+ * are returned. Leaked receipts are reclaimed, and expired leases are
+ * enforced, at the start of each borrow (expired leases are also enforced
+ * by callers blocked in
+ * {@link #bluCacheGetWaiting(Object, long, TimeUnit)}); see
+ * {@link BLUCacheConfig#withLeakSamplingInterval(long)} and
+ * {@link BLUCacheConfig#withMaximumLeaseTime(long, TimeUnit)}. An expired
+ * lease frees a borrow for the first caller waiting for the key, and the
+ * global permit of the expired borrow. Event listeners are called from
+ * whichever thread caused the
+ * event, and must therefore be thread-safe.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <TVIEW>
+ *          The type of cached values, as visible to users of the cache
+ * @param <TCACHE>
+ *          The type of cached values, as visible to cache implementations
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public final class BLUCacheConcurrent<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> implements
+  BLUCacheBlockingType<K, TVIEW, TCACHE, E>,
+  BLUCacheAsyncType<K, TVIEW, TCACHE, E>
+{
+  /**
+   * The lease of a borrowed object. Guarded by the eviction lock.
+   */
+
+  private final class Lease extends JCacheListNode<Lease>
+  {
+    private long          deadline;
+    private final Receipt receipt;
+
+    Lease(
+      final Receipt in_receipt)
+    {
+      this.receipt = in_receipt;
+      this.deadline = 0L;
+    }
+
+    long getDeadline()
+    {
+      return this.deadline;
+    }
+
+    Receipt getReceipt()
+    {
+      return this.receipt;
+    }
+
+    void setDeadline(
+      final long in_deadline)
+    {
+      this.deadline = in_deadline;
+    }
+  }
+
+  private final class Receipt extends JCacheListNode<Receipt> implements
+    BLUCacheReceiptType<K, TVIEW>
+  {
+    private boolean          deleted;
+    private boolean          expired;
+    private @Nullable Object flight;
+    private final K          key;
+    private final Lease      lease;
+    private final long       serial;
+    private final long       size;
+    private final Slot       slot;
+    private boolean          valid;
+    private final TCACHE     value;
+
+    Receipt(
+      final Slot in_slot,
+      final long in_serial,
+      final TCACHE in_value,
+      final long in_size)
+    {
+      this.slot = in_slot;
+      this.key = in_slot.getKey();
+      this.serial = in_serial;
+      this.value = in_value;
+      this.size = in_size;
+      this.valid = false;
+      this.deleted = false;
+      this.expired = false;
+      this.flight = null;
+      this.lease = new Lease(this);
+    }
+
+    @Override public void close()
+    {
+      this.returnToCache();
+    }
+
+    /**
+     * Forcibly end the borrow, because its lease has expired.
+     */
+
+    void expire()
+    {
+      this.valid = false;
+      this.expired = true;
+    }
+
+    @Nullable Object getFlight()
+    {
+      return this.flight;
+    }
+
+    @Override public K getKey()
+    {
+      return this.key;
+    }
+
+    long getSize()
+    {
+      return this.size;
+    }
+
+    Slot getSlot()
+    {
+      return this.slot;
+    }
+
+    @Override public TVIEW getValue()
+    {
+      return this.value;
+    }
+
+    TCACHE getValueCached()
+    {
+      return this.value;
+    }
+
+    Lease getLease()
+    {
+      return this.lease;
+    }
+
+    void invalidate()
+    {
+      this.valid = false;
+      BLUCacheConcurrent.this.cacheLeaseEnd(this);
+    }
+
+    boolean isDeleted()
+    {
+      return this.deleted;
+    }
+
+    boolean isExpired()
+    {
+      return this.expired;
+    }
+
+    boolean isValid()
+    {
+      return this.valid;
+    }
+
+    @Override public void returnToCache()
+    {
+      BLUCacheConcurrent.this.cacheReturnReceipt(this);
+    }
+
+    void setDeleted()
+    {
+      this.deleted = true;
+    }
+
+    @Override public String toString()
+    {
+      final StringBuilder builder = new StringBuilder();
+      builder.append("[Receipt ");
+      builder.append(this.key);
+      builder.append(" ");
+      builder.append(this.serial);
+      builder.append(" value=");
+      builder.append(this.value);
+      builder.append(" size=");
+      builder.append(this.size);
+      builder.append("]");
+      return builder.toString();
+    }
+
+    void validate()
+    {
+      this.valid = true;
+      this.flight = JCacheFlightRecorder.borrowStarted();
+      BLUCacheConcurrent.this.cacheLeaseStart(this);
+    }
+  }
+
+  /**
+   * The state of a single key. All fields are guarded by the lock of the
+   * key; the nodes of the available deque are additionally linked into the
+   * global list of available objects, which is guarded by the eviction lock.
+   */
+
+  private final class Slot
+  {
+    private final Deque<Receipt>    available;
+    private final JCacheList<Receipt> borrowed;
+    private final K                 key;
+    private final ReentrantLock     lock;
+    private long                    reserved;
+    private boolean                 retired;
+    private final Deque<Waiter>     waiters;
+
+    Slot(
+      final K in_key)
+    {
+      this.key = in_key;
+      this.lock = new ReentrantLock();
+      this.available = new ArrayDeque<Receipt>();
+      this.borrowed = new JCacheList<Receipt>();
+      this.waiters = new ArrayDeque<Waiter>();
+      this.reserved = 0L;
+      this.retired = false;
+    }
+
+    Deque<Receipt> getAvailable()
+    {
+      return this.available;
+    }
+
+    JCacheList<Receipt> getBorrowed()
+    {
+      return this.borrowed;
+    }
+
+    long getBorrowedCount()
+    {
+      return this.borrowed.size() + this.reserved;
+    }
+
+    K getKey()
+    {
+      return this.key;
+    }
+
+    ReentrantLock getLock()
+    {
+      return this.lock;
+    }
+
+    long getReserved()
+    {
+      return this.reserved;
+    }
+
+    Deque<Waiter> getWaiters()
+    {
+      return this.waiters;
+    }
+
+    boolean isEmpty()
+    {
+      return this.available.isEmpty()
+        && this.borrowed.isEmpty()
+        && (this.reserved == 0L)
+        && this.waiters.isEmpty();
+    }
+
+    boolean isRetired()
+    {
+      return this.retired;
+    }
+
+    void setReserved(
+      final long in_reserved)
+    {
+      this.reserved = in_reserved;
+    }
+
+    void setRetired()
+    {
+      this.retired = true;
+    }
+  }
+
+  /**
+   * A caller waiting for an object of a key: either a blocked thread, or a
+   * future. Guarded by the lock of the key, except for {@link #wake()}.
+   */
+
+  private final class Waiter
+  {
+    private final @Nullable Condition                                         condition;
+    private final @Nullable CompletableFuture<BLUCacheReceiptType<K, TVIEW>> future;
+    private boolean                                                           granted;
+    private @Nullable Receipt                                                 receipt;
+    private boolean                                                           retry;
+    private final Slot                                                        slot;
+
+    Waiter(
+      final Slot in_slot,
+      final @Nullable Condition in_condition,
+      final @Nullable CompletableFuture<BLUCacheReceiptType<K, TVIEW>> in_future)
+    {
+      assert (in_condition == null) != (in_future == null);
+      this.slot = in_slot;
+      this.condition = in_condition;
+      this.future = in_future;
+      this.granted = false;
+      this.receipt = null;
+      this.retry = false;
+    }
+
+    /**
+     * Wait for at most <code>nanos</code> nanoseconds to be granted
+     * something.
+     */
+
+    void await(
+      final long nanos)
+      throws InterruptedException
+    {
+      final Condition c = this.condition;
+      assert c != null;
+      c.awaitNanos(nanos);
+    }
+
+    @Nullable Receipt getReceipt()
+    {
+      return this.receipt;
+    }
+
+    /**
+     * Hand the returned object <code>r</code> directly to the waiter.
+     */
+
+    void grantReceipt(
+      final Receipt r)
+    {
+      this.receipt = r;
+      this.granted = true;
+      this.signal();
+    }
+
+    /**
+     * Allow the waiter to load a new object; the caller has already
+     * reserved a borrow for it.
+     */
+
+    void grantReservation()
+    {
+      this.granted = true;
+      this.signal();
+    }
+
+    /**
+     * Tell the waiter to start again, because the key has been deleted or
+     * the configuration has changed.
+     */
+
+    void grantRetry()
+    {
+      this.retry = true;
+      this.granted = true;
+      this.signal();
+    }
+
+    /**
+     * @return <code>true</code> iff the waiter is a future that has already
+     *         been completed (typically by being cancelled)
+     */
+
+    boolean isAbandoned()
+    {
+      final CompletableFuture<BLUCacheReceiptType<K, TVIEW>> f = this.future;
+      return (f != null) && f.isDone();
+    }
+
+    boolean isGranted()
+    {
+      return this.granted;
+    }
+
+    boolean isRetry()
+    {
+      return this.retry;
+    }
+
+    private void signal()
+    {
+      final Condition c = this.condition;
+      if (c != null) {
+        c.signal();
+      }
+    }
+
+    /**
+     * Act upon whatever the waiter was granted. Must be called without
+     * holding any locks, after the waiter has been granted something.
+     */
+
+    void wake()
+    {
+      assert this.granted;
+
+      final CompletableFuture<BLUCacheReceiptType<K, TVIEW>> f = this.future;
+      if (f != null) {
+        final BLUCacheConcurrent<K, TVIEW, TCACHE, E> c =
+          BLUCacheConcurrent.this;
+        final Receipt r = this.receipt;
+        if (this.retry) {
+          c.cacheBorrowAsync(this.slot.getKey(), f);
+        } else if (r != null) {
+          c.statistics.hit();
+          c.cacheDeliver(r, f);
+        } else {
+          c.statistics.miss();
+          c.cacheLoadAsync(this.slot, f);
+        }
+      }
+    }
+  }
+
+  /**
+   * Construct a new cache with no limit on the total number of borrowed
+   * objects.
+   *
+   * @param loader
+   *          The class that will load instances when given keys
+   * @param config
+   *          The cache configuration
+   * @return A new cache instance
+   *
+   * @param <K>
+   *          The type of keys
+   * @param <TVIEW>
+   *          The type of cached values, as visible to users of the cache
+   * @param <TCACHE>
+   *          The type of cached values, as visible to cache implementations
+   * @param <E>
+   *          The type of exceptions raised by the loader
+   */
+
+  public static
+    <K, TVIEW, TCACHE extends TVIEW, E extends Throwable>
+    BLUCacheConcurrent<K, TVIEW, TCACHE, E>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, E> loader,
+      final BLUCacheConfig config)
+  {
+    return new BLUCacheConcurrent<K, TVIEW, TCACHE, E>(loader, config, 0);
+  }
+
+  /**
+   * Construct a new cache.
+   *
+   * @param loader
+   *          The class that will load instances when given keys
+   * @param config
+   *          The cache configuration
+   * @param maximum_borrows
+   *          The maximum number of objects that may be borrowed at any one
+   *          time, across all keys, or <code>0</code> for no limit
+   * @return A new cache instance
+   *
+   * @param <K>
+   *          The type of keys
+   * @param <TVIEW>
+   *          The type of cached values, as visible to users of the cache
+   * @param <TCACHE>
+   *          The type of cached values, as visible to cache implementations
+   * @param <E>
+   *          The type of exceptions raised by the loader
+   */
+
+  public static
+    <K, TVIEW, TCACHE extends TVIEW, E extends Throwable>
+    BLUCacheConcurrent<K, TVIEW, TCACHE, E>
+    newCacheWithBorrowLimit(
+      final JCacheLoaderType<K, TCACHE, E> loader,
+      final BLUCacheConfig config,
+      final int maximum_borrows)
+  {
+    return new BLUCacheConcurrent<K, TVIEW, TCACHE, E>(
+      loader,
+      config,
+      maximum_borrows);
+  }
+
+  private final JCacheList<Receipt>                           available;
+  private volatile BLUCacheConfig                             config;
+  private volatile @Nullable JCacheEventsType<K, TCACHE>      events;
+  private final JCacheEvictionBatch<K, TCACHE>                evicting;
+  private final ReentrantLock                                 eviction_lock;
+  private final AtomicLong                                    items;
+  private final BLUCacheLeakTracker<K, TVIEW, Receipt>        leaks;
+  private final AtomicLong                                    leased;
+  private final JCacheList<Lease>                             leases;
+  private final JCacheLoaderType<K, TCACHE, E>                loader;
+  private final @Nullable JCacheAsyncLoaderType<K, TCACHE, E> loader_async;
+  private final @Nullable JCacheLoaderLongType<K, TCACHE, E>  loader_long;
+  private final @Nullable Semaphore                           permits;
+  private final AtomicLong                                    serials;
+  private final ConcurrentMap<K, Slot>                        slots;
+  private final JCacheStatisticsCounters                      statistics;
+  private final AtomicLong                                    used;
+
+  private BLUCacheConcurrent(
+    final JCacheLoaderType<K, TCACHE, E> in_loader,
+    final BLUCacheConfig in_config,
+    final int in_maximum_borrows)
+  {
+    this.loader = NullCheck.notNull(in_loader, "Loader");
+    this.loader_async = JCacheAsyncLoading.supportsAsync(in_loader);
+    this.loader_long = JCacheAccounting.supportsLong(in_loader);
+    this.config = NullCheck.notNull(in_config, "Configuration");
+
+    RangeCheck.checkGreaterEqual(
+      in_maximum_borrows,
+      "Maximum borrows",
+      0L,
+      "Minimum borrows");
+    if (in_maximum_borrows > 0) {
+      this.permits = new Semaphore(in_maximum_borrows, true);
+    } else {
+      this.permits = null;
+    }
+
+    this.events = null;
+    this.slots = new ConcurrentHashMap<K, Slot>();
+    this.available = new JCacheList<Receipt>();
+    this.eviction_lock = new ReentrantLock();
+    this.evicting = new JCacheEvictionBatch<K, TCACHE>();
+    this.items = new AtomicLong();
+    this.leaks = new BLUCacheLeakTracker<K, TVIEW, Receipt>();
+    this.leased = new AtomicLong();
+    this.leases = new JCacheList<Lease>();
+    this.serials = new AtomicLong();
+    this.used = new AtomicLong();
+    this.statistics = new JCacheStatisticsCounters();
+  }
+
+  @Override public BLUCacheReceiptType<K, TVIEW> bluCacheGet(
+    final K key)
+    throws E,
+      JCacheException
+  {
+    return this.leaks.track(
+      this.cacheBorrow(key, false, 0L),
+      this.config.getLeakSamplingInterval());
+  }
+
+  @Override public CompletableFuture<BLUCacheReceiptType<K, TVIEW>> bluCacheGetAsync(
+    final K key)
+  {
+    NullCheck.notNull(key, "Key");
+    this.cacheReclaim();
+
+    final CompletableFuture<BLUCacheReceiptType<K, TVIEW>> future =
+      new CompletableFuture<BLUCacheReceiptType<K, TVIEW>>();
+    try {
+      this.cacheAcquirePermit(key, false, 0L);
+    } catch (final JCacheException x) {
+      future.completeExceptionally(x);
+      return future;
+    }
+
+    this.cacheBorrowAsync(key, future);
+    return future;
+  }
+
+  @Override public BLUCacheReceiptType<K, TVIEW> bluCacheGetWaiting(
+    final K key,
+    final long timeout,
+    final TimeUnit unit)
+    throws E,
+      JCacheException
+  {
+    final long nanos =
+      NullCheck.notNull(unit, "Unit").toNanos(
+        RangeCheck.checkGreaterEqual(timeout, "Timeout", 0L, "Minimum timeout"));
+    return this.leaks.track(
+      this.cacheBorrow(key, true, nanos),
+      this.config.getLeakSamplingInterval());
+  }
+
+  private void cacheAcquirePermit(
+    final K key,
+    final boolean wait,
+    final long timeout_nanos)
+    throws JCacheException
+  {
+    final Semaphore p = this.permits;
+    if (p != null) {
+      if (wait) {
+        final long deadline = System.nanoTime() + timeout_nanos;
+        boolean acquired = false;
+        boolean interrupted = false;
+        try {
+
+          /**
+           * Permits held by borrows that outlive their lease are only
+           * released when the lease is found to have expired, so wait no
+           * longer than the oldest lease before checking again.
+           */
+
+          for (;;) {
+            final long now = System.nanoTime();
+            final long remaining = deadline - now;
+            final long lease_remaining = this.cacheLeaseRemaining(now);
+            if (lease_remaining <= 0L) {
+              this.cacheReclaim();
+            }
+            if (remaining <= 0L) {
+              acquired = BLUCacheConcurrent.tryAcquireInOrder(p);
+              break;
+            }
+            if (lease_remaining >= remaining) {
+              acquired = p.tryAcquire(remaining, TimeUnit.NANOSECONDS);
+              break;
+            }
+            if (p.tryAcquire(
+              Math.max(lease_remaining, 0L),
+              TimeUnit.NANOSECONDS)) {
+              acquired = true;
+              break;
+            }
+          }
+        } catch (final InterruptedException x) {
+          interrupted = true;
+          Thread.currentThread().interrupt();
+        }
+        if (acquired == false) {
+          throw JCacheException.tooManyBorrowsWaited(
+            key,
+            timeout_nanos,
+            interrupted);
+        }
+      } else {
+        if (BLUCacheConcurrent.tryAcquireInOrder(p) == false) {
+          throw JCacheException.tooManyBorrows(key);
+        }
+      }
+    }
+  }
+
+  /**
+   * Take a permit from <code>p</code> without waiting, but only if no other
+   * thread is already queued for one. {@link Semaphore#tryAcquire()} would
+   * ignore the fairness of the semaphore and take a released permit ahead of
+   * the queued threads. The interrupted status of the current thread is
+   * preserved, and does not cause the attempt to fail.
+   */
+
+  private static boolean tryAcquireInOrder(
+    final Semaphore p)
+  {
+    final boolean interrupted = Thread.interrupted();
+    try {
+      return p.tryAcquire(0L, TimeUnit.NANOSECONDS);
+    } catch (final InterruptedException x) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private Receipt cacheBorrow(
+    final K key,
+    final boolean wait,
+    final long timeout_nanos)
+    throws E,
+      JCacheException
+  {
+    final long start = this.statistics.requestStarted();
+    try {
+      NullCheck.notNull(key, "Key");
+      this.cacheReclaim();
+
+      final long deadline = System.nanoTime() + timeout_nanos;
+      this.cacheAcquirePermit(key, wait, timeout_nanos);
+
+      boolean failed = true;
+      try {
+        final Receipt r =
+          this.cacheBorrowFromSlot(key, wait, timeout_nanos, deadline);
+        failed = false;
+        this.eventObjectRetrieved(r);
+        return r;
+      } finally {
+        if (failed) {
+          this.cacheReleasePermit();
+        }
+      }
+    } finally {
+      this.statistics.requestFinished(start);
+    }
+  }
+
+  /**
+   * Borrow an object for <code>future</code>, for which the caller has
+   * already acquired a permit.
+   */
+
+  private void cacheBorrowAsync(
+    final K key,
+    final CompletableFuture<BLUCacheReceiptType<K, TVIEW>> future)
+  {
+    if (future.isDone()) {
+      this.cacheReleasePermit();
+      return;
+    }
+
+    for (;;) {
+      final Slot slot = this.cacheSlotFor(key);
+      final ReentrantLock lock = slot.getLock();
+
+      final Receipt r;
+      lock.lock();
+      try {
+        if (slot.isRetired()) {
+          continue;
+        }
+
+        final Deque<Waiter> ws = slot.getWaiters();
+        if (ws.isEmpty() && (slot.getAvailable().isEmpty() == false)) {
+          r = this.cacheBorrowAvailable(slot);
+        } else if (ws.isEmpty() && this.cacheMayLoad(slot)) {
+          slot.setReserved(slot.getReserved() + 1L);
+          r = null;
+        } else {
+          ws.addLast(new Waiter(slot, null, future));
+          return;
+        }
+      } finally {
+        lock.unlock();
+      }
+
+      if (r != null) {
+        this.statistics.hit();
+        this.cacheDeliver(r, future);
+      } else {
+        this.statistics.miss();
+        this.cacheLoadAsync(slot, future);
+      }
+      return;
+    }
+  }
+
+  /**
+   * Borrow the most recently returned available object of the key. Must be
+   * called with the lock of the key held.
+   */
+
+  private Receipt cacheBorrowAvailable(
+    final Slot slot)
+  {
+    final Receipt r = slot.getAvailable().removeLast();
+    this.eviction_lock.lock();
+    try {
+      this.available.remove(r);
+    } finally {
+      this.eviction_lock.unlock();
+    }
+    slot.getBorrowed().addLast(r);
+    r.validate();
+    return r;
+  }
+
+  private Receipt cacheBorrowFromSlot(
+    final K key,
+    final boolean wait,
+    final long timeout_nanos,
+    final long deadline)
+    throws E,
+      JCacheException
+  {
+    for (;;) {
+      final Slot slot = this.cacheSlotFor(key);
+      final ReentrantLock lock = slot.getLock();
+
+      final Waiter w;
+      lock.lock();
+      try {
+        if (slot.isRetired()) {
+          continue;
+        }
+
+        if (slot.getWaiters().isEmpty()) {
+          if (slot.getAvailable().isEmpty() == false) {
+            this.statistics.hit();
+            return this.cacheBorrowAvailable(slot);
+          }
+
+          if (this.cacheMayLoad(slot)) {
+            slot.setReserved(slot.getReserved() + 1L);
+            w = null;
+          } else {
+            w = this.cacheWaitFor(slot, wait, timeout_nanos, deadline);
+          }
+        } else {
+          w = this.cacheWaitFor(slot, wait, timeout_nanos, deadline);
+        }
+      } finally {
+        lock.unlock();
+      }
+
+      if (w != null) {
+        if (w.isRetry()) {
+          continue;
+        }
+        final Receipt r = w.getReceipt();
+        if (r != null) {
+          this.statistics.hit();
+          return r;
+        }
+      }
+
+      this.statistics.miss();
+      return this.cacheLoad(slot);
+    }
+  }
+
+  private void cacheCheckOverflow()
+    throws JCacheException
+  {
+    if (this.items.get() >= Integer.MAX_VALUE) {
+      throw JCacheException.errorInternalCacheOverflow(Integer.MAX_VALUE);
+    }
+  }
+
+  @Override public void cacheDelete()
+  {
+    final List<Waiter> woken = new ArrayList<Waiter>();
+    for (final Slot slot : this.slots.values()) {
+      final ReentrantLock lock = slot.getLock();
+      lock.lock();
+      try {
+        if (slot.isRetired() == false) {
+          slot.setRetired();
+          this.slots.remove(slot.getKey(), slot);
+          this.cacheDeleteSlot(slot, woken);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    this.cacheFlush();
+    this.cacheWakeAll(woken);
+  }
+
+  /**
+   * Deliver a borrowed object to <code>future</code>, returning it to the
+   * cache if the future has already been completed.
+   */
+
+  private void cacheDeliver(
+    final Receipt r,
+    final CompletableFuture<BLUCacheReceiptType<K, TVIEW>> future)
+  {
+    this.eventObjectRetrieved(r);
+
+    final BLUCacheReceiptType<K, TVIEW> t =
+      this.leaks.track(r, this.config.getLeakSamplingInterval());
+    if (future.complete(t) == false) {
+      t.returnToCache();
+    }
+  }
+
+  /**
+   * Close every object of a retired key, and tell every caller waiting for
+   * it to retry. Must be called with the lock of the key held; the waiters
+   * are added to <code>woken</code>, to be woken once the lock is released.
+   */
+
+  private void cacheDeleteSlot(
+    final Slot slot,
+    final List<Waiter> woken)
+  {
+    this.eviction_lock.lock();
+    try {
+      final Deque<Receipt> a = slot.getAvailable();
+      while (a.isEmpty() == false) {
+        final Receipt r = a.removeFirst();
+        this.available.remove(r);
+        this.cacheDiscard(r);
+      }
+
+      final JCacheList<Receipt> b = slot.getBorrowed();
+      while (b.isEmpty() == false) {
+        final Receipt r = b.first();
+        assert r != null;
+        b.remove(r);
+        r.setDeleted();
+        this.cacheDiscard(r);
+      }
+    } finally {
+      this.eviction_lock.unlock();
+    }
+
+    this.cacheRetryWaiters(slot, woken);
+  }
+
+  /**
+   * Remove an object from the accounting of the cache, and queue it to be
+   * closed. Must be called with the eviction lock held.
+   */
+
+  private void cacheDiscard(
+    final Receipt r)
+  {
+    this.cacheLeaseEnd(r);
+    this.used.addAndGet(-r.getSize());
+    this.items.decrementAndGet();
+    this.evicting.add(r.getKey(), r.getValueCached(), r.getSize());
+  }
+
+  /**
+   * Forcibly end the borrow of <code>r</code>, if its lease has expired at
+   * time <code>now</code>, and remove its object from the cache.
+   */
+
+  private void cacheExpire(
+    final Receipt r,
+    final long now)
+  {
+    final Slot slot = r.getSlot();
+    final ReentrantLock lock = slot.getLock();
+    boolean expired = false;
+    Waiter w = null;
+
+    lock.lock();
+    try {
+      this.eviction_lock.lock();
+      try {
+        final Lease l = r.getLease();
+        if (this.leases.contains(l) && ((l.getDeadline() - now) <= 0L)) {
+          slot.getBorrowed().remove(r);
+          r.expire();
+          this.cacheDiscard(r);
+          expired = true;
+        }
+      } finally {
+        this.eviction_lock.unlock();
+      }
+
+      if (expired) {
+        w = this.cachePollWaiter(slot);
+        if (w != null) {
+          slot.setReserved(slot.getReserved() + 1L);
+          w.grantReservation();
+        } else {
+          this.cacheRetireIfEmpty(slot);
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    if (expired) {
+      JCacheFlightRecorder.borrowFinished(
+        r.getFlight(),
+        r.getKey(),
+        r.getSize());
+      this.eventReceiptExpired(r);
+      this.cacheReleasePermit();
+    }
+    if (w != null) {
+      w.wake();
+    }
+  }
+
+  /**
+   * Expire every borrow whose lease has ended.
+   */
+
+  private void cacheExpireLeases()
+  {
+    final long now = System.nanoTime();
+    for (;;) {
+      final Receipt r;
+      this.eviction_lock.lock();
+      try {
+        final Lease l = this.leases.first();
+        if ((l == null) || ((l.getDeadline() - now) > 0L)) {
+          break;
+        }
+        r = l.getReceipt();
+      } finally {
+        this.eviction_lock.unlock();
+      }
+      this.cacheExpire(r, now);
+    }
+    this.cacheFlush();
+  }
+
+  @Override public void cacheEventsSubscribe(
+    final JCacheEventsType<K, TCACHE> e)
+  {
+    this.events = NullCheck.notNull(e, "Events");
+  }
+
+  @Override public void cacheEventsUnsubscribe()
+  {
+    this.events = null;
+  }
+
+  /**
+   * Evict the oldest available object, if it is still the oldest available
+   * object.
+   *
+   * @return <code>false</code> iff there were no available objects, or the
+   *         cache is already small enough
+   */
+
+  private boolean cacheEvictOldest(
+    final long added_size,
+    final long maximum)
+  {
+    final Receipt oldest;
+    this.eviction_lock.lock();
+    try {
+      if (this.used.get() <= (maximum - added_size)) {
+        return false;
+      }
+      oldest = this.available.first();
+      if (oldest == null) {
+        return false;
+      }
+    } finally {
+      this.eviction_lock.unlock();
+    }
+
+    /**
+     * The lock of the key must be taken before the eviction lock. The object
+     * may have been borrowed in between, and possibly returned again after
+     * other objects of the same key, in which case it is no longer the first
+     * available object of its key. Checking that it is still the oldest
+     * available object of the whole cache also proves that it is the first
+     * of its key, because each key's available objects are kept in the same
+     * order as in the cache's list. Otherwise, the caller simply tries
+     * again.
+     */
+
+    final Slot slot = oldest.getSlot();
+    final ReentrantLock lock = slot.getLock();
+    lock.lock();
+    try {
+      this.eviction_lock.lock();
+      try {
+        if ((this.available.first() == oldest)
+          && (slot.getAvailable().peekFirst() == oldest)) {
+          final Receipt removed = slot.getAvailable().removeFirst();
+          assert removed == oldest;
+          this.available.remove(oldest);
+          this.statistics.evicted(oldest.getSize());
+          this.cacheDiscard(oldest);
+        }
+      } finally {
+        this.eviction_lock.unlock();
+      }
+      this.cacheRetireIfEmpty(slot);
+    } finally {
+      lock.unlock();
+    }
+    return true;
+  }
+
+  private void cacheEvictOldestItems(
+    final long added_size,
+    final long maximum)
+  {
+    assert added_size <= maximum;
+
+    while (this.cacheEvictOldest(added_size, maximum)) {
+      // Nothing
+    }
+    this.cacheFlush();
+  }
+
+  private void cacheFlush()
+  {
+    this.eviction_lock.lock();
+    try {
+      this.evicting.flush(this.loader, this.statistics, this.events);
+    } finally {
+      this.eviction_lock.unlock();
+    }
+  }
+
+  @Override public BLUCacheConfig cacheGetConfiguration()
+  {
+    return this.config;
+  }
+
+  @Override public boolean cacheIsAvailable(
+    final K key)
+  {
+    NullCheck.notNull(key, "Key");
+    final Slot slot = this.slots.get(key);
+    if (slot != null) {
+      slot.getLock().lock();
+      try {
+        return slot.getAvailable().isEmpty() == false;
+      } finally {
+        slot.getLock().unlock();
+      }
+    }
+    return false;
+  }
+
+  @Override public boolean cacheIsBorrowed(
+    final K key)
+  {
+    NullCheck.notNull(key, "Key");
+    final Slot slot = this.slots.get(key);
+    if (slot != null) {
+      slot.getLock().lock();
+      try {
+        return slot.getBorrowed().isEmpty() == false;
+      } finally {
+        slot.getLock().unlock();
+      }
+    }
+    return false;
+  }
+
+  @Override public boolean cacheIsCached(
+    final K key)
+  {
+    NullCheck.notNull(key, "Key");
+    final Slot slot = this.slots.get(key);
+    if (slot != null) {
+      slot.getLock().lock();
+      try {
+        return (slot.getAvailable().isEmpty() == false)
+          || (slot.getBorrowed().isEmpty() == false);
+      } finally {
+        slot.getLock().unlock();
+      }
+    }
+    return false;
+  }
+
+  @Override public BigInteger cacheItemCount()
+  {
+    return BigInteger.valueOf(this.items.get());
+  }
+
+  @Override public long cacheItemCountLong()
+  {
+    return this.items.get();
+  }
+
+  /**
+   * Load a new object for a key, for which the caller has reserved a
+   * borrow.
+   */
+
+  private Receipt cacheLoad(
+    final Slot slot)
+    throws E,
+      JCacheException
+  {
+    final TCACHE new_value;
+    boolean failed = true;
+    try {
+      this.cacheCheckOverflow();
+      new_value = this.statistics.load(this.loader, slot.getKey());
+      failed = false;
+    } finally {
+      if (failed) {
+        this.cacheReleaseReservation(slot);
+      }
+    }
+    return this.cacheLoaded(slot, new_value);
+  }
+
+  /**
+   * Load a new object for a key, for which the caller has reserved a borrow
+   * and acquired a permit, and deliver it to <code>future</code>.
+   */
+
+  private void cacheLoadAsync(
+    final Slot slot,
+    final CompletableFuture<BLUCacheReceiptType<K, TVIEW>> future)
+  {
+    final long start = System.nanoTime();
+    final CompletableFuture<TCACHE> f;
+    try {
+      this.cacheCheckOverflow();
+      f =
+        JCacheAsyncLoading.load(this.loader, this.loader_async, slot.getKey());
+    } catch (final Throwable x) {
+      this.statistics.loadFinished(start, 0L, 1L);
+      this.cacheReleaseReservation(slot);
+      this.cacheReleasePermit();
+      future.completeExceptionally(x);
+      return;
+    }
+
+    f.whenComplete(new BiConsumer<TCACHE, Throwable>() {
+      @Override public void accept(
+        final @Nullable TCACHE value,
+        final @Nullable Throwable error)
+      {
+        final BLUCacheConcurrent<K, TVIEW, TCACHE, E> c =
+          BLUCacheConcurrent.this;
+
+        final boolean loaded = (error == null) && (value != null);
+        c.statistics.loadFinished(start, loaded ? 1L : 0L, loaded ? 0L : 1L);
+
+        if (error != null) {
+          c.cacheReleaseReservation(slot);
+          c.cacheReleasePermit();
+          future.completeExceptionally(JCacheAsyncLoading.unwrap(error));
+          return;
+        }
+
+        final Receipt r;
+        try {
+          r = c.cacheLoaded(slot, value);
+        } catch (final Throwable x) {
+          c.cacheReleasePermit();
+          future.completeExceptionally(x);
+          return;
+        }
+        c.cacheDeliver(r, future);
+      }
+    });
+  }
+
+  /**
+   * Cache a newly loaded object, and borrow it. The reservation made for the
+   * object is given up if the object cannot be cached.
+   */
+
+  private Receipt cacheLoaded(
+    final Slot slot,
+    final @Nullable TCACHE new_value)
+    throws E,
+      JCacheException
+  {
+    final K key = slot.getKey();
+    boolean failed = true;
+
+    try {
+      if (new_value == null) {
+        throw JCacheException.errorLoaderReturnedNull(key);
+      }
+
+      final long size =
+        JCacheAccounting.sizeOf(this.loader, this.loader_long, new_value);
+      this.eventObjectLoaded(key, new_value, size);
+
+      if (size < 1L) {
+        throw JCacheException.errorObjectTooSmall(key, size);
+      }
+
+      final long maximum = this.config.getMaximumCapacityLong();
+      if (size > maximum) {
+        throw JCacheException.errorObjectTooLarge(key, size, maximum);
+      }
+
+      this.cacheEvictOldestItems(size, maximum);
+      JCacheAccounting.checkAdd(this.used.get(), size);
+
+      final Receipt r =
+        new Receipt(slot, this.serials.incrementAndGet(), new_value, size);
+      this.used.addAndGet(size);
+      this.items.incrementAndGet();
+
+      slot.getLock().lock();
+      try {
+        slot.setReserved(slot.getReserved() - 1L);
+        slot.getBorrowed().addLast(r);
+        r.validate();
+      } finally {
+        slot.getLock().unlock();
+      }
+
+      failed = false;
+      return r;
+    } finally {
+      if (failed) {
+        if (new_value != null) {
+          this.statistics.close(this.loader, new_value);
+        }
+        this.cacheReleaseReservation(slot);
+      }
+    }
+  }
+
+  /**
+   * End the lease of <code>r</code>, if it has one.
+   */
+
+  private void cacheLeaseEnd(
+    final Receipt r)
+  {
+    if (this.leased.get() > 0L) {
+      this.eviction_lock.lock();
+      try {
+        final Lease l = r.getLease();
+        if (this.leases.contains(l)) {
+          this.leases.remove(l);
+          this.leased.decrementAndGet();
+        }
+      } finally {
+        this.eviction_lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * @return The time remaining at <code>now</code> until the oldest lease
+   *         expires, or {@link Long#MAX_VALUE} if there are no leases
+   */
+
+  private long cacheLeaseRemaining(
+    final long now)
+  {
+    if (this.leased.get() > 0L) {
+      this.eviction_lock.lock();
+      try {
+        final Lease l = this.leases.first();
+        if (l != null) {
+          return l.getDeadline() - now;
+        }
+      } finally {
+        this.eviction_lock.unlock();
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Start the lease of <code>r</code>, if leases are enabled. Leases are
+   * kept in the order of their deadlines. The search starts from the lease
+   * that ends last, because new leases end after all others unless the
+   * maximum lease time has been reduced.
+   */
+
+  private void cacheLeaseStart(
+    final Receipt r)
+  {
+    final long nanos = this.config.getMaximumLeaseTimeNanos();
+    if (nanos > 0L) {
+      this.eviction_lock.lock();
+      try {
+        final Lease l = r.getLease();
+        assert this.leases.contains(l) == false;
+        final long deadline = System.nanoTime() + nanos;
+        l.setDeadline(deadline);
+
+        Lease p = this.leases.last();
+        while ((p != null) && ((p.getDeadline() - deadline) > 0L)) {
+          p = p.getPrevious();
+        }
+        if (p == null) {
+          this.leases.addFirst(l);
+        } else {
+          this.leases.addAfter(p, l);
+        }
+        this.leased.incrementAndGet();
+      } finally {
+        this.eviction_lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * @return <code>true</code> iff another object may be borrowed for the
+   *         key. Must be called with the lock of the key held.
+   */
+
+  private boolean cacheMayLoad(
+    final Slot slot)
+  {
+    final long maximum = this.config.getMaximumBorrowsPerKeyLong();
+    return (maximum == 0L) || (slot.getBorrowedCount() < maximum);
+  }
+
+  /**
+   * Remove and return the first waiter of the key that is still waiting,
+   * if any, releasing the permits held by abandoned waiters. Must be called
+   * with the lock of the key held.
+   */
+
+  private @Nullable Waiter cachePollWaiter(
+    final Slot slot)
+  {
+    final Deque<Waiter> ws = slot.getWaiters();
+    while (ws.isEmpty() == false) {
+      final Waiter w = ws.removeFirst();
+      if (w.isAbandoned() == false) {
+        return w;
+      }
+      this.cacheReleasePermit();
+    }
+    return null;
+  }
+
+  /**
+   * Reclaim leaked receipts, and expired leases.
+   */
+
+  private void cacheReclaim()
+  {
+    for (;;) {
+      final Receipt r = this.leaks.poll();
+      if (r == null) {
+        break;
+      }
+
+      /**
+       * A leaked receipt may refer to an object that has since been deleted,
+       * or whose lease has expired.
+       */
+
+      final ReentrantLock lock = r.getSlot().getLock();
+      final boolean leaked;
+      lock.lock();
+      try {
+        leaked = r.isValid() && (r.isDeleted() == false);
+      } finally {
+        lock.unlock();
+      }
+
+      if (leaked) {
+        this.eventReceiptLeaked(r);
+        this.cacheReturnReceipt(r);
+      }
+    }
+
+    if (this.leased.get() > 0L) {
+      this.cacheExpireLeases();
+    }
+  }
+
+  private void cacheReleasePermit()
+  {
+    final Semaphore p = this.permits;
+    if (p != null) {
+      p.release();
+    }
+  }
+
+  /**
+   * Give up a reserved borrow after a failed load, passing it on to the
+   * first waiting caller, if any.
+   */
+
+  private void cacheReleaseReservation(
+    final Slot slot)
+  {
+    final ReentrantLock lock = slot.getLock();
+    final Waiter w;
+    lock.lock();
+    try {
+      if (slot.isRetired()) {
+        w = null;
+      } else {
+        w = this.cachePollWaiter(slot);
+      }
+
+      if (w == null) {
+        slot.setReserved(slot.getReserved() - 1L);
+        this.cacheRetireIfEmpty(slot);
+      } else {
+        w.grantReservation();
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    if (w != null) {
+      w.wake();
+    }
+  }
+
+  /**
+   * Tell every caller waiting for the key to retry. Must be called with the
+   * lock of the key held; the waiters are added to <code>woken</code>, to be
+   * woken once the lock is released.
+   */
+
+  private void cacheRetryWaiters(
+    final Slot slot,
+    final List<Waiter> woken)
+  {
+    final Deque<Waiter> ws = slot.getWaiters();
+    while (ws.isEmpty() == false) {
+      final Waiter w = ws.removeFirst();
+      w.grantRetry();
+      woken.add(w);
+    }
+  }
+
+  /**
+   * Retire a key that has no objects, borrows, or waiting callers. Must be
+   * called with the lock of the key held.
+   */
+
+  private void cacheRetireIfEmpty(
+    final Slot slot)
+  {
+    if ((slot.isRetired() == false) && slot.isEmpty()) {
+      slot.setRetired();
+      this.slots.remove(slot.getKey(), slot);
+    }
+  }
+
+  void cacheReturnReceipt(
+    final Receipt r)
+  {
+    NullCheck.notNull(r, "Receipt");
+
+    final Slot slot = r.getSlot();
+    final ReentrantLock lock = slot.getLock();
+    final Object flight;
+    final Waiter w;
+    lock.lock();
+    try {
+      if (r.isExpired()) {
+        return;
+      }
+
+      if (r.isValid() == false) {
+        throw new IllegalStateException(String.format(
+          "Receipt %s is not valid",
+          r));
+      }
+
+      r.invalidate();
+      flight = r.getFlight();
+      w = this.cacheReturnReceiptLocked(slot, r);
+    } finally {
+      lock.unlock();
+    }
+
+    JCacheFlightRecorder.borrowFinished(flight, r.getKey(), r.getSize());
+    if (w != null) {
+      w.wake();
+    }
+    this.cacheReleasePermit();
+    this.cacheEvictOldestItems(0L, this.config.getMaximumCapacityLong());
+  }
+
+  /**
+   * Return an object to the cache, or hand it to the first waiting caller.
+   * Must be called with the lock of the key held.
+   *
+   * @return The waiting caller that received the object, if any
+   */
+
+  private @Nullable Waiter cacheReturnReceiptLocked(
+    final Slot slot,
+    final Receipt r)
+  {
+    if (r.isDeleted()) {
+      return null;
+    }
+
+    if (slot.isRetired()) {
+      slot.getBorrowed().remove(r);
+      this.eviction_lock.lock();
+      try {
+        this.cacheDiscard(r);
+      } finally {
+        this.eviction_lock.unlock();
+      }
+      return null;
+    }
+
+    final Waiter w = this.cachePollWaiter(slot);
+    if (w != null) {
+      r.validate();
+      w.grantReceipt(r);
+    } else {
+      slot.getBorrowed().remove(r);
+      slot.getAvailable().addLast(r);
+      this.eviction_lock.lock();
+      try {
+        this.available.addLast(r);
+      } finally {
+        this.eviction_lock.unlock();
+      }
+    }
+    return w;
+  }
+
+  @Override public void cacheSetConfiguration(
+    final BLUCacheConfig c)
+  {
+    this.config = NullCheck.notNull(c, "Configuration");
+
+    /**
+     * Wake every waiting caller, so that they can take advantage of a raised
+     * limit.
+     */
+
+    final List<Waiter> woken = new ArrayList<Waiter>();
+    for (final Slot slot : this.slots.values()) {
+      final ReentrantLock lock = slot.getLock();
+      lock.lock();
+      try {
+        this.cacheRetryWaiters(slot, woken);
+        this.cacheRetireIfEmpty(slot);
+      } finally {
+        lock.unlock();
+      }
+    }
+    this.cacheWakeAll(woken);
+  }
+
+  @Override public BigInteger cacheSize()
+  {
+    return BigInteger.valueOf(this.used.get());
+  }
+
+  @Override public long cacheSizeLong()
+  {
+    return this.used.get();
+  }
+
+  private Slot cacheSlotFor(
+    final K key)
+  {
+    final Slot existing = this.slots.get(key);
+    if (existing != null) {
+      return existing;
+    }
+
+    final Slot created = new Slot(key);
+    final Slot raced = this.slots.putIfAbsent(key, created);
+    if (raced != null) {
+      return raced;
+    }
+    return created;
+  }
+
+  @Override public JCacheStatistics cacheStatistics()
+  {
+    return this.statistics.snapshot();
+  }
+
+  @Override public void cacheStatisticsReset()
+  {
+    this.statistics.reset();
+  }
+
+  @Override public void cacheStatisticsSetHistogramsEnabled(
+    final boolean enabled)
+  {
+    this.statistics.setHistogramsEnabled(enabled);
+  }
+
+  /**
+   * Wait, with the lock of the key held, until the waiter is granted an
+   * object, a reservation, or a retry. The lock is released while leases
+   * that expired during the wait are enforced, as an expired lease may free
+   * a borrow for this waiter; the waiter keeps its place in the queue.
+   */
+
+  private Waiter cacheWaitFor(
+    final Slot slot,
+    final boolean wait,
+    final long timeout_nanos,
+    final long deadline)
+    throws JCacheException
+  {
+    if (wait == false) {
+      throw JCacheException.tooManyBorrows(slot.getKey());
+    }
+
+    final Waiter w = new Waiter(slot, slot.getLock().newCondition(), null);
+    slot.getWaiters().addLast(w);
+
+    boolean interrupted = false;
+    while (w.isGranted() == false) {
+      final long now = System.nanoTime();
+      final long remaining = deadline - now;
+      if (remaining <= 0L) {
+        break;
+      }
+
+      final long lease_remaining = this.cacheLeaseRemaining(now);
+      if (lease_remaining <= 0L) {
+        slot.getLock().unlock();
+        try {
+          this.cacheReclaim();
+        } finally {
+          slot.getLock().lock();
+        }
+        continue;
+      }
+
+      try {
+        w.await(Math.min(remaining, lease_remaining));
+      } catch (final InterruptedException x) {
+        interrupted = true;
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+
+    if (w.isGranted() == false) {
+      slot.getWaiters().remove(w);
+      throw JCacheException.tooManyBorrowsWaited(
+        slot.getKey(),
+        timeout_nanos,
+        interrupted);
+    }
+    return w;
+  }
+
+  private void cacheWakeAll(
+    final List<Waiter> woken)
+  {
+    for (int index = 0; index < woken.size(); ++index) {
+      woken.get(index).wake();
+    }
+  }
+
+  private void eventObjectLoaded(
+    final K key,
+    final TCACHE new_value,
+    final long size)
+  {
+    final JCacheEventsType<K, TCACHE> e = this.events;
+    if (e != null) {
+      try {
+        e.cacheEventValueLoaded(key, new_value, BigInteger.valueOf(size));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  private void eventObjectRetrieved(
+    final Receipt r)
+  {
+    final JCacheEventsType<K, TCACHE> e = this.events;
+    if (e != null) {
+      try {
+        e.cacheEventValueRetrieved(
+          r.getKey(),
+          r.getValueCached(),
+          BigInteger.valueOf(r.getSize()));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked") private void eventReceiptExpired(
+    final Receipt r)
+  {
+    final JCacheEventsType<K, TCACHE> e = this.events;
+    if (e instanceof BLUCacheEventsType) {
+      try {
+        ((BLUCacheEventsType<K, TCACHE>) e).cacheEventReceiptExpired(
+          r.getKey(),
+          r.getValueCached(),
+          BigInteger.valueOf(r.getSize()));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked") private void eventReceiptLeaked(
+    final Receipt r)
+  {
+    final JCacheEventsType<K, TCACHE> e = this.events;
+    if (e instanceof BLUCacheEventsType) {
+      try {
+        ((BLUCacheEventsType<K, TCACHE>) e).cacheEventReceiptLeaked(
+          r.getKey(),
+          r.getValueCached(),
+          BigInteger.valueOf(r.getSize()));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("[BLUCacheConcurrent ");
+    builder.append("[size ");
+    builder.append(this.used.get());
+    builder.append("] [items ");
+    builder.append(this.items.get());
+    builder.append("]");
+    builder.append("]");
+    return builder.toString();
+  }
+}
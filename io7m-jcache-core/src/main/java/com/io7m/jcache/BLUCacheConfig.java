@@ -17,6 +17,7 @@
 package com.io7m.jcache;
 
 import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
 
 import com.io7m.jnull.NullCheck;
 import com.io7m.jnull.Nullable;
@@ -34,7 +35,7 @@ public final class BLUCacheConfig
 
   public static BLUCacheConfig empty()
   {
-    return new BLUCacheConfig(BigInteger.ZERO, BigInteger.ONE);
+    return new BLUCacheConfig(BigInteger.ZERO, BigInteger.ONE, 0L, 0L);
   }
 
   /**
@@ -51,15 +52,23 @@ public final class BLUCacheConfig
     NullCheck.notNull(other, "Other configuration");
     return new BLUCacheConfig(
       other.getMaximumCapacity(),
-      other.getMaximumBorrowsPerKey());
+      other.getMaximumBorrowsPerKey(),
+      other.getMaximumLeaseTimeNanos(),
+      other.getLeakSamplingInterval());
   }
 
+  private final long       leak_sampling;
   private final BigInteger max_borrows;
+  private final long       max_borrows_long;
   private final BigInteger max_capacity;
+  private final long       max_capacity_long;
+  private final long       max_lease_nanos;
 
   private BLUCacheConfig(
     final BigInteger in_max_capacity,
-    final BigInteger in_max_borrows)
+    final BigInteger in_max_borrows,
+    final long in_max_lease_nanos,
+    final long in_leak_sampling)
   {
     this.max_capacity =
       RangeCheck.checkGreaterEqualBig(
@@ -73,6 +82,20 @@ public final class BLUCacheConfig
         "Maximum borrows",
         NullCheck.notNull(BigInteger.ZERO),
         "Smallest maximum");
+    this.max_capacity_long = JCacheAccounting.saturate(this.max_capacity);
+    this.max_borrows_long = JCacheAccounting.saturate(this.max_borrows);
+    this.max_lease_nanos =
+      RangeCheck.checkGreaterEqual(
+        in_max_lease_nanos,
+        "Maximum lease time",
+        0L,
+        "Smallest maximum");
+    this.leak_sampling =
+      RangeCheck.checkGreaterEqual(
+        in_leak_sampling,
+        "Leak sampling interval",
+        0L,
+        "Smallest interval");
   }
 
   @Override public boolean equals(
@@ -88,6 +111,12 @@ public final class BLUCacheConfig
       return false;
     }
     final BLUCacheConfig other = (BLUCacheConfig) obj;
+    if (this.leak_sampling != other.leak_sampling) {
+      return false;
+    }
+    if (this.max_lease_nanos != other.max_lease_nanos) {
+      return false;
+    }
     if (!this.max_borrows.equals(other.max_borrows)) {
       return false;
     }
@@ -97,6 +126,17 @@ public final class BLUCacheConfig
     return true;
   }
 
+  /**
+   * @return The interval at which borrows are tracked for leaks, or
+   *         <code>0</code> if leak tracking is disabled.
+   * @see #withLeakSamplingInterval(long)
+   */
+
+  public long getLeakSamplingInterval()
+  {
+    return this.leak_sampling;
+  }
+
   /**
    * @return The maximum number of borrows allowed per key.
    */
@@ -106,6 +146,16 @@ public final class BLUCacheConfig
     return this.max_borrows;
   }
 
+  /**
+   * @return The maximum number of borrows allowed per key, saturated to
+   *         {@link Long#MAX_VALUE}.
+   */
+
+  public long getMaximumBorrowsPerKeyLong()
+  {
+    return this.max_borrows_long;
+  }
+
   /**
    * @return The maximum capacity of the cache that will be created.
    */
@@ -115,10 +165,37 @@ public final class BLUCacheConfig
     return this.max_capacity;
   }
 
+  /**
+   * @return The maximum capacity of the cache that will be created, saturated
+   *         to {@link Long#MAX_VALUE}.
+   */
+
+  public long getMaximumCapacityLong()
+  {
+    return this.max_capacity_long;
+  }
+
+  /**
+   * @return The maximum time for which an object may be borrowed, in
+   *         nanoseconds, or <code>0</code> if there is no limit.
+   * @see #withMaximumLeaseTime(long, TimeUnit)
+   */
+
+  public long getMaximumLeaseTimeNanos()
+  {
+    return this.max_lease_nanos;
+  }
+
   @Override public int hashCode()
   {
     final int prime = 31;
     int result = 1;
+    result =
+      (prime * result)
+        + (int) (this.leak_sampling ^ (this.leak_sampling >>> 32));
+    result =
+      (prime * result)
+        + (int) (this.max_lease_nanos ^ (this.max_lease_nanos >>> 32));
     result = (prime * result) + this.max_borrows.hashCode();
     result = (prime * result) + this.max_capacity.hashCode();
     return result;
@@ -131,6 +208,10 @@ public final class BLUCacheConfig
     builder.append(this.max_capacity);
     builder.append(" max_borrows=");
     builder.append(this.max_borrows);
+    builder.append(" max_lease_nanos=");
+    builder.append(this.max_lease_nanos);
+    builder.append(" leak_sampling=");
+    builder.append(this.leak_sampling);
     builder.append("]");
     final String r = builder.toString();
     assert r != null;
@@ -159,7 +240,44 @@ public final class BLUCacheConfig
   public BLUCacheConfig withMaximumBorrowsPerKey(
     final BigInteger max)
   {
-    return new BLUCacheConfig(this.max_capacity, max);
+    return new BLUCacheConfig(
+      this.max_capacity,
+      max,
+      this.max_lease_nanos,
+      this.leak_sampling);
+  }
+
+  /**
+   * <p>
+   * Derive a configuration based on the existing configuration that tracks
+   * one in every <code>interval</code> borrows for leaks.
+   * </p>
+   * <p>
+   * The receipt of a tracked borrow is watched with a phantom reference. If
+   * the receipt becomes unreachable without having been returned, the cache
+   * returns the borrowed object itself the next time that an object is
+   * borrowed, and reports the leak to event receivers that implement
+   * {@link BLUCacheEventsType}. Tracking costs a small allocation per
+   * tracked borrow, so large intervals are recommended outside of testing.
+   * </p>
+   * <p>
+   * A value of zero means "no tracking", and a value of one means that every
+   * borrow is tracked.
+   * </p>
+   *
+   * @param interval
+   *          The leak sampling interval
+   * @return A new cache configuration
+   */
+
+  public BLUCacheConfig withLeakSamplingInterval(
+    final long interval)
+  {
+    return new BLUCacheConfig(
+      this.max_capacity,
+      this.max_borrows,
+      this.max_lease_nanos,
+      interval);
   }
 
   /**
@@ -174,6 +292,45 @@ public final class BLUCacheConfig
   public BLUCacheConfig withMaximumCapacity(
     final BigInteger max)
   {
-    return new BLUCacheConfig(max, this.max_borrows);
+    return new BLUCacheConfig(
+      max,
+      this.max_borrows,
+      this.max_lease_nanos,
+      this.leak_sampling);
+  }
+
+  /**
+   * <p>
+   * Derive a configuration based on the existing configuration with a
+   * maximum lease time of <code>time</code>.
+   * </p>
+   * <p>
+   * An object that has been borrowed for longer than the maximum lease time
+   * is forcibly reclaimed the next time that an object is borrowed: it is
+   * removed from the cache and closed, its receipt is invalidated (so that
+   * returning it has no effect), and the expiry is reported to event
+   * receivers that implement {@link BLUCacheEventsType}. A change to the
+   * maximum lease time applies to objects borrowed after the change.
+   * </p>
+   * <p>
+   * A value of zero means "no limit".
+   * </p>
+   *
+   * @param time
+   *          The maximum lease time
+   * @param unit
+   *          The unit of <code>time</code>
+   * @return A new cache configuration
+   */
+
+  public BLUCacheConfig withMaximumLeaseTime(
+    final long time,
+    final TimeUnit unit)
+  {
+    return new BLUCacheConfig(
+      this.max_capacity,
+      this.max_borrows,
+      NullCheck.notNull(unit, "Unit").toNanos(time),
+      this.leak_sampling);
   }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jcache;
+
+import java.math.BigInteger;
+
+/**
+ * <p>
+ * The interface supported by event receivers that want to know about
+ * misused receipts of borrowing caches.
+ * </p>
+ * <p>
+ * Borrowing caches deliver these events to receivers that implement this
+ * interface, in addition to the events of {@link JCacheEventsType}. See
+ * {@link BLUCacheConfig#withLeakSamplingInterval(long)} and
+ * {@link BLUCacheConfig#withMaximumLeaseTime(long, java.util.concurrent.TimeUnit)}
+ * .
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <V>
+ *          The type of cached values
+ */
+
+public interface BLUCacheEventsType<K, V> extends JCacheEventsType<K, V>
+{
+  /**
+   * Called when a borrowed value <code>value</code> has been held for
+   * longer than the maximum lease time. The value has been removed from the
+   * cache and is about to be closed, and its receipt has been invalidated.
+   *
+   * @param key
+   *          The key
+   * @param value
+   *          The value
+   * @param size
+   *          The size of <tt>value</tt>
+   */
+
+  void cacheEventReceiptExpired(
+    final K key,
+    final V value,
+    final BigInteger size);
+
+  /**
+   * Called when the receipt for a borrowed value <code>value</code> became
+   * unreachable without having been returned. The value has been returned to
+   * the cache on behalf of the lost receipt.
+   *
+   * @param key
+   *          The key
+   * @param value
+   *          The value
+   * @param size
+   *          The size of <tt>value</tt>
+   */
+
+  void cacheEventReceiptLeaked(
+    final K key,
+    final V value,
+    final BigInteger size);
+}
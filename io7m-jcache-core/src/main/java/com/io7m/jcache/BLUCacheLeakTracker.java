@@ -0,0 +1,184 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jcache;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * Sampled leak tracking for the receipts of borrowing caches.
+ * </p>
+ * <p>
+ * A tracked borrow hands the caller a distinct receipt that delegates to
+ * the receipt of the cache, and that is watched with a phantom reference.
+ * If the caller's receipt becomes unreachable without having been
+ * returned, {@link #poll()} yields the receipt of the cache, so that the
+ * cache can reclaim the borrowed object. Untracked borrows hand out the
+ * receipt of the cache directly, and cost nothing beyond a counter
+ * increment.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <V>
+ *          The type of values
+ * @param <R>
+ *          The type of receipts of the cache
+ */
+
+final class BLUCacheLeakTracker<K, V, R extends BLUCacheReceiptType<K, V>>
+{
+  private final class Leak extends PhantomReference<Tracked>
+  {
+    private final R receipt;
+
+    Leak(
+      final Tracked in_tracked,
+      final R in_receipt)
+    {
+      super(in_tracked, BLUCacheLeakTracker.this.queue);
+      this.receipt = in_receipt;
+    }
+
+    R getReceipt()
+    {
+      return this.receipt;
+    }
+  }
+
+  private final class Tracked implements BLUCacheReceiptType<K, V>
+  {
+    private final Leak leak;
+    private final R    receipt;
+    private boolean    returned;
+
+    Tracked(
+      final R in_receipt)
+    {
+      this.receipt = in_receipt;
+      this.returned = false;
+      this.leak = new Leak(this, in_receipt);
+      BLUCacheLeakTracker.this.live.add(this.leak);
+    }
+
+    @Override public void close()
+    {
+      this.returnToCache();
+    }
+
+    @Override public K getKey()
+    {
+      return this.receipt.getKey();
+    }
+
+    @Override public V getValue()
+    {
+      return this.receipt.getValue();
+    }
+
+    @Override public void returnToCache()
+    {
+      if (this.returned) {
+        throw new IllegalStateException(String.format(
+          "Receipt %s has already been returned",
+          this.receipt));
+      }
+
+      this.returned = true;
+      this.leak.clear();
+      BLUCacheLeakTracker.this.live.remove(this.leak);
+      this.receipt.returnToCache();
+    }
+
+    @Override public String toString()
+    {
+      final StringBuilder builder = new StringBuilder();
+      builder.append("[Tracked ");
+      builder.append(this.receipt);
+      builder.append("]");
+      return builder.toString();
+    }
+  }
+
+  private final AtomicLong              borrows;
+  private final Set<Leak>               live;
+  private final ReferenceQueue<Tracked> queue;
+
+  BLUCacheLeakTracker()
+  {
+    this.borrows = new AtomicLong();
+    this.live = ConcurrentHashMap.newKeySet();
+    this.queue = new ReferenceQueue<Tracked>();
+  }
+
+  /**
+   * @return The receipt of the cache for the next borrow whose receipt
+   *         became unreachable without having been returned, if any
+   */
+
+  @SuppressWarnings("unchecked") @Nullable R poll()
+  {
+    for (;;) {
+      final Reference<? extends Tracked> ref = this.queue.poll();
+      if (ref == null) {
+        return null;
+      }
+
+      final Leak leak = (Leak) ref;
+      if (this.live.remove(leak)) {
+        return leak.getReceipt();
+      }
+    }
+  }
+
+  /**
+   * Count a borrow, and decide whether or not to track it.
+   *
+   * @param r
+   *          The receipt of the cache
+   * @param interval
+   *          The sampling interval; <code>0</code> disables tracking
+   * @return <code>r</code>, or a tracked receipt that delegates to
+   *         <code>r</code>
+   */
+
+  BLUCacheReceiptType<K, V> track(
+    final R r,
+    final long interval)
+  {
+    NullCheck.notNull(r, "Receipt");
+    if (interval == 0L) {
+      return r;
+    }
+    if ((this.borrows.incrementAndGet() % interval) != 0L) {
+      return r;
+    }
+    return new Tracked(r);
+  }
+}
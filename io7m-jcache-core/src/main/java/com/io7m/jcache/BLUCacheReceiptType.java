@@ -17,16 +17,30 @@
 package com.io7m.jcache;
 
 /**
+ * <p>
  * The type of receipts from borrowing caches.
- * 
+ * </p>
+ * <p>
+ * Receipts are {@link AutoCloseable}, so that a borrowed value can be
+ * returned with <code>try</code>-with-resources.
+ * </p>
+ *
  * @param <K>
  *          The type of keys
  * @param <V>
  *          The type of values
  */
 
-public interface BLUCacheReceiptType<K, V>
+public interface BLUCacheReceiptType<K, V> extends AutoCloseable
 {
+  /**
+   * Return the current value to the cache, exactly as
+   * {@link #returnToCache()} does. Only one of the two methods may be
+   * called.
+   */
+
+  @Override void close();
+
   /**
    * @return The original key used in the retrieval
    */
@@ -41,7 +55,11 @@ public interface BLUCacheReceiptType<K, V>
 
   /**
    * Return the current value to the cache. It is an error to call this method
-   * more than once.
+   * more than once. Caches may hand out the same receipt again once it has
+   * been returned, so a receipt must not be used after this method has been
+   * called. Returning a receipt whose lease has expired (see
+   * {@link BLUCacheConfig#withMaximumLeaseTime(long, java.util.concurrent.TimeUnit)}
+   * ) has no effect.
    */
 
   void returnToCache();
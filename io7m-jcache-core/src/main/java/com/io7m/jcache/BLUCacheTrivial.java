@@ -1,10 +1,10 @@
 /*
  * Copyright © 2014 <code@io7m.com> http://io7m.com
- * 
+ *
  * Permission to use, copy, modify, and/or distribute this software for any
  * purpose with or without fee is hereby granted, provided that the above
  * copyright notice and this permission notice appear in all copies.
- * 
+ *
  * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
  * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
  * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
@@ -14,26 +14,48 @@
  * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
  */
 
+
 package com.io7m.jcache;
 
 import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.NavigableMap;
-import java.util.NavigableSet;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
-import com.io7m.jfunctional.FunctionType;
-import com.io7m.jfunctional.Unit;
 import com.io7m.jnull.NullCheck;
 import com.io7m.jnull.Nullable;
-import com.io7m.junreachable.UnreachableCodeException;
 
 /**
+ * <p>
  * A trivial implementation of a borrowing LRU cache; the oldest
  * non-<i>borrowed</i> objects are evicted from the cache first.
+ * </p>
+ * <p>
+ * Objects that are not borrowed are kept in the order in which they were
+ * returned to the cache, so the object evicted is always the one that has
+ * been available for the longest time. Eviction is <code>O(1)</code>
+ * regardless of the number of outstanding receipts. When several instances
+ * of the same key are available, the most recently returned instance is
+ * borrowed first.
+ * </p>
+ * <p>
+ * Each cached object has exactly one receipt, which is handed out each time
+ * the object is borrowed. Borrowing an available object and returning it
+ * therefore do not allocate. A receipt must not be used after it has been
+ * returned, because it may already have been handed out again.
+ * </p>
+ * <p>
+ * Leaked receipts (see {@link BLUCacheConfig#withLeakSamplingInterval(long)})
+ * are reclaimed, and expired leases (see
+ * {@link BLUCacheConfig#withMaximumLeaseTime(long, java.util.concurrent.TimeUnit)}
+ * ) are enforced, each time an object is borrowed. Leased borrows are kept
+ * in the order of their deadlines, so the leases that expire first are
+ * always found in constant time. While the maximum lease time stays the
+ * same, each new lease ends last and is also linked in constant time; after
+ * the maximum lease time is reduced, a new lease is linked in time linear in
+ * the number of outstanding leases that end after it.
+ * </p>
  *
  * @param <K>
  *          The type of keys
@@ -48,106 +70,76 @@ import com.io7m.junreachable.UnreachableCodeException;
 public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> implements
   BLUCacheType<K, TVIEW, TCACHE, E>
 {
-  private static final class CachedValue<V>
-  {
-    private final BigInteger size;
-    private final V          value;
-
-    CachedValue(
-      final V in_value,
-      final BigInteger in_size)
-    {
-      this.value = in_value;
-      this.size = in_size;
-    }
-
-    public BigInteger getSize()
-    {
-      return this.size;
-    }
-
-    public V getValue()
-    {
-      return this.value;
-    }
-  }
+  /**
+   * The instances of a single key.
+   */
 
-  private static final class ExtendedKey<K>
+  private static final class Instances<N>
   {
-    private final K          key;
-    private final BigInteger serial;
-
-    ExtendedKey(
-      final K in_key,
-      final BigInteger in_serial)
-    {
-      this.key = in_key;
-      this.serial = in_serial;
-    }
+    private final Deque<N> available;
+    private long           borrowed;
 
-    @Override public boolean equals(
-      final @Nullable Object obj)
+    Instances()
     {
-      if (this == obj) {
-        return true;
-      }
-      if (obj == null) {
-        return false;
-      }
-      if (this.getClass() != obj.getClass()) {
-        return false;
-      }
-      final ExtendedKey<?> other = (ExtendedKey<?>) obj;
-      return this.key.equals(other.key) && this.serial.equals(other.serial);
+      this.available = new ArrayDeque<N>();
+      this.borrowed = 0L;
     }
 
-    K getKey()
+    Deque<N> getAvailable()
     {
-      return this.key;
+      return this.available;
     }
 
-    BigInteger getSerial()
+    long getBorrowed()
     {
-      return this.serial;
+      return this.borrowed;
     }
 
-    @Override public int hashCode()
+    boolean isEmpty()
     {
-      final int prime = 31;
-      int result = 1;
-      result = (prime * result) + this.key.hashCode();
-      result = (prime * result) + this.serial.hashCode();
-      return result;
+      return (this.borrowed == 0L) && this.available.isEmpty();
     }
 
-    @Override public String toString()
+    void setBorrowed(
+      final long in_borrowed)
     {
-      final StringBuilder builder = new StringBuilder();
-      builder.append("[ExtendedKey ");
-      builder.append(this.key);
-      builder.append(" ");
-      builder.append(this.serial);
-      builder.append("]");
-      return builder.toString();
+      this.borrowed = in_borrowed;
     }
   }
 
-  private final class Receipt implements BLUCacheReceiptType<K, TVIEW>
+  private final class Receipt extends JCacheListNode<Receipt> implements
+    BLUCacheReceiptType<K, TVIEW>
   {
-    private final ExtendedKey<K> key;
-    private final BigInteger     size;
-    private boolean              valid;
-    private final TCACHE         value;
+    private long             deadline;
+    private boolean          expired;
+    private @Nullable Object flight;
+    private final K          key;
+    private boolean          leased;
+    private final long       serial;
+    private final long       size;
+    private boolean          valid;
+    private final TCACHE     value;
 
     Receipt(
-      final ExtendedKey<K> in_key,
+      final K in_key,
+      final long in_serial,
       final TCACHE in_value,
-      final BigInteger in_size)
+      final long in_size)
     {
       this.key = in_key;
+      this.serial = in_serial;
       this.value = in_value;
       this.size = in_size;
-      this.valid = true;
+      this.valid = false;
+      this.flight = null;
+      this.deadline = 0L;
+      this.expired = false;
+      this.leased = false;
+    }
+
+    @Override public void close()
+    {
+      this.returnToCache();
     }
 
     @Override public boolean equals(
@@ -164,22 +156,38 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
       }
       @SuppressWarnings("unchecked") final Receipt other = (Receipt) obj;
       return (this.key.equals(other.key))
-        && (this.size.equals(other.size))
+        && (this.serial == other.serial)
+        && (this.size == other.size)
         && (this.valid == other.valid)
         && (this.value.equals(other.value));
     }
 
-    @Override public K getKey()
+    /**
+     * Forcibly end the borrow, because its lease has expired.
+     */
+
+    void expire()
     {
-      return this.key.getKey();
+      this.valid = false;
+      this.expired = true;
     }
 
-    ExtendedKey<K> getKeyExtended()
+    long getDeadline()
+    {
+      return this.deadline;
+    }
+
+    @Nullable Object getFlight()
+    {
+      return this.flight;
+    }
+
+    @Override public K getKey()
     {
       return this.key;
     }
 
-    BigInteger getSize()
+    long getSize()
     {
       return this.size;
     }
@@ -194,7 +202,9 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
       final int prime = 31;
       int result = 1;
       result = (prime * result) + this.key.hashCode();
-      result = (prime * result) + this.size.hashCode();
+      result =
+        (prime * result) + (int) (this.serial ^ (this.serial >>> 32));
+      result = (prime * result) + (int) (this.size ^ (this.size >>> 32));
       result = (prime * result) + (this.valid ? 1231 : 1237);
       result = (prime * result) + this.value.hashCode();
       return result;
@@ -205,6 +215,16 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
       this.valid = false;
     }
 
+    boolean isExpired()
+    {
+      return this.expired;
+    }
+
+    boolean isLeased()
+    {
+      return this.leased;
+    }
+
     boolean isValid()
     {
       return this.valid;
@@ -220,6 +240,8 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
       final StringBuilder builder = new StringBuilder();
       builder.append("[Receipt ");
       builder.append(this.key);
+      builder.append(" ");
+      builder.append(this.serial);
       builder.append(" value=");
       builder.append(this.value);
       builder.append(" size=");
@@ -227,6 +249,22 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
       builder.append("]");
       return builder.toString();
     }
+
+    /**
+     * Start a borrow that must end within <code>lease_nanos</code>
+     * nanoseconds, or at any time if <code>lease_nanos == 0</code>.
+     */
+
+    void validate(
+      final long lease_nanos)
+    {
+      this.valid = true;
+      this.flight = JCacheFlightRecorder.borrowStarted();
+      this.leased = lease_nanos > 0L;
+      if (this.leased) {
+        this.deadline = System.nanoTime() + lease_nanos;
+      }
+    }
   }
 
   /**
@@ -258,58 +296,82 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
     return new BLUCacheTrivial<K, TVIEW, TCACHE, E>(loader, config);
   }
 
-  private BLUCacheConfig                                 config;
-  private @Nullable JCacheEventsType<K, TCACHE>          events;
-  private BigInteger                                     gets;
-  private final Map<ExtendedKey<K>, CachedValue<TCACHE>> items;
-  private final Map<K, NavigableSet<BigInteger>>         items_available;
-  private final Map<K, NavigableSet<BigInteger>>         items_borrowed;
-  private final NavigableMap<BigInteger, ExtendedKey<K>> items_timed;
-  private final JCacheLoaderType<K, TCACHE, E>           loader;
-  private BigInteger                                     used;
+  private final JCacheList<Receipt>                          available;
+  private final JCacheList<Receipt>                          borrowed;
+  private BLUCacheConfig                                     config;
+  private @Nullable JCacheEventsType<K, TCACHE>              events;
+  private final JCacheEvictionBatch<K, TCACHE>               evicting;
+  private long                                               gets;
+  private final Map<K, Instances<Receipt>>                   items;
+  private final BLUCacheLeakTracker<K, TVIEW, Receipt>      leaks;
+  private final JCacheList<Receipt>                          leases;
+  private final JCacheLoaderType<K, TCACHE, E>               loader;
+  private final @Nullable JCacheLoaderLongType<K, TCACHE, E> loader_long;
+  private final JCacheStatisticsCounters                     statistics;
+  private long                                               used;
 
   private BLUCacheTrivial(
     final JCacheLoaderType<K, TCACHE, E> in_loader,
     final BLUCacheConfig in_config)
   {
     this.loader = NullCheck.notNull(in_loader, "Loader");
+    this.loader_long = JCacheAccounting.supportsLong(in_loader);
     this.config = NullCheck.notNull(in_config, "Configuration");
 
     this.events = null;
-    this.items = new HashMap<ExtendedKey<K>, CachedValue<TCACHE>>();
-    this.items_borrowed = new HashMap<K, NavigableSet<BigInteger>>();
-    this.items_available = new HashMap<K, NavigableSet<BigInteger>>();
-    this.items_timed = new TreeMap<BigInteger, ExtendedKey<K>>();
+    this.items = new HashMap<K, Instances<Receipt>>();
+    this.available = new JCacheList<Receipt>();
+    this.borrowed = new JCacheList<Receipt>();
+    this.leases = new JCacheList<Receipt>();
 
-    this.gets = BigInteger.ZERO;
-    this.used = BigInteger.ZERO;
+    this.gets = 0L;
+    this.used = 0L;
+    this.statistics = new JCacheStatisticsCounters();
+    this.evicting = new JCacheEvictionBatch<K, TCACHE>();
+    this.leaks = new BLUCacheLeakTracker<K, TVIEW, Receipt>();
   }
 
-  @Override public Receipt bluCacheGet(
+  @Override public BLUCacheReceiptType<K, TVIEW> bluCacheGet(
     final K key)
     throws E,
       JCacheException
   {
-    NullCheck.notNull(key, "Key");
+    final long start = this.statistics.requestStarted();
+    try {
+      NullCheck.notNull(key, "Key");
 
-    final Receipt r = this.cacheGetActual(key);
-    this.eventObjectRetrieved(key, r);
-    return r;
+      this.cacheReclaim();
+      final Receipt r = this.cacheGetActual(key);
+      this.eventObjectRetrieved(key, r);
+      return this.leaks.track(r, this.config.getLeakSamplingInterval());
+    } finally {
+      this.statistics.requestFinished(start);
+    }
+  }
+
+  private void cacheBorrow(
+    final Instances<Receipt> instances,
+    final Receipt r)
+  {
+    r.validate(this.config.getMaximumLeaseTimeNanos());
+    if (r.isLeased()) {
+      this.cacheLeaseLink(r);
+    } else {
+      this.borrowed.addLast(r);
+    }
+    instances.setBorrowed(instances.getBorrowed() + 1L);
   }
 
   private void cacheCheckBorrowingLimit(
     final K key)
     throws JCacheException
   {
-    final BigInteger maximum = this.config.getMaximumBorrowsPerKey();
-    if (maximum.compareTo(BigInteger.ZERO) > 0) {
-      if (this.items_borrowed.containsKey(key)) {
-        final NavigableSet<BigInteger> serials = this.items_borrowed.get(key);
-        assert serials.size() < Integer.MAX_VALUE;
-
-        final BigInteger next_size =
-          BigInteger.valueOf(serials.size()).add(BigInteger.ONE);
-        if (next_size.compareTo(maximum) > 0) {
+    final long maximum = this.config.getMaximumBorrowsPerKeyLong();
+    if (maximum > 0L) {
+      final Instances<Receipt> instances = this.items.get(key);
+      if (instances != null) {
+        final long next_size = instances.getBorrowed() + 1L;
+        if (next_size > maximum) {
           throw JCacheException.tooManyBorrows(key);
         }
       }
@@ -319,24 +381,32 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
   private void cacheCheckOverflow()
     throws JCacheException
   {
-    if (this.items.size() == Integer.MAX_VALUE) {
-      throw JCacheException.errorInternalCacheOverflow(this.items.size());
+    if (this.cacheItemCountLong() >= Integer.MAX_VALUE) {
+      throw JCacheException.errorInternalCacheOverflow(Integer.MAX_VALUE);
     }
   }
 
   @Override public void cacheDelete()
   {
-    for (final ExtendedKey<K> k : this.items.keySet()) {
-      final CachedValue<TCACHE> v = this.items.get(k);
-      this.cacheValueDelete(k, v);
-    }
+    this.cacheDeleteList(this.available);
+    this.cacheDeleteList(this.borrowed);
+    this.cacheDeleteList(this.leases);
+    this.evicting.flush(this.loader, this.statistics, this.events);
 
-    this.used = BigInteger.ZERO;
-    this.gets = BigInteger.ZERO;
+    this.used = 0L;
+    this.gets = 0L;
     this.items.clear();
-    this.items_available.clear();
-    this.items_borrowed.clear();
-    this.items_timed.clear();
+  }
+
+  private void cacheDeleteList(
+    final JCacheList<Receipt> list)
+  {
+    while (list.isEmpty() == false) {
+      final Receipt r = list.first();
+      assert r != null;
+      list.remove(r);
+      this.cacheValueDelete(r);
+    }
   }
 
   @Override public void cacheEventsSubscribe(
@@ -350,57 +420,81 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
     this.events = null;
   }
 
-  private void cacheEvictOldest()
-  {
-    assert this.items_timed.isEmpty() == false;
-    assert this.items_available.isEmpty() == false;
-
-    /**
-     * Attempt to find the oldest available item.
-     */
+  /**
+   * Forcibly end the borrow of <code>r</code>, and remove its object from
+   * the cache.
+   */
 
-    final Iterator<BigInteger> iter = this.items_timed.keySet().iterator();
-    while (iter.hasNext()) {
-      final BigInteger time = iter.next();
-      final ExtendedKey<K> key = this.items_timed.get(time);
+  private void cacheExpire(
+    final Receipt r)
+  {
+    final K key = r.getKey();
+    final Instances<Receipt> instances = this.items.get(key);
+    assert instances != null;
+    instances.setBorrowed(instances.getBorrowed() - 1L);
+    if (instances.isEmpty()) {
+      this.items.remove(key);
+    }
 
-      /**
-       * If the value associated with the given extended key is available,
-       * delete it.
-       */
+    this.leases.remove(r);
+    r.expire();
+    JCacheFlightRecorder.borrowFinished(r.getFlight(), key, r.getSize());
 
-      if (this.items_available.containsKey(key.getKey())) {
-        final NavigableSet<BigInteger> serials =
-          this.items_available.get(key.getKey());
-        assert serials.contains(key.getSerial());
+    this.eventReceiptExpired(r);
+    this.cacheValueDelete(r);
+    this.cacheSizeDecrease(r.getSize());
+  }
 
-        MapSet.mapSetRemove(
-          this.items_available,
-          key.getKey(),
-          key.getSerial());
+  /**
+   * Expire every borrow whose lease has ended. Leased borrows are kept in
+   * the order of their deadlines, so only the first leases need to be
+   * examined.
+   */
 
-        final CachedValue<TCACHE> existing = this.items.get(key);
-        this.cacheValueDelete(key, existing);
-        this.cacheSizeDecrease(existing.getSize());
-        this.items.remove(key);
+  private void cacheExpireLeases()
+  {
+    if (this.leases.isEmpty()) {
+      return;
+    }
 
-        iter.remove();
-        return;
+    final long now = System.nanoTime();
+    for (;;) {
+      final Receipt r = this.leases.first();
+      if (r == null) {
+        break;
+      }
+      if ((r.getDeadline() - now) > 0L) {
+        break;
       }
+      this.cacheExpire(r);
     }
+    this.evicting.flush(this.loader, this.statistics, this.events);
+  }
 
-    /**
-     * There were available values, so one must have been removed.
-     */
+  private void cacheEvictOldest()
+  {
+    final Receipt oldest = this.available.first();
+    assert oldest != null;
+
+    final K key = oldest.getKey();
+    final Instances<Receipt> instances = this.items.get(key);
+    final Receipt removed = instances.getAvailable().removeFirst();
+    assert removed == oldest;
+    if (instances.isEmpty()) {
+      this.items.remove(key);
+    }
 
-    throw new UnreachableCodeException();
+    this.available.remove(oldest);
+    this.statistics.evicted(oldest.getSize());
+    this.cacheValueDelete(oldest);
+    this.cacheSizeDecrease(oldest.getSize());
   }
 
   private void cacheEvictOldestItems(
-    final BigInteger added_size,
-    final BigInteger maximum)
+    final long added_size,
+    final long maximum)
   {
-    assert added_size.compareTo(maximum) <= 0;
+    assert added_size <= maximum;
 
     for (;;) {
 
@@ -409,9 +503,8 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
        * cache to bring the total size closer to the maximum.
        */
 
-      if (this.items_available.isEmpty() == false) {
-        final BigInteger current = this.used.add(added_size);
-        if (current.compareTo(maximum) <= 0) {
+      if (this.available.isEmpty() == false) {
+        if (this.used <= (maximum - added_size)) {
           break;
         }
         this.cacheEvictOldest();
@@ -419,6 +512,7 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
         break;
       }
     }
+    this.evicting.flush(this.loader, this.statistics, this.events);
   }
 
   private Receipt cacheGetActual(
@@ -427,9 +521,11 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
       JCacheException
   {
     if (this.cacheIsAvailable(key)) {
+      this.statistics.hit();
       return this.cachePutExistingAvailable(key);
     }
 
+    this.statistics.miss();
     return this.cacheGetNew(key);
   }
 
@@ -443,7 +539,7 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
     throws E,
       JCacheException
   {
-    assert this.items_available.containsKey(key) == false;
+    assert this.cacheIsAvailable(key) == false;
 
     boolean failed = true;
     TCACHE new_value = null;
@@ -452,161 +548,161 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
     this.cacheCheckOverflow();
 
     try {
-      new_value = this.loader.cacheValueLoad(key);
+      new_value = this.statistics.load(this.loader, key);
       this.checkLoaderReturnForNull(key, new_value);
 
-      final BigInteger size = this.loader.cacheValueSizeOf(new_value);
+      final long size =
+        JCacheAccounting.sizeOf(this.loader, this.loader_long, new_value);
       this.eventObjectLoaded(key, new_value, size);
 
-      if (size.compareTo(BigInteger.ONE) < 0) {
+      if (size < 1L) {
         throw JCacheException.errorObjectTooSmall(key, size);
       }
 
-      final BigInteger maximum = this.config.getMaximumCapacity();
-      if (size.compareTo(maximum) > 0) {
+      final long maximum = this.config.getMaximumCapacityLong();
+      if (size > maximum) {
         throw JCacheException.errorObjectTooLarge(key, size, maximum);
       }
 
       this.cacheEvictOldestItems(size, maximum);
+      JCacheAccounting.checkAdd(this.used, size);
 
       failed = false;
       return this.cachePutAddNew(key, new_value, size);
     } finally {
       if (failed) {
         if (new_value != null) {
-          this.loader.cacheValueClose(new_value);
+          this.statistics.close(this.loader, new_value);
         }
       }
     }
   }
 
-  private void cacheIncrementGets()
-  {
-    this.gets = this.gets.add(BigInteger.ONE);
-  }
-
   @Override public boolean cacheIsAvailable(
     final K key)
   {
     NullCheck.notNull(key, "Key");
-    return this.items_available.containsKey(key);
+    final Instances<Receipt> instances = this.items.get(key);
+    return (instances != null)
+      && (instances.getAvailable().isEmpty() == false);
   }
 
   @Override public boolean cacheIsBorrowed(
     final K key)
   {
     NullCheck.notNull(key, "Key");
-    return this.items_borrowed.containsKey(key);
+    final Instances<Receipt> instances = this.items.get(key);
+    return (instances != null) && (instances.getBorrowed() > 0L);
   }
 
   @Override public boolean cacheIsCached(
     final K key)
   {
     NullCheck.notNull(key, "Key");
-    return this.items_available.containsKey(key)
-      || this.items_borrowed.containsKey(key);
+    return this.items.containsKey(key);
   }
 
   @Override public BigInteger cacheItemCount()
   {
-    return BigInteger.valueOf(this.items.size());
+    return BigInteger.valueOf(this.cacheItemCountLong());
   }
 
-  private void cacheKeyTimeTouch(
-    final BigInteger new_time,
-    final ExtendedKey<K> key)
+  @Override public long cacheItemCountLong()
   {
-    assert this.items_timed.containsKey(new_time) == false;
-    this.items_timed.remove(key.getSerial());
-    this.items_timed.put(new_time, key);
+    return (long) this.available.size()
+      + (long) this.borrowed.size()
+      + (long) this.leases.size();
   }
 
-  private void cacheMarkAvailable(
-    final K k,
-    final BigInteger s)
-  {
-    assert this.items_borrowed.containsKey(k);
-    final NavigableSet<BigInteger> serials = this.items_borrowed.get(k);
-    assert serials.contains(s);
-
-    MapSet.mapSetRemove(this.items_borrowed, k, s);
-    MapSet.mapSetAdd(
-      this.items_available,
-      new FunctionType<Unit, NavigableSet<BigInteger>>() {
-        @Override public NavigableSet<BigInteger> call(
-          final Unit x)
-        {
-          return new TreeSet<BigInteger>();
-        }
-      },
-      k,
-      s);
-  }
+  /**
+   * @return <code>true</code> iff <code>r</code> is linked into one of the
+   *         lists of borrowed objects
+   */
 
-  private void cacheMarkBorrowed(
-    final ExtendedKey<K> key)
+  private boolean cacheIsOutstanding(
+    final Receipt r)
   {
-    if (this.items_borrowed.containsKey(key.getKey())) {
-      final NavigableSet<BigInteger> serials =
-        this.items_borrowed.get(key.getKey());
-      assert serials.contains(key.getSerial()) == false;
-    }
-
-    MapSet.mapSetRemove(this.items_available, key.getKey(), key.getSerial());
-    MapSet.mapSetAdd(
-      this.items_borrowed,
-      new FunctionType<Unit, NavigableSet<BigInteger>>() {
-        @Override public NavigableSet<BigInteger> call(
-          final Unit x)
-        {
-          return new TreeSet<BigInteger>();
-        }
-      },
-      key.getKey(),
-      key.getSerial());
+    return this.borrowed.contains(r) || this.leases.contains(r);
   }
 
-  private Receipt cachePut(
-    final ExtendedKey<K> ext_key,
-    final TCACHE new_value,
-    final BigInteger size)
+  /**
+   * Link the leased receipt <code>r</code> into the list of leases, keeping
+   * the list in the order of deadlines. The search starts from the lease
+   * that ends last, because new leases usually end after all others.
+   */
+
+  private void cacheLeaseLink(
+    final Receipt r)
   {
-    final CachedValue<TCACHE> cv = new CachedValue<TCACHE>(new_value, size);
-    this.items.put(ext_key, cv);
-    this.cacheMarkBorrowed(ext_key);
-    this.cacheKeyTimeTouch(this.gets, ext_key);
-    return new Receipt(ext_key, cv.getValue(), cv.getSize());
+    final long deadline = r.getDeadline();
+    Receipt p = this.leases.last();
+    while ((p != null) && ((p.getDeadline() - deadline) > 0L)) {
+      p = p.getPrevious();
+    }
+    if (p == null) {
+      this.leases.addFirst(r);
+    } else {
+      this.leases.addAfter(p, r);
+    }
   }
 
   private Receipt cachePutAddNew(
     final K key,
     final TCACHE new_value,
-    final BigInteger size)
+    final long size)
   {
     this.cacheSizeIncrease(size);
-    this.cacheIncrementGets();
-    final ExtendedKey<K> ext_key = new ExtendedKey<K>(key, this.gets);
-    return this.cachePut(ext_key, new_value, size);
+    ++this.gets;
+
+    Instances<Receipt> instances = this.items.get(key);
+    if (instances == null) {
+      instances = new Instances<Receipt>();
+      this.items.put(key, instances);
+    }
+
+    final Receipt r = new Receipt(key, this.gets, new_value, size);
+    this.cacheBorrow(instances, r);
+    return r;
   }
 
   private Receipt cachePutExistingAvailable(
     final K key)
   {
-    assert this.items_available.containsKey(key);
+    final Instances<Receipt> instances = this.items.get(key);
+    assert instances != null;
+
+    final Receipt r = instances.getAvailable().removeLast();
+    this.available.remove(r);
+    this.cacheBorrow(instances, r);
+
+    this.eventObjectRetrieved(key, r);
+    return r;
+  }
+
+  /**
+   * Reclaim leaked receipts, and expired leases.
+   */
 
-    final BigInteger first_available = this.items_available.get(key).first();
-    final ExtendedKey<K> ext_key = new ExtendedKey<K>(key, first_available);
+  private void cacheReclaim()
+  {
+    for (;;) {
+      final Receipt r = this.leaks.poll();
+      if (r == null) {
+        break;
+      }
 
-    assert this.items.containsKey(ext_key);
-    final CachedValue<TCACHE> old_value = this.items.get(ext_key);
+      /**
+       * A leaked receipt may refer to an object that has since been deleted,
+       * or whose lease has expired.
+       */
 
-    final TCACHE v = old_value.getValue();
-    final BigInteger s = old_value.getSize();
-    this.cacheIncrementGets();
-    final Receipt receipt = this.cachePut(ext_key, v, s);
+      if (r.isValid() && this.cacheIsOutstanding(r)) {
+        this.eventReceiptLeaked(r);
+        this.cacheReturnReceipt(r);
+      }
+    }
 
-    this.eventObjectRetrieved(key, receipt);
-    return receipt;
+    this.cacheExpireLeases();
   }
 
   void cacheReturnReceipt(
@@ -614,23 +710,44 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
   {
     NullCheck.notNull(r, "Receipt");
 
+    if (r.isExpired()) {
+      return;
+    }
+
     if (r.isValid() == false) {
       throw new IllegalStateException(String.format(
         "Receipt %s is not valid",
         r));
     }
 
-    final ExtendedKey<K> ext = r.getKeyExtended();
     try {
-      final K k = r.getKey();
-      final BigInteger s = ext.getSerial();
-      this.cacheMarkAvailable(k, s);
 
-      this.cacheEvictOldestItems(
-        BigInteger.ZERO,
-        this.config.getMaximumCapacity());
+      /**
+       * A receipt that is no longer linked into either list of borrowed
+       * objects refers to an object that was deleted while borrowed.
+       */
+
+      if (this.cacheIsOutstanding(r)) {
+        if (this.leases.contains(r)) {
+          this.leases.remove(r);
+        } else {
+          this.borrowed.remove(r);
+        }
+
+        final Instances<Receipt> instances = this.items.get(r.getKey());
+        assert instances != null;
+        instances.setBorrowed(instances.getBorrowed() - 1L);
+        instances.getAvailable().addLast(r);
+        this.available.addLast(r);
+
+        this.cacheEvictOldestItems(0L, this.config.getMaximumCapacityLong());
+      }
     } finally {
       r.invalidate();
+      JCacheFlightRecorder.borrowFinished(
+        r.getFlight(),
+        r.getKey(),
+        r.getSize());
     }
   }
 
@@ -642,31 +759,49 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
 
   @Override public BigInteger cacheSize()
   {
-    return this.used;
+    return BigInteger.valueOf(this.used);
   }
 
   private void cacheSizeDecrease(
-    final BigInteger size)
+    final long size)
   {
-    this.used = this.used.subtract(size);
+    this.used = this.used - size;
   }
 
   private void cacheSizeIncrease(
-    final BigInteger size)
+    final long size)
+  {
+    this.used = JCacheAccounting.add(this.used, size);
+  }
+
+  @Override public long cacheSizeLong()
+  {
+    return this.used;
+  }
+
+  @Override public JCacheStatistics cacheStatistics()
   {
-    this.used = this.used.add(size);
+    return this.statistics.snapshot();
+  }
+
+  @Override public void cacheStatisticsReset()
+  {
+    this.statistics.reset();
+  }
+
+  @Override public void cacheStatisticsSetHistogramsEnabled(
+    final boolean enabled)
+  {
+    this.statistics.setHistogramsEnabled(enabled);
   }
 
   private void cacheValueDelete(
-    final ExtendedKey<K> key,
-    final CachedValue<TCACHE> existing)
+    final Receipt existing)
   {
-    this.eventObjectEvicted(key.getKey(), existing);
-    try {
-      this.loader.cacheValueClose(existing.getValue());
-    } catch (final Throwable x) {
-      this.eventObjectCloseError(key.getKey(), existing, x);
-    }
+    this.evicting.add(
+      existing.getKey(),
+      existing.value,
+      existing.getSize());
   }
 
   private void checkLoaderReturnForNull(
@@ -679,64 +814,63 @@ public final class BLUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
     }
   }
 
-  private void eventObjectCloseError(
+  private void eventObjectLoaded(
     final K key,
-    final CachedValue<TCACHE> existing,
-    final Throwable x)
+    final TCACHE new_value,
+    final long size)
   {
     if (this.events != null) {
       try {
-        this.events.cacheEventValueCloseError(
+        this.events.cacheEventValueLoaded(
           key,
-          existing.getValue(),
-          existing.getSize(),
-          x);
+          new_value,
+          BigInteger.valueOf(size));
       } catch (final Throwable _) {
         // Ignore
       }
     }
   }
 
-  private void eventObjectEvicted(
+  private void eventObjectRetrieved(
     final K key,
-    final CachedValue<TCACHE> existing)
+    final Receipt receipt)
   {
     if (this.events != null) {
       try {
-        this.events.cacheEventValueEvicted(
+        this.events.cacheEventValueRetrieved(
           key,
-          existing.getValue(),
-          existing.getSize());
+          receipt.value,
+          BigInteger.valueOf(receipt.getSize()));
       } catch (final Throwable _) {
         // Ignore
       }
     }
   }
 
-  private void eventObjectLoaded(
-    final K key,
-    final TCACHE new_value,
-    final BigInteger size)
+  @SuppressWarnings("unchecked") private void eventReceiptExpired(
+    final Receipt r)
   {
-    if (this.events != null) {
+    if (this.events instanceof BLUCacheEventsType) {
       try {
-        this.events.cacheEventValueLoaded(key, new_value, size);
+        ((BLUCacheEventsType<K, TCACHE>) this.events).cacheEventReceiptExpired(
+          r.getKey(),
+          r.value,
+          BigInteger.valueOf(r.getSize()));
       } catch (final Throwable _) {
         // Ignore
       }
     }
   }
 
-  private void eventObjectRetrieved(
-    final K key,
-    final Receipt receipt)
+  @SuppressWarnings("unchecked") private void eventReceiptLeaked(
+    final Receipt r)
   {
-    if (this.events != null) {
+    if (this.events instanceof BLUCacheEventsType) {
       try {
-        this.events.cacheEventValueRetrieved(
-          key,
-          receipt.value,
-          receipt.getSize());
+        ((BLUCacheEventsType<K, TCACHE>) this.events).cacheEventReceiptLeaked(
+          r.getKey(),
+          r.value,
+          BigInteger.valueOf(r.getSize()));
       } catch (final Throwable _) {
         // Ignore
       }
@@ -46,7 +46,8 @@ package com.io7m.jcache;
 public interface BLUCacheType<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> extends
   JCacheDeletableType,
   JCacheEventsSubscriptionType<K, TCACHE>,
-  BLUCacheReadableType<K>
+  BLUCacheReadableType<K>,
+  JCacheStatisticsType
 {
   /**
    * <p>
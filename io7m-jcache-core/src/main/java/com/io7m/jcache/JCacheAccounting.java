@@ -0,0 +1,179 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.math.BigInteger;
+
+import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * Functions for accounting for cache sizes using <code>long</code> values.
+ */
+
+final class JCacheAccounting
+{
+  private static final BigInteger LONG_MAXIMUM;
+  private static final BigInteger LONG_MINIMUM;
+
+  static {
+    LONG_MAXIMUM = BigInteger.valueOf(Long.MAX_VALUE);
+    LONG_MINIMUM = BigInteger.valueOf(Long.MIN_VALUE);
+  }
+
+  /**
+   * Add <code>size</code> to <code>used</code>, raising an exception if the
+   * result cannot be represented.
+   *
+   * @param used
+   *          The current (non-negative) size
+   * @param size
+   *          The (non-negative) size to add
+   * @return <code>used + size</code>
+   * @throws JCacheException
+   *           If the result would overflow
+   */
+
+  static long add(
+    final long used,
+    final long size)
+    throws JCacheException
+  {
+    JCacheAccounting.checkAdd(used, size);
+    return used + size;
+  }
+
+  /**
+   * Check that <code>size</code> can be added to <code>used</code> without
+   * overflow.
+   *
+   * @param used
+   *          The current (non-negative) size
+   * @param size
+   *          The (non-negative) size to add
+   * @throws JCacheException
+   *           If the result would overflow
+   */
+
+  static void checkAdd(
+    final long used,
+    final long size)
+    throws JCacheException
+  {
+    assert used >= 0;
+    assert size >= 0;
+
+    if (used > (Long.MAX_VALUE - size)) {
+      throw JCacheException.errorInternalSizeOverflow(used, size);
+    }
+  }
+
+  /**
+   * @return <code>x</code>, saturated to the range of <code>long</code>
+   * @param x
+   *          A value
+   */
+
+  static long saturate(
+    final BigInteger x)
+  {
+    if (x.compareTo(JCacheAccounting.LONG_MAXIMUM) > 0) {
+      return Long.MAX_VALUE;
+    }
+    if (x.compareTo(JCacheAccounting.LONG_MINIMUM) < 0) {
+      return Long.MIN_VALUE;
+    }
+    return x.longValue();
+  }
+
+  /**
+   * Retrieve the size of <code>value</code>, using the <code>long</code>
+   * interface of the loader if it has one. Sizes that are too small to be
+   * represented are saturated to {@link Long#MIN_VALUE} (and will therefore
+   * be rejected by the usual size checks).
+   *
+   * @param loader
+   *          The loader
+   * @param loader_long
+   *          The loader, if it supports <code>long</code> sizes
+   * @param value
+   *          The loaded value
+   * @return The size of <code>value</code>
+   * @throws JCacheException
+   *           If the size of the value is too large to be represented
+   */
+
+  static <K, V> long sizeOf(
+    final JCacheLoaderType<K, V, ?> loader,
+    final @Nullable JCacheLoaderLongType<K, V, ?> loader_long,
+    final V value)
+    throws JCacheException
+  {
+    if (loader_long != null) {
+      return loader_long.cacheValueSizeOfLong(value);
+    }
+
+    final BigInteger size = loader.cacheValueSizeOf(value);
+    if (size.compareTo(JCacheAccounting.LONG_MAXIMUM) > 0) {
+      throw JCacheException.errorInternalSizeOverflow(size);
+    }
+    return JCacheAccounting.saturate(size);
+  }
+
+  /**
+   * @return <code>loader</code> if it supports reload costs,
+   *         <code>null</code> otherwise
+   * @param loader
+   *          The loader
+   */
+
+  @SuppressWarnings("unchecked") static @Nullable
+    <K, V, E extends Throwable>
+    JCacheLoaderCostType<K, V, E>
+    supportsCost(
+      final JCacheLoaderType<K, V, E> loader)
+  {
+    if (loader instanceof JCacheLoaderCostType) {
+      return (JCacheLoaderCostType<K, V, E>) loader;
+    }
+    return null;
+  }
+
+  /**
+   * @return <code>loader</code> if it supports <code>long</code> sizes,
+   *         <code>null</code> otherwise
+   * @param loader
+   *          The loader
+   */
+
+  @SuppressWarnings("unchecked") static @Nullable
+    <K, V, E extends Throwable>
+    JCacheLoaderLongType<K, V, E>
+    supportsLong(
+      final JCacheLoaderType<K, V, E> loader)
+  {
+    if (loader instanceof JCacheLoaderLongType) {
+      return (JCacheLoaderLongType<K, V, E>) loader;
+    }
+    return null;
+  }
+
+  private JCacheAccounting()
+  {
+    throw new UnreachableCodeException();
+  }
+}
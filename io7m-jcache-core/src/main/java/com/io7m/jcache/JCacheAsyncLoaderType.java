@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>
+ * The interface supported by loaders that can load objects asynchronously.
+ * </p>
+ * <p>
+ * Caches that implement {@link LUCacheAsyncType} will call
+ * {@link #cacheValueLoadAsync(Object)} to satisfy
+ * {@link LUCacheAsyncType#cacheGetLUAsync(Object)}, instead of blocking a
+ * thread in {@link #cacheValueLoad(Object)}. The synchronous method is still
+ * used by {@link LUCacheType#cacheGetLU(Object)}.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <V>
+ *          The type of cached values
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public interface JCacheAsyncLoaderType<K, V, E extends Throwable> extends
+  JCacheLoaderType<K, V, E>
+{
+  /**
+   * Begin loading the object named <code>key</code>. Failures, including
+   * exceptions of type <code>E</code>, are reported by completing the
+   * returned future exceptionally.
+   *
+   * @param key
+   *          The key
+   * @return A future that will complete with the loaded object
+   */
+
+  CompletableFuture<V> cacheValueLoadAsync(
+    final K key);
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jcache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * Functions for loading values without blocking the calling thread.
+ */
+
+final class JCacheAsyncLoading
+{
+  /**
+   * Begin loading the value named <code>key</code>, with
+   * <code>loader_async</code> if it is not <code>null</code>, or with the
+   * synchronous <code>loader</code> on another thread otherwise.
+   *
+   * @param loader
+   *          The loader
+   * @param loader_async
+   *          The loader, if it supports asynchronous loading
+   * @param key
+   *          The key
+   * @return A future that will complete with the loaded value
+   */
+
+  static <K, V, E extends Throwable> CompletableFuture<V> load(
+    final JCacheLoaderType<K, V, E> loader,
+    final @Nullable JCacheAsyncLoaderType<K, V, E> loader_async,
+    final K key)
+  {
+    if (loader_async != null) {
+      return NullCheck.notNull(
+        loader_async.cacheValueLoadAsync(key),
+        "Future");
+    }
+
+    return CompletableFuture.supplyAsync(new Supplier<V>() {
+      @Override public V get()
+      {
+        try {
+          return loader.cacheValueLoad(key);
+        } catch (final Throwable x) {
+          throw new CompletionException(x);
+        }
+      }
+    });
+  }
+
+  /**
+   * @param loader
+   *          The loader
+   * @return <code>loader</code>, if it supports asynchronous loading, or
+   *         <code>null</code> otherwise
+   */
+
+  @SuppressWarnings("unchecked") static @Nullable
+    <K, V, E extends Throwable>
+    JCacheAsyncLoaderType<K, V, E>
+    supportsAsync(
+      final JCacheLoaderType<K, V, E> loader)
+  {
+    if (loader instanceof JCacheAsyncLoaderType) {
+      return (JCacheAsyncLoaderType<K, V, E>) loader;
+    }
+    return null;
+  }
+
+  /**
+   * @param x
+   *          An exception raised by a future
+   * @return The cause of <code>x</code>, if <code>x</code> merely wraps an
+   *         exception raised during completion
+   */
+
+  static Throwable unwrap(
+    final Throwable x)
+  {
+    if (x instanceof CompletionException) {
+      final Throwable cause = x.getCause();
+      if (cause != null) {
+        return cause;
+      }
+    }
+    return x;
+  }
+
+  private JCacheAsyncLoading()
+  {
+    throw new UnreachableCodeException();
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.util.List;
+
+/**
+ * <p>
+ * The interface supported by loaders that can close many objects at once.
+ * </p>
+ * <p>
+ * When a single operation removes several objects from a cache (such as
+ * evicting room for a large object, or deleting the cache), the cache calls
+ * {@link #cacheValueCloseAll(List)} once for all of the removed objects,
+ * instead of calling {@link #cacheValueClose(Object)} once per object. This
+ * allows loaders to release resources in bulk.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <V>
+ *          The type of cached values
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public interface JCacheBulkCloserType<K, V, E extends Throwable> extends
+  JCacheLoaderType<K, V, E>
+{
+  /**
+   * <p>
+   * Destroy all of <code>values</code>, freeing any associated resources.
+   * </p>
+   * <p>
+   * The list is read-only, and is only valid for the duration of the call.
+   * If an exception is raised, the cache cannot know which values were
+   * closed, and so reports the exception as a close error for every value
+   * in the list.
+   * </p>
+   *
+   * @param values
+   *          The objects to destroy
+   * @throws E
+   *           Iff an exception is raised during deletion
+   */
+
+  void cacheValueCloseAll(
+    final List<V> values)
+    throws E;
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * The interface supported by loaders that can load many objects at once.
+ * </p>
+ * <p>
+ * Caches that implement {@link LUCacheBulkType} will call
+ * {@link #cacheValueLoadAll(List)} once for all of the keys in a request
+ * that are not already cached, instead of calling
+ * {@link #cacheValueLoad(Object)} once per key.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <V>
+ *          The type of cached values
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public interface JCacheBulkLoaderType<K, V, E extends Throwable> extends
+  JCacheLoaderType<K, V, E>
+{
+  /**
+   * Load the objects named by <code>keys</code>. The keys are distinct, and
+   * are sorted by their natural order if they have one.
+   *
+   * @param keys
+   *          The keys
+   * @return A map containing a loaded object for every key in
+   *         <code>keys</code>
+   * @throws E
+   *           If loading fails
+   */
+
+  Map<K, V> cacheValueLoadAll(
+    final List<K> keys)
+    throws E;
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * The type of codecs that convert values to and from bytes, so that they
+ * can be stored outside of the Java heap.
+ * </p>
+ * <p>
+ * A codec is expected to raise unchecked exceptions on failure; such
+ * exceptions are propagated to the caller of the cache.
+ * </p>
+ *
+ * @param <V>
+ *          The type of values
+ */
+
+public interface JCacheCodecType<V>
+{
+  /**
+   * Decode a value from <code>source</code>. The buffer is positioned at the
+   * start of the encoded value, and its limit is set to the end of the
+   * encoded value.
+   *
+   * @param source
+   *          The bytes written by {@link #cacheCodecEncode(Object, ByteBuffer)}
+   * @return A decoded value
+   */
+
+  V cacheCodecDecode(
+    final ByteBuffer source);
+
+  /**
+   * Encode <code>value</code> to <code>target</code>, starting at the
+   * current position of <code>target</code>. Exactly
+   * {@link #cacheCodecSizeOf(Object)} bytes are available.
+   *
+   * @param value
+   *          The value
+   * @param target
+   *          The target buffer
+   */
+
+  void cacheCodecEncode(
+    final V value,
+    final ByteBuffer target);
+
+  /**
+   * @return The number of bytes that {@link #cacheCodecEncode(Object,
+   *         ByteBuffer)} will write for <code>value</code>
+   * @param value
+   *          The value
+   */
+
+  int cacheCodecSizeOf(
+    final V value);
+}
@@ -0,0 +1,701 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jranges.RangeInclusiveL;
+
+/**
+ * <p>
+ * A log-structured store for values on disk, intended to hold values evicted
+ * from an in-memory cache (see
+ * {@link LRUCacheTrivial#newCache(JCacheLoaderType, LRUCacheConfig, JCacheDiskTier)}
+ * ).
+ * </p>
+ * <p>
+ * Values are encoded with a {@link JCacheCodecType} and appended to the
+ * current segment file in the tier's directory; when the segment reaches the
+ * segment size, a new segment is started. An in-memory index maps each key to
+ * the position of its value, and values are read back with positional
+ * {@link FileChannel} reads. Each record is checksummed, and a record that
+ * fails verification is treated as absent. The index is not persisted: any
+ * segment files left in the directory by a previous tier are deleted when a
+ * new tier is created.
+ * </p>
+ * <p>
+ * Replacing or removing a value leaves a dead record behind. Segments that
+ * contain only dead records are deleted immediately, and segments that are
+ * less than half live are compacted by copying their live records to the
+ * current segment and deleting the old file. Compaction runs on the executor
+ * given at construction time. If the total size of all segment files exceeds
+ * the tier's maximum size, the oldest segments are dropped along with the
+ * values that they contain.
+ * </p>
+ * <p>
+ * The tier is thread-safe.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <V>
+ *          The type of values
+ */
+
+public final class JCacheDiskTier<K, V>
+{
+  private static final class Location<K>
+  {
+    private final int        length;
+    private final long       offset;
+    private final Segment<K> segment;
+
+    Location(
+      final Segment<K> in_segment,
+      final long in_offset,
+      final int in_length)
+    {
+      this.segment = in_segment;
+      this.offset = in_offset;
+      this.length = in_length;
+    }
+  }
+
+  private static final class Segment<K>
+  {
+    private final FileChannel channel;
+    private final long        id;
+    private final Set<K>      keys;
+    private long              live;
+    private final Path        path;
+    private long              size;
+
+    Segment(
+      final long in_id,
+      final Path in_path,
+      final FileChannel in_channel)
+    {
+      this.id = in_id;
+      this.path = in_path;
+      this.channel = in_channel;
+      this.keys = new HashSet<K>();
+    }
+  }
+
+  private static final int    HEADER_SIZE;
+  private static final String SEGMENT_PREFIX;
+  private static final String SEGMENT_SUFFIX;
+
+  static {
+    HEADER_SIZE = 8;
+    SEGMENT_PREFIX = "segment-";
+    SEGMENT_SUFFIX = ".log";
+  }
+
+  private static int checksum(
+    final ByteBuffer data)
+  {
+    final CRC32 c = new CRC32();
+    c.update(data.array(), data.arrayOffset() + data.position(), data
+      .remaining());
+    return (int) c.getValue();
+  }
+
+  /**
+   * Construct a new disk tier.
+   *
+   * @param directory
+   *          The directory that will hold segment files, which is created if
+   *          it does not exist
+   * @param codec
+   *          The codec used to store values
+   * @param maximum_size
+   *          The maximum total size of all segment files, in bytes
+   * @param segment_size
+   *          The maximum size of each segment file, in bytes; this is also
+   *          the size of the largest value that can be stored
+   * @param compactor
+   *          The executor on which compaction runs
+   * @return A new tier
+   * @throws IOException
+   *           On I/O errors
+   *
+   * @param <K>
+   *          The type of keys
+   * @param <V>
+   *          The type of values
+   */
+
+  public static <K, V> JCacheDiskTier<K, V> newTier(
+    final Path directory,
+    final JCacheCodecType<V> codec,
+    final long maximum_size,
+    final long segment_size,
+    final Executor compactor)
+    throws IOException
+  {
+    return new JCacheDiskTier<K, V>(
+      directory,
+      codec,
+      maximum_size,
+      segment_size,
+      compactor);
+  }
+
+  private final JCacheCodecType<V>           codec;
+  private long                               compactions;
+  private boolean                            compaction_scheduled;
+  private final Executor                     compactor;
+  private @Nullable Segment<K>               current;
+  private final Path                         directory;
+  private long                               dropped;
+  private final Map<K, Location<K>>          index;
+  private long                               live;
+  private final ReentrantLock                lock;
+  private final long                         maximum_size;
+  private long                               next_id;
+  private long                               reserved;
+  private final long                         segment_size;
+  private final NavigableMap<Long, Segment<K>> segments;
+
+  private JCacheDiskTier(
+    final Path in_directory,
+    final JCacheCodecType<V> in_codec,
+    final long in_maximum_size,
+    final long in_segment_size,
+    final Executor in_compactor)
+    throws IOException
+  {
+    this.directory = NullCheck.notNull(in_directory, "Directory");
+    this.codec = NullCheck.notNull(in_codec, "Codec");
+    this.compactor = NullCheck.notNull(in_compactor, "Compactor");
+    this.segment_size =
+      RangeCheck.checkIncludedIn(
+        in_segment_size,
+        "Segment size",
+        new RangeInclusiveL(
+          JCacheDiskTier.HEADER_SIZE + 1,
+          Integer.MAX_VALUE),
+        "Valid segment sizes");
+    this.maximum_size =
+      RangeCheck.checkGreaterEqual(
+        in_maximum_size,
+        "Maximum size",
+        in_segment_size,
+        "Segment size");
+
+    this.index = new HashMap<K, Location<K>>();
+    this.segments = new TreeMap<Long, Segment<K>>();
+    this.lock = new ReentrantLock();
+
+    Files.createDirectories(this.directory);
+    final DirectoryStream<Path> stale =
+      Files.newDirectoryStream(this.directory, JCacheDiskTier.SEGMENT_PREFIX
+        + "*"
+        + JCacheDiskTier.SEGMENT_SUFFIX);
+    try {
+      for (final Path p : stale) {
+        Files.deleteIfExists(p);
+      }
+    } finally {
+      stale.close();
+    }
+  }
+
+  private void append(
+    final K key,
+    final ByteBuffer record)
+    throws IOException
+  {
+    final int length = record.remaining();
+    Segment<K> s = this.current;
+    if ((s == null) || (s.size > (this.segment_size - length))) {
+      s = this.roll();
+    }
+
+    final long offset = s.size;
+    long position = offset;
+    while (record.hasRemaining()) {
+      position += s.channel.write(record, position);
+    }
+
+    s.size += length;
+    s.live += length;
+    s.keys.add(key);
+    this.reserved += length;
+    this.live += length;
+    this.index.put(key, new Location<K>(s, offset, length));
+  }
+
+  private @Nullable Segment<K> compactionCandidate()
+  {
+    for (final Segment<K> s : this.segments.values()) {
+      if ((s != this.current) && (s.live < (s.size / 2))) {
+        return s;
+      }
+    }
+    return null;
+  }
+
+  private boolean compactOnce()
+    throws IOException
+  {
+    this.lock.lock();
+    try {
+      final Segment<K> s = this.compactionCandidate();
+      if (s == null) {
+        return false;
+      }
+
+      final List<K> keys = new ArrayList<K>(s.keys);
+      for (final K key : keys) {
+        final Location<K> loc = this.index.get(key);
+        assert loc != null;
+        final ByteBuffer raw = this.read(loc);
+        this.remove(key);
+        this.append(key, raw);
+      }
+
+      if (this.segments.containsKey(Long.valueOf(s.id))) {
+        this.deleteSegment(s);
+      }
+
+      ++this.compactions;
+      this.enforceMaximumSize();
+      return true;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void deleteSegment(
+    final Segment<K> s)
+    throws IOException
+  {
+    assert s.live == 0L;
+    this.segments.remove(Long.valueOf(s.id));
+    this.reserved -= s.size;
+    if (this.current == s) {
+      this.current = null;
+    }
+
+    try {
+      s.channel.close();
+    } finally {
+      Files.deleteIfExists(s.path);
+    }
+  }
+
+  private void enforceMaximumSize()
+    throws IOException
+  {
+    while (this.reserved > this.maximum_size) {
+      final Map.Entry<Long, Segment<K>> e = this.segments.firstEntry();
+      assert e != null;
+      final Segment<K> s = e.getValue();
+      assert s != this.current;
+
+      for (final K key : s.keys) {
+        this.index.remove(key);
+        ++this.dropped;
+      }
+      this.live -= s.live;
+      s.keys.clear();
+      s.live = 0L;
+      this.deleteSegment(s);
+    }
+  }
+
+  /**
+   * @return The number of segments compacted so far
+   */
+
+  public long getCompactions()
+  {
+    this.lock.lock();
+    try {
+      return this.compactions;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of values dropped so far, because the tier exceeded
+   *         its maximum size
+   */
+
+  public long getDropped()
+  {
+    this.lock.lock();
+    try {
+      return this.dropped;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private ByteBuffer read(
+    final Location<K> loc)
+    throws IOException
+  {
+    final ByteBuffer b = ByteBuffer.allocate(loc.length);
+    long position = loc.offset;
+    while (b.hasRemaining()) {
+      final int r = loc.segment.channel.read(b, position);
+      if (r < 0) {
+        throw new EOFException(loc.segment.path.toString());
+      }
+      position += r;
+    }
+    b.flip();
+    return b;
+  }
+
+  private void remove(
+    final K key)
+    throws IOException
+  {
+    final Location<K> loc = this.index.remove(key);
+    if (loc != null) {
+      final Segment<K> s = loc.segment;
+      s.keys.remove(key);
+      s.live -= loc.length;
+      this.live -= loc.length;
+      if ((s.live == 0L) && (s != this.current)) {
+        this.deleteSegment(s);
+      }
+    }
+  }
+
+  private Segment<K> roll()
+    throws IOException
+  {
+    final Segment<K> previous = this.current;
+    if ((previous != null) && (previous.live == 0L)) {
+      this.deleteSegment(previous);
+    }
+
+    final long id = this.next_id;
+    ++this.next_id;
+
+    final Path p =
+      this.directory.resolve(String.format(
+        "%s%016x%s",
+        JCacheDiskTier.SEGMENT_PREFIX,
+        Long.valueOf(id),
+        JCacheDiskTier.SEGMENT_SUFFIX));
+    final FileChannel c =
+      FileChannel.open(
+        p,
+        StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+
+    final Segment<K> s = new Segment<K>(id, p, c);
+    this.segments.put(Long.valueOf(id), s);
+    this.current = s;
+    return s;
+  }
+
+  private void scheduleCompaction()
+  {
+    boolean schedule = false;
+    this.lock.lock();
+    try {
+      if ((this.compaction_scheduled == false)
+        && (this.compactionCandidate() != null)) {
+        this.compaction_scheduled = true;
+        schedule = true;
+      }
+    } finally {
+      this.lock.unlock();
+    }
+
+    if (schedule) {
+      this.compactor.execute(new Runnable() {
+        @Override public void run()
+        {
+          final JCacheDiskTier<K, V> t = JCacheDiskTier.this;
+          try {
+            while (t.compactOnce()) {
+              // Continue until no segment needs compaction
+            }
+          } catch (final IOException x) {
+            // Ignore: the segment will be compacted on the next attempt
+          } finally {
+            t.lock.lock();
+            try {
+              t.compaction_scheduled = false;
+            } finally {
+              t.lock.unlock();
+            }
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Compact all segments that need compaction, in the calling thread.
+   *
+   * @throws IOException
+   *           On I/O errors
+   */
+
+  public void tierCompact()
+    throws IOException
+  {
+    while (this.compactOnce()) {
+      // Continue until no segment needs compaction
+    }
+  }
+
+  /**
+   * @return <code>true</code> iff a value is stored for <code>key</code>
+   * @param key
+   *          The key
+   */
+
+  public boolean tierContains(
+    final K key)
+  {
+    NullCheck.notNull(key, "Key");
+    this.lock.lock();
+    try {
+      return this.index.containsKey(key);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Remove all values and delete all segment files.
+   *
+   * @throws IOException
+   *           On I/O errors
+   */
+
+  public void tierDelete()
+    throws IOException
+  {
+    this.lock.lock();
+    try {
+      final List<Segment<K>> all =
+        new ArrayList<Segment<K>>(this.segments.values());
+      this.index.clear();
+      this.live = 0L;
+      for (final Segment<K> s : all) {
+        s.keys.clear();
+        s.live = 0L;
+        this.deleteSegment(s);
+      }
+      assert this.reserved == 0L;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of values stored
+   */
+
+  public long tierItemCountLong()
+  {
+    this.lock.lock();
+    try {
+      return this.index.size();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Store <code>value</code> for <code>key</code>, replacing any value that
+   * is already stored.
+   *
+   * @param key
+   *          The key
+   * @param value
+   *          The value
+   * @return <code>false</code> iff the value is too large to be stored
+   * @throws IOException
+   *           On I/O errors
+   */
+
+  public boolean tierPut(
+    final K key,
+    final V value)
+    throws IOException
+  {
+    NullCheck.notNull(key, "Key");
+    NullCheck.notNull(value, "Value");
+
+    final int length = this.codec.cacheCodecSizeOf(value);
+    final boolean fits =
+      (length >= 0)
+        && (length <= (this.segment_size - JCacheDiskTier.HEADER_SIZE));
+
+    ByteBuffer record = null;
+    if (fits) {
+      record = ByteBuffer.allocate(JCacheDiskTier.HEADER_SIZE + length);
+      record.position(JCacheDiskTier.HEADER_SIZE);
+      final ByteBuffer body = record.slice();
+      this.codec.cacheCodecEncode(value, body);
+      body.flip();
+      record.putInt(0, body.remaining());
+      record.putInt(4, JCacheDiskTier.checksum(body));
+      record.position(0);
+      record.limit(JCacheDiskTier.HEADER_SIZE + body.remaining());
+    }
+
+    this.lock.lock();
+    try {
+      this.remove(key);
+      if (record != null) {
+        this.append(key, record);
+        this.enforceMaximumSize();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+
+    this.scheduleCompaction();
+    return fits;
+  }
+
+  /**
+   * @return The total size of all segment files, in bytes, including dead
+   *         records
+   */
+
+  public long tierReservedLong()
+  {
+    this.lock.lock();
+    try {
+      return this.reserved;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @return The total size of all live records, in bytes
+   */
+
+  public long tierSizeLong()
+  {
+    this.lock.lock();
+    try {
+      return this.live;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Remove and return the value stored for <code>key</code>.
+   *
+   * @param key
+   *          The key
+   * @return The stored value, or <code>null</code> if no value is stored,
+   *         the stored value is corrupt, or the codec fails to decode it
+   * @throws IOException
+   *           On I/O errors
+   */
+
+  public @Nullable V tierTake(
+    final K key)
+    throws IOException
+  {
+    NullCheck.notNull(key, "Key");
+
+    final ByteBuffer record;
+    this.lock.lock();
+    try {
+      final Location<K> loc = this.index.get(key);
+      if (loc == null) {
+        return null;
+      }
+
+      try {
+        record = this.read(loc);
+      } finally {
+        this.remove(key);
+      }
+    } finally {
+      this.lock.unlock();
+    }
+
+    this.scheduleCompaction();
+
+    final int length = record.getInt();
+    final int crc = record.getInt();
+    if (length != record.remaining()) {
+      return null;
+    }
+    final ByteBuffer body = record.slice();
+    if (JCacheDiskTier.checksum(body) != crc) {
+      return null;
+    }
+
+    /**
+     * The record has already been removed, so a value that cannot be
+     * decoded is lost: treat it in the same way as a corrupt record.
+     */
+
+    try {
+      return this.codec.cacheCodecDecode(body.asReadOnlyBuffer());
+    } catch (final RuntimeException x) {
+      return null;
+    }
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder();
+    b.append("[JCacheDiskTier ");
+    b.append(this.directory);
+    b.append(" [size ");
+    b.append(this.tierSizeLong());
+    b.append("] [reserved ");
+    b.append(this.tierReservedLong());
+    b.append("]]");
+    return b.toString();
+  }
+}
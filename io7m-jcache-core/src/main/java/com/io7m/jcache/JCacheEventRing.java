@@ -0,0 +1,217 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * A bounded ring buffer of cache events, written by any number of threads
+ * and read by one thread at a time.
+ * </p>
+ * <p>
+ * The slots of the buffer are allocated up front as parallel arrays, and
+ * each slot carries a sequence number that says whether it is free to be
+ * written or ready to be read (after Dmitry Vyukov's bounded MPMC queue,
+ * specialized to a single reader). Writers claim a position by advancing
+ * the tail with a CAS, and never wait on each other, or on the reader,
+ * except when the buffer is full.
+ * </p>
+ */
+
+final class JCacheEventRing
+{
+  static final int               KIND_CLOSE_ERROR;
+  static final int               KIND_EVICTED;
+  static final int               KIND_LOADED;
+  static final int               KIND_RETRIEVED;
+
+  static {
+    KIND_CLOSE_ERROR = 0;
+    KIND_EVICTED = 1;
+    KIND_LOADED = 2;
+    KIND_RETRIEVED = 3;
+  }
+
+  /**
+   * @param capacity
+   *          A capacity
+   * @return The smallest power of two not less than <code>capacity</code>
+   *         (and not less than 2)
+   */
+
+  static int capacityFor(
+    final int capacity)
+  {
+    assert capacity <= (1 << 30);
+    return Math.max(2, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+  }
+
+  private final @Nullable Throwable[] errors;
+  private volatile long               head;
+  private final Object[]              keys;
+  private final int[]                 kinds;
+  private final int                   mask;
+  private final AtomicLongArray       sequences;
+  private final BigInteger[]          sizes;
+  private final AtomicLong            tail;
+  private final Object[]              values;
+
+  JCacheEventRing(
+    final int in_capacity)
+  {
+    final int capacity = JCacheEventRing.capacityFor(in_capacity);
+    this.mask = capacity - 1;
+    this.errors = new Throwable[capacity];
+    this.keys = new Object[capacity];
+    this.kinds = new int[capacity];
+    this.sizes = new BigInteger[capacity];
+    this.values = new Object[capacity];
+    this.sequences = new AtomicLongArray(capacity);
+    for (int index = 0; index < capacity; ++index) {
+      this.sequences.set(index, index);
+    }
+    this.head = 0L;
+    this.tail = new AtomicLong(0L);
+  }
+
+  /**
+   * @return The number of slots in the buffer
+   */
+
+  int capacity()
+  {
+    return this.mask + 1;
+  }
+
+  /**
+   * Remove the oldest event from the buffer and, if <code>events</code> is
+   * not <code>null</code>, deliver it. The slot is released before the
+   * event is delivered, so that writers can proceed whilst
+   * <code>events</code> runs. Must only be called by one thread at a time.
+   *
+   * @param events
+   *          The receiver, if any
+   * @return <code>false</code> iff the buffer was empty
+   */
+
+  @SuppressWarnings("unchecked") <K, V> boolean deliverOne(
+    final @Nullable JCacheEventsType<K, V> events)
+  {
+    final long position = this.head;
+    final int index = (int) (position & this.mask);
+    if (this.sequences.get(index) != (position + 1)) {
+      return false;
+    }
+
+    final int kind = this.kinds[index];
+    final K key = (K) this.keys[index];
+    final V value = (V) this.values[index];
+    final BigInteger size = this.sizes[index];
+    final Throwable error = this.errors[index];
+    this.keys[index] = null;
+    this.values[index] = null;
+    this.sizes[index] = null;
+    this.errors[index] = null;
+
+    this.sequences.lazySet(index, position + this.mask + 1);
+    this.head = position + 1;
+
+    if (events != null) {
+      if (kind == JCacheEventRing.KIND_CLOSE_ERROR) {
+        assert error != null;
+        events.cacheEventValueCloseError(key, value, size, error);
+      } else if (kind == JCacheEventRing.KIND_EVICTED) {
+        events.cacheEventValueEvicted(key, value, size);
+      } else if (kind == JCacheEventRing.KIND_LOADED) {
+        events.cacheEventValueLoaded(key, value, size);
+      } else {
+        assert kind == JCacheEventRing.KIND_RETRIEVED;
+        events.cacheEventValueRetrieved(key, value, size);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return <code>true</code> iff there are no events in the buffer
+   */
+
+  boolean isEmpty()
+  {
+    return this.size() == 0L;
+  }
+
+  /**
+   * Add an event to the buffer.
+   *
+   * @param kind
+   *          The kind of event
+   * @param key
+   *          The key
+   * @param value
+   *          The value
+   * @param size
+   *          The size of the value
+   * @param error
+   *          The error, for close errors
+   * @return <code>false</code> iff the buffer is full
+   */
+
+  boolean offer(
+    final int kind,
+    final Object key,
+    final Object value,
+    final BigInteger size,
+    final @Nullable Throwable error)
+  {
+    long position = this.tail.get();
+    while (true) {
+      final int index = (int) (position & this.mask);
+      final long difference = this.sequences.get(index) - position;
+      if (difference == 0L) {
+        if (this.tail.compareAndSet(position, position + 1)) {
+          this.kinds[index] = kind;
+          this.keys[index] = key;
+          this.values[index] = value;
+          this.sizes[index] = size;
+          this.errors[index] = error;
+          this.sequences.set(index, position + 1);
+          return true;
+        }
+        position = this.tail.get();
+      } else if (difference < 0L) {
+        return false;
+      } else {
+        position = this.tail.get();
+      }
+    }
+  }
+
+  /**
+   * @return The approximate number of events in the buffer
+   */
+
+  long size()
+  {
+    return Math.max(0L, this.tail.get() - this.head);
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * <p>
+ * The interface supported by event receivers that can receive many
+ * evictions at once.
+ * </p>
+ * <p>
+ * When a single operation removes several objects from a cache (such as
+ * evicting room for a large object, or deleting the cache), a receiver that
+ * implements this interface receives one call to
+ * {@link #cacheEventValuesEvicted(List, List, BigInteger)} for all of the
+ * removed objects, instead of one call to
+ * {@link #cacheEventValueEvicted(Object, Object, BigInteger)} per object.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <V>
+ *          The type of cached values
+ */
+
+public interface JCacheEventsBulkType<K, V> extends JCacheEventsType<K, V>
+{
+  /**
+   * <p>
+   * Called when the values <code>values</code>, associated with the keys
+   * <code>keys</code> at the same indices, have been removed from the cache
+   * and are about to be closed.
+   * </p>
+   * <p>
+   * The lists are read-only, and are only valid for the duration of the
+   * call.
+   * </p>
+   *
+   * @param keys
+   *          The keys
+   * @param values
+   *          The values
+   * @param size
+   *          The total size of <tt>values</tt>
+   */
+
+  void cacheEventValuesEvicted(
+    final List<K> keys,
+    final List<V> values,
+    final BigInteger size);
+}
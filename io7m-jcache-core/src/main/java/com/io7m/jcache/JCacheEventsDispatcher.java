@@ -0,0 +1,383 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jranges.RangeInclusiveL;
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>
+ * An event receiver that delivers events to any number of subscribers,
+ * asynchronously.
+ * </p>
+ * <p>
+ * Caches accept a single {@link JCacheEventsType}, and call it on the
+ * thread performing the cache operation. Subscribing a dispatcher to a cache
+ * (with {@link JCacheEventsSubscriptionType#cacheEventsSubscribe}) instead
+ * places each event into a preallocated ring buffer per subscriber, from
+ * which the event is delivered by a task running on the given
+ * {@link Executor}. A slow subscriber therefore affects cache operations
+ * only as far as its {@link JCacheEventsOverflow} policy allows.
+ * </p>
+ * <p>
+ * Because events are delivered after the fact, subscribers must not use
+ * the values they receive: an evicted value, for example, will typically
+ * have been closed by the time the subscriber sees it. Events are delivered
+ * to each subscriber in the order in which they were produced, and a
+ * subscriber is never called by more than one thread at a time. Exceptions
+ * raised by subscribers are ignored.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <V>
+ *          The type of values
+ */
+
+public final class JCacheEventsDispatcher<K, V> implements
+  JCacheEventsType<K, V>
+{
+  private static final class Subscriber<K, V> implements
+    JCacheEventsSubscriberType,
+    Runnable
+  {
+    private volatile boolean                  cancelled;
+    private volatile long                     delivered;
+    private final LongAdder                   dropped;
+    private final JCacheEventsType<K, V>      events;
+    private final Executor                    executor;
+    private final JCacheEventsOverflow        overflow;
+    private final List<Subscriber<K, V>>      owner;
+    private final JCacheEventRing             ring;
+    private final AtomicLong                  sample;
+    private final AtomicBoolean               scheduled;
+
+    Subscriber(
+      final List<Subscriber<K, V>> in_owner,
+      final Executor in_executor,
+      final JCacheEventsType<K, V> in_events,
+      final JCacheEventsOverflow in_overflow,
+      final int in_capacity)
+    {
+      this.owner = in_owner;
+      this.executor = in_executor;
+      this.events = in_events;
+      this.overflow = in_overflow;
+      this.ring = new JCacheEventRing(in_capacity);
+      this.dropped = new LongAdder();
+      this.sample = new AtomicLong(0L);
+      this.scheduled = new AtomicBoolean(false);
+      this.cancelled = false;
+      this.delivered = 0L;
+    }
+
+    private boolean offer(
+      final int kind,
+      final Object key,
+      final Object value,
+      final BigInteger size,
+      final @Nullable Throwable x)
+    {
+      switch (this.overflow) {
+        case OVERFLOW_BLOCK:
+        {
+          while (this.ring.offer(kind, key, value, size, x) == false) {
+            if (this.cancelled) {
+              return false;
+            }
+            this.schedule();
+            LockSupport.parkNanos(JCacheEventsDispatcher.BLOCK_WAIT_NANOS);
+          }
+          return true;
+        }
+        case OVERFLOW_DROP:
+        {
+          return this.ring.offer(kind, key, value, size, x);
+        }
+        case OVERFLOW_SAMPLE:
+        {
+          if ((this.ring.size() * 2) >= this.ring.capacity()) {
+            final long n = this.sample.getAndIncrement();
+            if ((n % JCacheEventsDispatcher.SAMPLE_INTERVAL) != 0L) {
+              return false;
+            }
+          }
+          return this.ring.offer(kind, key, value, size, x);
+        }
+      }
+
+      throw new UnreachableCodeException();
+    }
+
+    void publish(
+      final int kind,
+      final Object key,
+      final Object value,
+      final BigInteger size,
+      final @Nullable Throwable x)
+    {
+      if (this.cancelled) {
+        return;
+      }
+
+      if (this.offer(kind, key, value, size, x)) {
+        this.schedule();
+      } else {
+        this.dropped.increment();
+      }
+    }
+
+    @Override public void run()
+    {
+      /**
+       * Deliver at most one buffer's worth of events before yielding the
+       * executor's thread to other tasks.
+       */
+
+      final int limit = this.ring.capacity();
+      for (int count = 0; count < limit; ++count) {
+        if (this.cancelled) {
+          while (this.ring.deliverOne(null)) {
+            // Discard
+          }
+          this.scheduled.set(false);
+          return;
+        }
+
+        if (this.deliver() == false) {
+          this.scheduled.set(false);
+
+          /**
+           * An event may have been added after the buffer was observed to
+           * be empty, but before the flag was cleared, in which case the
+           * producer will not have scheduled delivery.
+           */
+
+          if (this.ring.isEmpty()
+            || (this.scheduled.compareAndSet(false, true) == false)) {
+            return;
+          }
+        }
+      }
+
+      this.scheduled.set(false);
+      this.schedule();
+    }
+
+    private boolean deliver()
+    {
+      try {
+        final boolean some = this.ring.deliverOne(this.events);
+        if (some) {
+          this.delivered = this.delivered + 1;
+        }
+        return some;
+      } catch (final Throwable e) {
+        this.delivered = this.delivered + 1;
+        return true;
+      }
+    }
+
+    private void schedule()
+    {
+      if (this.scheduled.compareAndSet(false, true)) {
+        boolean ok = false;
+        try {
+          this.executor.execute(this);
+          ok = true;
+        } finally {
+          if (ok == false) {
+            this.scheduled.set(false);
+          }
+        }
+      }
+    }
+
+    @Override public void subscriberCancel()
+    {
+      this.cancelled = true;
+      this.owner.remove(this);
+      this.schedule();
+    }
+
+    @Override public long subscriberGetDelivered()
+    {
+      return this.delivered;
+    }
+
+    @Override public long subscriberGetDropped()
+    {
+      return this.dropped.sum();
+    }
+
+    @Override public JCacheEventsOverflow subscriberGetOverflow()
+    {
+      return this.overflow;
+    }
+  }
+
+  /**
+   * The fraction of events kept by {@link JCacheEventsOverflow#OVERFLOW_SAMPLE}
+   * subscribers that have fallen behind.
+   */
+
+  public static final long   SAMPLE_INTERVAL;
+
+  private static final long  BLOCK_WAIT_NANOS;
+
+  static {
+    SAMPLE_INTERVAL = 8L;
+    BLOCK_WAIT_NANOS = 10000L;
+  }
+
+  /**
+   * Construct a new dispatcher.
+   *
+   * @param executor
+   *          The executor on which events are delivered
+   * @return A new dispatcher
+   *
+   * @param <K>
+   *          The type of keys
+   * @param <V>
+   *          The type of values
+   */
+
+  public static <K, V> JCacheEventsDispatcher<K, V> newDispatcher(
+    final Executor executor)
+  {
+    return new JCacheEventsDispatcher<K, V>(executor);
+  }
+
+  private final Executor               executor;
+  private final List<Subscriber<K, V>> subscribers;
+
+  private JCacheEventsDispatcher(
+    final Executor in_executor)
+  {
+    this.executor = NullCheck.notNull(in_executor, "Executor");
+    this.subscribers = new CopyOnWriteArrayList<Subscriber<K, V>>();
+  }
+
+  @Override public void cacheEventValueCloseError(
+    final K key,
+    final V value,
+    final BigInteger size,
+    final Throwable x)
+  {
+    for (final Subscriber<K, V> s : this.subscribers) {
+      s.publish(JCacheEventRing.KIND_CLOSE_ERROR, key, value, size, x);
+    }
+  }
+
+  @Override public void cacheEventValueEvicted(
+    final K key,
+    final V value,
+    final BigInteger size)
+  {
+    for (final Subscriber<K, V> s : this.subscribers) {
+      s.publish(JCacheEventRing.KIND_EVICTED, key, value, size, null);
+    }
+  }
+
+  @Override public void cacheEventValueLoaded(
+    final K key,
+    final V value,
+    final BigInteger size)
+  {
+    for (final Subscriber<K, V> s : this.subscribers) {
+      s.publish(JCacheEventRing.KIND_LOADED, key, value, size, null);
+    }
+  }
+
+  @Override public void cacheEventValueRetrieved(
+    final K key,
+    final V value,
+    final BigInteger size)
+  {
+    for (final Subscriber<K, V> s : this.subscribers) {
+      s.publish(JCacheEventRing.KIND_RETRIEVED, key, value, size, null);
+    }
+  }
+
+  /**
+   * @return The number of current subscribers
+   */
+
+  public int dispatcherSubscriberCount()
+  {
+    return this.subscribers.size();
+  }
+
+  /**
+   * Add a subscriber.
+   *
+   * @param events
+   *          The receiver of events
+   * @param overflow
+   *          The behaviour when the receiver's buffer is full
+   * @param capacity
+   *          The number of events that can be buffered for the receiver;
+   *          rounded up to a power of two
+   * @return The subscription
+   */
+
+  public JCacheEventsSubscriberType dispatcherSubscribe(
+    final JCacheEventsType<K, V> events,
+    final JCacheEventsOverflow overflow,
+    final int capacity)
+  {
+    NullCheck.notNull(events, "Events");
+    NullCheck.notNull(overflow, "Overflow");
+    RangeCheck.checkIncludedIn(
+      capacity,
+      "Capacity",
+      new RangeInclusiveL(1L, 1L << 30),
+      "Valid capacities");
+
+    final Subscriber<K, V> s =
+      new Subscriber<K, V>(
+        this.subscribers,
+        this.executor,
+        events,
+        overflow,
+        capacity);
+    this.subscribers.add(s);
+    return s;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("[JCacheEventsDispatcher [subscribers ");
+    builder.append(this.subscribers.size());
+    builder.append("]]");
+    return builder.toString();
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+/**
+ * <p>
+ * The behaviour of a {@link JCacheEventsDispatcher} subscriber when its
+ * buffer of undelivered events is full.
+ * </p>
+ */
+
+public enum JCacheEventsOverflow
+{
+  /**
+   * Wait for the subscriber to make room. Every event is delivered, but a
+   * slow subscriber stalls the cache operations that produce events.
+   */
+
+  OVERFLOW_BLOCK,
+
+  /**
+   * Discard events that do not fit into the buffer. Cache operations are
+   * never stalled.
+   */
+
+  OVERFLOW_DROP,
+
+  /**
+   * As {@link #OVERFLOW_DROP}, but once the buffer is half full, only one in
+   * every {@link JCacheEventsDispatcher#SAMPLE_INTERVAL} events is buffered.
+   * A subscriber that falls behind therefore continues to receive a
+   * representative sample of recent events, rather than the events that
+   * happened to arrive whilst there was space.
+   */
+
+  OVERFLOW_SAMPLE
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+/**
+ * A subscription to a {@link JCacheEventsDispatcher}.
+ */
+
+public interface JCacheEventsSubscriberType
+{
+  /**
+   * Cancel the subscription. Events that have not yet been delivered are
+   * discarded.
+   */
+
+  void subscriberCancel();
+
+  /**
+   * @return The number of events delivered to the subscriber
+   */
+
+  long subscriberGetDelivered();
+
+  /**
+   * @return The number of events discarded due to the overflow policy
+   */
+
+  long subscriberGetDropped();
+
+  /**
+   * @return The overflow policy of the subscriber
+   */
+
+  JCacheEventsOverflow subscriberGetOverflow();
+}
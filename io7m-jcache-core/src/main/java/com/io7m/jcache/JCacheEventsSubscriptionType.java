@@ -30,7 +30,10 @@ public interface JCacheEventsSubscriptionType<K, V>
   /**
    * Subscribe to events for the current cache, replacing any existing
    * subscriptions (if any). The cache will call functions in the given
-   * interface when events occur.
+   * interface when events occur, on the thread performing the operation
+   * that caused the event. To deliver events to more than one receiver, or
+   * away from the threads using the cache, subscribe a
+   * {@link JCacheEventsDispatcher}.
    * 
    * @param events
    *          The event receiver.
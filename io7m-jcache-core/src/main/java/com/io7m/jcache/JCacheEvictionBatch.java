@@ -0,0 +1,300 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * The objects removed from a cache by a single operation, waiting to be
+ * announced and closed.
+ * </p>
+ * <p>
+ * Caches add objects to the batch as they remove them, and then
+ * {@link #flush(JCacheLoaderType, JCacheStatisticsCounters, JCacheEventsType)}
+ * the batch once the operation has finished removing objects. Event
+ * receivers that implement {@link JCacheEventsBulkType}, and loaders that
+ * implement {@link JCacheBulkCloserType}, receive a single call for the
+ * whole batch. Other receivers and loaders are called once per object, in
+ * the order in which the objects were removed, with each object announced
+ * immediately before it is closed.
+ * </p>
+ * <p>
+ * The storage for the batch is retained between operations, so that
+ * steady-state eviction does not allocate.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <V>
+ *          The type of cached values
+ */
+
+final class JCacheEvictionBatch<K, V>
+{
+  private boolean       flushing;
+  private final List<K> keys;
+  private long[]        sizes;
+  private final List<V> values;
+
+  JCacheEvictionBatch()
+  {
+    this.keys = new ArrayList<K>();
+    this.values = new ArrayList<V>();
+    this.sizes = new long[16];
+    this.flushing = false;
+  }
+
+  private static <K, V> void eventCloseError(
+    final @Nullable JCacheEventsType<K, V> events,
+    final K key,
+    final V value,
+    final long size,
+    final Throwable x)
+  {
+    if (events != null) {
+      try {
+        events.cacheEventValueCloseError(
+          key,
+          value,
+          BigInteger.valueOf(size),
+          x);
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  private static <K, V> void eventEvicted(
+    final @Nullable JCacheEventsType<K, V> events,
+    final K key,
+    final V value,
+    final long size)
+  {
+    if (events != null) {
+      try {
+        events.cacheEventValueEvicted(key, value, BigInteger.valueOf(size));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  /**
+   * Add an object that has been removed from the cache.
+   *
+   * @param key
+   *          The key
+   * @param value
+   *          The value
+   * @param size
+   *          The size of the value
+   */
+
+  void add(
+    final K key,
+    final V value,
+    final long size)
+  {
+    final int index = this.keys.size();
+    if (index == this.sizes.length) {
+      this.sizes = Arrays.copyOf(this.sizes, index * 2);
+    }
+    this.sizes[index] = size;
+    this.keys.add(key);
+    this.values.add(value);
+  }
+
+  private void announceAll(
+    final JCacheEventsBulkType<K, V> events,
+    final int count)
+  {
+    long total = 0L;
+    for (int index = 0; index < count; ++index) {
+      total = total + this.sizes[index];
+    }
+    try {
+      events.cacheEventValuesEvicted(
+        this.viewKeys(count),
+        this.viewValues(count),
+        BigInteger.valueOf(total));
+    } catch (final Throwable _) {
+      // Ignore
+    }
+  }
+
+  private <E extends Throwable> void closeAll(
+    final JCacheBulkCloserType<K, V, E> closer,
+    final JCacheStatisticsCounters statistics,
+    final @Nullable JCacheEventsType<K, V> events,
+    final int count)
+  {
+    try {
+      statistics.closeAll(closer, this.viewValues(count));
+    } catch (final Throwable x) {
+      for (int index = 0; index < count; ++index) {
+        JCacheEvictionBatch.eventCloseError(
+          events,
+          this.keys.get(index),
+          this.values.get(index),
+          this.sizes[index],
+          x);
+      }
+    }
+  }
+
+  private void announceEach(
+    final @Nullable JCacheEventsType<K, V> events,
+    final int count)
+  {
+    for (int index = 0; index < count; ++index) {
+      JCacheEvictionBatch.eventEvicted(
+        events,
+        this.keys.get(index),
+        this.values.get(index),
+        this.sizes[index]);
+    }
+  }
+
+  private <E extends Throwable> void closeEach(
+    final JCacheLoaderType<K, V, E> loader,
+    final JCacheStatisticsCounters statistics,
+    final @Nullable JCacheEventsType<K, V> events,
+    final boolean announce,
+    final int count)
+  {
+    for (int index = 0; index < count; ++index) {
+      final K key = this.keys.get(index);
+      final V value = this.values.get(index);
+      final long size = this.sizes[index];
+      if (announce) {
+        JCacheEvictionBatch.eventEvicted(events, key, value, size);
+      }
+      try {
+        statistics.close(loader, value);
+      } catch (final Throwable x) {
+        JCacheEvictionBatch.eventCloseError(events, key, value, size, x);
+      }
+    }
+  }
+
+  /**
+   * Announce and close every object in the batch, and empty the batch.
+   * Objects added by event receivers or loaders during the flush (if they
+   * reenter the cache) are flushed before this method returns.
+   *
+   * @param loader
+   *          The loader that will close the objects
+   * @param statistics
+   *          The statistics for the cache
+   * @param events
+   *          The event receiver, if any
+   */
+
+  <E extends Throwable> void flush(
+    final JCacheLoaderType<K, V, E> loader,
+    final JCacheStatisticsCounters statistics,
+    final @Nullable JCacheEventsType<K, V> events)
+  {
+    this.flushWith(loader, statistics, events);
+  }
+
+  /**
+   * Announce every object in the batch, without closing any of them, and
+   * empty the batch. This is used by caches that do not retain the values
+   * that they were given by the loader.
+   *
+   * @param events
+   *          The event receiver, if any
+   */
+
+  void flushEvents(
+    final @Nullable JCacheEventsType<K, V> events)
+  {
+    this.flushWith(null, null, events);
+  }
+
+  @SuppressWarnings("unchecked") private <E extends Throwable> void flushRange(
+    final @Nullable JCacheLoaderType<K, V, E> loader,
+    final @Nullable JCacheStatisticsCounters statistics,
+    final @Nullable JCacheEventsType<K, V> events,
+    final int count)
+  {
+    final boolean events_bulk = events instanceof JCacheEventsBulkType;
+    if (events_bulk) {
+      this.announceAll((JCacheEventsBulkType<K, V>) events, count);
+    }
+
+    if ((loader == null) || (statistics == null)) {
+      if (events_bulk == false) {
+        this.announceEach(events, count);
+      }
+    } else if (loader instanceof JCacheBulkCloserType) {
+      if (events_bulk == false) {
+        this.announceEach(events, count);
+      }
+      this.closeAll(
+        (JCacheBulkCloserType<K, V, E>) loader,
+        statistics,
+        events,
+        count);
+    } else {
+      this.closeEach(loader, statistics, events, events_bulk == false, count);
+    }
+  }
+
+  private <E extends Throwable> void flushWith(
+    final @Nullable JCacheLoaderType<K, V, E> loader,
+    final @Nullable JCacheStatisticsCounters statistics,
+    final @Nullable JCacheEventsType<K, V> events)
+  {
+    if (this.flushing) {
+      return;
+    }
+
+    this.flushing = true;
+    try {
+      while (this.keys.isEmpty() == false) {
+        final int count = this.keys.size();
+        this.flushRange(loader, statistics, events, count);
+        this.keys.subList(0, count).clear();
+        this.values.subList(0, count).clear();
+        System.arraycopy(this.sizes, count, this.sizes, 0, this.keys.size());
+      }
+    } finally {
+      this.flushing = false;
+    }
+  }
+
+  private List<K> viewKeys(
+    final int count)
+  {
+    return Collections.unmodifiableList(this.keys.subList(0, count));
+  }
+
+  private List<V> viewValues(
+    final int count)
+  {
+    return Collections.unmodifiableList(this.values.subList(0, count));
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * The built-in eviction policies.
+ */
+
+public final class JCacheEvictionPolicies
+{
+  private static final class FIFO implements JCacheEvictionPolicyFactoryType
+  {
+    FIFO()
+    {
+      // Nothing
+    }
+
+    @Override public <K> JCacheEvictionPolicyType<K> newPolicy()
+    {
+      return new JCacheEvictionPolicyQueue<K>(false);
+    }
+
+    @Override public String toString()
+    {
+      return "fifo";
+    }
+  }
+
+  private static final class LFU implements JCacheEvictionPolicyFactoryType
+  {
+    LFU()
+    {
+      // Nothing
+    }
+
+    @Override public <K> JCacheEvictionPolicyType<K> newPolicy()
+    {
+      return new JCacheEvictionPolicyLFU<K>();
+    }
+
+    @Override public String toString()
+    {
+      return "lfu";
+    }
+  }
+
+  private static final class LRU implements JCacheEvictionPolicyFactoryType
+  {
+    LRU()
+    {
+      // Nothing
+    }
+
+    @Override public <K> JCacheEvictionPolicyType<K> newPolicy()
+    {
+      return new JCacheEvictionPolicyQueue<K>(true);
+    }
+
+    @Override public String toString()
+    {
+      return "lru";
+    }
+  }
+
+  private static final JCacheEvictionPolicyFactoryType FIFO_FACTORY;
+  private static final JCacheEvictionPolicyFactoryType LFU_FACTORY;
+  private static final JCacheEvictionPolicyFactoryType LRU_FACTORY;
+
+  static {
+    FIFO_FACTORY = new FIFO();
+    LFU_FACTORY = new LFU();
+    LRU_FACTORY = new LRU();
+  }
+
+  /**
+   * @return A first-in-first-out policy: objects are evicted in the order
+   *         that they were inserted, regardless of how often they are used.
+   */
+
+  public static JCacheEvictionPolicyFactoryType fifo()
+  {
+    return JCacheEvictionPolicies.FIFO_FACTORY;
+  }
+
+  /**
+   * @return A least-frequently-used policy: the object that has been
+   *         retrieved the fewest times since it was inserted is evicted
+   *         first, with ties broken by recency.
+   */
+
+  public static JCacheEvictionPolicyFactoryType lfu()
+  {
+    return JCacheEvictionPolicies.LFU_FACTORY;
+  }
+
+  /**
+   * @return A least-recently-used policy: the object that was retrieved
+   *         least recently is evicted first.
+   */
+
+  public static JCacheEvictionPolicyFactoryType lru()
+  {
+    return JCacheEvictionPolicies.LRU_FACTORY;
+  }
+
+  private JCacheEvictionPolicies()
+  {
+    throw new UnreachableCodeException();
+  }
+}
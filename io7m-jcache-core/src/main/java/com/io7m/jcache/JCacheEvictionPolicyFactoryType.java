@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+/**
+ * <p>
+ * The type of eviction policy factories.
+ * </p>
+ * <p>
+ * Cache configurations are immutable and may be shared between caches,
+ * whereas eviction policies are mutable and belong to exactly one cache.
+ * Configurations therefore hold factories, and each cache creates its own
+ * policy.
+ * </p>
+ *
+ * @see JCacheEvictionPolicies
+ */
+
+public interface JCacheEvictionPolicyFactoryType
+{
+  /**
+   * @return A new, empty eviction policy
+   *
+   * @param <K>
+   *          The type of keys
+   */
+
+  <K> JCacheEvictionPolicyType<K> newPolicy();
+}
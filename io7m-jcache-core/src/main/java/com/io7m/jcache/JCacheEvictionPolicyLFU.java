@@ -0,0 +1,178 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * A least-frequently-used eviction policy: the key that has been accessed
+ * the fewest times is chosen for eviction, with ties broken by evicting the
+ * least recently used key.
+ * </p>
+ * <p>
+ * Keys are kept in a list of buckets ordered by ascending access count, so
+ * that all operations are <code>O(1)</code>.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ */
+
+final class JCacheEvictionPolicyLFU<K> implements
+  JCacheEvictionPolicyType<K>
+{
+  private static final class Bucket<K> extends JCacheListNode<Bucket<K>>
+  {
+    private final long             count;
+    private final JCacheList<Node<K>> entries;
+
+    Bucket(
+      final long in_count)
+    {
+      this.count = in_count;
+      this.entries = new JCacheList<Node<K>>();
+    }
+
+    long getCount()
+    {
+      return this.count;
+    }
+
+    JCacheList<Node<K>> getEntries()
+    {
+      return this.entries;
+    }
+  }
+
+  private static final class Node<K> extends JCacheListNode<Node<K>>
+  {
+    private @Nullable Bucket<K> bucket;
+    private final K             key;
+
+    Node(
+      final K in_key)
+    {
+      this.key = in_key;
+      this.bucket = null;
+    }
+
+    Bucket<K> getBucket()
+    {
+      final Bucket<K> b = this.bucket;
+      assert b != null;
+      return b;
+    }
+
+    K getKey()
+    {
+      return this.key;
+    }
+
+    void setBucket(
+      final Bucket<K> b)
+    {
+      this.bucket = b;
+    }
+  }
+
+  private final JCacheList<Bucket<K>> buckets;
+  private final Map<K, Node<K>>       nodes;
+
+  JCacheEvictionPolicyLFU()
+  {
+    this.nodes = new HashMap<K, Node<K>>();
+    this.buckets = new JCacheList<Bucket<K>>();
+  }
+
+  private void bucketRemoveNode(
+    final Bucket<K> b,
+    final Node<K> n)
+  {
+    b.getEntries().remove(n);
+    if (b.getEntries().isEmpty()) {
+      this.buckets.remove(b);
+    }
+  }
+
+  @Override public K policyChooseVictim()
+    throws JCacheException
+  {
+    final Bucket<K> b = this.buckets.first();
+    if (b == null) {
+      throw JCacheException.errorPolicyEmpty();
+    }
+
+    final Node<K> n = b.getEntries().first();
+    assert n != null;
+    return n.getKey();
+  }
+
+  @Override public void policyRecordAccess(
+    final K key)
+  {
+    final Node<K> n = this.nodes.get(NullCheck.notNull(key, "Key"));
+    assert n != null;
+
+    final Bucket<K> b = n.getBucket();
+    if (b.getCount() == Long.MAX_VALUE) {
+      b.getEntries().moveToLast(n);
+      return;
+    }
+
+    final long next_count = b.getCount() + 1;
+    Bucket<K> next = b.getNext();
+    if ((next == null) || (next.getCount() != next_count)) {
+      next = new Bucket<K>(next_count);
+      this.buckets.addAfter(b, next);
+    }
+
+    this.bucketRemoveNode(b, n);
+    next.getEntries().addLast(n);
+    n.setBucket(next);
+  }
+
+  @Override public void policyRecordInsert(
+    final K key,
+    final long size)
+  {
+    final Node<K> n = new Node<K>(NullCheck.notNull(key, "Key"));
+    final Node<K> o = this.nodes.put(key, n);
+    assert o == null;
+
+    Bucket<K> first = this.buckets.first();
+    if ((first == null) || (first.getCount() != 1L)) {
+      first = new Bucket<K>(1L);
+      this.buckets.addFirst(first);
+    }
+
+    first.getEntries().addLast(n);
+    n.setBucket(first);
+  }
+
+  @Override public void policyRecordRemove(
+    final K key)
+  {
+    final Node<K> n = this.nodes.remove(NullCheck.notNull(key, "Key"));
+    assert n != null;
+    this.bucketRemoveNode(n.getBucket(), n);
+  }
+}
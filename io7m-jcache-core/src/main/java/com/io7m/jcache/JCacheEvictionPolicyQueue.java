@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * An eviction policy that keeps keys in a queue. The key at the head of the
+ * queue is chosen for eviction. If <code>reorder</code> is
+ * <code>true</code>, accessing a key moves it to the tail of the queue
+ * (giving LRU eviction); otherwise, keys are evicted in insertion order
+ * (giving FIFO eviction).
+ *
+ * @param <K>
+ *          The type of keys
+ */
+
+final class JCacheEvictionPolicyQueue<K> implements
+  JCacheEvictionPolicyType<K>
+{
+  private static final class Node<K> extends JCacheListNode<Node<K>>
+  {
+    private final K key;
+
+    Node(
+      final K in_key)
+    {
+      this.key = in_key;
+    }
+
+    K getKey()
+    {
+      return this.key;
+    }
+  }
+
+  private final Map<K, Node<K>>    nodes;
+  private final JCacheList<Node<K>> queue;
+  private final boolean            reorder;
+
+  JCacheEvictionPolicyQueue(
+    final boolean in_reorder)
+  {
+    this.reorder = in_reorder;
+    this.nodes = new HashMap<K, Node<K>>();
+    this.queue = new JCacheList<Node<K>>();
+  }
+
+  @Override public K policyChooseVictim()
+    throws JCacheException
+  {
+    final Node<K> n = this.queue.first();
+    if (n == null) {
+      throw JCacheException.errorPolicyEmpty();
+    }
+    return n.getKey();
+  }
+
+  @Override public void policyRecordAccess(
+    final K key)
+  {
+    if (this.reorder) {
+      final Node<K> n = this.nodes.get(NullCheck.notNull(key, "Key"));
+      assert n != null;
+      this.queue.moveToLast(n);
+    }
+  }
+
+  @Override public void policyRecordInsert(
+    final K key,
+    final long size)
+  {
+    final Node<K> n = new Node<K>(NullCheck.notNull(key, "Key"));
+    final Node<K> o = this.nodes.put(key, n);
+    assert o == null;
+    this.queue.addLast(n);
+  }
+
+  @Override public void policyRecordRemove(
+    final K key)
+  {
+    final Node<K> n = this.nodes.remove(NullCheck.notNull(key, "Key"));
+    assert n != null;
+    this.queue.remove(n);
+  }
+}
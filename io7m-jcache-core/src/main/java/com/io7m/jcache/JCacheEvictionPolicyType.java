@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+/**
+ * <p>
+ * The type of eviction policies.
+ * </p>
+ * <p>
+ * An eviction policy tracks the set of keys currently held by a cache, and
+ * decides which key should be evicted when the cache needs to free space.
+ * The cache informs the policy of every insertion, access and removal; the
+ * policy never removes keys of its own accord.
+ * </p>
+ * <p>
+ * Policies are not required to be thread-safe: a cache calls its policy
+ * from one thread at a time.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ *
+ * @see JCacheEvictionPolicies
+ */
+
+public interface JCacheEvictionPolicyType<K>
+{
+  /**
+   * Choose the key that should be evicted next. The cache will subsequently
+   * remove the key and call {@link #policyRecordRemove(Object)}.
+   *
+   * @return The key of the object to be evicted
+   * @throws JCacheException
+   *           Iff the policy is not tracking any keys
+   */
+
+  K policyChooseVictim()
+    throws JCacheException;
+
+  /**
+   * Record the fact that the object named <code>key</code> has been
+   * retrieved from the cache.
+   *
+   * @param key
+   *          The key, which is currently tracked by the policy
+   */
+
+  void policyRecordAccess(
+    final K key);
+
+  /**
+   * Record the fact that the object named <code>key</code> has been
+   * inserted into the cache.
+   *
+   * @param key
+   *          The key, which is not currently tracked by the policy
+   * @param size
+   *          The size of the inserted object
+   */
+
+  void policyRecordInsert(
+    final K key,
+    final long size);
+
+  /**
+   * Record the fact that the object named <code>key</code> has been removed
+   * from the cache.
+   *
+   * @param key
+   *          The key, which is currently tracked by the policy
+   */
+
+  void policyRecordRemove(
+    final K key);
+}
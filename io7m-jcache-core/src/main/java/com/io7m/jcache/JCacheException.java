@@ -40,6 +40,23 @@ public abstract class JCacheException extends RuntimeException
     }
   }
 
+  /**
+   * A load was rejected, because too many loads were already in progress and
+   * no capacity became available in time.
+   */
+
+  public static final class JCacheExceptionLoadRejected extends
+    JCacheException
+  {
+    private static final long serialVersionUID = 5208937511209147716L;
+
+    JCacheExceptionLoadRejected(
+      final String message)
+    {
+      super(message);
+    }
+  }
+
   /**
    * An object cannot be stored in the cache, because its size is greater than
    * the cache's maximum capacity.
@@ -75,7 +92,26 @@ public abstract class JCacheException extends RuntimeException
   }
 
   /**
-   * The cache cannot grow larger than {@link Integer#MAX_VALUE} items.
+   * An eviction policy did not behave as required: it had no key to
+   * evict when the cache needed to evict an object, or it chose a key that
+   * the cache does not contain.
+   */
+
+  public static final class JCacheExceptionPolicyError extends
+    JCacheException
+  {
+    private static final long serialVersionUID = 3170461251092658301L;
+
+    JCacheExceptionPolicyError(
+      final String message)
+    {
+      super(message);
+    }
+  }
+
+  /**
+   * The cache cannot grow larger than {@link Integer#MAX_VALUE} items, or
+   * cannot account for a total size larger than {@link Long#MAX_VALUE} units.
    */
 
   public static final class JCacheExceptionSizeOverflow extends
@@ -112,6 +148,36 @@ public abstract class JCacheException extends RuntimeException
     serialVersionUID = -4142305723422812182L;
   }
 
+  /**
+   * Construct an exception indicating that a batch of objects is too large
+   * to be held in the cache at the same time.
+   *
+   * @param count
+   *          The number of objects in the batch
+   * @param size
+   *          The total size of the objects
+   * @param maximum
+   *          The maximum capacity of the cache
+   * @return An exception
+   */
+
+  static JCacheException errorBatchTooLarge(
+    final int count,
+    final long size,
+    final long maximum)
+  {
+    final StringBuilder m = new StringBuilder();
+    m.append("Batch of ");
+    m.append(count);
+    m.append(" objects is of total size ");
+    m.append(size);
+    m.append(", which is too large for a cache with maximum capacity of ");
+    m.append(maximum);
+    final String r = m.toString();
+    assert r != null;
+    return new JCacheExceptionObjectTooLarge(r);
+  }
+
   static JCacheExceptionSizeOverflow errorInternalCacheOverflow(
     final int size)
   {
@@ -124,6 +190,35 @@ public abstract class JCacheException extends RuntimeException
     return new JCacheExceptionSizeOverflow(r);
   }
 
+  static JCacheExceptionSizeOverflow errorInternalSizeOverflow(
+    final BigInteger size)
+  {
+    final StringBuilder m = new StringBuilder();
+    m.append("The cache cannot account for an object of size ");
+    m.append(size);
+    m.append(": sizes must not exceed ");
+    m.append(Long.MAX_VALUE);
+    final String r = m.toString();
+    assert r != null;
+    return new JCacheExceptionSizeOverflow(r);
+  }
+
+  static JCacheExceptionSizeOverflow errorInternalSizeOverflow(
+    final long used,
+    final long size)
+  {
+    final StringBuilder m = new StringBuilder();
+    m.append("The cache cannot grow from size ");
+    m.append(used);
+    m.append(" by ");
+    m.append(size);
+    m.append(": the total size must not exceed ");
+    m.append(Long.MAX_VALUE);
+    final String r = m.toString();
+    assert r != null;
+    return new JCacheExceptionSizeOverflow(r);
+  }
+
   /**
    * Construct an exception indicating that a loader returned <tt>null</tt>.
    *
@@ -144,6 +239,44 @@ public abstract class JCacheException extends RuntimeException
     return new JCacheExceptionLoaderReturnedNull(r);
   }
 
+  /**
+   * Construct an exception indicating that a load was rejected.
+   *
+   * @param key
+   *          The key
+   * @param maximum
+   *          The maximum number of concurrent loads
+   * @param timeout_nanos
+   *          The time spent waiting for capacity, in nanoseconds
+   * @param interrupted
+   *          <code>true</code> if waiting was interrupted
+   * @return An exception
+   */
+
+  static <K> JCacheException errorLoadRejected(
+    final K key,
+    final int maximum,
+    final long timeout_nanos,
+    final boolean interrupted)
+  {
+    final StringBuilder m = new StringBuilder();
+    m.append("Load of '");
+    m.append(key);
+    m.append("' rejected: ");
+    m.append(maximum);
+    m.append(" loads already in progress");
+    if (interrupted) {
+      m.append(", and waiting was interrupted");
+    } else {
+      m.append(", and none finished within ");
+      m.append(timeout_nanos);
+      m.append("ns");
+    }
+    final String r = m.toString();
+    assert r != null;
+    return new JCacheExceptionLoadRejected(r);
+  }
+
   /**
    * Construct an exception indicating that an object is too large for the
    * cache.
@@ -176,6 +309,36 @@ public abstract class JCacheException extends RuntimeException
     return new JCacheExceptionObjectTooLarge(r);
   }
 
+  /**
+   * Construct an exception indicating that an object is too large for the
+   * cache.
+   *
+   * @param key
+   *          The key
+   * @param size
+   *          The size of the object
+   * @param maximum
+   *          The maximum object size
+   * @return An exception
+   */
+
+  static <K> JCacheException errorObjectTooLarge(
+    final K key,
+    final long size,
+    final long maximum)
+  {
+    final StringBuilder m = new StringBuilder();
+    m.append("Object for '");
+    m.append(key);
+    m.append("' is of size ");
+    m.append(size);
+    m.append(", which is too large for a cache with maximum capacity of ");
+    m.append(maximum);
+    final String r = m.toString();
+    assert r != null;
+    return new JCacheExceptionObjectTooLarge(r);
+  }
+
   /**
    * Construct an exception indicating that an object returned a negative
    * size.
@@ -205,6 +368,67 @@ public abstract class JCacheException extends RuntimeException
     return new JCacheExceptionObjectTooSmall(r);
   }
 
+  /**
+   * Construct an exception indicating that an object returned a negative
+   * size.
+   *
+   * @param key
+   *          The key
+   * @param size
+   *          The size of the object
+   *
+   * @return An exception
+   */
+
+  static <K> JCacheException errorObjectTooSmall(
+    final K key,
+    final long size)
+  {
+    final StringBuilder m = new StringBuilder();
+    m.append("Object for '");
+    m.append(key);
+    m.append("' is of size ");
+    m.append(size);
+    m.append(", which is too small: must be at least 1");
+    final String r = m.toString();
+    assert r != null;
+    return new JCacheExceptionObjectTooSmall(r);
+  }
+
+  /**
+   * Construct an exception indicating that an eviction policy had no key to
+   * evict.
+   *
+   * @return An exception
+   */
+
+  static JCacheException errorPolicyEmpty()
+  {
+    return new JCacheExceptionPolicyError(
+      "The eviction policy has no key to evict");
+  }
+
+  /**
+   * Construct an exception indicating that an eviction policy chose a key
+   * that is not in the cache.
+   *
+   * @param key
+   *          The key
+   * @return An exception
+   */
+
+  static <K> JCacheException errorPolicyVictimNotCached(
+    final K key)
+  {
+    final StringBuilder m = new StringBuilder();
+    m.append("The eviction policy chose the key '");
+    m.append(key);
+    m.append("', which is not in the cache");
+    final String r = m.toString();
+    assert r != null;
+    return new JCacheExceptionPolicyError(r);
+  }
+
   static <K> JCacheException tooManyBorrows(
     final K key)
   {
@@ -216,6 +440,39 @@ public abstract class JCacheException extends RuntimeException
     return new JCacheExceptionTooManyBorrows(r);
   }
 
+  /**
+   * Construct an exception indicating that a caller waited for a borrowed
+   * value to be returned, but none was returned in time.
+   *
+   * @param key
+   *          The key
+   * @param timeout_nanos
+   *          The time spent waiting, in nanoseconds
+   * @param interrupted
+   *          <code>true</code> if waiting was interrupted
+   * @return An exception
+   */
+
+  static <K> JCacheException tooManyBorrowsWaited(
+    final K key,
+    final long timeout_nanos,
+    final boolean interrupted)
+  {
+    final StringBuilder m = new StringBuilder();
+    m.append("The cache contains too many borrowed items for key ");
+    m.append(key);
+    if (interrupted) {
+      m.append(", and waiting was interrupted");
+    } else {
+      m.append(", and none were returned within ");
+      m.append(timeout_nanos);
+      m.append("ns");
+    }
+    final String r = m.toString();
+    assert r != null;
+    return new JCacheExceptionTooManyBorrows(r);
+  }
+
   JCacheException(
     final String message)
   {
@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * A flight recorder event covering the time that an object is borrowed
+ * from a {@link BLUCacheType}: the event begins when the object is
+ * borrowed, and ends when it is returned. Objects that are never returned
+ * produce no event.
+ * </p>
+ * <p>
+ * The event is disabled unless enabled by the recording settings.
+ * </p>
+ *
+ * @see JCacheFlightRecorder
+ */
+
+@Name("com.io7m.jcache.Borrow")
+@Label("Cache Borrow")
+@Category({ "io7m", "jcache" })
+@Description("An object was borrowed from a cache and returned")
+@Enabled(false)
+final class JCacheFlightEventBorrow extends Event
+{
+  private static final EventType TYPE;
+
+  static {
+    TYPE = EventType.getEventType(JCacheFlightEventBorrow.class);
+  }
+
+  static void eventFinish(
+    final Object event,
+    final Object key,
+    final long size)
+  {
+    final JCacheFlightEventBorrow e = (JCacheFlightEventBorrow) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.key_hash = key.hashCode();
+      e.size = size;
+      e.commit();
+    }
+  }
+
+  static @Nullable Object eventStart()
+  {
+    if (JCacheFlightEventBorrow.TYPE.isEnabled()) {
+      final JCacheFlightEventBorrow e = new JCacheFlightEventBorrow();
+      e.begin();
+      return e;
+    }
+    return null;
+  }
+
+  @Label("Key Hash")
+  @Description("The hash code of the key")
+  private int  key_hash;
+
+  @Label("Size")
+  @Description("The size of the borrowed object")
+  private long size;
+
+  JCacheFlightEventBorrow()
+  {
+    super();
+  }
+}
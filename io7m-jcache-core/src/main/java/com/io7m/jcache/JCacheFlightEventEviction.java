@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * <p>
+ * A flight recorder event marking the eviction of an object to make room
+ * for another.
+ * </p>
+ * <p>
+ * Evictions can be as frequent as loads, so the event is disabled unless
+ * enabled by the recording settings.
+ * </p>
+ *
+ * @see JCacheFlightRecorder
+ */
+
+@Name("com.io7m.jcache.Eviction")
+@Label("Cache Eviction")
+@Category({ "io7m", "jcache" })
+@Description("An object was evicted from a cache")
+@Enabled(false)
+final class JCacheFlightEventEviction extends Event
+{
+  private static final EventType TYPE;
+
+  static {
+    TYPE = EventType.getEventType(JCacheFlightEventEviction.class);
+  }
+
+  static void eventCommit(
+    final long size)
+  {
+    if (JCacheFlightEventEviction.TYPE.isEnabled()) {
+      final JCacheFlightEventEviction e = new JCacheFlightEventEviction();
+      if (e.shouldCommit()) {
+        e.size = size;
+        e.commit();
+      }
+    }
+  }
+
+  @Label("Size")
+  @Description("The size of the evicted object")
+  private long size;
+
+  JCacheFlightEventEviction()
+  {
+    super();
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import com.io7m.jnull.Nullable;
+
+/**
+ * A flight recorder event covering a single call to
+ * {@link JCacheLoaderType#cacheValueLoad(Object)}.
+ *
+ * @see JCacheFlightRecorder
+ */
+
+@Name("com.io7m.jcache.Load")
+@Label("Cache Load")
+@Category({ "io7m", "jcache" })
+@Description("An object was loaded into a cache")
+final class JCacheFlightEventLoad extends Event
+{
+  private static final EventType TYPE;
+
+  static {
+    TYPE = EventType.getEventType(JCacheFlightEventLoad.class);
+  }
+
+  static <K, V> void eventFinish(
+    final Object event,
+    final JCacheLoaderType<K, V, ?> loader,
+    final K key,
+    final @Nullable V value)
+  {
+    final JCacheFlightEventLoad e = (JCacheFlightEventLoad) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.key_hash = key.hashCode();
+      e.succeeded = value != null;
+      e.size = -1L;
+
+      /**
+       * The size is calculated again, rather than passed in by the caller,
+       * so that the cost is only paid whilst the event is being recorded.
+       */
+
+      if (value != null) {
+        try {
+          e.size =
+            JCacheAccounting.sizeOf(
+              loader,
+              JCacheAccounting.supportsLong(loader),
+              value);
+        } catch (final JCacheException x) {
+          // Ignore
+        }
+      }
+      e.commit();
+    }
+  }
+
+  static @Nullable Object eventStart()
+  {
+    if (JCacheFlightEventLoad.TYPE.isEnabled()) {
+      final JCacheFlightEventLoad e = new JCacheFlightEventLoad();
+      e.begin();
+      return e;
+    }
+    return null;
+  }
+
+  @Label("Key Hash")
+  @Description("The hash code of the key")
+  private int     key_hash;
+
+  @Label("Size")
+  @Description("The size of the object, or -1 if loading failed")
+  private long    size;
+
+  @Label("Succeeded")
+  @Description("True iff the loader returned an object")
+  private boolean succeeded;
+
+  JCacheFlightEventLoad()
+  {
+    super();
+  }
+}
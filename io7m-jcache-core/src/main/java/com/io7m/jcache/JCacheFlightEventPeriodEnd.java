@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import com.io7m.jnull.Nullable;
+
+/**
+ * A flight recorder event covering a call to
+ * {@link PCacheType#cachePeriodEnd()}, including any evictions.
+ *
+ * @see JCacheFlightRecorder
+ */
+
+@Name("com.io7m.jcache.PeriodEnd")
+@Label("Cache Period End")
+@Category({ "io7m", "jcache" })
+@Description("A periodic cache finished a period")
+final class JCacheFlightEventPeriodEnd extends Event
+{
+  private static final EventType TYPE;
+
+  static {
+    TYPE = EventType.getEventType(JCacheFlightEventPeriodEnd.class);
+  }
+
+  static void eventFinish(
+    final Object event,
+    final long evicted)
+  {
+    final JCacheFlightEventPeriodEnd e = (JCacheFlightEventPeriodEnd) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.evicted = evicted;
+      e.commit();
+    }
+  }
+
+  static @Nullable Object eventStart()
+  {
+    if (JCacheFlightEventPeriodEnd.TYPE.isEnabled()) {
+      final JCacheFlightEventPeriodEnd e = new JCacheFlightEventPeriodEnd();
+      e.begin();
+      return e;
+    }
+    return null;
+  }
+
+  @Label("Evicted")
+  @Description("The number of objects evicted at the end of the period")
+  private long evicted;
+
+  JCacheFlightEventPeriodEnd()
+  {
+    super();
+  }
+}
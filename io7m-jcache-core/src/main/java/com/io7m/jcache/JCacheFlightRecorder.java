@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>
+ * Emission of Java Flight Recorder events for cache operations.
+ * </p>
+ * <p>
+ * The events are defined by <code>JCacheFlightEvent*</code> classes, which
+ * are the only classes that refer to <code>jdk.jfr</code>. They are only
+ * loaded if the running JVM provides the flight recorder, so that the
+ * package continues to work on runtimes without it.
+ * </p>
+ * <p>
+ * Events are started by methods that return <code>null</code> unless the
+ * event is enabled in a running recording, and finished by methods that
+ * do nothing when given <code>null</code>. Nothing is allocated when no
+ * recording is running.
+ * </p>
+ */
+
+final class JCacheFlightRecorder
+{
+  private static final boolean AVAILABLE;
+
+  static {
+    AVAILABLE = JCacheFlightRecorder.checkAvailable();
+  }
+
+  /**
+   * Start timing a borrow of an object from a {@link BLUCacheType}.
+   *
+   * @return An event, or <code>null</code> if the event is disabled
+   */
+
+  static @Nullable Object borrowStarted()
+  {
+    if (JCacheFlightRecorder.AVAILABLE) {
+      return JCacheFlightEventBorrow.eventStart();
+    }
+    return null;
+  }
+
+  /**
+   * Finish timing the borrow <code>event</code>, as the borrowed object is
+   * returned.
+   *
+   * @param event
+   *          The event, if any
+   * @param key
+   *          The key of the borrowed object
+   * @param size
+   *          The size of the borrowed object
+   */
+
+  static void borrowFinished(
+    final @Nullable Object event,
+    final Object key,
+    final long size)
+  {
+    if (event != null) {
+      JCacheFlightEventBorrow.eventFinish(event, key, size);
+    }
+  }
+
+  private static boolean checkAvailable()
+  {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (final ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Record the eviction of an object.
+   *
+   * @param size
+   *          The size of the object
+   */
+
+  static void evicted(
+    final long size)
+  {
+    if (JCacheFlightRecorder.AVAILABLE) {
+      JCacheFlightEventEviction.eventCommit(size);
+    }
+  }
+
+  /**
+   * Start timing a load.
+   *
+   * @return An event, or <code>null</code> if the event is disabled
+   */
+
+  static @Nullable Object loadStarted()
+  {
+    if (JCacheFlightRecorder.AVAILABLE) {
+      return JCacheFlightEventLoad.eventStart();
+    }
+    return null;
+  }
+
+  /**
+   * Finish timing the load <code>event</code>.
+   *
+   * @param event
+   *          The event, if any
+   * @param loader
+   *          The loader
+   * @param key
+   *          The key
+   * @param value
+   *          The loaded value, or <code>null</code> if loading failed
+   */
+
+  static <K, V> void loadFinished(
+    final @Nullable Object event,
+    final JCacheLoaderType<K, V, ?> loader,
+    final K key,
+    final @Nullable V value)
+  {
+    if (event != null) {
+      JCacheFlightEventLoad.eventFinish(event, loader, key, value);
+    }
+  }
+
+  /**
+   * Start timing the end of a {@link PCacheType} period.
+   *
+   * @return An event, or <code>null</code> if the event is disabled
+   */
+
+  static @Nullable Object periodEndStarted()
+  {
+    if (JCacheFlightRecorder.AVAILABLE) {
+      return JCacheFlightEventPeriodEnd.eventStart();
+    }
+    return null;
+  }
+
+  /**
+   * Finish timing the period end <code>event</code>.
+   *
+   * @param event
+   *          The event, if any
+   * @param evicted
+   *          The number of objects evicted
+   */
+
+  static void periodEndFinished(
+    final @Nullable Object event,
+    final long evicted)
+  {
+    if (event != null) {
+      JCacheFlightEventPeriodEnd.eventFinish(event, evicted);
+    }
+  }
+
+  private JCacheFlightRecorder()
+  {
+    throw new UnreachableCodeException();
+  }
+}
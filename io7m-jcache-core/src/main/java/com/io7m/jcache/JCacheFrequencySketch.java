@@ -0,0 +1,254 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+/**
+ * <p>
+ * A count-min sketch of 4-bit counters with a doorkeeper, used to estimate
+ * how often keys have been requested.
+ * </p>
+ * <p>
+ * Each long in the table holds sixteen counters. A key selects one group of
+ * four counters in each of four table entries, and the estimate of its
+ * frequency is the smallest of the four. The first occurrence of a key
+ * within a sample period is recorded only in the doorkeeper (a small bloom
+ * filter), so that keys that are requested once do not pollute the sketch.
+ * </p>
+ * <p>
+ * When the number of recorded increments reaches ten times the width of the
+ * table, every counter is halved and the doorkeeper is cleared, so that the
+ * sketch gradually forgets old history.
+ * </p>
+ */
+
+final class JCacheFrequencySketch
+{
+  private static final long   COUNTER_MASK;
+  private static final long   HALVING_MASK;
+  private static final int    INITIAL_WIDTH_MAXIMUM;
+  private static final int    MAXIMUM_WIDTH;
+  private static final int    MINIMUM_WIDTH;
+  private static final long[] SEEDS;
+
+  static {
+    COUNTER_MASK = 0xfL;
+    HALVING_MASK = 0x7777777777777777L;
+    MINIMUM_WIDTH = 16;
+    MAXIMUM_WIDTH = 1 << 26;
+    INITIAL_WIDTH_MAXIMUM = 1 << 12;
+    SEEDS =
+      new long[] {
+        0xc3a5c85c97cb3127L,
+        0xb492b66fbe98f273L,
+        0x9ae16a3b2f90404fL,
+        0xcbf29ce484222325L, };
+  }
+
+  private static int spread(
+    final int x)
+  {
+    int h = x * 0x9e3779b9;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return h;
+  }
+
+  private static int widthFor(
+    final long items)
+  {
+    int w = JCacheFrequencySketch.MINIMUM_WIDTH;
+    while ((w < items) && (w < JCacheFrequencySketch.MAXIMUM_WIDTH)) {
+      w = w * 2;
+    }
+    return w;
+  }
+
+  private long[] doorkeeper;
+  private long   increments;
+  private int    mask;
+  private long   sample_size;
+  private long[] table;
+
+  /**
+   * Construct a sketch.
+   *
+   * @param expected_items
+   *          An estimate of the number of keys that will be tracked. The
+   *          initial width of the sketch is limited to a modest size, and
+   *          the sketch is widened as necessary by
+   *          {@link #ensureCapacity(long)}.
+   */
+
+  JCacheFrequencySketch(
+    final long expected_items)
+  {
+    this.resize(JCacheFrequencySketch.widthFor(Math.min(
+      expected_items,
+      JCacheFrequencySketch.INITIAL_WIDTH_MAXIMUM)));
+  }
+
+  private boolean doorkeeperContains(
+    final int h)
+  {
+    final int bits_mask = (this.doorkeeper.length << 6) - 1;
+    final int b0 = h & bits_mask;
+    final int b1 = (h >>> 16 | h << 16) & bits_mask;
+    return ((this.doorkeeper[b0 >>> 6] & (1L << b0)) != 0)
+      && ((this.doorkeeper[b1 >>> 6] & (1L << b1)) != 0);
+  }
+
+  private void doorkeeperPut(
+    final int h)
+  {
+    final int bits_mask = (this.doorkeeper.length << 6) - 1;
+    final int b0 = h & bits_mask;
+    final int b1 = (h >>> 16 | h << 16) & bits_mask;
+    this.doorkeeper[b0 >>> 6] |= 1L << b0;
+    this.doorkeeper[b1 >>> 6] |= 1L << b1;
+  }
+
+  /**
+   * Ensure that the sketch is wide enough to track <code>items</code> keys
+   * with reasonable accuracy. Widening the sketch discards its history.
+   *
+   * @param items
+   *          The number of keys that are expected to be tracked
+   */
+
+  void ensureCapacity(
+    final long items)
+  {
+    if ((items > this.table.length)
+      && (this.table.length < JCacheFrequencySketch.MAXIMUM_WIDTH)) {
+      this.resize(JCacheFrequencySketch.widthFor(items));
+    }
+  }
+
+  /**
+   * @return The estimated number of times that <code>key</code> has been
+   *         recorded, in the range <code>[0, 16]</code>
+   * @param key
+   *          The key
+   */
+
+  int frequency(
+    final Object key)
+  {
+    final int h = JCacheFrequencySketch.spread(key.hashCode());
+    final int start = (h & 3) << 2;
+
+    int minimum = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; ++i) {
+      final int index = this.indexOf(h, i);
+      final int offset = (start + i) << 2;
+      final int count =
+        (int) ((this.table[index] >>> offset) & JCacheFrequencySketch.COUNTER_MASK);
+      minimum = Math.min(minimum, count);
+    }
+
+    if (this.doorkeeperContains(h)) {
+      return minimum + 1;
+    }
+    return minimum;
+  }
+
+  private int indexOf(
+    final int h,
+    final int i)
+  {
+    long hash = (h + JCacheFrequencySketch.SEEDS[i]) * JCacheFrequencySketch.SEEDS[i];
+    hash += hash >>> 32;
+    return ((int) hash) & this.mask;
+  }
+
+  /**
+   * Record an occurrence of <code>key</code>.
+   *
+   * @param key
+   *          The key
+   */
+
+  void increment(
+    final Object key)
+  {
+    final int h = JCacheFrequencySketch.spread(key.hashCode());
+
+    if (this.doorkeeperContains(h) == false) {
+      this.doorkeeperPut(h);
+    } else {
+      final int start = (h & 3) << 2;
+      boolean added = false;
+      for (int i = 0; i < 4; ++i) {
+        added |= this.incrementAt(this.indexOf(h, i), start + i);
+      }
+      if (added == false) {
+        return;
+      }
+    }
+
+    ++this.increments;
+    if (this.increments >= this.sample_size) {
+      this.reset();
+    }
+  }
+
+  private boolean incrementAt(
+    final int index,
+    final int counter)
+  {
+    final int offset = counter << 2;
+    final long m = JCacheFrequencySketch.COUNTER_MASK << offset;
+    if ((this.table[index] & m) != m) {
+      this.table[index] += 1L << offset;
+      return true;
+    }
+    return false;
+  }
+
+  private void reset()
+  {
+    for (int index = 0; index < this.table.length; ++index) {
+      this.table[index] =
+        (this.table[index] >>> 1) & JCacheFrequencySketch.HALVING_MASK;
+    }
+    for (int index = 0; index < this.doorkeeper.length; ++index) {
+      this.doorkeeper[index] = 0L;
+    }
+    this.increments = this.increments / 2;
+  }
+
+  private void resize(
+    final int width)
+  {
+    this.table = new long[width];
+    this.doorkeeper = new long[width];
+    this.mask = width - 1;
+    this.sample_size = 10L * width;
+    this.increments = 0L;
+  }
+
+  /**
+   * @return The sample size of the sketch: the number of increments after
+   *         which all counters are halved
+   */
+
+  long sampleSize()
+  {
+    return this.sample_size;
+  }
+}
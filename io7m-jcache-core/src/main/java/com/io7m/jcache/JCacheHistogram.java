@@ -0,0 +1,313 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.util.Arrays;
+
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * An immutable snapshot of a log-linear histogram of latencies, in
+ * nanoseconds.
+ * </p>
+ * <p>
+ * Values below {@link #SUB_BUCKETS} are counted exactly. Above that, each
+ * power of two is divided into {@link #SUB_BUCKETS} equally sized buckets,
+ * so that any value reported by the histogram (such as a quantile) is within
+ * <code>1 / SUB_BUCKETS</code> of the true value, relative to that value.
+ * The minimum, maximum and total of the recorded values are exact.
+ * </p>
+ *
+ * @see JCacheStatistics
+ */
+
+public final class JCacheHistogram
+{
+  /**
+   * The number of buckets into which each power of two is divided.
+   */
+
+  public static final int              SUB_BUCKETS;
+
+  /**
+   * The total number of buckets in a histogram.
+   */
+
+  public static final int              BUCKETS;
+
+  private static final int             SUB_BUCKET_BITS;
+  private static final JCacheHistogram EMPTY;
+
+  static {
+    SUB_BUCKET_BITS = 4;
+    SUB_BUCKETS = 1 << JCacheHistogram.SUB_BUCKET_BITS;
+    BUCKETS =
+      (64 - JCacheHistogram.SUB_BUCKET_BITS) * JCacheHistogram.SUB_BUCKETS;
+    EMPTY = new JCacheHistogram(new long[JCacheHistogram.BUCKETS], 0L, 0L, 0L);
+  }
+
+  /**
+   * @param index
+   *          The bucket index
+   * @return The smallest value counted by the bucket <code>index</code>
+   */
+
+  public static long bucketLowerBound(
+    final int index)
+  {
+    JCacheHistogram.checkIndex(index);
+    if (index < JCacheHistogram.SUB_BUCKETS) {
+      return index;
+    }
+    final int group = index >>> JCacheHistogram.SUB_BUCKET_BITS;
+    final int sub = index & (JCacheHistogram.SUB_BUCKETS - 1);
+    return ((long) JCacheHistogram.SUB_BUCKETS + sub) << (group - 1);
+  }
+
+  /**
+   * @param index
+   *          The bucket index
+   * @return The largest value counted by the bucket <code>index</code>
+   */
+
+  public static long bucketUpperBound(
+    final int index)
+  {
+    JCacheHistogram.checkIndex(index);
+    if (index < JCacheHistogram.SUB_BUCKETS) {
+      return index;
+    }
+    final int group = index >>> JCacheHistogram.SUB_BUCKET_BITS;
+    return JCacheHistogram.bucketLowerBound(index) + ((1L << (group - 1)) - 1L);
+  }
+
+  /**
+   * @param value
+   *          A value
+   * @return The index of the bucket that counts <code>value</code>. Negative
+   *         values are counted as zero.
+   */
+
+  public static int bucketIndex(
+    final long value)
+  {
+    if (value < JCacheHistogram.SUB_BUCKETS) {
+      return (int) Math.max(0L, value);
+    }
+
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int shift = exponent - JCacheHistogram.SUB_BUCKET_BITS;
+    final int sub = (int) (value >>> shift) & (JCacheHistogram.SUB_BUCKETS - 1);
+    return ((shift + 1) << JCacheHistogram.SUB_BUCKET_BITS) + sub;
+  }
+
+  private static void checkIndex(
+    final int index)
+  {
+    if ((index < 0) || (index >= JCacheHistogram.BUCKETS)) {
+      throw new IndexOutOfBoundsException("Bucket index " + index);
+    }
+  }
+
+  /**
+   * @return A histogram with no recorded values
+   */
+
+  public static JCacheHistogram empty()
+  {
+    return JCacheHistogram.EMPTY;
+  }
+
+  private final long   count;
+  private final long[] counts;
+  private final long   maximum;
+  private final long   minimum;
+  private final long   total;
+
+  /**
+   * Construct a histogram, taking ownership of <code>in_counts</code>.
+   */
+
+  JCacheHistogram(
+    final long[] in_counts,
+    final long in_minimum,
+    final long in_maximum,
+    final long in_total)
+  {
+    assert in_counts.length == JCacheHistogram.BUCKETS;
+
+    long c = 0L;
+    for (final long x : in_counts) {
+      c = c + x;
+    }
+
+    this.counts = in_counts;
+    this.count = c;
+    this.minimum = (c == 0L) ? 0L : in_minimum;
+    this.maximum = (c == 0L) ? 0L : in_maximum;
+    this.total = (c == 0L) ? 0L : in_total;
+  }
+
+  @Override public boolean equals(
+    final @Nullable Object obj)
+  {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (this.getClass() != obj.getClass()) {
+      return false;
+    }
+    final JCacheHistogram other = (JCacheHistogram) obj;
+    return (this.minimum == other.minimum)
+      && (this.maximum == other.maximum)
+      && (this.total == other.total)
+      && Arrays.equals(this.counts, other.counts);
+  }
+
+  /**
+   * @param index
+   *          The bucket index
+   * @return The number of values counted by the bucket <code>index</code>
+   */
+
+  public long getBucketCount(
+    final int index)
+  {
+    JCacheHistogram.checkIndex(index);
+    return this.counts[index];
+  }
+
+  /**
+   * @return The number of recorded values
+   */
+
+  public long getCount()
+  {
+    return this.count;
+  }
+
+  /**
+   * @return The largest recorded value, or <code>0</code> if no values have
+   *         been recorded
+   */
+
+  public long getMaximum()
+  {
+    return this.maximum;
+  }
+
+  /**
+   * @return The mean of the recorded values, or <code>0.0</code> if no
+   *         values have been recorded
+   */
+
+  public double getMean()
+  {
+    return (this.count == 0L) ? 0.0 : (double) this.total
+      / (double) this.count;
+  }
+
+  /**
+   * @return The smallest recorded value, or <code>0</code> if no values have
+   *         been recorded
+   */
+
+  public long getMinimum()
+  {
+    return this.minimum;
+  }
+
+  /**
+   * @return The sum of the recorded values
+   */
+
+  public long getTotal()
+  {
+    return this.total;
+  }
+
+  /**
+   * <p>
+   * Estimate the value below which the fraction <code>q</code> of the
+   * recorded values fall. The estimate is the largest value counted by the
+   * bucket containing the value of rank <code>ceil(q * count)</code>,
+   * clamped to the exact minimum and maximum.
+   * </p>
+   *
+   * @param q
+   *          The quantile, in the range <code>[0.0, 1.0]</code>
+   * @return The estimated value, or <code>0</code> if no values have been
+   *         recorded
+   */
+
+  public long getValueAtQuantile(
+    final double q)
+  {
+    if ((q >= 0.0) && (q <= 1.0)) {
+      if (this.count == 0L) {
+        return 0L;
+      }
+
+      final long rank = Math.max(1L, (long) Math.ceil(q * this.count));
+      long seen = 0L;
+      for (int index = 0; index < this.counts.length; ++index) {
+        seen = seen + this.counts[index];
+        if (seen >= rank) {
+          final long upper = JCacheHistogram.bucketUpperBound(index);
+          return Math.max(this.minimum, Math.min(this.maximum, upper));
+        }
+      }
+      return this.maximum;
+    }
+
+    throw new IllegalArgumentException("Quantile must be in [0.0, 1.0]");
+  }
+
+  @Override public int hashCode()
+  {
+    final int prime = 31;
+    int result = 1;
+    result = (prime * result) + Long.hashCode(this.minimum);
+    result = (prime * result) + Long.hashCode(this.maximum);
+    result = (prime * result) + Long.hashCode(this.total);
+    result = (prime * result) + Arrays.hashCode(this.counts);
+    return result;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("[JCacheHistogram [count=");
+    builder.append(this.count);
+    builder.append(", min=");
+    builder.append(this.minimum);
+    builder.append(", p50=");
+    builder.append(this.getValueAtQuantile(0.5));
+    builder.append(", p99=");
+    builder.append(this.getValueAtQuantile(0.99));
+    builder.append(", p999=");
+    builder.append(this.getValueAtQuantile(0.999));
+    builder.append(", max=");
+    builder.append(this.maximum);
+    builder.append("]]");
+    return builder.toString();
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A recorder of values into the buckets described by
+ * {@link JCacheHistogram}.
+ * </p>
+ * <p>
+ * Recording a value never allocates and never blocks, and may be done from
+ * any number of threads at once. A snapshot or reset taken whilst other
+ * threads are recording may include some, but not all, of the values being
+ * recorded at that moment.
+ * </p>
+ */
+
+final class JCacheHistogramRecorder
+{
+  private final AtomicLongArray counts;
+  private final AtomicLong      maximum;
+  private final AtomicLong      minimum;
+  private final AtomicLong      total;
+
+  JCacheHistogramRecorder()
+  {
+    this.counts = new AtomicLongArray(JCacheHistogram.BUCKETS);
+    this.maximum = new AtomicLong(Long.MIN_VALUE);
+    this.minimum = new AtomicLong(Long.MAX_VALUE);
+    this.total = new AtomicLong(0L);
+  }
+
+  /**
+   * Record the value <code>value</code>. Negative values are recorded as
+   * zero.
+   *
+   * @param value
+   *          The value
+   */
+
+  void record(
+    final long value)
+  {
+    final long v = Math.max(0L, value);
+    this.counts.incrementAndGet(JCacheHistogram.bucketIndex(v));
+    this.total.addAndGet(v);
+
+    long current = this.maximum.get();
+    while ((v > current) && (this.maximum.compareAndSet(current, v) == false)) {
+      current = this.maximum.get();
+    }
+    current = this.minimum.get();
+    while ((v < current) && (this.minimum.compareAndSet(current, v) == false)) {
+      current = this.minimum.get();
+    }
+  }
+
+  /**
+   * Discard all recorded values.
+   */
+
+  void reset()
+  {
+    for (int index = 0; index < JCacheHistogram.BUCKETS; ++index) {
+      this.counts.set(index, 0L);
+    }
+    this.total.set(0L);
+    this.maximum.set(Long.MIN_VALUE);
+    this.minimum.set(Long.MAX_VALUE);
+  }
+
+  /**
+   * @return A snapshot of the recorded values
+   */
+
+  JCacheHistogram snapshot()
+  {
+    final long[] c = new long[JCacheHistogram.BUCKETS];
+    for (int index = 0; index < JCacheHistogram.BUCKETS; ++index) {
+      c[index] = this.counts.get(index);
+    }
+    return new JCacheHistogram(
+      c,
+      this.minimum.get(),
+      this.maximum.get(),
+      this.total.get());
+  }
+}
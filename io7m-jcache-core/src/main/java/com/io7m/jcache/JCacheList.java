@@ -0,0 +1,259 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * An intrusive doubly-linked list of {@link JCacheListNode} values.
+ * </p>
+ * <p>
+ * All operations except {@link #clear()} are <code>O(1)</code>, and none of
+ * them allocate. The list is typically used to keep nodes in access order:
+ * the first node is the least recently used, and the last node is the most
+ * recently used.
+ * </p>
+ *
+ * @param <N>
+ *          The precise type of nodes
+ */
+
+final class JCacheList<N extends JCacheListNode<N>>
+{
+  private @Nullable N head;
+  private int         size;
+  private @Nullable N tail;
+
+  JCacheList()
+  {
+    this.head = null;
+    this.tail = null;
+    this.size = 0;
+  }
+
+  /**
+   * Link <code>n</code> directly after <code>existing</code>. The node
+   * <code>existing</code> must be linked into this list, and <code>n</code>
+   * must not currently be linked into any list.
+   *
+   * @param existing
+   *          The existing node
+   * @param n
+   *          The node
+   */
+
+  void addAfter(
+    final N existing,
+    final N n)
+  {
+    assert existing.getOwner() == this;
+    assert n.getOwner() == null;
+
+    final N x = existing.getNext();
+    n.setPrevious(existing);
+    n.setNext(x);
+    n.setOwner(this);
+    existing.setNext(n);
+
+    if (x == null) {
+      this.tail = n;
+    } else {
+      x.setPrevious(n);
+    }
+
+    ++this.size;
+  }
+
+  /**
+   * Link <code>n</code> at the start of the list. The node must not
+   * currently be linked into any list.
+   *
+   * @param n
+   *          The node
+   */
+
+  void addFirst(
+    final N n)
+  {
+    assert n.getOwner() == null;
+
+    final N h = this.head;
+    n.setPrevious(null);
+    n.setNext(h);
+    n.setOwner(this);
+
+    if (h == null) {
+      this.tail = n;
+    } else {
+      h.setPrevious(n);
+    }
+
+    this.head = n;
+    ++this.size;
+  }
+
+  /**
+   * Link <code>n</code> at the end of the list. The node must not currently
+   * be linked into any list.
+   *
+   * @param n
+   *          The node
+   */
+
+  void addLast(
+    final N n)
+  {
+    assert n.getOwner() == null;
+
+    final N t = this.tail;
+    n.setPrevious(t);
+    n.setNext(null);
+    n.setOwner(this);
+
+    if (t == null) {
+      this.head = n;
+    } else {
+      t.setNext(n);
+    }
+
+    this.tail = n;
+    ++this.size;
+  }
+
+  /**
+   * Unlink all nodes. This is <code>O(n)</code> in the size of the list, as
+   * each node must have its links and owner cleared.
+   */
+
+  void clear()
+  {
+    N n = this.head;
+    while (n != null) {
+      final N next = n.getNext();
+      n.setNext(null);
+      n.setPrevious(null);
+      n.setOwner(null);
+      n = next;
+    }
+
+    this.head = null;
+    this.tail = null;
+    this.size = 0;
+  }
+
+  /**
+   * @return <code>true</code> iff <code>n</code> is linked into this list
+   * @param n
+   *          The node
+   */
+
+  boolean contains(
+    final N n)
+  {
+    return n.getOwner() == this;
+  }
+
+  /**
+   * @return The first node in the list, if any
+   */
+
+  @Nullable N first()
+  {
+    return this.head;
+  }
+
+  /**
+   * @return <code>true</code> iff the list is empty
+   */
+
+  boolean isEmpty()
+  {
+    return this.size == 0;
+  }
+
+  /**
+   * @return The last node in the list, if any
+   */
+
+  @Nullable N last()
+  {
+    return this.tail;
+  }
+
+  /**
+   * Move <code>n</code> to the end of the list. The node must currently be
+   * linked into this list.
+   *
+   * @param n
+   *          The node
+   */
+
+  void moveToLast(
+    final N n)
+  {
+    assert n.getOwner() == this;
+
+    if (this.tail != n) {
+      this.remove(n);
+      this.addLast(n);
+    }
+  }
+
+  /**
+   * Unlink <code>n</code> from the list. The node must currently be linked
+   * into this list.
+   *
+   * @param n
+   *          The node
+   */
+
+  void remove(
+    final N n)
+  {
+    assert n.getOwner() == this;
+
+    final N p = n.getPrevious();
+    final N x = n.getNext();
+
+    if (p == null) {
+      this.head = x;
+    } else {
+      p.setNext(x);
+    }
+
+    if (x == null) {
+      this.tail = p;
+    } else {
+      x.setPrevious(p);
+    }
+
+    n.setNext(null);
+    n.setPrevious(null);
+    n.setOwner(null);
+    --this.size;
+  }
+
+  /**
+   * @return The number of nodes in the list
+   */
+
+  int size()
+  {
+    return this.size;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * A node that can be linked into at most one {@link JCacheList} at a time.
+ * </p>
+ * <p>
+ * The links are stored in the node itself, so that moving a node within (or
+ * between) lists does not allocate.
+ * </p>
+ *
+ * @param <N>
+ *          The precise type of nodes
+ */
+
+abstract class JCacheListNode<N extends JCacheListNode<N>>
+{
+  private @Nullable N                next;
+  private @Nullable JCacheList<N>    owner;
+  private @Nullable N                prev;
+
+  protected JCacheListNode()
+  {
+    this.next = null;
+    this.prev = null;
+    this.owner = null;
+  }
+
+  final @Nullable N getNext()
+  {
+    return this.next;
+  }
+
+  final @Nullable JCacheList<N> getOwner()
+  {
+    return this.owner;
+  }
+
+  final @Nullable N getPrevious()
+  {
+    return this.prev;
+  }
+
+  final void setNext(
+    final @Nullable N n)
+  {
+    this.next = n;
+  }
+
+  final void setOwner(
+    final @Nullable JCacheList<N> o)
+  {
+    this.owner = o;
+  }
+
+  final void setPrevious(
+    final @Nullable N p)
+  {
+    this.prev = p;
+  }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jranges.RangeCheck;
+
+/**
+ * <p>
+ * A loader that limits the number of concurrent calls made to another,
+ * synchronous, loader.
+ * </p>
+ * <p>
+ * At most <code>maximum</code> calls to
+ * {@link JCacheLoaderType#cacheValueLoad(Object)} of the underlying loader
+ * are in progress at any one time. Further loads wait, in a queue, for a
+ * call to finish; a load that waits for longer than the given timeout is
+ * rejected with {@link JCacheException.JCacheExceptionLoadRejected}. A burst
+ * of cache misses therefore cannot overload the backend of the underlying
+ * loader.
+ * </p>
+ * <p>
+ * Synchronous loads wait in the calling thread. Asynchronous loads (see
+ * {@link JCacheAsyncLoaderType}) wait and run on the given executor, so that
+ * callers of {@link LUCacheAsyncType#cacheGetLUAsync(Object)} never block.
+ * Because a waiting load occupies a thread of the executor, the executor
+ * should not have a small, fixed number of threads: an executor that starts
+ * a new virtual thread for each task, where available, is ideal. If the
+ * executor rejects a load, the returned future fails with the
+ * {@link RejectedExecutionException}.
+ * </p>
+ * <p>
+ * If the underlying loader implements {@link JCacheBulkLoaderType}, a bulk
+ * load counts as a single call against the limit. Otherwise, bulk loads are
+ * performed one key at a time, each waiting for its own turn. Similarly,
+ * bulk closes are passed to the underlying loader if it implements
+ * {@link JCacheBulkCloserType}, and are otherwise performed one value at a
+ * time; in that case, a failure to close any one value is reported by the
+ * cache as a failure to close all of the values in the batch.
+ * </p>
+ * <p>
+ * The underlying loader must be thread-safe.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <V>
+ *          The type of cached values
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public final class JCacheLoaderBulkhead<K, V, E extends Throwable> implements
+  JCacheAsyncLoaderType<K, V, E>,
+  JCacheBulkLoaderType<K, V, E>,
+  JCacheBulkCloserType<K, V, E>,
+  JCacheLoaderLongType<K, V, E>
+{
+  /**
+   * Construct a new bulkhead.
+   *
+   * @param loader
+   *          The underlying loader
+   * @param executor
+   *          The executor used for asynchronous loads
+   * @param maximum
+   *          The maximum number of concurrent loads, <code>&gt;= 1</code>
+   * @param timeout
+   *          The maximum time that a load may wait to start
+   * @param unit
+   *          The unit of <code>timeout</code>
+   * @return A new bulkhead
+   *
+   * @param <K>
+   *          The type of keys
+   * @param <V>
+   *          The type of cached values
+   * @param <E>
+   *          The type of exceptions raised during loading
+   */
+
+  public static <K, V, E extends Throwable> JCacheLoaderBulkhead<K, V, E> newBulkhead(
+    final JCacheLoaderType<K, V, E> loader,
+    final Executor executor,
+    final int maximum,
+    final long timeout,
+    final TimeUnit unit)
+  {
+    return new JCacheLoaderBulkhead<K, V, E>(
+      loader,
+      executor,
+      maximum,
+      timeout,
+      unit);
+  }
+
+  @SuppressWarnings("unchecked") private static
+    <K, V, E extends Throwable>
+    JCacheBulkCloserType<K, V, E>
+    supportsBulkClose(
+      final JCacheLoaderType<K, V, E> loader)
+  {
+    if (loader instanceof JCacheBulkCloserType) {
+      return (JCacheBulkCloserType<K, V, E>) loader;
+    }
+    return null;
+  }
+
+  @SuppressWarnings("unchecked") private static
+    <K, V, E extends Throwable>
+    JCacheBulkLoaderType<K, V, E>
+    supportsBulkLoad(
+      final JCacheLoaderType<K, V, E> loader)
+  {
+    if (loader instanceof JCacheBulkLoaderType) {
+      return (JCacheBulkLoaderType<K, V, E>) loader;
+    }
+    return null;
+  }
+
+  private final AtomicLong                              active;
+  private final Executor                                executor;
+  private final JCacheLoaderType<K, V, E>               loader;
+  private final @Nullable JCacheBulkLoaderType<K, V, E> loader_bulk;
+  private final @Nullable JCacheBulkCloserType<K, V, E> loader_closer;
+  private final @Nullable JCacheLoaderLongType<K, V, E> loader_long;
+  private final int                                     maximum;
+  private final Semaphore                               permits;
+  private final AtomicLong                              rejections;
+  private final long                                    timeout_nanos;
+  private final AtomicLong                              waiting;
+
+  private JCacheLoaderBulkhead(
+    final JCacheLoaderType<K, V, E> in_loader,
+    final Executor in_executor,
+    final int in_maximum,
+    final long in_timeout,
+    final TimeUnit in_unit)
+  {
+    this.loader = NullCheck.notNull(in_loader, "Loader");
+    this.loader_long = JCacheAccounting.supportsLong(in_loader);
+    this.loader_bulk = JCacheLoaderBulkhead.supportsBulkLoad(in_loader);
+    this.loader_closer = JCacheLoaderBulkhead.supportsBulkClose(in_loader);
+    this.executor = NullCheck.notNull(in_executor, "Executor");
+    this.maximum =
+      (int) RangeCheck.checkGreaterEqual(
+        in_maximum,
+        "Maximum concurrent loads",
+        1L,
+        "Minimum concurrent loads");
+    this.timeout_nanos =
+      NullCheck.notNull(in_unit, "Unit").toNanos(
+        RangeCheck.checkGreaterEqual(
+          in_timeout,
+          "Timeout",
+          0L,
+          "Minimum timeout"));
+    this.permits = new Semaphore(in_maximum, true);
+    this.active = new AtomicLong();
+    this.rejections = new AtomicLong();
+    this.waiting = new AtomicLong();
+  }
+
+  private void acquire(
+    final Object key)
+    throws JCacheException
+  {
+    this.waiting.incrementAndGet();
+    boolean acquired = false;
+    boolean interrupted = false;
+    try {
+      acquired =
+        this.permits.tryAcquire(this.timeout_nanos, TimeUnit.NANOSECONDS);
+    } catch (final InterruptedException x) {
+      interrupted = true;
+      Thread.currentThread().interrupt();
+    } finally {
+      this.waiting.decrementAndGet();
+    }
+
+    if (acquired == false) {
+      this.rejections.incrementAndGet();
+      throw JCacheException.errorLoadRejected(
+        key,
+        this.maximum,
+        this.timeout_nanos,
+        interrupted);
+    }
+  }
+
+  @Override public void cacheValueClose(
+    final V v)
+    throws E
+  {
+    this.loader.cacheValueClose(v);
+  }
+
+  @Override public void cacheValueCloseAll(
+    final List<V> values)
+    throws E
+  {
+    final JCacheBulkCloserType<K, V, E> lc = this.loader_closer;
+    if (lc != null) {
+      lc.cacheValueCloseAll(values);
+      return;
+    }
+
+    /**
+     * Close every value, even if closing one of them fails.
+     */
+
+    Throwable error = null;
+    for (final V v : values) {
+      try {
+        this.loader.cacheValueClose(v);
+      } catch (final Throwable x) {
+        if (error == null) {
+          error = x;
+        }
+      }
+    }
+    if (error != null) {
+      this.rethrow(error);
+    }
+  }
+
+  @Override public V cacheValueLoad(
+    final K key)
+    throws E
+  {
+    this.acquire(key);
+    this.active.incrementAndGet();
+    try {
+      return this.loader.cacheValueLoad(key);
+    } finally {
+      this.active.decrementAndGet();
+      this.permits.release();
+    }
+  }
+
+  @Override public Map<K, V> cacheValueLoadAll(
+    final List<K> keys)
+    throws E
+  {
+    final JCacheBulkLoaderType<K, V, E> lb = this.loader_bulk;
+    if (lb != null) {
+      this.acquire(keys);
+      this.active.incrementAndGet();
+      try {
+        return lb.cacheValueLoadAll(keys);
+      } finally {
+        this.active.decrementAndGet();
+        this.permits.release();
+      }
+    }
+
+    final Map<K, V> loaded = new HashMap<K, V>(keys.size());
+    boolean failed = true;
+    try {
+      for (final K key : keys) {
+        loaded.put(key, this.cacheValueLoad(key));
+      }
+      failed = false;
+      return loaded;
+    } finally {
+      if (failed) {
+        for (final V v : loaded.values()) {
+          try {
+            this.loader.cacheValueClose(v);
+          } catch (final Throwable x) {
+            // Ignore: the load failure is reported instead
+          }
+        }
+      }
+    }
+  }
+
+  @Override public CompletableFuture<V> cacheValueLoadAsync(
+    final K key)
+  {
+    final CompletableFuture<V> f = new CompletableFuture<V>();
+    try {
+      this.executor.execute(new Runnable() {
+        @Override public void run()
+        {
+          try {
+            f.complete(JCacheLoaderBulkhead.this.cacheValueLoad(key));
+          } catch (final Throwable x) {
+            f.completeExceptionally(x);
+          }
+        }
+      });
+    } catch (final RejectedExecutionException x) {
+      f.completeExceptionally(x);
+    }
+    return f;
+  }
+
+  @Override public BigInteger cacheValueSizeOf(
+    final V v)
+  {
+    return this.loader.cacheValueSizeOf(v);
+  }
+
+  @Override public long cacheValueSizeOfLong(
+    final V v)
+  {
+    final JCacheLoaderLongType<K, V, E> ll = this.loader_long;
+    if (ll != null) {
+      return ll.cacheValueSizeOfLong(v);
+    }
+    return JCacheAccounting.saturate(this.loader.cacheValueSizeOf(v));
+  }
+
+  /**
+   * @return The number of loads currently in progress
+   */
+
+  public long getActive()
+  {
+    return this.active.get();
+  }
+
+  /**
+   * @return The maximum number of concurrent loads
+   */
+
+  public int getMaximumConcurrent()
+  {
+    return this.maximum;
+  }
+
+  /**
+   * @return The number of loads currently waiting to start
+   */
+
+  public long getQueueDepth()
+  {
+    return this.waiting.get();
+  }
+
+  /**
+   * @return The total number of loads that have been rejected
+   */
+
+  public long getRejections()
+  {
+    return this.rejections.get();
+  }
+
+  @SuppressWarnings("unchecked") private void rethrow(
+    final Throwable x)
+    throws E
+  {
+    if (x instanceof RuntimeException) {
+      throw (RuntimeException) x;
+    }
+    if (x instanceof Error) {
+      throw (Error) x;
+    }
+    throw (E) x;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder();
+    b.append("[JCacheLoaderBulkhead maximum=");
+    b.append(this.maximum);
+    b.append(" active=");
+    b.append(this.active.get());
+    b.append(" waiting=");
+    b.append(this.waiting.get());
+    b.append(" rejections=");
+    b.append(this.rejections.get());
+    b.append("]");
+    return b.toString();
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+/**
+ * <p>
+ * The interface supported by loaders that can report the cost of reloading
+ * objects.
+ * </p>
+ * <p>
+ * Cost-aware caches such as {@link LUCacheGDSF} prefer to evict objects that
+ * are cheap to reload. If a loader does not implement this interface, such
+ * caches measure the time taken by {@link #cacheValueLoad(Object)} and use
+ * that as the cost instead.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <V>
+ *          The type of cached values
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public interface JCacheLoaderCostType<K, V, E extends Throwable> extends
+  JCacheLoaderType<K, V, E>
+{
+  /**
+   * @return The cost of reloading <code>v</code>, in arbitrary units. Values
+   *         less than <code>1</code> are treated as <code>1</code>.
+   * @param key
+   *          The key used to load <code>v</code>
+   * @param v
+   *          The loaded object
+   */
+
+  long cacheValueCostOf(
+    final K key,
+    final V v);
+}
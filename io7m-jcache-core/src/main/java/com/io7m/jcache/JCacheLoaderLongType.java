@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+/**
+ * <p>
+ * The interface supported by loaders that can report the sizes of loaded
+ * objects as <code>long</code> values.
+ * </p>
+ * <p>
+ * Caches that are given a loader of this type will call
+ * {@link #cacheValueSizeOfLong(Object)} instead of
+ * {@link #cacheValueSizeOf(Object)}, and will therefore not allocate any
+ * {@link java.math.BigInteger} values when accounting for the sizes of
+ * loaded objects.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <V>
+ *          The type of cached values
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public interface JCacheLoaderLongType<K, V, E extends Throwable> extends
+  JCacheLoaderType<K, V, E>
+{
+  /**
+   * @return The size in units of <code>v</code>. Must be equal to the value
+   *         returned by {@link #cacheValueSizeOf(Object)}.
+   * @param v
+   *          The loaded object
+   */
+
+  long cacheValueSizeOfLong(
+    final V v);
+}
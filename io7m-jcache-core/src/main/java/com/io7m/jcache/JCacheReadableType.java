@@ -45,10 +45,24 @@ public interface JCacheReadableType<K>
 
   BigInteger cacheItemCount();
 
+  /**
+   * @return The number of items cached, as a <code>long</code>.
+   * @see #cacheItemCount()
+   */
+
+  long cacheItemCountLong();
+
   /**
    * @return The size of the current cache, in units.
    */
 
   BigInteger cacheSize();
 
+  /**
+   * @return The size of the current cache, in units, as a <code>long</code>.
+   * @see #cacheSize()
+   */
+
+  long cacheSizeLong();
+
 }
@@ -0,0 +1,341 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * A slab allocator for off-heap memory.
+ * </p>
+ * <p>
+ * Memory is reserved in fixed-size slabs of direct {@link ByteBuffer}
+ * memory. Each slab in use is divided into chunks of a single size class,
+ * where the size classes are powers of two from {@link #MINIMUM_CHUNK} up to
+ * the slab size. An allocation is served by the smallest size class that
+ * fits, so at most half of each chunk is wasted. A slab whose chunks have
+ * all been freed is returned to a pool of empty slabs, and can be reused for
+ * any size class.
+ * </p>
+ * <p>
+ * The allocator never reserves more slabs than fit into the limit given on
+ * each allocation. The memory handed out is never on the Java heap, but the
+ * allocator is not free of heap allocation: each allocation returns a new,
+ * small {@link Chunk} descriptor, and reserving a new slab allocates the
+ * slab's bookkeeping. Descriptors are not pooled, because a freed chunk may
+ * still be referenced by its previous owner.
+ * </p>
+ */
+
+final class JCacheSlabAllocator
+{
+  /**
+   * A chunk of a slab.
+   */
+
+  static final class Chunk
+  {
+    private final int  capacity;
+    private final int  offset;
+    private final Slab slab;
+
+    Chunk(
+      final Slab in_slab,
+      final int in_offset,
+      final int in_capacity)
+    {
+      this.slab = in_slab;
+      this.offset = in_offset;
+      this.capacity = in_capacity;
+    }
+
+    /**
+     * @return The size of the chunk in bytes
+     */
+
+    int getCapacity()
+    {
+      return this.capacity;
+    }
+
+    /**
+     * @return A new buffer that covers the first <code>length</code> bytes of
+     *         the chunk, positioned at <code>0</code>
+     * @param length
+     *          The number of bytes
+     */
+
+    ByteBuffer slice(
+      final int length)
+    {
+      assert length <= this.capacity;
+      final ByteBuffer b = this.slab.buffer.duplicate();
+      b.limit(this.offset + length);
+      b.position(this.offset);
+      final ByteBuffer r = b.slice();
+      assert r != null;
+      return r;
+    }
+  }
+
+  private static final class Slab extends JCacheListNode<Slab>
+  {
+    private final ByteBuffer buffer;
+    private int              chunk_class;
+    private int              chunk_size;
+    private int              chunks;
+    private int[]            free;
+    private int              free_count;
+    private int              live;
+    private int              next;
+
+    Slab(
+      final int size)
+    {
+      this.buffer = ByteBuffer.allocateDirect(size);
+      this.free = new int[0];
+    }
+
+    boolean isFull()
+    {
+      return (this.free_count == 0) && (this.next == this.chunks);
+    }
+
+    void reset(
+      final int in_class,
+      final int in_chunk_size)
+    {
+      assert this.live == 0;
+      this.chunk_class = in_class;
+      this.chunk_size = in_chunk_size;
+      this.chunks = this.buffer.capacity() / in_chunk_size;
+      if (this.free.length < this.chunks) {
+        this.free = new int[this.chunks];
+      }
+      this.free_count = 0;
+      this.next = 0;
+    }
+
+    int take()
+    {
+      assert this.isFull() == false;
+      ++this.live;
+      if (this.free_count > 0) {
+        --this.free_count;
+        return this.free[this.free_count];
+      }
+      final int r = this.next * this.chunk_size;
+      ++this.next;
+      return r;
+    }
+
+    void give(
+      final int offset)
+    {
+      assert this.live > 0;
+      --this.live;
+      this.free[this.free_count] = offset;
+      ++this.free_count;
+    }
+  }
+
+  /**
+   * The size of the smallest chunk, in bytes.
+   */
+
+  static final int               MINIMUM_CHUNK;
+
+  static {
+    MINIMUM_CHUNK = 64;
+  }
+
+  private final int[]                  class_sizes;
+  private final JCacheList<Slab>       empty;
+  private final List<JCacheList<Slab>> partial;
+  private long                         reserved;
+  private final int                    slab_size;
+
+  JCacheSlabAllocator(
+    final int in_slab_size)
+  {
+    assert in_slab_size >= JCacheSlabAllocator.MINIMUM_CHUNK;
+    this.slab_size = in_slab_size;
+
+    int count = 1;
+    for (long s = JCacheSlabAllocator.MINIMUM_CHUNK; s < in_slab_size; s <<= 1) {
+      ++count;
+    }
+
+    this.class_sizes = new int[count];
+    this.partial = new ArrayList<JCacheList<Slab>>(count);
+    for (int index = 0; index < count; ++index) {
+      final long s = ((long) JCacheSlabAllocator.MINIMUM_CHUNK) << index;
+      this.class_sizes[index] = (int) Math.min(s, in_slab_size);
+      this.partial.add(new JCacheList<Slab>());
+    }
+
+    this.empty = new JCacheList<Slab>();
+    this.reserved = 0L;
+  }
+
+  /**
+   * Allocate a chunk of at least <code>length</code> bytes.
+   *
+   * @param length
+   *          The number of bytes required
+   * @param limit
+   *          The maximum number of bytes that may be reserved in total
+   * @return A chunk, or <code>null</code> if no chunk is available without
+   *         reserving more than <code>limit</code> bytes
+   */
+
+  @Nullable Chunk allocate(
+    final int length,
+    final long limit)
+  {
+    final int c = this.classOf(length);
+    if (c < 0) {
+      return null;
+    }
+
+    final JCacheList<Slab> list = this.partial.get(c);
+    Slab s = list.first();
+    if (s == null) {
+      s = this.empty.first();
+      if (s != null) {
+        this.empty.remove(s);
+      } else {
+        if (this.reserved > (limit - this.slab_size)) {
+          return null;
+        }
+        s = new Slab(this.slab_size);
+        this.reserved += this.slab_size;
+      }
+      s.reset(c, this.class_sizes[c]);
+      list.addLast(s);
+    }
+
+    final int offset = s.take();
+    if (s.isFull()) {
+      list.remove(s);
+    }
+    return new Chunk(s, offset, s.chunk_size);
+  }
+
+  /**
+   * @return The size class for objects of <code>length</code> bytes, or
+   *         <code>-1</code> if no chunk is large enough
+   * @param length
+   *          The length
+   */
+
+  private int classOf(
+    final int length)
+  {
+    for (int index = 0; index < this.class_sizes.length; ++index) {
+      if (length <= this.class_sizes[index]) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return The size of the chunk that would be allocated for an object of
+   *         <code>length</code> bytes, or <code>-1</code> if the object is
+   *         larger than a slab
+   * @param length
+   *          The length
+   */
+
+  int chunkSizeOf(
+    final int length)
+  {
+    final int c = this.classOf(length);
+    if (c < 0) {
+      return -1;
+    }
+    return this.class_sizes[c];
+  }
+
+  /**
+   * Release <code>chunk</code>, which must have been returned by
+   * {@link #allocate(int, long)} and not already released.
+   *
+   * @param chunk
+   *          The chunk
+   */
+
+  void free(
+    final Chunk chunk)
+  {
+    final Slab s = chunk.slab;
+    final boolean was_full = s.isFull();
+    s.give(chunk.offset);
+
+    final JCacheList<Slab> list = this.partial.get(s.chunk_class);
+    if (s.live == 0) {
+      if (list.contains(s)) {
+        list.remove(s);
+      }
+      this.empty.addLast(s);
+    } else if (was_full) {
+      list.addLast(s);
+    }
+  }
+
+  /**
+   * @return The number of bytes currently reserved
+   */
+
+  long getReserved()
+  {
+    return this.reserved;
+  }
+
+  /**
+   * @return The size of slabs, in bytes
+   */
+
+  int getSlabSize()
+  {
+    return this.slab_size;
+  }
+
+  /**
+   * Release empty slabs until at most <code>limit</code> bytes are reserved,
+   * or no empty slabs remain.
+   *
+   * @param limit
+   *          The number of bytes
+   */
+
+  void trim(
+    final long limit)
+  {
+    while ((this.reserved > limit) && (this.empty.isEmpty() == false)) {
+      final Slab s = this.empty.first();
+      assert s != null;
+      this.empty.remove(s);
+      this.reserved -= this.slab_size;
+    }
+  }
+}
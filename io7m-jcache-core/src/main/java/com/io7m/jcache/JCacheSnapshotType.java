@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * The type of caches whose contents can be written to a snapshot file, so
+ * that a new cache can be warmed up from the snapshot instead of starting
+ * empty.
+ * </p>
+ * <p>
+ * A snapshot contains the keys of all cached objects, most recently used
+ * first, and optionally the objects themselves.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <TCACHE>
+ *          The type of cached values, as visible to cache implementations
+ */
+
+public interface JCacheSnapshotType<K, TCACHE>
+{
+  /**
+   * <p>
+   * Restore the contents of a snapshot written by
+   * {@link #cacheSnapshotWrite(Path, JCacheCodecType, JCacheCodecType)}.
+   * </p>
+   * <p>
+   * Objects are obtained hottest first, using up to
+   * <code>parallelism</code> tasks at a time on <code>executor</code>. If the
+   * snapshot contains objects and <code>values</code> is not
+   * <code>null</code>, objects are decoded from the snapshot; otherwise, they
+   * are loaded with the cache's loader, which must then be thread-safe if
+   * <code>executor</code> runs tasks on other threads. Keys that are already
+   * cached, and objects that fail to load, are skipped. Restoration stops
+   * once the next object would not fit into the remaining capacity of the
+   * cache, so objects that are already cached are never evicted. Restored
+   * objects are inserted so that the hottest object is the most recently
+   * used.
+   * </p>
+   *
+   * @param file
+   *          The snapshot file
+   * @param keys
+   *          The codec used for keys
+   * @param values
+   *          The codec used for objects, if any
+   * @param executor
+   *          The executor used to obtain objects
+   * @param parallelism
+   *          The maximum number of objects obtained at the same time
+   * @return The number of objects restored
+   * @throws IOException
+   *           If the snapshot cannot be read, or is not a valid snapshot
+   */
+
+  long cacheSnapshotRestore(
+    final Path file,
+    final JCacheCodecType<K> keys,
+    final @Nullable JCacheCodecType<TCACHE> values,
+    final Executor executor,
+    final int parallelism)
+    throws IOException;
+
+  /**
+   * Write a snapshot of the cache to <code>file</code>, replacing it
+   * atomically. Objects are written only if <code>values</code> is not
+   * <code>null</code>.
+   *
+   * @param file
+   *          The snapshot file
+   * @param keys
+   *          The codec used for keys
+   * @param values
+   *          The codec used for objects, if any
+   * @return The number of entries written
+   * @throws IOException
+   *           On I/O errors
+   */
+
+  long cacheSnapshotWrite(
+    final Path file,
+    final JCacheCodecType<K> keys,
+    final @Nullable JCacheCodecType<TCACHE> values)
+    throws IOException;
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>
+ * Functions shared by implementations of {@link JCacheSnapshotType}.
+ * </p>
+ * <p>
+ * A snapshot file consists of a header (the magic number <code>JCSN</code>, a
+ * version number, a flags word and an entry count, all big-endian 32-bit
+ * integers) followed by the entries, hottest first. Each entry is a
+ * length-prefixed encoded key, followed by a length-prefixed encoded value if
+ * the values flag is set.
+ * </p>
+ */
+
+final class JCacheSnapshots
+{
+  /**
+   * An entry read from a snapshot.
+   *
+   * @param <K>
+   *          The type of keys
+   */
+
+  static final class Entry<K>
+  {
+    private final K                key;
+    private final @Nullable byte[] value;
+
+    Entry(
+      final K in_key,
+      final @Nullable byte[] in_value)
+    {
+      this.key = in_key;
+      this.value = in_value;
+    }
+
+    K getKey()
+    {
+      return this.key;
+    }
+  }
+
+  /**
+   * A cached object.
+   *
+   * @param <K>
+   *          The type of keys
+   * @param <V>
+   *          The type of values
+   */
+
+  static final class Item<K, V>
+  {
+    private final K    key;
+    private final long size;
+    private final V    value;
+
+    Item(
+      final K in_key,
+      final V in_value,
+      final long in_size)
+    {
+      this.key = in_key;
+      this.value = in_value;
+      this.size = in_size;
+    }
+
+    K getKey()
+    {
+      return this.key;
+    }
+
+    long getSize()
+    {
+      return this.size;
+    }
+
+    V getValue()
+    {
+      return this.value;
+    }
+  }
+
+  private static final int FLAG_VALUES;
+  private static final int MAGIC;
+  private static final int VERSION;
+
+  static {
+    MAGIC = 0x4A43534E;
+    VERSION = 1;
+    FLAG_VALUES = 0x1;
+  }
+
+  private static <K, V, E extends Throwable> void close(
+    final JCacheLoaderType<K, V, E> loader,
+    final V v)
+  {
+    try {
+      loader.cacheValueClose(v);
+    } catch (final Throwable x) {
+      // Ignore
+    }
+  }
+
+  private static <T> byte[] encode(
+    final JCacheCodecType<T> codec,
+    final T x)
+  {
+    final ByteBuffer b = ByteBuffer.allocate(codec.cacheCodecSizeOf(x));
+    codec.cacheCodecEncode(x, b);
+    final byte[] r = new byte[b.position()];
+    System.arraycopy(b.array(), 0, r, 0, r.length);
+    return r;
+  }
+
+  private static @Nullable <V> V join(
+    final CompletableFuture<V> f)
+  {
+    try {
+      return f.join();
+    } catch (final Throwable x) {
+      // Objects that fail to load are skipped
+      return null;
+    }
+  }
+
+  private static <K, V, E extends Throwable> CompletableFuture<V> obtain(
+    final JCacheLoaderType<K, V, E> loader,
+    final @Nullable JCacheCodecType<V> values,
+    final Executor executor,
+    final Entry<K> e)
+  {
+    final CompletableFuture<V> f = new CompletableFuture<V>();
+    executor.execute(new Runnable() {
+      @Override public void run()
+      {
+        try {
+          final byte[] data = e.value;
+          if ((data != null) && (values != null)) {
+            f.complete(values.cacheCodecDecode(ByteBuffer.wrap(data)
+              .asReadOnlyBuffer()));
+          } else {
+            f.complete(loader.cacheValueLoad(e.getKey()));
+          }
+        } catch (final Throwable x) {
+          f.completeExceptionally(x);
+        }
+      }
+    });
+    return f;
+  }
+
+  /**
+   * Read all entries from the snapshot <code>file</code>.
+   *
+   * @param file
+   *          The file
+   * @param keys
+   *          The codec used for keys
+   * @return The entries, hottest first
+   * @throws IOException
+   *           On I/O errors, or if the file is not a valid snapshot
+   */
+
+  static <K> List<Entry<K>> read(
+    final Path file,
+    final JCacheCodecType<K> keys)
+    throws IOException
+  {
+    NullCheck.notNull(file, "File");
+    NullCheck.notNull(keys, "Key codec");
+
+    final DataInputStream s =
+      new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+    try {
+      if (s.readInt() != JCacheSnapshots.MAGIC) {
+        throw new IOException("Not a cache snapshot: " + file);
+      }
+      final int version = s.readInt();
+      if (version != JCacheSnapshots.VERSION) {
+        throw new IOException("Unsupported cache snapshot version: "
+          + version);
+      }
+
+      final boolean has_values = (s.readInt() & JCacheSnapshots.FLAG_VALUES) != 0;
+      final int count = s.readInt();
+      if (count < 0) {
+        throw new IOException("Corrupt cache snapshot: " + file);
+      }
+
+      final List<Entry<K>> r = new ArrayList<Entry<K>>(Math.min(count, 4096));
+      for (int index = 0; index < count; ++index) {
+        final byte[] kd = JCacheSnapshots.readBytes(s, file);
+        final K key =
+          NullCheck.notNull(
+            keys.cacheCodecDecode(ByteBuffer.wrap(kd).asReadOnlyBuffer()),
+            "Decoded key");
+        byte[] vd = null;
+        if (has_values) {
+          vd = JCacheSnapshots.readBytes(s, file);
+        }
+        r.add(new Entry<K>(key, vd));
+      }
+      return r;
+    } finally {
+      s.close();
+    }
+  }
+
+  private static byte[] readBytes(
+    final DataInputStream s,
+    final Path file)
+    throws IOException
+  {
+    final int length = s.readInt();
+    if (length < 0) {
+      throw new IOException("Corrupt cache snapshot: " + file);
+    }
+    final byte[] r = new byte[length];
+    s.readFully(r);
+    return r;
+  }
+
+  /**
+   * Obtain objects for <code>entries</code>, hottest first, until the next
+   * object would not fit into <code>budget</code>. Objects that are obtained
+   * but not returned are closed.
+   *
+   * @param entries
+   *          The entries to restore, hottest first
+   * @param loader
+   *          The loader
+   * @param loader_long
+   *          The loader, if it supports <code>long</code> sizes
+   * @param values
+   *          The codec used for objects, if any
+   * @param executor
+   *          The executor used to obtain objects
+   * @param parallelism
+   *          The maximum number of objects obtained at the same time
+   * @param budget
+   *          The total size of objects that may be returned
+   * @return The obtained objects, hottest first
+   */
+
+  static <K, V, E extends Throwable> List<Item<K, V>> restore(
+    final List<Entry<K>> entries,
+    final JCacheLoaderType<K, V, E> loader,
+    final @Nullable JCacheLoaderLongType<K, V, E> loader_long,
+    final @Nullable JCacheCodecType<V> values,
+    final Executor executor,
+    final int parallelism,
+    final long budget)
+  {
+    NullCheck.notNull(executor, "Executor");
+    RangeCheck.checkGreaterEqual(
+      parallelism,
+      "Parallelism",
+      1L,
+      "Minimum parallelism");
+
+    final List<Item<K, V>> r = new ArrayList<Item<K, V>>();
+    final Deque<CompletableFuture<V>> pending =
+      new ArrayDeque<CompletableFuture<V>>(parallelism);
+
+    long remaining = budget;
+    int submitted = 0;
+    int received = 0;
+    boolean full = false;
+
+    while (received < entries.size()) {
+      while ((full == false)
+        && (submitted < entries.size())
+        && (pending.size() < parallelism)) {
+        pending.addLast(JCacheSnapshots.obtain(
+          loader,
+          values,
+          executor,
+          entries.get(submitted)));
+        ++submitted;
+      }
+
+      if (pending.isEmpty()) {
+        break;
+      }
+
+      final CompletableFuture<V> f = pending.removeFirst();
+      final K key = entries.get(received).getKey();
+      ++received;
+      final V v = JCacheSnapshots.join(f);
+      if (v != null) {
+        final long size = JCacheSnapshots.sizeOf(loader, loader_long, v);
+        if ((full == false) && (size >= 1L) && (size <= remaining)) {
+          remaining -= size;
+          r.add(new Item<K, V>(key, v, size));
+        } else {
+          full = full || (size > remaining);
+          JCacheSnapshots.close(loader, v);
+        }
+      }
+    }
+
+    return r;
+  }
+
+  private static <K, V, E extends Throwable> long sizeOf(
+    final JCacheLoaderType<K, V, E> loader,
+    final @Nullable JCacheLoaderLongType<K, V, E> loader_long,
+    final V v)
+  {
+    try {
+      return JCacheAccounting.sizeOf(loader, loader_long, v);
+    } catch (final JCacheException x) {
+      // Objects whose sizes cannot be accounted for are not restored
+      return 0L;
+    }
+  }
+
+  /**
+   * Write a snapshot to <code>file</code>, replacing it atomically.
+   *
+   * @param file
+   *          The file
+   * @param keys
+   *          The codec used for keys
+   * @param values
+   *          The codec used for objects, if any
+   * @param entries
+   *          The keys and objects, hottest first
+   * @return The number of entries written
+   * @throws IOException
+   *           On I/O errors
+   */
+
+  static <K, V> long write(
+    final Path file,
+    final JCacheCodecType<K> keys,
+    final @Nullable JCacheCodecType<V> values,
+    final List<Item<K, V>> entries)
+    throws IOException
+  {
+    NullCheck.notNull(file, "File");
+    NullCheck.notNull(keys, "Key codec");
+
+    final Path abs = file.toAbsolutePath();
+    final Path dir = abs.getParent();
+    assert dir != null;
+    final Path tmp =
+      Files.createTempFile(dir, abs.getFileName().toString(), ".tmp");
+
+    boolean failed = true;
+    try {
+      final DataOutputStream s =
+        new DataOutputStream(new BufferedOutputStream(
+          Files.newOutputStream(tmp)));
+      try {
+        s.writeInt(JCacheSnapshots.MAGIC);
+        s.writeInt(JCacheSnapshots.VERSION);
+        s.writeInt(values != null ? JCacheSnapshots.FLAG_VALUES : 0);
+        s.writeInt(entries.size());
+        for (final Item<K, V> e : entries) {
+          final byte[] kd = JCacheSnapshots.encode(keys, e.getKey());
+          s.writeInt(kd.length);
+          s.write(kd);
+          if (values != null) {
+            final byte[] vd = JCacheSnapshots.encode(values, e.getValue());
+            s.writeInt(vd.length);
+            s.write(vd);
+          }
+        }
+      } finally {
+        s.close();
+      }
+
+      Files.move(
+        tmp,
+        abs,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+      failed = false;
+      return entries.size();
+    } finally {
+      if (failed) {
+        Files.deleteIfExists(tmp);
+      }
+    }
+  }
+
+  private JCacheSnapshots()
+  {
+    throw new UnreachableCodeException();
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * An immutable snapshot of the statistics of a cache.
+ * </p>
+ * <p>
+ * A <i>hit</i> is a request that was satisfied by an object that was already
+ * cached. A <i>miss</i> is a request that was not, and that therefore caused
+ * an object to be loaded. Loads are counted separately, as a miss may be
+ * satisfied without calling the loader (for example, from a
+ * {@link JCacheDiskTier}), and a single bulk load may satisfy many misses.
+ * </p>
+ * <p>
+ * If histograms have been enabled with
+ * {@link JCacheStatisticsType#cacheStatisticsSetHistogramsEnabled(boolean)},
+ * the snapshot also contains the distributions of load, close and request
+ * latencies. Otherwise, the histograms are empty.
+ * </p>
+ *
+ * @see JCacheStatisticsType
+ */
+
+public final class JCacheStatistics
+{
+  private final long            evicted_size;
+  private final long            evictions;
+  private final long            hits;
+  private final JCacheHistogram latency_close;
+  private final JCacheHistogram latency_load;
+  private final JCacheHistogram latency_request;
+  private final long            load_failures;
+  private final long            load_time;
+  private final long            loads;
+  private final long            misses;
+
+  JCacheStatistics(
+    final long in_hits,
+    final long in_misses,
+    final long in_loads,
+    final long in_load_failures,
+    final long in_load_time,
+    final long in_evictions,
+    final long in_evicted_size,
+    final JCacheHistogram in_latency_load,
+    final JCacheHistogram in_latency_close,
+    final JCacheHistogram in_latency_request)
+  {
+    this.hits = in_hits;
+    this.misses = in_misses;
+    this.loads = in_loads;
+    this.load_failures = in_load_failures;
+    this.load_time = in_load_time;
+    this.evictions = in_evictions;
+    this.evicted_size = in_evicted_size;
+    this.latency_load = in_latency_load;
+    this.latency_close = in_latency_close;
+    this.latency_request = in_latency_request;
+  }
+
+  @Override public boolean equals(
+    final @Nullable Object obj)
+  {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (this.getClass() != obj.getClass()) {
+      return false;
+    }
+    final JCacheStatistics other = (JCacheStatistics) obj;
+    return (this.hits == other.hits)
+      && (this.misses == other.misses)
+      && (this.loads == other.loads)
+      && (this.load_failures == other.load_failures)
+      && (this.load_time == other.load_time)
+      && (this.evictions == other.evictions)
+      && (this.evicted_size == other.evicted_size)
+      && this.latency_load.equals(other.latency_load)
+      && this.latency_close.equals(other.latency_close)
+      && this.latency_request.equals(other.latency_request);
+  }
+
+  /**
+   * @return The total size of the objects evicted, in units.
+   */
+
+  public long getEvictedSize()
+  {
+    return this.evicted_size;
+  }
+
+  /**
+   * @return The number of objects evicted to make room for other objects.
+   *         Objects removed by deleting the cache are not counted.
+   */
+
+  public long getEvictions()
+  {
+    return this.evictions;
+  }
+
+  /**
+   * @return The number of requests that were hits, divided by the total
+   *         number of requests, or <code>1.0</code> if there have been no
+   *         requests.
+   */
+
+  public double getHitRatio()
+  {
+    final long r = this.getRequests();
+    return (r == 0L) ? 1.0 : (double) this.hits / (double) r;
+  }
+
+  /**
+   * @return The number of requests that were satisfied by cached objects.
+   */
+
+  public long getHits()
+  {
+    return this.hits;
+  }
+
+  /**
+   * @return The distribution of the time taken to close objects, in
+   *         nanoseconds
+   */
+
+  public JCacheHistogram getLatencyClose()
+  {
+    return this.latency_close;
+  }
+
+  /**
+   * @return The distribution of the time taken by loads (including failed
+   *         loads, and counting each bulk load once), in nanoseconds
+   */
+
+  public JCacheHistogram getLatencyLoad()
+  {
+    return this.latency_load;
+  }
+
+  /**
+   * @return The distribution of the time taken to satisfy single-object
+   *         requests ({@link LUCacheType#cacheGetLU(Object)},
+   *         {@link BLUCacheType#bluCacheGet(Object)} and
+   *         {@link PCacheType#cacheGetPeriodic(Object)}), including any load
+   *         and eviction, in nanoseconds
+   */
+
+  public JCacheHistogram getLatencyRequest()
+  {
+    return this.latency_request;
+  }
+
+  /**
+   * @return The number of loads that raised exceptions or returned
+   *         <code>null</code>.
+   */
+
+  public long getLoadFailures()
+  {
+    return this.load_failures;
+  }
+
+  /**
+   * @return The number of objects successfully loaded.
+   */
+
+  public long getLoads()
+  {
+    return this.loads;
+  }
+
+  /**
+   * @return The total time spent loading objects, including failed loads, in
+   *         nanoseconds.
+   */
+
+  public long getLoadTime()
+  {
+    return this.load_time;
+  }
+
+  /**
+   * @return The number of requests that were misses, divided by the total
+   *         number of requests, or <code>0.0</code> if there have been no
+   *         requests.
+   */
+
+  public double getMissRatio()
+  {
+    final long r = this.getRequests();
+    return (r == 0L) ? 0.0 : (double) this.misses / (double) r;
+  }
+
+  /**
+   * @return The number of requests that were not satisfied by cached objects.
+   */
+
+  public long getMisses()
+  {
+    return this.misses;
+  }
+
+  /**
+   * @return The total number of requests: the sum of {@link #getHits()} and
+   *         {@link #getMisses()}.
+   */
+
+  public long getRequests()
+  {
+    return this.hits + this.misses;
+  }
+
+  @Override public int hashCode()
+  {
+    final int prime = 31;
+    int result = 1;
+    result = (prime * result) + Long.hashCode(this.hits);
+    result = (prime * result) + Long.hashCode(this.misses);
+    result = (prime * result) + Long.hashCode(this.loads);
+    result = (prime * result) + Long.hashCode(this.load_failures);
+    result = (prime * result) + Long.hashCode(this.load_time);
+    result = (prime * result) + Long.hashCode(this.evictions);
+    result = (prime * result) + Long.hashCode(this.evicted_size);
+    result = (prime * result) + this.latency_load.hashCode();
+    result = (prime * result) + this.latency_close.hashCode();
+    result = (prime * result) + this.latency_request.hashCode();
+    return result;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("[JCacheStatistics [hits=");
+    builder.append(this.hits);
+    builder.append(", misses=");
+    builder.append(this.misses);
+    builder.append(", loads=");
+    builder.append(this.loads);
+    builder.append(", load_failures=");
+    builder.append(this.load_failures);
+    builder.append(", load_time=");
+    builder.append(this.load_time);
+    builder.append(", evictions=");
+    builder.append(this.evictions);
+    builder.append(", evicted_size=");
+    builder.append(this.evicted_size);
+    builder.append(", latency_load=");
+    builder.append(this.latency_load);
+    builder.append(", latency_close=");
+    builder.append(this.latency_close);
+    builder.append(", latency_request=");
+    builder.append(this.latency_request);
+    builder.append("]]");
+    return builder.toString();
+  }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * The counters behind {@link JCacheStatisticsType}.
+ * </p>
+ * <p>
+ * The counters are striped, so that caches used from many threads at once
+ * do not contend on a single memory location, and updating them never
+ * allocates.
+ * </p>
+ * <p>
+ * Latency histograms are optional, as each one occupies a few kilobytes and
+ * reading the clock is not free. When histograms are disabled, the only cost
+ * of the timing methods is a volatile read.
+ * </p>
+ */
+
+final class JCacheStatisticsCounters
+{
+  /**
+   * The value returned by {@link #requestStarted()} when histograms are
+   * disabled.
+   */
+
+  private static final long                          NOT_TIMED;
+
+  static {
+    NOT_TIMED = Long.MIN_VALUE;
+  }
+
+  private final LongAdder                            evicted_size;
+  private final LongAdder                            evictions;
+  private final LongAdder                            hits;
+  private volatile @Nullable JCacheHistogramRecorder latency_close;
+  private volatile @Nullable JCacheHistogramRecorder latency_load;
+  private volatile @Nullable JCacheHistogramRecorder latency_request;
+  private final LongAdder                            load_failures;
+  private final LongAdder                            load_time;
+  private final LongAdder                            loads;
+  private final LongAdder                            misses;
+
+  JCacheStatisticsCounters()
+  {
+    this.evicted_size = new LongAdder();
+    this.evictions = new LongAdder();
+    this.hits = new LongAdder();
+    this.load_failures = new LongAdder();
+    this.load_time = new LongAdder();
+    this.loads = new LongAdder();
+    this.misses = new LongAdder();
+    this.latency_close = null;
+    this.latency_load = null;
+    this.latency_request = null;
+  }
+
+  private static JCacheHistogram histogramSnapshot(
+    final @Nullable JCacheHistogramRecorder r)
+  {
+    if (r != null) {
+      return r.snapshot();
+    }
+    return JCacheHistogram.empty();
+  }
+
+  /**
+   * Close <code>value</code> with <code>loader</code>, recording the time
+   * taken if histograms are enabled.
+   *
+   * @param loader
+   *          The loader
+   * @param value
+   *          The value
+   * @throws E
+   *           If the loader raises <code>E</code>
+   */
+
+  <K, V, E extends Throwable> void close(
+    final JCacheLoaderType<K, V, E> loader,
+    final V value)
+    throws E
+  {
+    final JCacheHistogramRecorder r = this.latency_close;
+    if (r == null) {
+      loader.cacheValueClose(value);
+      return;
+    }
+
+    final long start = System.nanoTime();
+    try {
+      loader.cacheValueClose(value);
+    } finally {
+      r.record(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Close all of <code>values</code> with <code>closer</code>, recording the
+   * time taken (once, for the whole batch) if histograms are enabled.
+   *
+   * @param closer
+   *          The loader
+   * @param values
+   *          The values
+   * @throws E
+   *           If the loader raises <code>E</code>
+   */
+
+  <K, V, E extends Throwable> void closeAll(
+    final JCacheBulkCloserType<K, V, E> closer,
+    final List<V> values)
+    throws E
+  {
+    final JCacheHistogramRecorder r = this.latency_close;
+    if (r == null) {
+      closer.cacheValueCloseAll(values);
+      return;
+    }
+
+    final long start = System.nanoTime();
+    try {
+      closer.cacheValueCloseAll(values);
+    } finally {
+      r.record(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Record the eviction of an object of size <code>size</code>.
+   *
+   * @param size
+   *          The size of the object
+   */
+
+  void evicted(
+    final long size)
+  {
+    this.evictions.increment();
+    this.evicted_size.add(size);
+    JCacheFlightRecorder.evicted(size);
+  }
+
+  /**
+   * Record a hit.
+   */
+
+  void hit()
+  {
+    this.hits.increment();
+  }
+
+  /**
+   * Load the object for <code>key</code> with <code>loader</code>, recording
+   * the time taken and whether the load succeeded.
+   *
+   * @param loader
+   *          The loader
+   * @param key
+   *          The key
+   * @return The loaded object (possibly <code>null</code>, which is recorded
+   *         as a failure)
+   * @throws E
+   *           If the loader raises <code>E</code>
+   */
+
+  <K, V, E extends Throwable> V load(
+    final JCacheLoaderType<K, V, E> loader,
+    final K key)
+    throws E
+  {
+    final long start = System.nanoTime();
+    final Object flight = JCacheFlightRecorder.loadStarted();
+    V v = null;
+    try {
+      v = loader.cacheValueLoad(key);
+      return v;
+    } finally {
+      final boolean loaded = v != null;
+      this.loadFinished(start, loaded ? 1L : 0L, loaded ? 0L : 1L);
+      JCacheFlightRecorder.loadFinished(flight, loader, key, v);
+    }
+  }
+
+  /**
+   * Record the end of a load (or a bulk load) started at
+   * <code>start</code>, as given by {@link System#nanoTime()}.
+   *
+   * @param start
+   *          The time at which the load started
+   * @param succeeded
+   *          The number of objects loaded successfully
+   * @param failed
+   *          The number of objects that failed to load
+   */
+
+  void loadFinished(
+    final long start,
+    final long succeeded,
+    final long failed)
+  {
+    final long time = System.nanoTime() - start;
+    final JCacheHistogramRecorder r = this.latency_load;
+    if (r != null) {
+      r.record(time);
+    }
+    this.load_time.add(time);
+    this.loads.add(succeeded);
+    this.load_failures.add(failed);
+  }
+
+  /**
+   * Record a miss.
+   */
+
+  void miss()
+  {
+    this.misses.increment();
+  }
+
+  /**
+   * Record the end of a request started at <code>start</code>, as returned
+   * by {@link #requestStarted()}.
+   *
+   * @param start
+   *          The time at which the request started
+   */
+
+  void requestFinished(
+    final long start)
+  {
+    if (start != JCacheStatisticsCounters.NOT_TIMED) {
+      final JCacheHistogramRecorder r = this.latency_request;
+      if (r != null) {
+        r.record(System.nanoTime() - start);
+      }
+    }
+  }
+
+  /**
+   * @return The current time, if histograms are enabled, for passing to
+   *         {@link #requestFinished(long)}
+   */
+
+  long requestStarted()
+  {
+    if (this.latency_request != null) {
+      return System.nanoTime();
+    }
+    return JCacheStatisticsCounters.NOT_TIMED;
+  }
+
+  /**
+   * Reset all counters to zero.
+   */
+
+  void reset()
+  {
+    final JCacheHistogramRecorder rc = this.latency_close;
+    if (rc != null) {
+      rc.reset();
+    }
+    final JCacheHistogramRecorder rl = this.latency_load;
+    if (rl != null) {
+      rl.reset();
+    }
+    final JCacheHistogramRecorder rr = this.latency_request;
+    if (rr != null) {
+      rr.reset();
+    }
+    this.evicted_size.reset();
+    this.evictions.reset();
+    this.hits.reset();
+    this.load_failures.reset();
+    this.load_time.reset();
+    this.loads.reset();
+    this.misses.reset();
+  }
+
+  /**
+   * Enable or disable latency histograms. Disabling histograms discards
+   * their contents.
+   *
+   * @param enabled
+   *          <code>true</code> iff histograms should be recorded
+   */
+
+  void setHistogramsEnabled(
+    final boolean enabled)
+  {
+    if (enabled) {
+      if (this.latency_request == null) {
+        this.latency_close = new JCacheHistogramRecorder();
+        this.latency_load = new JCacheHistogramRecorder();
+        this.latency_request = new JCacheHistogramRecorder();
+      }
+    } else {
+      this.latency_close = null;
+      this.latency_load = null;
+      this.latency_request = null;
+    }
+  }
+
+  /**
+   * @return A snapshot of the current counter values
+   */
+
+  JCacheStatistics snapshot()
+  {
+    return new JCacheStatistics(
+      this.hits.sum(),
+      this.misses.sum(),
+      this.loads.sum(),
+      this.load_failures.sum(),
+      this.load_time.sum(),
+      this.evictions.sum(),
+      this.evicted_size.sum(),
+      JCacheStatisticsCounters.histogramSnapshot(this.latency_load),
+      JCacheStatisticsCounters.histogramSnapshot(this.latency_close),
+      JCacheStatisticsCounters.histogramSnapshot(this.latency_request));
+  }
+}
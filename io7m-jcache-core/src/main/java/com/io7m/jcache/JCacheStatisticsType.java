@@ -0,0 +1,63 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+/**
+ * <p>
+ * The type of caches that keep statistics about their own use.
+ * </p>
+ * <p>
+ * Statistics are kept in counters that are cheap to update from any number
+ * of threads, and are always enabled. A snapshot is not atomic with respect
+ * to concurrent cache operations: the individual counters are exact, but a
+ * snapshot taken while other threads are using the cache may observe
+ * counters from slightly different moments.
+ * </p>
+ * <p>
+ * Latency histograms are disabled by default, and can be enabled with
+ * {@link #cacheStatisticsSetHistogramsEnabled(boolean)}. Recording into a
+ * histogram never allocates.
+ * </p>
+ */
+
+public interface JCacheStatisticsType
+{
+  /**
+   * @return An immutable snapshot of the statistics accumulated since the
+   *         cache was created, or since the last call to
+   *         {@link #cacheStatisticsReset()}.
+   */
+
+  JCacheStatistics cacheStatistics();
+
+  /**
+   * Reset all statistics to zero.
+   */
+
+  void cacheStatisticsReset();
+
+  /**
+   * Enable or disable the recording of latency histograms. Disabling
+   * histograms discards any values recorded so far.
+   *
+   * @param enabled
+   *          <code>true</code> iff histograms should be recorded
+   */
+
+  void cacheStatisticsSetHistogramsEnabled(
+    final boolean enabled);
+}
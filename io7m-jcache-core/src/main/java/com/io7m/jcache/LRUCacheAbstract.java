@@ -127,11 +127,37 @@ public abstract class LRUCacheAbstract<K, TVIEW, TCACHE extends TVIEW, E extends
     return this.cache.cacheItemCount();
   }
 
+  @Override public final long cacheItemCountLong()
+  {
+    return this.cache.cacheItemCountLong();
+  }
+
   @Override public final BigInteger cacheSize()
   {
     return this.cache.cacheSize();
   }
 
+  @Override public final long cacheSizeLong()
+  {
+    return this.cache.cacheSizeLong();
+  }
+
+  @Override public final JCacheStatistics cacheStatistics()
+  {
+    return this.cache.cacheStatistics();
+  }
+
+  @Override public final void cacheStatisticsReset()
+  {
+    this.cache.cacheStatisticsReset();
+  }
+
+  @Override public final void cacheStatisticsSetHistogramsEnabled(
+    final boolean enabled)
+  {
+    this.cache.cacheStatisticsSetHistogramsEnabled(enabled);
+  }
+
   @Override protected final void finalize()
     throws Throwable
   {
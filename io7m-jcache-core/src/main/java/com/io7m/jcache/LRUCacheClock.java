@@ -0,0 +1,576 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.math.BigInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * A thread-safe cache using the CLOCK approximation of LRU.
+ * </p>
+ * <p>
+ * Cached objects are arranged in a ring, and each has a <i>reference
+ * bit</i>. Retrieving a cached object does nothing but set its reference
+ * bit: no lock is taken, nothing is reordered, and nothing is allocated, so
+ * concurrent readers never contend with each other. When space is needed,
+ * a <i>hand</i> sweeps around the ring: objects with the reference bit set
+ * have the bit cleared and are skipped (they are given a second chance),
+ * and the first object found without the bit set is evicted. New objects
+ * are inserted directly behind the hand, with the reference bit clear.
+ * </p>
+ * <p>
+ * Insertion and eviction are serialized by a single lock, but objects are
+ * loaded without holding it, so a slow load delays only the callers that
+ * requested the same key. Concurrent requests for the same uncached key are
+ * collapsed into a single call to
+ * {@link JCacheLoaderType#cacheValueLoad(Object)}, and if loading fails,
+ * every waiting caller receives the same exception. A value that finishes
+ * loading after the cache has been deleted with {@link #cacheDelete()} is
+ * delivered to its callers, and then immediately evicted and closed.
+ * Capacity is measured using the sizes reported by
+ * {@link JCacheLoaderType#cacheValueSizeOf(Object)}, as with
+ * {@link LRUCacheTrivial}. The eviction policy of the configuration is
+ * ignored.
+ * </p>
+ * <p>
+ * Note that an object returned by {@link #cacheGetLU(Object)} may be
+ * evicted (and closed) by another thread at any time after it is returned.
+ * Event listeners are called from whichever thread caused the event, and
+ * must therefore be thread-safe.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <TVIEW>
+ *          The type of cached values, as visible to users of the cache
+ * @param <TCACHE>
+ *          The type of cached values, as visible to cache implementations
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public final class LRUCacheClock<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> implements
+  LRUCacheType<K, TVIEW, TCACHE, E>
+{
+  private static final class Node<K, V> extends JCacheListNode<Node<K, V>>
+  {
+    private final K          key;
+    private volatile boolean referenced;
+    private final long       size;
+    private final V          value;
+
+    Node(
+      final K in_key,
+      final V in_value,
+      final long in_size)
+    {
+      this.key = in_key;
+      this.value = in_value;
+      this.size = in_size;
+      this.referenced = false;
+    }
+
+    public K getKey()
+    {
+      return this.key;
+    }
+
+    public long getSize()
+    {
+      return this.size;
+    }
+
+    public V getValue()
+    {
+      return this.value;
+    }
+
+    public boolean isReferenced()
+    {
+      return this.referenced;
+    }
+
+    public void setReferenced(
+      final boolean r)
+    {
+      this.referenced = r;
+    }
+  }
+
+  /**
+   * Construct a new <tt>LRUCacheClock</tt>.
+   *
+   * @param loader
+   *          The class that will load instances when given keys
+   * @param config
+   *          The cache configuration
+   * @return A new cache instance
+   *
+   * @param <K>
+   *          The type of keys
+   * @param <TVIEW>
+   *          The type of cached values, as visible to users of the cache
+   * @param <TCACHE>
+   *          The type of cached values, as visible to cache implementations
+   * @param <E>
+   *          The type of exceptions raised by the loader
+   */
+
+  public static
+    <K, TVIEW, TCACHE extends TVIEW, E extends Throwable>
+    LRUCacheClock<K, TVIEW, TCACHE, E>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, E> loader,
+      final LRUCacheConfig config)
+  {
+    return new LRUCacheClock<K, TVIEW, TCACHE, E>(loader, config);
+  }
+
+  private volatile LRUCacheConfig                                    config;
+  private volatile @Nullable JCacheEventsType<K, TCACHE>             events;
+  private final JCacheEvictionBatch<K, TCACHE>                       evicting;
+  private volatile long                                              generation;
+  private @Nullable Node<K, TCACHE>                                  hand;
+  private final ConcurrentMap<K, Node<K, TCACHE>>                    items;
+  private final JCacheLoaderType<K, TCACHE, E>                       loader;
+  private final @Nullable JCacheLoaderLongType<K, TCACHE, E>         loader_long;
+  private final ConcurrentMap<K, CompletableFuture<Node<K, TCACHE>>> loading;
+  private final ReentrantLock                                        lock;
+  private final JCacheList<Node<K, TCACHE>>                          ring;
+  private final JCacheStatisticsCounters                             statistics;
+  private volatile long                                              used;
+
+  private LRUCacheClock(
+    final JCacheLoaderType<K, TCACHE, E> in_loader,
+    final LRUCacheConfig in_config)
+  {
+    this.loader = NullCheck.notNull(in_loader, "Loader");
+    this.loader_long = JCacheAccounting.supportsLong(in_loader);
+    this.config = NullCheck.notNull(in_config, "Configuration");
+    this.items = new ConcurrentHashMap<K, Node<K, TCACHE>>();
+    this.loading =
+      new ConcurrentHashMap<K, CompletableFuture<Node<K, TCACHE>>>();
+    this.generation = 0L;
+    this.ring = new JCacheList<Node<K, TCACHE>>();
+    this.lock = new ReentrantLock();
+    this.hand = null;
+    this.used = 0L;
+    this.statistics = new JCacheStatisticsCounters();
+    this.evicting = new JCacheEvictionBatch<K, TCACHE>();
+    this.events = null;
+  }
+
+  private void cacheCheckOverflow()
+    throws JCacheException
+  {
+    if (this.items.size() == Integer.MAX_VALUE) {
+      throw JCacheException.errorInternalCacheOverflow(this.items.size());
+    }
+  }
+
+  @Override public void cacheDelete()
+  {
+    this.lock.lock();
+    try {
+      while (this.ring.isEmpty() == false) {
+        final Node<K, TCACHE> n = this.ring.first();
+        assert n != null;
+        this.cacheRemove(n);
+      }
+      this.evicting.flush(this.loader, this.statistics, this.events);
+
+      /**
+       * Values that are still being loaded will not be cached when they
+       * arrive.
+       */
+
+      this.generation = this.generation + 1L;
+
+      assert this.hand == null;
+      assert this.items.size() == 0;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override public void cacheEventsSubscribe(
+    final JCacheEventsType<K, TCACHE> e)
+  {
+    this.events = NullCheck.notNull(e, "Events");
+  }
+
+  @Override public void cacheEventsUnsubscribe()
+  {
+    this.events = null;
+  }
+
+  private void cacheEvictItems(
+    final long added_size,
+    final long maximum)
+  {
+    assert this.lock.isHeldByCurrentThread();
+    assert added_size <= maximum;
+
+    /**
+     * Each object is skipped at most once before its reference bit is
+     * clear, so the sweep evicts an object within two revolutions.
+     */
+
+    while (this.used > (maximum - added_size)) {
+      final Node<K, TCACHE> n = this.hand;
+      assert n != null;
+
+      if (n.isReferenced()) {
+        n.setReferenced(false);
+        this.hand = this.cacheNext(n);
+      } else {
+        this.statistics.evicted(n.getSize());
+        this.cacheRemove(n);
+      }
+    }
+    this.evicting.flush(this.loader, this.statistics, this.events);
+
+    assert this.used <= (maximum - added_size);
+  }
+
+  private Node<K, TCACHE> cacheGetAddingNew(
+    final K key)
+    throws E,
+      JCacheException
+  {
+    final CompletableFuture<Node<K, TCACHE>> mine =
+      new CompletableFuture<Node<K, TCACHE>>();
+    final CompletableFuture<Node<K, TCACHE>> theirs =
+      this.loading.putIfAbsent(key, mine);
+    if (theirs != null) {
+      return this.cacheGetAwait(theirs);
+    }
+
+    try {
+
+      /**
+       * The value may have been inserted by another thread between the
+       * initial lookup and the registration of this load.
+       */
+
+      Node<K, TCACHE> n = this.items.get(key);
+      if (n == null) {
+        n = this.cacheLoad(key);
+      }
+
+      this.loading.remove(key, mine);
+      mine.complete(n);
+      return n;
+    } catch (final Throwable x) {
+      this.loading.remove(key, mine);
+      mine.completeExceptionally(x);
+      this.rethrow(x);
+      throw new AssertionError(x);
+    }
+  }
+
+  private Node<K, TCACHE> cacheGetAwait(
+    final CompletableFuture<Node<K, TCACHE>> theirs)
+    throws E,
+      JCacheException
+  {
+    try {
+      return theirs.join();
+    } catch (final CompletionException x) {
+      this.rethrow(JCacheAsyncLoading.unwrap(x));
+      throw new AssertionError(x);
+    }
+  }
+
+  @Override public TVIEW cacheGetLU(
+    final K key)
+    throws E,
+      JCacheException
+  {
+    final long start = this.statistics.requestStarted();
+    try {
+      NullCheck.notNull(key, "Key");
+
+      Node<K, TCACHE> n = this.items.get(key);
+      if (n != null) {
+        this.statistics.hit();
+
+        /**
+         * Avoid writing to the node if the bit is already set, so that
+         * readers of popular objects do not invalidate each other's caches.
+         */
+
+        if (n.isReferenced() == false) {
+          n.setReferenced(true);
+        }
+      } else {
+        this.statistics.miss();
+        n = this.cacheGetAddingNew(key);
+      }
+
+      this.eventObjectRetrieved(key, n);
+      return n.getValue();
+    } finally {
+      this.statistics.requestFinished(start);
+    }
+  }
+
+  @Override public boolean cacheIsCached(
+    final K key)
+  {
+    return this.items.containsKey(NullCheck.notNull(key, "Key"));
+  }
+
+  @Override public BigInteger cacheItemCount()
+  {
+    return BigInteger.valueOf(this.items.size());
+  }
+
+  @Override public long cacheItemCountLong()
+  {
+    return this.items.size();
+  }
+
+  private Node<K, TCACHE> cacheLoad(
+    final K key)
+    throws E,
+      JCacheException
+  {
+    boolean failed = true;
+    TCACHE new_value = null;
+
+    final long gen = this.generation;
+    this.cacheCheckOverflow();
+
+    try {
+      new_value = this.statistics.load(this.loader, key);
+      this.checkLoaderReturnForNull(key, new_value);
+
+      final long size =
+        JCacheAccounting.sizeOf(this.loader, this.loader_long, new_value);
+      this.eventObjectLoaded(key, new_value, size);
+
+      if (size < 1L) {
+        throw JCacheException.errorObjectTooSmall(key, size);
+      }
+
+      final Node<K, TCACHE> n = this.cacheInsert(key, new_value, size, gen);
+      failed = false;
+      return n;
+    } finally {
+      if (failed) {
+        if (new_value != null) {
+          this.statistics.close(this.loader, new_value);
+        }
+      }
+    }
+  }
+
+  private Node<K, TCACHE> cacheInsert(
+    final K key,
+    final TCACHE new_value,
+    final long size,
+    final long gen)
+    throws JCacheException
+  {
+    this.lock.lock();
+    try {
+      final long maximum = this.config.getMaximumCapacityLong();
+      if (size > maximum) {
+        throw JCacheException.errorObjectTooLarge(key, size, maximum);
+      }
+
+      final Node<K, TCACHE> n = new Node<K, TCACHE>(key, new_value, size);
+      if (gen != this.generation) {
+        this.evicting.add(key, new_value, size);
+        this.evicting.flush(this.loader, this.statistics, this.events);
+        return n;
+      }
+
+      this.cacheEvictItems(size, maximum);
+      this.used = JCacheAccounting.add(this.used, size);
+      this.cacheRingInsert(n);
+      this.items.put(key, n);
+      return n;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private @Nullable Node<K, TCACHE> cacheNext(
+    final Node<K, TCACHE> n)
+  {
+    final Node<K, TCACHE> next = n.getNext();
+    if (next != null) {
+      return next;
+    }
+    return this.ring.first();
+  }
+
+  private void cacheRemove(
+    final Node<K, TCACHE> existing)
+  {
+    assert this.lock.isHeldByCurrentThread();
+
+    if (this.hand == existing) {
+      this.hand = this.cacheNext(existing);
+      if (this.hand == existing) {
+        this.hand = null;
+      }
+    }
+
+    final K key = existing.getKey();
+    this.items.remove(key, existing);
+    this.ring.remove(existing);
+    this.used = this.used - existing.getSize();
+    this.evicting.add(key, existing.getValue(), existing.getSize());
+  }
+
+  /**
+   * Insert <code>n</code> directly behind the hand, so that it is the last
+   * object that the hand will reach.
+   */
+
+  private void cacheRingInsert(
+    final Node<K, TCACHE> n)
+  {
+    final Node<K, TCACHE> h = this.hand;
+    if (h == null) {
+      this.ring.addLast(n);
+      this.hand = n;
+      return;
+    }
+
+    final Node<K, TCACHE> behind = h.getPrevious();
+    if (behind == null) {
+      this.ring.addLast(n);
+    } else {
+      this.ring.addAfter(behind, n);
+    }
+  }
+
+  @Override public BigInteger cacheSize()
+  {
+    return BigInteger.valueOf(this.used);
+  }
+
+  @Override public long cacheSizeLong()
+  {
+    return this.used;
+  }
+
+  @Override public JCacheStatistics cacheStatistics()
+  {
+    return this.statistics.snapshot();
+  }
+
+  @Override public void cacheStatisticsReset()
+  {
+    this.statistics.reset();
+  }
+
+  @Override public void cacheStatisticsSetHistogramsEnabled(
+    final boolean enabled)
+  {
+    this.statistics.setHistogramsEnabled(enabled);
+  }
+
+  private void checkLoaderReturnForNull(
+    final K key,
+    final @Nullable TCACHE new_value)
+    throws JCacheException
+  {
+    if (new_value == null) {
+      throw JCacheException.errorLoaderReturnedNull(key);
+    }
+  }
+
+  private void eventObjectLoaded(
+    final K key,
+    final TCACHE new_value,
+    final long size)
+  {
+    final JCacheEventsType<K, TCACHE> e = this.events;
+    if (e != null) {
+      try {
+        e.cacheEventValueLoaded(key, new_value, BigInteger.valueOf(size));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  private void eventObjectRetrieved(
+    final K key,
+    final Node<K, TCACHE> cv)
+  {
+    final JCacheEventsType<K, TCACHE> e = this.events;
+    if (e != null) {
+      try {
+        e.cacheEventValueRetrieved(
+          key,
+          cv.getValue(),
+          BigInteger.valueOf(cv.getSize()));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  @Override public LRUCacheConfig cacheGetConfiguration()
+  {
+    return this.config;
+  }
+
+  @Override public void cacheSetConfiguration(
+    final LRUCacheConfig c)
+  {
+    this.config = NullCheck.notNull(c, "Configuration");
+  }
+
+  @SuppressWarnings("unchecked") private void rethrow(
+    final Throwable x)
+    throws E
+  {
+    if (x instanceof RuntimeException) {
+      throw (RuntimeException) x;
+    }
+    if (x instanceof Error) {
+      throw (Error) x;
+    }
+    throw (E) x;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("[LRUCacheClock ");
+    builder.append("[size ");
+    builder.append(this.used);
+    builder.append("]");
+    builder.append("]");
+    return builder.toString();
+  }
+}
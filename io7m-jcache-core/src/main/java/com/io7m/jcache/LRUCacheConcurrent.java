@@ -0,0 +1,828 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.math.BigInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * A thread-safe LRU cache; the oldest objects are evicted from the cache
+ * first.
+ * </p>
+ * <p>
+ * Cached objects are indexed by a concurrent hash map, and retrieving an
+ * object that is already cached does not take any lock. Instead, each hit is
+ * recorded in one of a set of striped, bounded buffers, and the recorded
+ * hits are applied to the access order in batches by whichever thread
+ * manages to acquire the eviction lock. The buffers are lossy: if a buffer
+ * is full, the hit is not recorded, and the access order is therefore only
+ * approximately LRU under heavy contention. Insertions and evictions are
+ * serialized by the eviction lock, which drains all pending hits first; a
+ * cache used by a single thread behaves exactly as {@link LRUCacheTrivial}.
+ * </p>
+ * <p>
+ * Concurrent requests for the same uncached key are collapsed into a single
+ * call to {@link JCacheLoaderType#cacheValueLoad(Object)}: the first caller
+ * loads the value, and all other callers wait for and then share the
+ * result. If loading fails, every waiting caller receives the same
+ * exception, and nothing is cached.
+ * </p>
+ * <p>
+ * Values may also be loaded without blocking the calling thread with
+ * {@link #cacheGetLUAsync(Object)}. Synchronous and asynchronous requests for
+ * the same key share a single load. A value that finishes loading after the
+ * cache has been deleted with {@link #cacheDelete()} is not cached: it is
+ * delivered to the callers that requested it, and then immediately evicted
+ * and closed.
+ * </p>
+ * <p>
+ * Note that an object returned by {@link #cacheGetLU(Object)} may be
+ * evicted (and closed) by another thread at any time after it is returned.
+ * Event listeners are called from whichever thread caused the event, and
+ * must therefore be thread-safe.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <TVIEW>
+ *          The type of cached values, as visible to users of the cache
+ * @param <TCACHE>
+ *          The type of cached values, as visible to cache implementations
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public final class LRUCacheConcurrent<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> implements
+  LRUCacheType<K, TVIEW, TCACHE, E>,
+  LUCacheAsyncType<K, TVIEW, TCACHE, E>
+{
+  private static final class CachedValue<K, V> extends
+    JCacheListNode<CachedValue<K, V>>
+  {
+    private final K    key;
+    private final long size;
+    private final V    value;
+
+    CachedValue(
+      final K in_key,
+      final V in_value,
+      final long in_size)
+    {
+      this.key = in_key;
+      this.value = in_value;
+      this.size = in_size;
+    }
+
+    public K getKey()
+    {
+      return this.key;
+    }
+
+    public long getSize()
+    {
+      return this.size;
+    }
+
+    public V getValue()
+    {
+      return this.value;
+    }
+  }
+
+  private static final class ReadBuffer<N>
+  {
+    private final AtomicReferenceArray<N> elements;
+    private final AtomicLong              reads;
+    private final AtomicLong              writes;
+
+    ReadBuffer()
+    {
+      this.elements =
+        new AtomicReferenceArray<N>(LRUCacheConcurrent.READ_BUFFER_SIZE);
+      this.reads = new AtomicLong();
+      this.writes = new AtomicLong();
+    }
+
+    /**
+     * @return The next recorded element, or <code>null</code> if there are
+     *         no more published elements. Must only be called by the thread
+     *         holding the eviction lock.
+     */
+
+    @Nullable N poll()
+    {
+      final long r = this.reads.get();
+      if (r == this.writes.get()) {
+        return null;
+      }
+
+      final int index = (int) (r & LRUCacheConcurrent.READ_BUFFER_MASK);
+      final N n = this.elements.get(index);
+      if (n == null) {
+        return null;
+      }
+
+      this.elements.lazySet(index, null);
+      this.reads.lazySet(r + 1);
+      return n;
+    }
+
+    /**
+     * @return <code>true</code> iff the buffer has enough pending elements
+     *         that it should be drained.
+     * @param n
+     *          The element to record
+     */
+
+    boolean record(
+      final N n)
+    {
+      final long w = this.writes.get();
+      final long pending = w - this.reads.get();
+
+      if (pending < LRUCacheConcurrent.READ_BUFFER_SIZE) {
+        if (this.writes.compareAndSet(w, w + 1)) {
+          final int index = (int) (w & LRUCacheConcurrent.READ_BUFFER_MASK);
+          this.elements.lazySet(index, n);
+        }
+      }
+
+      return pending >= LRUCacheConcurrent.READ_BUFFER_DRAIN_THRESHOLD;
+    }
+  }
+
+  private static final int  READ_BUFFER_DRAIN_THRESHOLD;
+  private static final long READ_BUFFER_MASK;
+  private static final int  READ_BUFFER_SIZE;
+
+  static {
+    READ_BUFFER_SIZE = 32;
+    READ_BUFFER_MASK = LRUCacheConcurrent.READ_BUFFER_SIZE - 1;
+    READ_BUFFER_DRAIN_THRESHOLD = LRUCacheConcurrent.READ_BUFFER_SIZE / 2;
+  }
+
+  /**
+   * Construct a new <tt>LRUCacheConcurrent</tt>.
+   *
+   * @param loader
+   *          The class that will load instances when given keys
+   * @param config
+   *          The cache configuration
+   * @return A new cache instance
+   *
+   * @param <K>
+   *          The type of keys
+   * @param <TVIEW>
+   *          The type of cached values, as visible to users of the cache
+   * @param <TCACHE>
+   *          The type of cached values, as visible to cache implementations
+   * @param <E>
+   *          The type of exceptions raised by the loader
+   */
+
+  public static
+    <K, TVIEW, TCACHE extends TVIEW, E extends Throwable>
+    LRUCacheConcurrent<K, TVIEW, TCACHE, E>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, E> loader,
+      final LRUCacheConfig config)
+  {
+    return new LRUCacheConcurrent<K, TVIEW, TCACHE, E>(loader, config);
+  }
+
+  private static int stripesFor(
+    final int processors)
+  {
+    int s = 1;
+    while (s < processors) {
+      s = s * 2;
+    }
+    return s;
+  }
+
+  /**
+   * Create <code>count</code> empty read buffers. Arrays of a generic type
+   * cannot be created directly.
+   */
+
+  @SuppressWarnings({ "rawtypes", "unchecked" }) private static
+    <N>
+    ReadBuffer<N>[]
+    newReadBuffers(
+      final int count)
+  {
+    final ReadBuffer<N>[] r = new ReadBuffer[count];
+    for (int index = 0; index < count; ++index) {
+      r[index] = new ReadBuffer<N>();
+    }
+    return r;
+  }
+
+  private final JCacheList<CachedValue<K, TCACHE>>                          access;
+  private final ReadBuffer<CachedValue<K, TCACHE>>[]                        buffers;
+  private volatile LRUCacheConfig                                           config;
+  private final ReentrantLock                                               eviction_lock;
+  private volatile @Nullable JCacheEventsType<K, TCACHE>                    events;
+  private final JCacheEvictionBatch<K, TCACHE>                              evicting;
+  private volatile long                                                     generation;
+  private final ConcurrentMap<K, CachedValue<K, TCACHE>>                    items;
+  private final JCacheLoaderType<K, TCACHE, E>                              loader;
+  private final @Nullable JCacheAsyncLoaderType<K, TCACHE, E>               loader_async;
+  private final @Nullable JCacheLoaderLongType<K, TCACHE, E>                loader_long;
+  private final ConcurrentMap<K, CompletableFuture<CachedValue<K, TCACHE>>> loading;
+  private final JCacheStatisticsCounters                                    statistics;
+  private volatile long                                                     used;
+
+  @SuppressWarnings("unchecked") private LRUCacheConcurrent(
+    final JCacheLoaderType<K, TCACHE, E> in_loader,
+    final LRUCacheConfig in_config)
+  {
+    this.loader = NullCheck.notNull(in_loader, "Loader");
+    this.loader_long = JCacheAccounting.supportsLong(in_loader);
+    this.loader_async = JCacheAsyncLoading.supportsAsync(in_loader);
+    this.config = NullCheck.notNull(in_config, "Configuration");
+    this.items = new ConcurrentHashMap<K, CachedValue<K, TCACHE>>();
+    this.loading =
+      new ConcurrentHashMap<K, CompletableFuture<CachedValue<K, TCACHE>>>();
+    this.generation = 0L;
+    this.access = new JCacheList<CachedValue<K, TCACHE>>();
+    this.eviction_lock = new ReentrantLock();
+    this.used = 0L;
+    this.statistics = new JCacheStatisticsCounters();
+    this.evicting = new JCacheEvictionBatch<K, TCACHE>();
+    this.events = null;
+
+    final int stripes =
+      LRUCacheConcurrent.stripesFor(Runtime.getRuntime().availableProcessors());
+    this.buffers = LRUCacheConcurrent.newReadBuffers(stripes);
+  }
+
+  private void cacheCheckOverflow()
+    throws JCacheException
+  {
+    if (this.items.size() == Integer.MAX_VALUE) {
+      throw JCacheException.errorInternalCacheOverflow(this.items.size());
+    }
+  }
+
+  @Override public void cacheDelete()
+  {
+    this.eviction_lock.lock();
+    try {
+      this.drainReadBuffers();
+      while (this.access.isEmpty() == false) {
+        this.cacheEvictOldest();
+      }
+      this.evicting.flush(this.loader, this.statistics, this.events);
+
+      /**
+       * Values that are still being loaded will not be cached when they
+       * arrive.
+       */
+
+      this.generation = this.generation + 1L;
+
+      assert this.access.size() == 0;
+      assert this.items.size() == 0;
+    } finally {
+      this.eviction_lock.unlock();
+    }
+  }
+
+  @Override public void cacheEventsSubscribe(
+    final JCacheEventsType<K, TCACHE> e)
+  {
+    this.events = NullCheck.notNull(e, "Events");
+  }
+
+  @Override public void cacheEventsUnsubscribe()
+  {
+    this.events = null;
+  }
+
+  private long cacheEvictOldest()
+  {
+    assert this.eviction_lock.isHeldByCurrentThread();
+
+    final CachedValue<K, TCACHE> oldest = this.access.first();
+    assert oldest != null;
+    this.cacheRemove(oldest);
+    return oldest.getSize();
+  }
+
+  private void cacheEvictOldestItems(
+    final long added_size,
+    final long maximum)
+  {
+    assert this.eviction_lock.isHeldByCurrentThread();
+    assert added_size <= maximum;
+
+    /**
+     * Because objects larger than the capacity cannot be inserted into the
+     * map, at least one object must exist if <code>used</code> is nonzero.
+     * The comparison is arranged so that it cannot overflow.
+     */
+
+    while (this.used > (maximum - added_size)) {
+      this.statistics.evicted(this.cacheEvictOldest());
+    }
+    this.evicting.flush(this.loader, this.statistics, this.events);
+
+    assert this.used <= (maximum - added_size);
+  }
+
+  private CachedValue<K, TCACHE> cacheGetAddingNew(
+    final K key)
+    throws E,
+      JCacheException
+  {
+    final CompletableFuture<CachedValue<K, TCACHE>> mine =
+      new CompletableFuture<CachedValue<K, TCACHE>>();
+    final CompletableFuture<CachedValue<K, TCACHE>> theirs =
+      this.loading.putIfAbsent(key, mine);
+    if (theirs != null) {
+      return this.cacheGetAwait(theirs);
+    }
+
+    try {
+
+      /**
+       * The value may have been inserted by another thread between the
+       * initial lookup and the registration of this load.
+       */
+
+      CachedValue<K, TCACHE> cv = this.items.get(key);
+      if (cv == null) {
+        cv = this.cacheLoad(key);
+      }
+
+      this.loading.remove(key, mine);
+      mine.complete(cv);
+      return cv;
+    } catch (final Throwable x) {
+      this.loading.remove(key, mine);
+      mine.completeExceptionally(x);
+      this.rethrow(x);
+      throw new AssertionError(x);
+    }
+  }
+
+  @Override public CompletableFuture<TVIEW> cacheGetLUAsync(
+    final K key)
+  {
+    NullCheck.notNull(key, "Key");
+
+    final CachedValue<K, TCACHE> cv = this.items.get(key);
+    if (cv != null) {
+      this.statistics.hit();
+      this.recordRead(cv);
+      this.eventObjectRetrieved(key, cv);
+      return CompletableFuture.<TVIEW>completedFuture(cv.getValue());
+    }
+
+    this.statistics.miss();
+
+    final CompletableFuture<CachedValue<K, TCACHE>> mine =
+      new CompletableFuture<CachedValue<K, TCACHE>>();
+    final CompletableFuture<CachedValue<K, TCACHE>> theirs =
+      this.loading.putIfAbsent(key, mine);
+
+    final CompletableFuture<CachedValue<K, TCACHE>> shared;
+    if (theirs != null) {
+      shared = theirs;
+    } else {
+      shared = mine;
+      this.cacheLoadAsync(key, mine);
+    }
+
+    /**
+     * Each caller receives a distinct dependent future, so that a caller
+     * that cancels its future does not affect any other caller.
+     */
+
+    return shared.thenApply(new Function<CachedValue<K, TCACHE>, TVIEW>() {
+      @Override public TVIEW apply(
+        final CachedValue<K, TCACHE> r)
+      {
+        LRUCacheConcurrent.this.eventObjectRetrieved(key, r);
+        return r.getValue();
+      }
+    });
+  }
+
+  private CachedValue<K, TCACHE> cacheGetAwait(
+    final CompletableFuture<CachedValue<K, TCACHE>> theirs)
+    throws E,
+      JCacheException
+  {
+    try {
+      return theirs.join();
+    } catch (final CompletionException x) {
+      this.rethrow(JCacheAsyncLoading.unwrap(x));
+      throw new AssertionError(x);
+    }
+  }
+
+  @Override public TVIEW cacheGetLU(
+    final K key)
+    throws E,
+      JCacheException
+  {
+    final long start = this.statistics.requestStarted();
+    try {
+      NullCheck.notNull(key, "Key");
+
+      CachedValue<K, TCACHE> cv = this.items.get(key);
+      if (cv != null) {
+        this.statistics.hit();
+        this.recordRead(cv);
+      } else {
+        this.statistics.miss();
+        cv = this.cacheGetAddingNew(key);
+      }
+
+      this.eventObjectRetrieved(key, cv);
+      return cv.getValue();
+    } finally {
+      this.statistics.requestFinished(start);
+    }
+  }
+
+  @Override public boolean cacheIsCached(
+    final K key)
+  {
+    return this.items.containsKey(NullCheck.notNull(key, "Key"));
+  }
+
+  @Override public BigInteger cacheItemCount()
+  {
+    return BigInteger.valueOf(this.items.size());
+  }
+
+  @Override public long cacheItemCountLong()
+  {
+    return this.items.size();
+  }
+
+  private CachedValue<K, TCACHE> cacheLoad(
+    final K key)
+    throws E,
+      JCacheException
+  {
+    final long gen = this.generation;
+    this.cacheCheckOverflow();
+    return this.cacheLoaded(
+      key,
+      this.statistics.load(this.loader, key),
+      gen);
+  }
+
+  private void cacheLoadAsync(
+    final K key,
+    final CompletableFuture<CachedValue<K, TCACHE>> mine)
+  {
+    final CachedValue<K, TCACHE> existing = this.items.get(key);
+    if (existing != null) {
+      this.loading.remove(key, mine);
+      mine.complete(existing);
+      return;
+    }
+
+    final long gen = this.generation;
+    final long start = System.nanoTime();
+    final CompletableFuture<TCACHE> f;
+    try {
+      this.cacheCheckOverflow();
+      f = JCacheAsyncLoading.load(this.loader, this.loader_async, key);
+    } catch (final Throwable x) {
+      this.statistics.loadFinished(start, 0L, 1L);
+      this.loading.remove(key, mine);
+      mine.completeExceptionally(x);
+      return;
+    }
+
+    f.whenComplete(new BiConsumer<TCACHE, Throwable>() {
+      @Override public void accept(
+        final @Nullable TCACHE value,
+        final @Nullable Throwable error)
+      {
+        final LRUCacheConcurrent<K, TVIEW, TCACHE, E> c =
+          LRUCacheConcurrent.this;
+
+        final boolean loaded = (error == null) && (value != null);
+        c.statistics.loadFinished(start, loaded ? 1L : 0L, loaded ? 0L : 1L);
+
+        if (error != null) {
+          c.loading.remove(key, mine);
+          mine.completeExceptionally(JCacheAsyncLoading.unwrap(error));
+          return;
+        }
+
+        try {
+          final CachedValue<K, TCACHE> cv = c.cacheLoaded(key, value, gen);
+          c.loading.remove(key, mine);
+          mine.complete(cv);
+        } catch (final Throwable x) {
+          c.loading.remove(key, mine);
+          mine.completeExceptionally(x);
+        }
+      }
+    });
+  }
+
+  private CachedValue<K, TCACHE> cacheLoaded(
+    final K key,
+    final @Nullable TCACHE new_value,
+    final long gen)
+    throws E,
+      JCacheException
+  {
+    boolean failed = true;
+
+    try {
+      this.checkLoaderReturnForNull(key, new_value);
+      assert new_value != null;
+
+      final long size =
+        JCacheAccounting.sizeOf(this.loader, this.loader_long, new_value);
+      this.eventObjectLoaded(key, new_value, size);
+
+      if (size < 1L) {
+        throw JCacheException.errorObjectTooSmall(key, size);
+      }
+
+      final CachedValue<K, TCACHE> cv =
+        this.cacheInsert(key, new_value, size, gen);
+      failed = false;
+      return cv;
+    } finally {
+      if (failed) {
+        if (new_value != null) {
+          this.statistics.close(this.loader, new_value);
+        }
+      }
+    }
+  }
+
+  private CachedValue<K, TCACHE> cacheInsert(
+    final K key,
+    final TCACHE new_value,
+    final long size,
+    final long gen)
+    throws JCacheException
+  {
+    this.eviction_lock.lock();
+    try {
+      final long maximum = this.config.getMaximumCapacityLong();
+      if (size > maximum) {
+        throw JCacheException.errorObjectTooLarge(key, size, maximum);
+      }
+
+      if (gen != this.generation) {
+        final CachedValue<K, TCACHE> cv =
+          new CachedValue<K, TCACHE>(key, new_value, size);
+        this.cacheDiscard(cv);
+        return cv;
+      }
+
+      this.drainReadBuffers();
+      this.cacheEvictOldestItems(size, maximum);
+      this.used = JCacheAccounting.add(this.used, size);
+
+      final CachedValue<K, TCACHE> cv =
+        new CachedValue<K, TCACHE>(key, new_value, size);
+      this.access.addLast(cv);
+      this.items.put(key, cv);
+      return cv;
+    } finally {
+      this.eviction_lock.unlock();
+    }
+  }
+
+  private void cacheRemove(
+    final CachedValue<K, TCACHE> existing)
+  {
+    assert this.eviction_lock.isHeldByCurrentThread();
+
+    final K key = existing.getKey();
+    this.items.remove(key, existing);
+    this.access.remove(existing);
+    this.used = this.used - existing.getSize();
+    this.evicting.add(key, existing.getValue(), existing.getSize());
+  }
+
+  private void cacheDiscard(
+    final CachedValue<K, TCACHE> existing)
+  {
+    final K key = existing.getKey();
+    this.eventObjectEvicted(key, existing);
+    try {
+      this.statistics.close(this.loader, existing.getValue());
+    } catch (final Throwable x) {
+      this.eventObjectCloseError(key, existing, x);
+    }
+  }
+
+  @Override public BigInteger cacheSize()
+  {
+    return BigInteger.valueOf(this.used);
+  }
+
+  @Override public long cacheSizeLong()
+  {
+    return this.used;
+  }
+
+  @Override public JCacheStatistics cacheStatistics()
+  {
+    return this.statistics.snapshot();
+  }
+
+  @Override public void cacheStatisticsReset()
+  {
+    this.statistics.reset();
+  }
+
+  @Override public void cacheStatisticsSetHistogramsEnabled(
+    final boolean enabled)
+  {
+    this.statistics.setHistogramsEnabled(enabled);
+  }
+
+  private void checkLoaderReturnForNull(
+    final K key,
+    final @Nullable TCACHE new_value)
+    throws JCacheException
+  {
+    if (new_value == null) {
+      throw JCacheException.errorLoaderReturnedNull(key);
+    }
+  }
+
+  private void drainReadBuffers()
+  {
+    assert this.eviction_lock.isHeldByCurrentThread();
+
+    for (final ReadBuffer<CachedValue<K, TCACHE>> b : this.buffers) {
+      CachedValue<K, TCACHE> n = b.poll();
+      while (n != null) {
+
+        /**
+         * Hits on objects that have been evicted since the hit was
+         * recorded are ignored.
+         */
+
+        if (this.access.contains(n)) {
+          this.access.moveToLast(n);
+        }
+        n = b.poll();
+      }
+    }
+  }
+
+  private void eventObjectCloseError(
+    final K key,
+    final CachedValue<K, TCACHE> existing,
+    final Throwable x)
+  {
+    final JCacheEventsType<K, TCACHE> e = this.events;
+    if (e != null) {
+      try {
+        e.cacheEventValueCloseError(
+          key,
+          existing.getValue(),
+          BigInteger.valueOf(existing.getSize()),
+          x);
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  private void eventObjectEvicted(
+    final K key,
+    final CachedValue<K, TCACHE> existing)
+  {
+    final JCacheEventsType<K, TCACHE> e = this.events;
+    if (e != null) {
+      try {
+        e.cacheEventValueEvicted(
+          key,
+          existing.getValue(),
+          BigInteger.valueOf(existing.getSize()));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  private void eventObjectLoaded(
+    final K key,
+    final TCACHE new_value,
+    final long size)
+  {
+    final JCacheEventsType<K, TCACHE> e = this.events;
+    if (e != null) {
+      try {
+        e.cacheEventValueLoaded(key, new_value, BigInteger.valueOf(size));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  private void eventObjectRetrieved(
+    final K key,
+    final CachedValue<K, TCACHE> cv)
+  {
+    final JCacheEventsType<K, TCACHE> e = this.events;
+    if (e != null) {
+      try {
+        e.cacheEventValueRetrieved(
+          key,
+          cv.getValue(),
+          BigInteger.valueOf(cv.getSize()));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  @Override public LRUCacheConfig cacheGetConfiguration()
+  {
+    return this.config;
+  }
+
+  @Override public void cacheSetConfiguration(
+    final LRUCacheConfig c)
+  {
+    this.config = NullCheck.notNull(c, "Configuration");
+  }
+
+  private void recordRead(
+    final CachedValue<K, TCACHE> cv)
+  {
+    final int stripe =
+      (int) (Thread.currentThread().getId() & (this.buffers.length - 1));
+
+    if (this.buffers[stripe].record(cv)) {
+      if (this.eviction_lock.tryLock()) {
+        try {
+          this.drainReadBuffers();
+        } finally {
+          this.eviction_lock.unlock();
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked") private void rethrow(
+    final Throwable x)
+    throws E
+  {
+    if (x instanceof RuntimeException) {
+      throw (RuntimeException) x;
+    }
+    if (x instanceof Error) {
+      throw (Error) x;
+    }
+    throw (E) x;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("[LRUCacheConcurrent ");
+    builder.append("[size ");
+    builder.append(this.used);
+    builder.append("]");
+    builder.append("]");
+    return builder.toString();
+  }
+}
@@ -34,20 +34,25 @@ public final class LRUCacheConfig
 
   public static LRUCacheConfig empty()
   {
-    return new LRUCacheConfig(BigInteger.ZERO);
+    return new LRUCacheConfig(BigInteger.ZERO, JCacheEvictionPolicies.lru());
   }
 
-  private final BigInteger max_capacity;
+  private final BigInteger                      max_capacity;
+  private final long                            max_capacity_long;
+  private final JCacheEvictionPolicyFactoryType policy;
 
   private LRUCacheConfig(
-    final BigInteger in_max_capacity)
+    final BigInteger in_max_capacity,
+    final JCacheEvictionPolicyFactoryType in_policy)
   {
+    this.policy = NullCheck.notNull(in_policy, "Eviction policy");
     this.max_capacity =
       RangeCheck.checkGreaterEqualBig(
         NullCheck.notNull(in_max_capacity, "Maximum capacity"),
         "Maximum capacity",
         NullCheck.notNull(BigInteger.ZERO),
         "Smallest capacity");
+    this.max_capacity_long = JCacheAccounting.saturate(this.max_capacity);
   }
 
   /**
@@ -60,7 +65,9 @@ public final class LRUCacheConfig
   public LRUCacheConfig(
     final LRUCacheConfig other)
   {
-    this(NullCheck.notNull(other, "Configuration").getMaximumCapacity());
+    this(
+      NullCheck.notNull(other, "Configuration").getMaximumCapacity(),
+      other.getEvictionPolicy());
   }
 
   @Override public boolean equals(
@@ -76,10 +83,22 @@ public final class LRUCacheConfig
       return false;
     }
     final LRUCacheConfig other = (LRUCacheConfig) obj;
-    if (this.max_capacity != other.max_capacity) {
+    if (this.max_capacity.equals(other.max_capacity) == false) {
       return false;
     }
-    return true;
+    return this.policy.equals(other.policy);
+  }
+
+  /**
+   * @return The factory for the eviction policy used by caches that support
+   *         pluggable policies (see {@link LUCachePolicied}). Other
+   *         implementations of {@link LRUCacheType} always evict the least
+   *         recently used object, and ignore this value.
+   */
+
+  public JCacheEvictionPolicyFactoryType getEvictionPolicy()
+  {
+    return this.policy;
   }
 
   /**
@@ -91,11 +110,22 @@ public final class LRUCacheConfig
     return this.max_capacity;
   }
 
+  /**
+   * @return The maximum capacity of the cache that will be created, saturated
+   *         to {@link Long#MAX_VALUE}.
+   */
+
+  public long getMaximumCapacityLong()
+  {
+    return this.max_capacity_long;
+  }
+
   @Override public int hashCode()
   {
     final int prime = 31;
     int result = 1;
     result = (prime * result) + this.max_capacity.hashCode();
+    result = (prime * result) + this.policy.hashCode();
     return result;
   }
 
@@ -104,6 +134,8 @@ public final class LRUCacheConfig
     final StringBuilder builder = new StringBuilder();
     builder.append("[LRUCacheConfig [max_capacity=");
     builder.append(this.max_capacity);
+    builder.append(", policy=");
+    builder.append(this.policy);
     builder.append("]]");
     return builder.toString();
   }
@@ -117,11 +149,25 @@ public final class LRUCacheConfig
    * @return A new cache configuration
    */
 
-  @SuppressWarnings("static-method") public
-    LRUCacheConfig
-    withMaximumCapacity(
-      final BigInteger max)
+  public LRUCacheConfig withMaximumCapacity(
+    final BigInteger max)
+  {
+    return new LRUCacheConfig(max, this.policy);
+  }
+
+  /**
+   * Derive a configuration based on the existing configuration with the
+   * eviction policy produced by <code>p</code>.
+   *
+   * @param p
+   *          The eviction policy factory
+   * @return A new cache configuration
+   * @see JCacheEvictionPolicies
+   */
+
+  public LRUCacheConfig withEvictionPolicy(
+    final JCacheEvictionPolicyFactoryType p)
   {
-    return new LRUCacheConfig(max);
+    return new LRUCacheConfig(this.max_capacity, p);
   }
 }
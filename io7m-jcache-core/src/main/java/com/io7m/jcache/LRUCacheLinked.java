@@ -0,0 +1,382 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * An LRU cache that keeps entries in an intrusive access-ordered list; the
+ * oldest objects are evicted from the cache first.
+ * </p>
+ * <p>
+ * Unlike {@link LRUCacheTrivial}, marking an object as recently used and
+ * evicting the least recently used object are both <code>O(1)</code>
+ * operations, and retrieving an object that is already cached does not
+ * allocate.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <TVIEW>
+ *          The type of cached values, as visible to users of the cache
+ * @param <TCACHE>
+ *          The type of cached values, as visible to cache implementations
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public final class LRUCacheLinked<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> implements
+  LRUCacheType<K, TVIEW, TCACHE, E>
+{
+  private static final class CachedValue<K, V> extends
+    JCacheListNode<CachedValue<K, V>>
+  {
+    private final K    key;
+    private final long size;
+    private final V    value;
+
+    CachedValue(
+      final K in_key,
+      final V in_value,
+      final long in_size)
+    {
+      this.key = in_key;
+      this.value = in_value;
+      this.size = in_size;
+    }
+
+    public K getKey()
+    {
+      return this.key;
+    }
+
+    public long getSize()
+    {
+      return this.size;
+    }
+
+    public V getValue()
+    {
+      return this.value;
+    }
+  }
+
+  /**
+   * Construct a new <tt>LRUCacheLinked</tt>.
+   *
+   * @param loader
+   *          The class that will load instances when given keys
+   * @param config
+   *          The cache configuration
+   * @return A new cache instance
+   *
+   * @param <K>
+   *          The type of keys
+   * @param <TVIEW>
+   *          The type of cached values, as visible to users of the cache
+   * @param <TCACHE>
+   *          The type of cached values, as visible to cache implementations
+   * @param <E>
+   *          The type of exceptions raised by the loader
+   */
+
+  public static
+    <K, TVIEW, TCACHE extends TVIEW, E extends Throwable>
+    LRUCacheLinked<K, TVIEW, TCACHE, E>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, E> loader,
+      final LRUCacheConfig config)
+  {
+    return new LRUCacheLinked<K, TVIEW, TCACHE, E>(loader, config);
+  }
+
+  private final JCacheList<CachedValue<K, TCACHE>>           access;
+  private LRUCacheConfig                                     config;
+  private @Nullable JCacheEventsType<K, TCACHE>              events;
+  private final JCacheEvictionBatch<K, TCACHE>               evicting;
+  private final Map<K, CachedValue<K, TCACHE>>               items;
+  private final JCacheLoaderType<K, TCACHE, E>               loader;
+  private final @Nullable JCacheLoaderLongType<K, TCACHE, E> loader_long;
+  private final JCacheStatisticsCounters                     statistics;
+  private long                                               used;
+
+  private LRUCacheLinked(
+    final JCacheLoaderType<K, TCACHE, E> in_loader,
+    final LRUCacheConfig in_config)
+  {
+    this.loader = NullCheck.notNull(in_loader, "Loader");
+    this.loader_long = JCacheAccounting.supportsLong(in_loader);
+    this.config = NullCheck.notNull(in_config, "Configuration");
+    this.items = new HashMap<K, CachedValue<K, TCACHE>>();
+    this.access = new JCacheList<CachedValue<K, TCACHE>>();
+    this.used = 0L;
+    this.statistics = new JCacheStatisticsCounters();
+    this.evicting = new JCacheEvictionBatch<K, TCACHE>();
+    this.events = null;
+  }
+
+  private void cacheCheckOverflow()
+    throws JCacheException
+  {
+    if (this.items.size() == Integer.MAX_VALUE) {
+      throw JCacheException.errorInternalCacheOverflow(this.items.size());
+    }
+  }
+
+  @Override public void cacheDelete()
+  {
+    while (this.access.isEmpty() == false) {
+      this.cacheEvictOldest();
+    }
+    this.evicting.flush(this.loader, this.statistics, this.events);
+
+    assert this.access.size() == 0;
+    assert this.items.size() == 0;
+  }
+
+  @Override public void cacheEventsSubscribe(
+    final JCacheEventsType<K, TCACHE> e)
+  {
+    this.events = NullCheck.notNull(e, "Events");
+  }
+
+  @Override public void cacheEventsUnsubscribe()
+  {
+    this.events = null;
+  }
+
+  private long cacheEvictOldest()
+  {
+    final CachedValue<K, TCACHE> oldest = this.access.first();
+    assert oldest != null;
+    this.cacheRemove(oldest);
+    return oldest.getSize();
+  }
+
+  private void cacheEvictOldestItems(
+    final long added_size,
+    final long maximum)
+  {
+    assert added_size <= maximum;
+
+    /**
+     * Because objects larger than the capacity cannot be inserted into the
+     * map, at least one object must exist if <code>used</code> is nonzero.
+     * The comparison is arranged so that it cannot overflow.
+     */
+
+    while (this.used > (maximum - added_size)) {
+      this.statistics.evicted(this.cacheEvictOldest());
+    }
+    this.evicting.flush(this.loader, this.statistics, this.events);
+
+    assert this.used <= (maximum - added_size);
+  }
+
+  private CachedValue<K, TCACHE> cacheGetAddingNew(
+    final K key)
+    throws E,
+      JCacheException
+  {
+    boolean failed = true;
+    TCACHE new_value = null;
+
+    this.cacheCheckOverflow();
+
+    try {
+      new_value = this.statistics.load(this.loader, key);
+      this.checkLoaderReturnForNull(key, new_value);
+
+      final long size =
+        JCacheAccounting.sizeOf(this.loader, this.loader_long, new_value);
+      this.eventObjectLoaded(key, new_value, size);
+
+      if (size < 1L) {
+        throw JCacheException.errorObjectTooSmall(key, size);
+      }
+
+      final long maximum = this.config.getMaximumCapacityLong();
+      if (size > maximum) {
+        throw JCacheException.errorObjectTooLarge(key, size, maximum);
+      }
+
+      this.cacheEvictOldestItems(size, maximum);
+      this.used = JCacheAccounting.add(this.used, size);
+
+      failed = false;
+      final CachedValue<K, TCACHE> cv =
+        new CachedValue<K, TCACHE>(key, new_value, size);
+      this.items.put(key, cv);
+      this.access.addLast(cv);
+      return cv;
+    } finally {
+      if (failed) {
+        if (new_value != null) {
+          this.statistics.close(this.loader, new_value);
+        }
+      }
+    }
+  }
+
+  @Override public TVIEW cacheGetLU(
+    final K key)
+    throws E,
+      JCacheException
+  {
+    final long start = this.statistics.requestStarted();
+    try {
+      NullCheck.notNull(key, "Key");
+
+      CachedValue<K, TCACHE> cv = this.items.get(key);
+      if (cv != null) {
+        this.statistics.hit();
+        this.access.moveToLast(cv);
+      } else {
+        this.statistics.miss();
+        cv = this.cacheGetAddingNew(key);
+      }
+
+      this.eventObjectRetrieved(key, cv);
+      return cv.getValue();
+    } finally {
+      this.statistics.requestFinished(start);
+    }
+  }
+
+  @Override public boolean cacheIsCached(
+    final K key)
+  {
+    return this.items.containsKey(NullCheck.notNull(key, "Key"));
+  }
+
+  @Override public BigInteger cacheItemCount()
+  {
+    return BigInteger.valueOf(this.items.size());
+  }
+
+  @Override public long cacheItemCountLong()
+  {
+    return this.items.size();
+  }
+
+  private void cacheRemove(
+    final CachedValue<K, TCACHE> existing)
+  {
+    final K key = existing.getKey();
+    this.evicting.add(key, existing.getValue(), existing.getSize());
+    this.access.remove(existing);
+    this.items.remove(key);
+    this.used = this.used - existing.getSize();
+  }
+
+  @Override public BigInteger cacheSize()
+  {
+    return BigInteger.valueOf(this.used);
+  }
+
+  @Override public long cacheSizeLong()
+  {
+    return this.used;
+  }
+
+  @Override public JCacheStatistics cacheStatistics()
+  {
+    return this.statistics.snapshot();
+  }
+
+  @Override public void cacheStatisticsReset()
+  {
+    this.statistics.reset();
+  }
+
+  @Override public void cacheStatisticsSetHistogramsEnabled(
+    final boolean enabled)
+  {
+    this.statistics.setHistogramsEnabled(enabled);
+  }
+
+  private void checkLoaderReturnForNull(
+    final K key,
+    final @Nullable TCACHE new_value)
+    throws JCacheException
+  {
+    if (new_value == null) {
+      throw JCacheException.errorLoaderReturnedNull(key);
+    }
+  }
+
+  private void eventObjectLoaded(
+    final K key,
+    final TCACHE new_value,
+    final long size)
+  {
+    if (this.events != null) {
+      try {
+        this.events.cacheEventValueLoaded(
+          key,
+          new_value,
+          BigInteger.valueOf(size));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  private void eventObjectRetrieved(
+    final K key,
+    final CachedValue<K, TCACHE> cv)
+  {
+    if (this.events != null) {
+      try {
+        this.events.cacheEventValueRetrieved(
+          key,
+          cv.getValue(),
+          BigInteger.valueOf(cv.getSize()));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  @Override public LRUCacheConfig cacheGetConfiguration()
+  {
+    return this.config;
+  }
+
+  @Override public void cacheSetConfiguration(
+    final LRUCacheConfig c)
+  {
+    this.config = NullCheck.notNull(c, "Configuration");
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("[LRUCacheLinked ");
+    builder.append("[size ");
+    builder.append(this.used);
+    builder.append("]");
+    builder.append("]");
+    return builder.toString();
+  }
+}
@@ -0,0 +1,562 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jranges.RangeCheck;
+
+/**
+ * <p>
+ * An LRU cache that stores values outside of the Java heap.
+ * </p>
+ * <p>
+ * Each loaded value is encoded with a {@link JCacheCodecType} into a chunk
+ * of direct memory, and the loaded value is then closed: only keys and
+ * small index entries remain on the heap, so large caches do not increase
+ * garbage collection pause times. Inserting a value still allocates a few
+ * small objects on the heap (the index entry and the chunk descriptor), so
+ * the cache reduces the amount of live heap data rather than the rate of
+ * allocation. Each retrieval decodes a new copy of the value, which belongs
+ * to the caller and is not closed by the cache.
+ * </p>
+ * <p>
+ * Memory is managed by a slab allocator: see {@link #DEFAULT_SLAB_SIZE}.
+ * The size of each cached value is the size of the chunk that holds it, in
+ * bytes, and the maximum capacity given by the {@link LRUCacheConfig} is the
+ * maximum number of bytes of direct memory that the cache will reserve. The
+ * size reported by the loader is not used. Values whose encoded form is
+ * larger than one slab cannot be cached.
+ * </p>
+ * <p>
+ * As with any slab allocator, a slab holds values of only one size class
+ * until all of its values have been evicted. If the sizes of values change
+ * over time, the cache may therefore need to evict more than the least
+ * recently used value in order to make room for a new value.
+ * </p>
+ * <p>
+ * The cache is not thread-safe.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <TVIEW>
+ *          The type of cached values, as visible to users of the cache
+ * @param <TCACHE>
+ *          The type of cached values, as visible to cache implementations
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public final class LRUCacheOffHeap<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> implements
+  LRUCacheType<K, TVIEW, TCACHE, E>
+{
+  private static final class CachedValue<K> extends
+    JCacheListNode<CachedValue<K>>
+  {
+    private final JCacheSlabAllocator.Chunk chunk;
+    private final K                         key;
+    private final int                       length;
+
+    CachedValue(
+      final K in_key,
+      final JCacheSlabAllocator.Chunk in_chunk,
+      final int in_length)
+    {
+      this.key = in_key;
+      this.chunk = in_chunk;
+      this.length = in_length;
+    }
+
+    public JCacheSlabAllocator.Chunk getChunk()
+    {
+      return this.chunk;
+    }
+
+    public K getKey()
+    {
+      return this.key;
+    }
+
+    public long getSize()
+    {
+      return this.chunk.getCapacity();
+    }
+
+    public ByteBuffer getValueBytes()
+    {
+      final ByteBuffer b = this.chunk.slice(this.length).asReadOnlyBuffer();
+      assert b != null;
+      return b;
+    }
+  }
+
+  /**
+   * The default size of slabs, in bytes.
+   */
+
+  public static final int DEFAULT_SLAB_SIZE;
+
+  static {
+    DEFAULT_SLAB_SIZE = 1 << 20;
+  }
+
+  /**
+   * Construct a new <tt>LRUCacheOffHeap</tt>, using slabs of
+   * {@link #DEFAULT_SLAB_SIZE} bytes.
+   *
+   * @param loader
+   *          The class that will load instances when given keys
+   * @param codec
+   *          The codec used to store values
+   * @param config
+   *          The cache configuration
+   * @return A new cache instance
+   *
+   * @param <K>
+   *          The type of keys
+   * @param <TVIEW>
+   *          The type of cached values, as visible to users of the cache
+   * @param <TCACHE>
+   *          The type of cached values, as visible to cache implementations
+   * @param <E>
+   *          The type of exceptions raised by the loader
+   */
+
+  public static
+    <K, TVIEW, TCACHE extends TVIEW, E extends Throwable>
+    LRUCacheOffHeap<K, TVIEW, TCACHE, E>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, E> loader,
+      final JCacheCodecType<TCACHE> codec,
+      final LRUCacheConfig config)
+  {
+    return LRUCacheOffHeap.newCache(
+      loader,
+      codec,
+      config,
+      LRUCacheOffHeap.DEFAULT_SLAB_SIZE);
+  }
+
+  /**
+   * Construct a new <tt>LRUCacheOffHeap</tt>.
+   *
+   * @param loader
+   *          The class that will load instances when given keys
+   * @param codec
+   *          The codec used to store values
+   * @param config
+   *          The cache configuration
+   * @param slab_size
+   *          The size of slabs in bytes, which is also the size of the
+   *          largest value that can be cached
+   * @return A new cache instance
+   *
+   * @param <K>
+   *          The type of keys
+   * @param <TVIEW>
+   *          The type of cached values, as visible to users of the cache
+   * @param <TCACHE>
+   *          The type of cached values, as visible to cache implementations
+   * @param <E>
+   *          The type of exceptions raised by the loader
+   */
+
+  public static
+    <K, TVIEW, TCACHE extends TVIEW, E extends Throwable>
+    LRUCacheOffHeap<K, TVIEW, TCACHE, E>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, E> loader,
+      final JCacheCodecType<TCACHE> codec,
+      final LRUCacheConfig config,
+      final int slab_size)
+  {
+    return new LRUCacheOffHeap<K, TVIEW, TCACHE, E>(
+      loader,
+      codec,
+      config,
+      slab_size);
+  }
+
+  private final JCacheList<CachedValue<K>>      access;
+  private final JCacheSlabAllocator             allocator;
+  private final JCacheCodecType<TCACHE>         codec;
+  private LRUCacheConfig                        config;
+  private @Nullable JCacheEventsType<K, TCACHE> events;
+  private final JCacheEvictionBatch<K, TCACHE>  evicting;
+  private final Map<K, CachedValue<K>>          items;
+  private final JCacheLoaderType<K, TCACHE, E>  loader;
+  private final JCacheStatisticsCounters        statistics;
+  private long                                  used;
+
+  private LRUCacheOffHeap(
+    final JCacheLoaderType<K, TCACHE, E> in_loader,
+    final JCacheCodecType<TCACHE> in_codec,
+    final LRUCacheConfig in_config,
+    final int in_slab_size)
+  {
+    this.loader = NullCheck.notNull(in_loader, "Loader");
+    this.codec = NullCheck.notNull(in_codec, "Codec");
+    this.config = NullCheck.notNull(in_config, "Configuration");
+    this.allocator =
+      new JCacheSlabAllocator((int) RangeCheck.checkGreaterEqual(
+        in_slab_size,
+        "Slab size",
+        JCacheSlabAllocator.MINIMUM_CHUNK,
+        "Minimum slab size"));
+    this.items = new HashMap<K, CachedValue<K>>();
+    this.access = new JCacheList<CachedValue<K>>();
+    this.used = 0L;
+    this.statistics = new JCacheStatisticsCounters();
+    this.evicting = new JCacheEvictionBatch<K, TCACHE>();
+    this.events = null;
+  }
+
+  /**
+   * Allocate a chunk for an object of <code>length</code> bytes, evicting the
+   * least recently used objects until enough memory is available.
+   */
+
+  private JCacheSlabAllocator.Chunk cacheAllocate(
+    final K key,
+    final int length)
+    throws JCacheException
+  {
+    final long maximum = this.config.getMaximumCapacityLong();
+    final long slab = this.allocator.getSlabSize();
+    final int size = this.allocator.chunkSizeOf(length);
+    if ((size < 0) || (size > maximum) || (slab > maximum)) {
+      throw JCacheException.errorObjectTooLarge(
+        key,
+        length,
+        Math.min(slab, maximum));
+    }
+
+    for (;;) {
+      if (this.used <= (maximum - size)) {
+        final JCacheSlabAllocator.Chunk c =
+          this.allocator.allocate(length, maximum);
+        if (c != null) {
+          this.evicting.flushEvents(this.events);
+          return c;
+        }
+      }
+
+      /**
+       * Once the cache is empty, every slab is either free or can be
+       * reserved, so the allocation above cannot fail.
+       */
+
+      assert this.access.isEmpty() == false;
+      this.statistics.evicted(this.cacheEvictOldest());
+    }
+  }
+
+  private void cacheCheckOverflow()
+    throws JCacheException
+  {
+    if (this.items.size() == Integer.MAX_VALUE) {
+      throw JCacheException.errorInternalCacheOverflow(this.items.size());
+    }
+  }
+
+  private void cacheClose(
+    final K key,
+    final TCACHE value,
+    final long size)
+  {
+    try {
+      this.statistics.close(this.loader, value);
+    } catch (final Throwable x) {
+      this.eventObjectCloseError(key, value, size, x);
+    }
+  }
+
+  @Override public void cacheDelete()
+  {
+    while (this.access.isEmpty() == false) {
+      this.cacheEvictOldest();
+    }
+    this.evicting.flushEvents(this.events);
+
+    this.allocator.trim(0L);
+    assert this.access.size() == 0;
+    assert this.items.size() == 0;
+    assert this.allocator.getReserved() == 0L;
+  }
+
+  @Override public void cacheEventsSubscribe(
+    final JCacheEventsType<K, TCACHE> e)
+  {
+    this.events = NullCheck.notNull(e, "Events");
+  }
+
+  @Override public void cacheEventsUnsubscribe()
+  {
+    this.events = null;
+  }
+
+  private long cacheEvictOldest()
+  {
+    final CachedValue<K> oldest = this.access.first();
+    assert oldest != null;
+    this.cacheRemove(oldest);
+    return oldest.getSize();
+  }
+
+  private CachedValue<K> cacheGetAddingNew(
+    final K key)
+    throws E,
+      JCacheException
+  {
+    this.cacheCheckOverflow();
+
+    final TCACHE new_value = this.statistics.load(this.loader, key);
+    if (new_value == null) {
+      throw JCacheException.errorLoaderReturnedNull(key);
+    }
+
+    int length = 0;
+    try {
+      length = this.codec.cacheCodecSizeOf(new_value);
+      this.eventObjectLoaded(key, new_value, length);
+
+      if (length < 0) {
+        throw JCacheException.errorObjectTooSmall(key, length);
+      }
+
+      final JCacheSlabAllocator.Chunk c = this.cacheAllocate(key, length);
+      boolean failed = true;
+      try {
+        final ByteBuffer b = c.slice(length);
+        this.codec.cacheCodecEncode(new_value, b);
+        failed = false;
+      } finally {
+        if (failed) {
+          this.allocator.free(c);
+        }
+      }
+
+      this.used = JCacheAccounting.add(this.used, c.getCapacity());
+      final CachedValue<K> cv = new CachedValue<K>(key, c, length);
+      this.items.put(key, cv);
+      this.access.addLast(cv);
+      return cv;
+    } finally {
+      this.cacheClose(key, new_value, length);
+    }
+  }
+
+  @Override public TVIEW cacheGetLU(
+    final K key)
+    throws E,
+      JCacheException
+  {
+    final long start = this.statistics.requestStarted();
+    try {
+      NullCheck.notNull(key, "Key");
+
+      CachedValue<K> cv = this.items.get(key);
+      if (cv != null) {
+        this.statistics.hit();
+        this.access.moveToLast(cv);
+      } else {
+        this.statistics.miss();
+        cv = this.cacheGetAddingNew(key);
+      }
+
+      final TCACHE value = this.codec.cacheCodecDecode(cv.getValueBytes());
+      this.eventObjectRetrieved(key, value, cv.getSize());
+      return value;
+    } finally {
+      this.statistics.requestFinished(start);
+    }
+  }
+
+  @Override public boolean cacheIsCached(
+    final K key)
+  {
+    return this.items.containsKey(NullCheck.notNull(key, "Key"));
+  }
+
+  @Override public BigInteger cacheItemCount()
+  {
+    return BigInteger.valueOf(this.items.size());
+  }
+
+  @Override public long cacheItemCountLong()
+  {
+    return this.items.size();
+  }
+
+  /**
+   * @return The number of bytes of direct memory currently reserved by the
+   *         cache. This is at least {@link #cacheSizeLong()}, and includes
+   *         memory that is reserved but not currently holding any values.
+   */
+
+  public long cacheReservedLong()
+  {
+    return this.allocator.getReserved();
+  }
+
+  private void cacheRemove(
+    final CachedValue<K> existing)
+  {
+    final K key = existing.getKey();
+    if (this.events != null) {
+      try {
+        this.evicting.add(
+          key,
+          this.codec.cacheCodecDecode(existing.getValueBytes()),
+          existing.getSize());
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+    this.access.remove(existing);
+    this.items.remove(key);
+    this.allocator.free(existing.getChunk());
+    this.used = this.used - existing.getSize();
+  }
+
+  @Override public BigInteger cacheSize()
+  {
+    return BigInteger.valueOf(this.used);
+  }
+
+  @Override public long cacheSizeLong()
+  {
+    return this.used;
+  }
+
+  @Override public JCacheStatistics cacheStatistics()
+  {
+    return this.statistics.snapshot();
+  }
+
+  @Override public void cacheStatisticsReset()
+  {
+    this.statistics.reset();
+  }
+
+  @Override public void cacheStatisticsSetHistogramsEnabled(
+    final boolean enabled)
+  {
+    this.statistics.setHistogramsEnabled(enabled);
+  }
+
+  private void eventObjectCloseError(
+    final K key,
+    final TCACHE value,
+    final long size,
+    final Throwable x)
+  {
+    if (this.events != null) {
+      try {
+        this.events.cacheEventValueCloseError(
+          key,
+          value,
+          BigInteger.valueOf(size),
+          x);
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  private void eventObjectLoaded(
+    final K key,
+    final TCACHE new_value,
+    final long size)
+  {
+    if (this.events != null) {
+      try {
+        this.events.cacheEventValueLoaded(
+          key,
+          new_value,
+          BigInteger.valueOf(size));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  private void eventObjectRetrieved(
+    final K key,
+    final TCACHE value,
+    final long size)
+  {
+    if (this.events != null) {
+      try {
+        this.events.cacheEventValueRetrieved(
+          key,
+          value,
+          BigInteger.valueOf(size));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  @Override public LRUCacheConfig cacheGetConfiguration()
+  {
+    return this.config;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * If the new maximum capacity is smaller than the amount of memory
+   * currently reserved, objects are evicted (least recently used first) and
+   * empty slabs are released until the cache fits.
+   * </p>
+   */
+
+  @Override public void cacheSetConfiguration(
+    final LRUCacheConfig c)
+  {
+    this.config = NullCheck.notNull(c, "Configuration");
+
+    final long maximum = c.getMaximumCapacityLong();
+    this.allocator.trim(maximum);
+    while ((this.allocator.getReserved() > maximum)
+      && (this.access.isEmpty() == false)) {
+      this.statistics.evicted(this.cacheEvictOldest());
+      this.allocator.trim(maximum);
+    }
+    this.evicting.flushEvents(this.events);
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("[LRUCacheOffHeap ");
+    builder.append("[size ");
+    builder.append(this.used);
+    builder.append("] [reserved ");
+    builder.append(this.allocator.getReserved());
+    builder.append("]");
+    builder.append("]");
+    return builder.toString();
+  }
+}
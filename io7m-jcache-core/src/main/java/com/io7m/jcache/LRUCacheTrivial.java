@@ -16,19 +16,50 @@
 
 package com.io7m.jcache;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Executor;
 
 import com.io7m.jnull.NullCheck;
 import com.io7m.jnull.Nullable;
 
 /**
+ * <p>
  * A mindlessly simple LRU cache; the oldest objects are evicted from the
  * cache first.
+ * </p>
+ * <p>
+ * Many objects can be retrieved at once with
+ * {@link #cacheGetLUAll(Collection)}, which loads all of the uncached objects
+ * in a single batch if the loader implements {@link JCacheBulkLoaderType}.
+ * </p>
+ * <p>
+ * A cache created with a {@link JCacheDiskTier} writes each evicted object to
+ * the tier before closing it, and consults the tier before calling the
+ * loader, so that objects that are expensive to load can be recovered from
+ * disk instead. Failures to read or write the tier are not reported: the
+ * object is simply loaded with the loader again.
+ * </p>
+ * <p>
+ * The contents of the cache can be saved and restored with
+ * {@link #cacheSnapshotWrite(Path, JCacheCodecType, JCacheCodecType)} and
+ * {@link #cacheSnapshotRestore(Path, JCacheCodecType, JCacheCodecType, Executor, int)}
+ * .
+ * </p>
  *
  * @param <K>
  *          The type of keys
@@ -41,30 +72,32 @@ import com.io7m.jnull.Nullable;
  */
 
 public final class LRUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> implements
-  LRUCacheType<K, TVIEW, TCACHE, E>
+  LRUCacheType<K, TVIEW, TCACHE, E>,
+  LUCacheBulkType<K, TVIEW, TCACHE, E>,
+  JCacheSnapshotType<K, TCACHE>
 {
   private static final class CachedValue<V>
   {
-    private final BigInteger size;
-    private final BigInteger time;
-    private final V          value;
+    private final long size;
+    private long       time;
+    private final V    value;
 
     CachedValue(
       final V in_value,
-      final BigInteger in_time,
-      final BigInteger in_size)
+      final long in_time,
+      final long in_size)
     {
       this.value = in_value;
       this.time = in_time;
       this.size = in_size;
     }
 
-    public BigInteger getSize()
+    public long getSize()
     {
       return this.size;
     }
 
-    public BigInteger getTime()
+    public long getTime()
     {
       return this.time;
     }
@@ -73,6 +106,12 @@ public final class LRUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
     {
       return this.value;
     }
+
+    public void setTime(
+      final long in_time)
+    {
+      this.time = in_time;
+    }
   }
 
   /**
@@ -101,39 +140,173 @@ public final class LRUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
       final JCacheLoaderType<K, TCACHE, E> loader,
       final LRUCacheConfig config)
   {
-    return new LRUCacheTrivial<K, TVIEW, TCACHE, E>(loader, config);
+    return new LRUCacheTrivial<K, TVIEW, TCACHE, E>(loader, config, null);
+  }
+
+  /**
+   * Construct a new <tt>LRUCacheTrivial</tt> that stores evicted objects in
+   * the disk tier <code>tier</code>.
+   *
+   * @param loader
+   *          The class that will load instances when given keys
+   * @param config
+   *          The cache configuration
+   * @param tier
+   *          The disk tier
+   * @return A new cache instance
+   *
+   * @param <K>
+   *          The type of keys
+   * @param <TVIEW>
+   *          The type of cached values, as visible to users of the cache
+   * @param <TCACHE>
+   *          The type of cached values, as visible to cache implementations
+   * @param <E>
+   *          The type of exceptions raised by the loader
+   */
+
+  public static
+    <K, TVIEW, TCACHE extends TVIEW, E extends Throwable>
+    LRUCacheTrivial<K, TVIEW, TCACHE, E>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, E> loader,
+      final LRUCacheConfig config,
+      final JCacheDiskTier<K, TCACHE> tier)
+  {
+    return new LRUCacheTrivial<K, TVIEW, TCACHE, E>(
+      loader,
+      config,
+      NullCheck.notNull(tier, "Tier"));
+  }
+
+  /**
+   * Sort <code>keys</code> by their natural order, if they have one.
+   */
+
+  @SuppressWarnings({ "unchecked", "rawtypes" }) private static
+    <K>
+    void
+    sortKeys(
+      final List<K> keys)
+  {
+    for (final K k : keys) {
+      if ((k instanceof Comparable) == false) {
+        return;
+      }
+    }
+
+    try {
+      Collections.sort((List) keys);
+    } catch (final ClassCastException x) {
+      // Keys of mutually incomparable types: leave the order unchanged
+    }
+  }
+
+  @SuppressWarnings("unchecked") private static @Nullable
+    <K, V, E extends Throwable>
+    JCacheBulkLoaderType<K, V, E>
+    supportsBulk(
+      final JCacheLoaderType<K, V, E> loader)
+  {
+    if (loader instanceof JCacheBulkLoaderType) {
+      return (JCacheBulkLoaderType<K, V, E>) loader;
+    }
+    return null;
   }
 
-  private LRUCacheConfig                        config;
-  private @Nullable JCacheEventsType<K, TCACHE> events;
-  private BigInteger                            gets;
-  private final Map<K, CachedValue<TCACHE>>     items;
-  private final JCacheLoaderType<K, TCACHE, E>  loader;
-  private final NavigableMap<BigInteger, K>     time_items;
-  private BigInteger                            used;
+  private LRUCacheConfig                                     config;
+  private @Nullable JCacheEventsType<K, TCACHE>              events;
+  private final JCacheEvictionBatch<K, TCACHE>               evicting;
+  private long                                               gets;
+  private final Map<K, CachedValue<TCACHE>>                  items;
+  private final JCacheLoaderType<K, TCACHE, E>               loader;
+  private final @Nullable JCacheBulkLoaderType<K, TCACHE, E> loader_bulk;
+  private final @Nullable JCacheLoaderLongType<K, TCACHE, E> loader_long;
+  private final @Nullable JCacheDiskTier<K, TCACHE>          tier;
+  private final NavigableMap<Long, K>                        time_items;
+  private final JCacheStatisticsCounters                     statistics;
+  private long                                               used;
 
   private LRUCacheTrivial(
     final JCacheLoaderType<K, TCACHE, E> in_loader,
-    final LRUCacheConfig in_config)
+    final LRUCacheConfig in_config,
+    final @Nullable JCacheDiskTier<K, TCACHE> in_tier)
   {
+    this.tier = in_tier;
     this.loader = NullCheck.notNull(in_loader, "Loader");
+    this.loader_long = JCacheAccounting.supportsLong(in_loader);
+    this.loader_bulk = LRUCacheTrivial.supportsBulk(in_loader);
     this.config = NullCheck.notNull(in_config, "Configuration");
     this.items = new HashMap<K, CachedValue<TCACHE>>();
-    this.time_items = new TreeMap<BigInteger, K>();
-    this.used = BigInteger.ZERO;
-    this.gets = BigInteger.ZERO;
+    this.time_items = new TreeMap<Long, K>();
+    this.used = 0L;
+    this.statistics = new JCacheStatisticsCounters();
+    this.evicting = new JCacheEvictionBatch<K, TCACHE>();
+    this.gets = 0L;
     this.events = null;
   }
 
   private CachedValue<TCACHE> cacheAdd(
     final K key,
     final TCACHE new_value,
-    final BigInteger size)
+    final long size)
   {
-    this.used = this.used.add(size);
+    this.used = JCacheAccounting.add(this.used, size);
     return this.cachePut(key, new_value, size);
   }
 
+  private void cacheAddAll(
+    final int count,
+    final List<K> missing,
+    final Map<K, TCACHE> loaded,
+    final long hit_size,
+    final Map<K, CachedValue<TCACHE>> found)
+    throws E,
+      JCacheException
+  {
+    boolean failed = true;
+
+    try {
+      final long maximum = this.config.getMaximumCapacityLong();
+      final long[] sizes = new long[missing.size()];
+
+      long total = hit_size;
+      for (int index = 0; index < missing.size(); ++index) {
+        final K key = missing.get(index);
+        final TCACHE new_value = loaded.get(key);
+        this.checkLoaderReturnForNull(key, new_value);
+
+        final long size =
+          JCacheAccounting.sizeOf(this.loader, this.loader_long, new_value);
+        this.eventObjectLoaded(key, new_value, size);
+
+        if (size < 1L) {
+          throw JCacheException.errorObjectTooSmall(key, size);
+        }
+        if (size > maximum) {
+          throw JCacheException.errorObjectTooLarge(key, size, maximum);
+        }
+
+        sizes[index] = size;
+        total = JCacheAccounting.add(total, size);
+      }
+
+      if (total > maximum) {
+        throw JCacheException.errorBatchTooLarge(count, total, maximum);
+      }
+
+      this.cacheEvictOldestItems(total - hit_size, maximum);
+      for (int index = 0; index < missing.size(); ++index) {
+        final K key = missing.get(index);
+        found.put(key, this.cacheAdd(key, loaded.get(key), sizes[index]));
+      }
+
+      failed = false;
+    } finally {
+      this.cacheCloseUnused(loaded, found, failed);
+    }
+  }
+
   private void cacheCheckOverflow()
     throws JCacheException
   {
@@ -145,7 +318,20 @@ public final class LRUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
   @Override public void cacheDelete()
   {
     while (this.items.size() > 0) {
-      this.cacheEvictOldest();
+      final Entry<Long, K> eleast = this.time_items.firstEntry();
+      assert eleast != null;
+      final K key = eleast.getValue();
+      this.cacheRemove(key, this.items.get(key), false);
+    }
+    this.evicting.flush(this.loader, this.statistics, this.events);
+
+    final JCacheDiskTier<K, TCACHE> t = this.tier;
+    if (t != null) {
+      try {
+        t.tierDelete();
+      } catch (final IOException x) {
+        // Ignore
+      }
     }
 
     assert this.time_items.size() == 0;
@@ -165,33 +351,31 @@ public final class LRUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
 
   private void cacheEvictOldest()
   {
-    final Entry<BigInteger, K> eleast = this.time_items.firstEntry();
+    final Entry<Long, K> eleast = this.time_items.firstEntry();
     assert eleast != null;
     final CachedValue<TCACHE> old_cached = this.items.get(eleast.getValue());
-    this.cacheRemove(eleast.getValue(), old_cached);
+    this.statistics.evicted(old_cached.getSize());
+    this.cacheRemove(eleast.getValue(), old_cached, true);
   }
 
   private void cacheEvictOldestItems(
-    final BigInteger added_size,
-    final BigInteger maximum)
+    final long added_size,
+    final long maximum)
   {
-    assert added_size.compareTo(maximum) <= 0;
+    assert added_size <= maximum;
 
     /**
      * Because objects larger than the capacity cannot be inserted into the
      * map, at least one object must exist if <code>used</code> is nonzero.
+     * The comparison is arranged so that it cannot overflow.
      */
 
-    for (;;) {
-      final BigInteger current = this.used.add(added_size);
-      if (current.compareTo(maximum) <= 0) {
-        break;
-      }
+    while (this.used > (maximum - added_size)) {
       this.cacheEvictOldest();
     }
+    this.evicting.flush(this.loader, this.statistics, this.events);
 
-    final BigInteger current = this.used.add(added_size);
-    assert current.compareTo(maximum) <= 0;
+    assert this.used <= (maximum - added_size);
   }
 
   private CachedValue<TCACHE> cacheGetActual(
@@ -200,9 +384,11 @@ public final class LRUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
       JCacheException
   {
     if (this.cacheIsCached(key)) {
+      this.statistics.hit();
       return this.cacheGetReplace(key);
     }
 
+    this.statistics.miss();
     return this.cacheGetAddingNew(key);
   }
 
@@ -217,18 +403,22 @@ public final class LRUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
     this.cacheCheckOverflow();
 
     try {
-      new_value = this.loader.cacheValueLoad(key);
+      new_value = this.cacheTierTake(key);
+      if (new_value == null) {
+        new_value = this.statistics.load(this.loader, key);
+      }
       this.checkLoaderReturnForNull(key, new_value);
 
-      final BigInteger size = this.loader.cacheValueSizeOf(new_value);
+      final long size =
+        JCacheAccounting.sizeOf(this.loader, this.loader_long, new_value);
       this.eventObjectLoaded(key, new_value, size);
 
-      if (size.compareTo(BigInteger.ONE) < 0) {
+      if (size < 1L) {
         throw JCacheException.errorObjectTooSmall(key, size);
       }
 
-      final BigInteger maximum = this.config.getMaximumCapacity();
-      if (size.compareTo(maximum) > 0) {
+      final long maximum = this.config.getMaximumCapacityLong();
+      if (size > maximum) {
         throw JCacheException.errorObjectTooLarge(key, size, maximum);
       }
 
@@ -239,7 +429,7 @@ public final class LRUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
     } finally {
       if (failed) {
         if (new_value != null) {
-          this.loader.cacheValueClose(new_value);
+          this.statistics.close(this.loader, new_value);
         }
       }
     }
@@ -250,24 +440,107 @@ public final class LRUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
     throws E,
       JCacheException
   {
-    NullCheck.notNull(key, "Key");
+    final long start = this.statistics.requestStarted();
+    try {
+      NullCheck.notNull(key, "Key");
+
+      final CachedValue<TCACHE> cv = this.cacheGetActual(key);
+      this.eventObjectRetrieved(key, cv);
+      return cv.getValue();
+    } finally {
+      this.statistics.requestFinished(start);
+    }
+  }
+
+  @Override public Map<K, TVIEW> cacheGetLUAll(
+    final Collection<K> keys)
+    throws E,
+      JCacheException
+  {
+    NullCheck.notNull(keys, "Keys");
+
+    final Set<K> requested = new LinkedHashSet<K>(keys.size());
+    for (final K key : keys) {
+      requested.add(NullCheck.notNull(key, "Key"));
+    }
+
+    /**
+     * Serve the hits first, so that they become the most recently used
+     * objects and cannot be evicted to make room for the misses.
+     */
+
+    final Map<K, CachedValue<TCACHE>> found =
+      new HashMap<K, CachedValue<TCACHE>>(requested.size());
+    final List<K> missing = new ArrayList<K>();
+    long hit_size = 0L;
+    for (final K key : requested) {
+      if (this.cacheIsCached(key)) {
+        this.statistics.hit();
+        final CachedValue<TCACHE> cv = this.cacheGetReplace(key);
+        found.put(key, cv);
+        hit_size = hit_size + cv.getSize();
+      } else {
+        this.statistics.miss();
+        missing.add(key);
+      }
+    }
+
+    if (missing.isEmpty() == false) {
+      if (this.items.size() > (Integer.MAX_VALUE - missing.size())) {
+        throw JCacheException.errorInternalCacheOverflow(this.items.size());
+      }
+
+      LRUCacheTrivial.sortKeys(missing);
+      final Map<K, TCACHE> loaded = this.cacheLoadAll(missing);
+      this.cacheAddAll(requested.size(), missing, loaded, hit_size, found);
+    }
 
-    final CachedValue<TCACHE> cv = this.cacheGetActual(key);
-    this.eventObjectRetrieved(key, cv);
-    return cv.getValue();
+    final Map<K, TVIEW> results = new LinkedHashMap<K, TVIEW>(found.size());
+    for (final K key : requested) {
+      final CachedValue<TCACHE> cv = found.get(key);
+      assert cv != null;
+      this.eventObjectRetrieved(key, cv);
+      results.put(key, cv.getValue());
+    }
+    return results;
   }
 
   private CachedValue<TCACHE> cacheGetReplace(
     final K key)
   {
     final CachedValue<TCACHE> v = this.items.get(key);
-    this.time_items.remove(v.getTime());
-    return this.cachePut(key, v.getValue(), v.getSize());
+    this.time_items.remove(Long.valueOf(v.getTime()));
+
+    /**
+     * The existing value is reused; only its position in the access order
+     * changes.
+     */
+
+    this.cacheIncrementGets();
+    v.setTime(this.gets);
+    this.time_items.put(Long.valueOf(this.gets), key);
+    return v;
+  }
+
+  private void cacheCloseUnused(
+    final Map<K, TCACHE> loaded,
+    final Map<K, CachedValue<TCACHE>> found,
+    final boolean failed)
+    throws E
+  {
+    for (final Entry<K, TCACHE> e : loaded.entrySet()) {
+      final TCACHE v = e.getValue();
+      if (v != null) {
+        if (failed || (found.containsKey(e.getKey()) == false)) {
+          this.statistics.close(this.loader, v);
+        }
+      }
+    }
   }
 
   private void cacheIncrementGets()
   {
-    this.gets = this.gets.add(BigInteger.ONE);
+    ++this.gets;
   }
 
   @Override public boolean cacheIsCached(
@@ -281,91 +554,230 @@ public final class LRUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
     return BigInteger.valueOf(this.items.size());
   }
 
+  @Override public long cacheItemCountLong()
+  {
+    return this.items.size();
+  }
+
+  private Map<K, TCACHE> cacheLoadAll(
+    final List<K> missing)
+    throws E
+  {
+    final Map<K, TCACHE> loaded = new HashMap<K, TCACHE>(missing.size());
+    boolean failed = true;
+    try {
+      final List<K> remaining = new ArrayList<K>(missing.size());
+      for (final K key : missing) {
+        final TCACHE v = this.cacheTierTake(key);
+        if (v != null) {
+          loaded.put(key, v);
+        } else {
+          remaining.add(key);
+        }
+      }
+
+      final JCacheBulkLoaderType<K, TCACHE, E> lb = this.loader_bulk;
+      if (lb != null) {
+        if (remaining.isEmpty() == false) {
+          this.cacheLoadBulk(lb, remaining, loaded);
+        }
+      } else {
+        for (final K key : remaining) {
+          loaded.put(key, this.statistics.load(this.loader, key));
+        }
+      }
+      failed = false;
+      return loaded;
+    } finally {
+      if (failed) {
+        this.cacheCloseUnused(
+          loaded,
+          Collections.<K, CachedValue<TCACHE>>emptyMap(),
+          true);
+      }
+    }
+  }
+
+  private void cacheLoadBulk(
+    final JCacheBulkLoaderType<K, TCACHE, E> lb,
+    final List<K> remaining,
+    final Map<K, TCACHE> loaded)
+    throws E
+  {
+    final long start = System.nanoTime();
+    long succeeded = 0L;
+    try {
+      loaded.putAll(NullCheck.notNull(
+        lb.cacheValueLoadAll(Collections.unmodifiableList(remaining)),
+        "Loaded values"));
+      for (final K key : remaining) {
+        if (loaded.get(key) != null) {
+          ++succeeded;
+        }
+      }
+    } finally {
+      this.statistics.loadFinished(
+        start,
+        succeeded,
+        remaining.size() - succeeded);
+    }
+  }
+
   private CachedValue<TCACHE> cachePut(
     final K key,
     final TCACHE new_value,
-    final BigInteger size)
+    final long size)
   {
     this.cacheIncrementGets();
     final CachedValue<TCACHE> cv =
       new CachedValue<TCACHE>(new_value, this.gets, size);
     this.items.put(key, cv);
-    this.time_items.put(this.gets, key);
+    this.time_items.put(Long.valueOf(this.gets), key);
     return cv;
   }
 
   private void cacheRemove(
     final K key,
-    final CachedValue<TCACHE> existing)
+    final CachedValue<TCACHE> existing,
+    final boolean spill)
   {
-    this.eventObjectEvicted(key, existing);
-    try {
-      this.loader.cacheValueClose(existing.getValue());
-    } catch (final Throwable x) {
-      this.eventObjectCloseError(key, existing, x);
+    final JCacheDiskTier<K, TCACHE> t = this.tier;
+    if (spill && (t != null)) {
+      try {
+        t.tierPut(key, existing.getValue());
+      } catch (final Throwable x) {
+        // Ignore: the object will be loaded with the loader again
+      }
     }
-    this.time_items.remove(existing.getTime());
+
+    this.evicting.add(key, existing.getValue(), existing.getSize());
+    this.time_items.remove(Long.valueOf(existing.getTime()));
     this.items.remove(key);
-    this.used = this.used.subtract(existing.getSize());
+    this.used = this.used - existing.getSize();
   }
 
   @Override public BigInteger cacheSize()
   {
-    return this.used;
+    return BigInteger.valueOf(this.used);
   }
 
-  private void checkLoaderReturnForNull(
-    final K key,
-    final @Nullable TCACHE new_value)
-    throws JCacheException
+  @Override public long cacheSnapshotRestore(
+    final Path file,
+    final JCacheCodecType<K> keys,
+    final @Nullable JCacheCodecType<TCACHE> values,
+    final Executor executor,
+    final int parallelism)
+    throws IOException
   {
-    if (new_value == null) {
-      throw JCacheException.errorLoaderReturnedNull(key);
+    final List<JCacheSnapshots.Entry<K>> entries =
+      JCacheSnapshots.read(file, keys);
+    final List<JCacheSnapshots.Entry<K>> missing =
+      new ArrayList<JCacheSnapshots.Entry<K>>(entries.size());
+    final Set<K> seen = new HashSet<K>(entries.size());
+    for (final JCacheSnapshots.Entry<K> e : entries) {
+      final K key = e.getKey();
+      if ((this.items.containsKey(key) == false) && seen.add(key)) {
+        missing.add(e);
+      }
+    }
+
+    final List<JCacheSnapshots.Item<K, TCACHE>> restored =
+      JCacheSnapshots.restore(
+        missing,
+        this.loader,
+        this.loader_long,
+        values,
+        executor,
+        parallelism,
+        this.config.getMaximumCapacityLong() - this.used);
+
+    /**
+     * Insert the coldest objects first, so that the hottest object becomes
+     * the most recently used.
+     */
+
+    for (int index = restored.size() - 1; index >= 0; --index) {
+      final JCacheSnapshots.Item<K, TCACHE> i = restored.get(index);
+      this.eventObjectLoaded(i.getKey(), i.getValue(), i.getSize());
+      this.cacheAdd(i.getKey(), i.getValue(), i.getSize());
     }
+    return restored.size();
   }
 
-  private void eventObjectCloseError(
-    final K key,
-    final CachedValue<TCACHE> existing,
-    final Throwable x)
+  @Override public long cacheSnapshotWrite(
+    final Path file,
+    final JCacheCodecType<K> keys,
+    final @Nullable JCacheCodecType<TCACHE> values)
+    throws IOException
   {
-    if (this.events != null) {
+    final List<JCacheSnapshots.Item<K, TCACHE>> entries =
+      new ArrayList<JCacheSnapshots.Item<K, TCACHE>>(this.items.size());
+    for (final K key : this.time_items.descendingMap().values()) {
+      final CachedValue<TCACHE> cv = this.items.get(key);
+      entries.add(new JCacheSnapshots.Item<K, TCACHE>(
+        key,
+        cv.getValue(),
+        cv.getSize()));
+    }
+    return JCacheSnapshots.write(file, keys, values, entries);
+  }
+
+  private @Nullable TCACHE cacheTierTake(
+    final K key)
+  {
+    final JCacheDiskTier<K, TCACHE> t = this.tier;
+    if (t != null) {
       try {
-        this.events.cacheEventValueCloseError(
-          key,
-          existing.getValue(),
-          existing.getSize(),
-          x);
-      } catch (final Throwable _) {
-        // Ignore
+        return t.tierTake(key);
+      } catch (final Throwable x) {
+        // Ignore: the object will be loaded with the loader instead
       }
     }
+    return null;
+  }
+
+  @Override public long cacheSizeLong()
+  {
+    return this.used;
+  }
+
+  @Override public JCacheStatistics cacheStatistics()
+  {
+    return this.statistics.snapshot();
+  }
+
+  @Override public void cacheStatisticsReset()
+  {
+    this.statistics.reset();
+  }
+
+  @Override public void cacheStatisticsSetHistogramsEnabled(
+    final boolean enabled)
+  {
+    this.statistics.setHistogramsEnabled(enabled);
   }
 
-  private void eventObjectEvicted(
+  private void checkLoaderReturnForNull(
     final K key,
-    final CachedValue<TCACHE> existing)
+    final @Nullable TCACHE new_value)
+    throws JCacheException
   {
-    if (this.events != null) {
-      try {
-        this.events.cacheEventValueEvicted(
-          key,
-          existing.getValue(),
-          existing.getSize());
-      } catch (final Throwable _) {
-        // Ignore
-      }
+    if (new_value == null) {
+      throw JCacheException.errorLoaderReturnedNull(key);
     }
   }
 
   private void eventObjectLoaded(
     final K key,
     final TCACHE new_value,
-    final BigInteger size)
+    final long size)
   {
     if (this.events != null) {
       try {
-        this.events.cacheEventValueLoaded(key, new_value, size);
+        this.events.cacheEventValueLoaded(
+          key,
+          new_value,
+          BigInteger.valueOf(size));
       } catch (final Throwable _) {
         // Ignore
       }
@@ -378,8 +790,10 @@ public final class LRUCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Thr
   {
     if (this.events != null) {
       try {
-        this.events
-          .cacheEventValueRetrieved(key, cv.getValue(), cv.getSize());
+        this.events.cacheEventValueRetrieved(
+          key,
+          cv.getValue(),
+          BigInteger.valueOf(cv.getSize()));
       } catch (final Throwable _) {
         // Ignore
       }
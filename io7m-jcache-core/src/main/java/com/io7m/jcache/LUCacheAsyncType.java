@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The type of least-used caches that can load values without blocking the
+ * calling thread.
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <TVIEW>
+ *          The type of cached values, as visible to users of the cache
+ * @param <TCACHE>
+ *          The type of cached values, as visible to cache implementations
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public interface LUCacheAsyncType<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> extends
+  LUCacheType<K, TVIEW, TCACHE, E>
+{
+  /**
+   * <p>
+   * Retrieve a value named <code>key</code>, loading it if necessary.
+   * </p>
+   * <p>
+   * If the value is already cached, the returned future is already
+   * completed. Otherwise, the value is loaded with
+   * {@link JCacheAsyncLoaderType#cacheValueLoadAsync(Object)} if the loader
+   * supports it, or with {@link JCacheLoaderType#cacheValueLoad(Object)} on
+   * another thread if it does not. Concurrent requests for a key that is
+   * already being loaded share the same load.
+   * </p>
+   * <p>
+   * If loading fails, the returned future completes exceptionally with the
+   * exception of type <code>E</code> raised by the loader, or with a
+   * {@link JCacheException} if the value cannot be cached, and nothing is
+   * cached. Cancelling the returned future does not cancel the load.
+   * </p>
+   *
+   * @return A future that will complete with the cached or loaded value
+   *         associated with <code>key</code>
+   * @param key
+   *          The key identifying the value to be retrieved.
+   */
+
+  CompletableFuture<TVIEW> cacheGetLUAsync(
+    final K key);
+}
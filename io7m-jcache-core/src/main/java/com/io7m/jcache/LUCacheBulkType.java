@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The type of least-used caches that can retrieve many values at once.
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <TVIEW>
+ *          The type of cached values, as visible to users of the cache
+ * @param <TCACHE>
+ *          The type of cached values, as visible to cache implementations
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public interface LUCacheBulkType<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> extends
+  LUCacheType<K, TVIEW, TCACHE, E>
+{
+  /**
+   * <p>
+   * Retrieve the values named by <code>keys</code>, loading any that are
+   * not cached.
+   * </p>
+   * <p>
+   * Values that are already cached are served from the cache. All of the
+   * other values are loaded in a single call to
+   * {@link JCacheBulkLoaderType#cacheValueLoadAll(java.util.List)} if the
+   * loader supports it, or with one call to
+   * {@link JCacheLoaderType#cacheValueLoad(Object)} per key if it does not.
+   * Space for the loaded values is then made in a single eviction pass.
+   * </p>
+   * <p>
+   * The request either succeeds or fails as a whole: if any value cannot be
+   * loaded or cached, or if the requested values cannot all fit in the
+   * cache at the same time, none of the loaded values are cached and all of
+   * them are closed.
+   * </p>
+   *
+   * @return A map from each of <code>keys</code> to its value, iterating in
+   *         the order of <code>keys</code>
+   * @param keys
+   *          The keys identifying the values to be retrieved
+   * @throws E
+   *           Iff loading raises an exception of type <code>E</code>
+   * @throws JCacheException
+   *           Iff the values cannot be cached
+   */
+
+  Map<K, TVIEW> cacheGetLUAll(
+    final Collection<K> keys)
+    throws E,
+      JCacheException;
+}
@@ -0,0 +1,515 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.math.BigInteger;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * A cost-aware cache using the GreedyDual-Size-Frequency (GDSF) policy.
+ * </p>
+ * <p>
+ * Each cached object has a priority of <code>L + f * c / s</code>, where
+ * <code>f</code> is the number of times the object has been requested since
+ * it was loaded, <code>c</code> is the cost of reloading the object,
+ * <code>s</code> is the size of the object, and <code>L</code> is an
+ * <i>inflation</i> value. The object with the lowest priority is evicted
+ * first, and <code>L</code> is then raised to the priority of the evicted
+ * object, so that objects that have not been requested for a long time
+ * eventually become candidates for eviction regardless of their cost.
+ * </p>
+ * <p>
+ * If the loader implements {@link JCacheLoaderCostType}, the cost of an
+ * object is the value returned by
+ * {@link JCacheLoaderCostType#cacheValueCostOf(Object, Object)}. Otherwise,
+ * the cost is the time in nanoseconds taken to load the object. Large
+ * objects that are cheap to reload are therefore evicted in preference to
+ * small objects that are expensive to reload.
+ * </p>
+ * <p>
+ * Retrieval and eviction are <code>O(log n)</code> in the number of cached
+ * objects. The eviction policy of the configuration is ignored.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <TVIEW>
+ *          The type of cached values, as visible to users of the cache
+ * @param <TCACHE>
+ *          The type of cached values, as visible to cache implementations
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public final class LUCacheGDSF<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> implements
+  LRUCacheType<K, TVIEW, TCACHE, E>
+{
+  private static final class Node<K, V>
+  {
+    private final long cost;
+    private long       frequency;
+    private final K    key;
+    private double     priority;
+    private final long serial;
+    private final long size;
+    private final V    value;
+
+    Node(
+      final K in_key,
+      final V in_value,
+      final long in_size,
+      final long in_cost,
+      final long in_serial)
+    {
+      this.key = in_key;
+      this.value = in_value;
+      this.size = in_size;
+      this.cost = in_cost;
+      this.serial = in_serial;
+      this.frequency = 1L;
+      this.priority = 0.0;
+    }
+
+    public long getCost()
+    {
+      return this.cost;
+    }
+
+    public long getFrequency()
+    {
+      return this.frequency;
+    }
+
+    public K getKey()
+    {
+      return this.key;
+    }
+
+    public double getPriority()
+    {
+      return this.priority;
+    }
+
+    public long getSerial()
+    {
+      return this.serial;
+    }
+
+    public long getSize()
+    {
+      return this.size;
+    }
+
+    public V getValue()
+    {
+      return this.value;
+    }
+
+    public void setFrequency(
+      final long f)
+    {
+      this.frequency = f;
+    }
+
+    public void setPriority(
+      final double p)
+    {
+      this.priority = p;
+    }
+  }
+
+  private static final class NodeComparator implements
+    Comparator<Node<?, ?>>
+  {
+    NodeComparator()
+    {
+      // Nothing
+    }
+
+    @Override public int compare(
+      final Node<?, ?> a,
+      final Node<?, ?> b)
+    {
+      final int c = Double.compare(a.getPriority(), b.getPriority());
+      if (c != 0) {
+        return c;
+      }
+
+      /**
+       * Objects with equal priority are evicted in load order.
+       */
+
+      final long sa = a.getSerial();
+      final long sb = b.getSerial();
+      if (sa < sb) {
+        return -1;
+      }
+      if (sa > sb) {
+        return 1;
+      }
+      return 0;
+    }
+  }
+
+  /**
+   * Construct a new <tt>LUCacheGDSF</tt>.
+   *
+   * @param loader
+   *          The class that will load instances when given keys
+   * @param config
+   *          The cache configuration
+   * @return A new cache instance
+   *
+   * @param <K>
+   *          The type of keys
+   * @param <TVIEW>
+   *          The type of cached values, as visible to users of the cache
+   * @param <TCACHE>
+   *          The type of cached values, as visible to cache implementations
+   * @param <E>
+   *          The type of exceptions raised by the loader
+   */
+
+  public static
+    <K, TVIEW, TCACHE extends TVIEW, E extends Throwable>
+    LUCacheGDSF<K, TVIEW, TCACHE, E>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, E> loader,
+      final LRUCacheConfig config)
+  {
+    return new LUCacheGDSF<K, TVIEW, TCACHE, E>(loader, config);
+  }
+
+  private LRUCacheConfig                                     config;
+  private @Nullable JCacheEventsType<K, TCACHE>              events;
+  private final JCacheEvictionBatch<K, TCACHE>               evicting;
+  private double                                             inflation;
+  private final Map<K, Node<K, TCACHE>>                      items;
+  private final JCacheLoaderType<K, TCACHE, E>               loader;
+  private final @Nullable JCacheLoaderCostType<K, TCACHE, E> loader_cost;
+  private final @Nullable JCacheLoaderLongType<K, TCACHE, E> loader_long;
+  private final NavigableSet<Node<K, TCACHE>>                queue;
+  private long                                               serial;
+  private final JCacheStatisticsCounters                     statistics;
+  private long                                               used;
+
+  private LUCacheGDSF(
+    final JCacheLoaderType<K, TCACHE, E> in_loader,
+    final LRUCacheConfig in_config)
+  {
+    this.loader = NullCheck.notNull(in_loader, "Loader");
+    this.loader_long = JCacheAccounting.supportsLong(in_loader);
+    this.loader_cost = JCacheAccounting.supportsCost(in_loader);
+    this.config = NullCheck.notNull(in_config, "Configuration");
+    this.items = new HashMap<K, Node<K, TCACHE>>();
+    this.queue = new TreeSet<Node<K, TCACHE>>(new NodeComparator());
+    this.inflation = 0.0;
+    this.serial = 0L;
+    this.used = 0L;
+    this.statistics = new JCacheStatisticsCounters();
+    this.evicting = new JCacheEvictionBatch<K, TCACHE>();
+    this.events = null;
+  }
+
+  private void cacheCheckOverflow()
+    throws JCacheException
+  {
+    if (this.items.size() == Integer.MAX_VALUE) {
+      throw JCacheException.errorInternalCacheOverflow(this.items.size());
+    }
+  }
+
+  @Override public void cacheDelete()
+  {
+    while (this.queue.isEmpty() == false) {
+      final Node<K, TCACHE> n = this.queue.first();
+      assert n != null;
+      this.cacheRemove(n);
+    }
+    this.evicting.flush(this.loader, this.statistics, this.events);
+
+    assert this.items.size() == 0;
+    assert this.used == 0L;
+    this.inflation = 0.0;
+  }
+
+  @Override public void cacheEventsSubscribe(
+    final JCacheEventsType<K, TCACHE> e)
+  {
+    this.events = NullCheck.notNull(e, "Events");
+  }
+
+  @Override public void cacheEventsUnsubscribe()
+  {
+    this.events = null;
+  }
+
+  private void cacheEvictItems(
+    final long added_size,
+    final long maximum)
+  {
+    assert added_size <= maximum;
+
+    while (this.used > (maximum - added_size)) {
+      final Node<K, TCACHE> n = this.queue.first();
+      assert n != null;
+      this.inflation = n.getPriority();
+      this.statistics.evicted(n.getSize());
+      this.cacheRemove(n);
+    }
+    this.evicting.flush(this.loader, this.statistics, this.events);
+
+    assert this.used <= (maximum - added_size);
+  }
+
+  private Node<K, TCACHE> cacheGetAddingNew(
+    final K key)
+    throws E,
+      JCacheException
+  {
+    boolean failed = true;
+    TCACHE new_value = null;
+
+    this.cacheCheckOverflow();
+
+    try {
+      final long time_then = System.nanoTime();
+      new_value = this.statistics.load(this.loader, key);
+      final long time_now = System.nanoTime();
+      this.checkLoaderReturnForNull(key, new_value);
+
+      final long size =
+        JCacheAccounting.sizeOf(this.loader, this.loader_long, new_value);
+      this.eventObjectLoaded(key, new_value, size);
+
+      if (size < 1L) {
+        throw JCacheException.errorObjectTooSmall(key, size);
+      }
+
+      final long maximum = this.config.getMaximumCapacityLong();
+      if (size > maximum) {
+        throw JCacheException.errorObjectTooLarge(key, size, maximum);
+      }
+
+      final long cost = this.cacheCostOf(key, new_value, time_now - time_then);
+      this.cacheEvictItems(size, maximum);
+      this.used = JCacheAccounting.add(this.used, size);
+
+      failed = false;
+      final Node<K, TCACHE> n =
+        new Node<K, TCACHE>(key, new_value, size, cost, this.serial);
+      ++this.serial;
+      n.setPriority(this.cachePriorityOf(n));
+      this.items.put(key, n);
+      this.queue.add(n);
+      return n;
+    } finally {
+      if (failed) {
+        if (new_value != null) {
+          this.statistics.close(this.loader, new_value);
+        }
+      }
+    }
+  }
+
+  private long cacheCostOf(
+    final K key,
+    final TCACHE value,
+    final long elapsed)
+  {
+    final JCacheLoaderCostType<K, TCACHE, E> lc = this.loader_cost;
+    final long cost;
+    if (lc != null) {
+      cost = lc.cacheValueCostOf(key, value);
+    } else {
+      cost = elapsed;
+    }
+    return Math.max(1L, cost);
+  }
+
+  @Override public TVIEW cacheGetLU(
+    final K key)
+    throws E,
+      JCacheException
+  {
+    final long start = this.statistics.requestStarted();
+    try {
+      NullCheck.notNull(key, "Key");
+
+      final Node<K, TCACHE> existing = this.items.get(key);
+      if (existing != null) {
+        this.statistics.hit();
+        this.cacheTouch(existing);
+        this.eventObjectRetrieved(key, existing);
+        return existing.getValue();
+      }
+
+      this.statistics.miss();
+      final Node<K, TCACHE> n = this.cacheGetAddingNew(key);
+      this.eventObjectRetrieved(key, n);
+      return n.getValue();
+    } finally {
+      this.statistics.requestFinished(start);
+    }
+  }
+
+  @Override public boolean cacheIsCached(
+    final K key)
+  {
+    return this.items.containsKey(NullCheck.notNull(key, "Key"));
+  }
+
+  @Override public BigInteger cacheItemCount()
+  {
+    return BigInteger.valueOf(this.items.size());
+  }
+
+  @Override public long cacheItemCountLong()
+  {
+    return this.items.size();
+  }
+
+  private double cachePriorityOf(
+    final Node<K, TCACHE> n)
+  {
+    final double f = n.getFrequency();
+    final double c = n.getCost();
+    final double s = n.getSize();
+    return this.inflation + ((f * c) / s);
+  }
+
+  private void cacheRemove(
+    final Node<K, TCACHE> existing)
+  {
+    final K key = existing.getKey();
+    this.queue.remove(existing);
+    this.items.remove(key);
+    this.used = this.used - existing.getSize();
+    this.evicting.add(key, existing.getValue(), existing.getSize());
+  }
+
+  @Override public BigInteger cacheSize()
+  {
+    return BigInteger.valueOf(this.used);
+  }
+
+  @Override public long cacheSizeLong()
+  {
+    return this.used;
+  }
+
+  @Override public JCacheStatistics cacheStatistics()
+  {
+    return this.statistics.snapshot();
+  }
+
+  @Override public void cacheStatisticsReset()
+  {
+    this.statistics.reset();
+  }
+
+  @Override public void cacheStatisticsSetHistogramsEnabled(
+    final boolean enabled)
+  {
+    this.statistics.setHistogramsEnabled(enabled);
+  }
+
+  private void cacheTouch(
+    final Node<K, TCACHE> n)
+  {
+    final boolean removed = this.queue.remove(n);
+    assert removed;
+
+    if (n.getFrequency() < Long.MAX_VALUE) {
+      n.setFrequency(n.getFrequency() + 1L);
+    }
+    n.setPriority(this.cachePriorityOf(n));
+    this.queue.add(n);
+  }
+
+  private void checkLoaderReturnForNull(
+    final K key,
+    final @Nullable TCACHE new_value)
+    throws JCacheException
+  {
+    if (new_value == null) {
+      throw JCacheException.errorLoaderReturnedNull(key);
+    }
+  }
+
+  private void eventObjectLoaded(
+    final K key,
+    final TCACHE new_value,
+    final long size)
+  {
+    final JCacheEventsType<K, TCACHE> e = this.events;
+    if (e != null) {
+      try {
+        e.cacheEventValueLoaded(key, new_value, BigInteger.valueOf(size));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  private void eventObjectRetrieved(
+    final K key,
+    final Node<K, TCACHE> cv)
+  {
+    final JCacheEventsType<K, TCACHE> e = this.events;
+    if (e != null) {
+      try {
+        e.cacheEventValueRetrieved(
+          key,
+          cv.getValue(),
+          BigInteger.valueOf(cv.getSize()));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  @Override public LRUCacheConfig cacheGetConfiguration()
+  {
+    return this.config;
+  }
+
+  @Override public void cacheSetConfiguration(
+    final LRUCacheConfig c)
+  {
+    this.config = NullCheck.notNull(c, "Configuration");
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("[LUCacheGDSF ");
+    builder.append("[size ");
+    builder.append(this.used);
+    builder.append("]");
+    builder.append("]");
+    return builder.toString();
+  }
+}
@@ -34,7 +34,8 @@ package com.io7m.jcache;
 public interface LUCacheType<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> extends
   JCacheReadableType<K>,
   JCacheDeletableType,
-  JCacheEventsSubscriptionType<K, TCACHE>
+  JCacheEventsSubscriptionType<K, TCACHE>,
+  JCacheStatisticsType
 {
   /**
    * Retrieve a value named <code>key</code>, loading it if necessary.
@@ -0,0 +1,688 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * A cache using the W-TinyLFU admission and eviction policy.
+ * </p>
+ * <p>
+ * Newly loaded objects enter a small LRU <i>admission window</i>. Objects
+ * leaving the window become candidates for the <i>main space</i>, which is
+ * a segmented LRU consisting of a <i>probation</i> segment and a
+ * <i>protected</i> segment. A candidate is admitted to the main space only
+ * if it has been requested more often than the object that would be
+ * evicted to make room for it; otherwise, the candidate itself is evicted.
+ * Request frequencies are estimated by a count-min sketch with a
+ * doorkeeper that is aged periodically, so that keys that are requested
+ * only once cannot flush frequently requested objects out of the cache.
+ * Objects in probation that are requested again move to the protected
+ * segment.
+ * </p>
+ * <p>
+ * The fraction of the capacity given to the admission window starts at one
+ * percent, and is adjusted by hill climbing: after each sample period, the
+ * window grows or shrinks in whichever direction improved the hit ratio.
+ * </p>
+ * <p>
+ * Capacity is measured using the sizes reported by
+ * {@link JCacheLoaderType#cacheValueSizeOf(Object)}, exactly as in
+ * {@link LRUCacheTrivial}. An object that has just been loaded is never
+ * evicted by its own insertion, so values returned by
+ * {@link #cacheGetLU(Object)} are not closed before they are returned.
+ * The eviction policy of the configuration is ignored.
+ * </p>
+ *
+ * @param <K>
+ *          The type of keys
+ * @param <TVIEW>
+ *          The type of cached values, as visible to users of the cache
+ * @param <TCACHE>
+ *          The type of cached values, as visible to cache implementations
+ * @param <E>
+ *          The type of exceptions raised during loading
+ */
+
+public final class LUCacheWTinyLFU<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> implements
+  LRUCacheType<K, TVIEW, TCACHE, E>
+{
+  private static enum Region
+  {
+    REGION_PROBATION,
+    REGION_PROTECTED,
+    REGION_WINDOW
+  }
+
+  private static final class Node<K, V> extends JCacheListNode<Node<K, V>>
+  {
+    private final K      key;
+    private Region       region;
+    private final long   size;
+    private final V      value;
+
+    Node(
+      final K in_key,
+      final V in_value,
+      final long in_size)
+    {
+      this.key = in_key;
+      this.value = in_value;
+      this.size = in_size;
+      this.region = Region.REGION_WINDOW;
+    }
+
+    public K getKey()
+    {
+      return this.key;
+    }
+
+    public Region getRegion()
+    {
+      return this.region;
+    }
+
+    public long getSize()
+    {
+      return this.size;
+    }
+
+    public V getValue()
+    {
+      return this.value;
+    }
+
+    public void setRegion(
+      final Region r)
+    {
+      this.region = r;
+    }
+  }
+
+  private static final int    ADMIT_RANDOM_BOUND;
+  private static final int    ADMIT_WARM_FREQUENCY;
+  private static final double CLIMB_RESTART_THRESHOLD;
+  private static final double CLIMB_STEP_DECAY;
+  private static final double CLIMB_STEP_INITIAL;
+  private static final double PROTECTED_FRACTION;
+  private static final double WINDOW_FRACTION_INITIAL;
+  private static final double WINDOW_FRACTION_MAXIMUM;
+
+  static {
+    ADMIT_RANDOM_BOUND = 128;
+    ADMIT_WARM_FREQUENCY = 5;
+    CLIMB_RESTART_THRESHOLD = 0.05;
+    CLIMB_STEP_DECAY = 0.98;
+    CLIMB_STEP_INITIAL = 0.0625;
+    PROTECTED_FRACTION = 0.8;
+    WINDOW_FRACTION_INITIAL = 0.01;
+    WINDOW_FRACTION_MAXIMUM = 0.8;
+  }
+
+  /**
+   * Construct a new <tt>LUCacheWTinyLFU</tt>.
+   *
+   * @param loader
+   *          The class that will load instances when given keys
+   * @param config
+   *          The cache configuration
+   * @return A new cache instance
+   *
+   * @param <K>
+   *          The type of keys
+   * @param <TVIEW>
+   *          The type of cached values, as visible to users of the cache
+   * @param <TCACHE>
+   *          The type of cached values, as visible to cache implementations
+   * @param <E>
+   *          The type of exceptions raised by the loader
+   */
+
+  public static
+    <K, TVIEW, TCACHE extends TVIEW, E extends Throwable>
+    LUCacheWTinyLFU<K, TVIEW, TCACHE, E>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, E> loader,
+      final LRUCacheConfig config)
+  {
+    return new LUCacheWTinyLFU<K, TVIEW, TCACHE, E>(loader, config);
+  }
+
+  private double                                             climb_previous_rate;
+  private long                                               climb_requests;
+  private long                                               climb_hits;
+  private double                                             climb_step;
+  private LRUCacheConfig                                     config;
+  private @Nullable JCacheEventsType<K, TCACHE>              events;
+  private final JCacheEvictionBatch<K, TCACHE>               evicting;
+  private final Map<K, Node<K, TCACHE>>                      items;
+  private final JCacheLoaderType<K, TCACHE, E>               loader;
+  private final @Nullable JCacheLoaderLongType<K, TCACHE, E> loader_long;
+  private final JCacheList<Node<K, TCACHE>>                  main_probation;
+  private final JCacheList<Node<K, TCACHE>>                  main_protected;
+  private long                                               main_protected_used;
+  private long                                               main_used;
+  private final Random                                       random;
+  private final JCacheFrequencySketch                        sketch;
+  private final JCacheStatisticsCounters                     statistics;
+  private long                                               used;
+  private final JCacheList<Node<K, TCACHE>>                  window;
+  private double                                             window_fraction;
+  private long                                               window_used;
+
+  private LUCacheWTinyLFU(
+    final JCacheLoaderType<K, TCACHE, E> in_loader,
+    final LRUCacheConfig in_config)
+  {
+    this.loader = NullCheck.notNull(in_loader, "Loader");
+    this.loader_long = JCacheAccounting.supportsLong(in_loader);
+    this.config = NullCheck.notNull(in_config, "Configuration");
+    this.items = new HashMap<K, Node<K, TCACHE>>();
+    this.window = new JCacheList<Node<K, TCACHE>>();
+    this.main_probation = new JCacheList<Node<K, TCACHE>>();
+    this.main_protected = new JCacheList<Node<K, TCACHE>>();
+    this.sketch =
+      new JCacheFrequencySketch(this.config.getMaximumCapacityLong());
+    this.random = new Random();
+    this.used = 0L;
+    this.statistics = new JCacheStatisticsCounters();
+    this.evicting = new JCacheEvictionBatch<K, TCACHE>();
+    this.window_used = 0L;
+    this.main_used = 0L;
+    this.main_protected_used = 0L;
+    this.window_fraction = LUCacheWTinyLFU.WINDOW_FRACTION_INITIAL;
+    this.climb_step = LUCacheWTinyLFU.CLIMB_STEP_INITIAL;
+    this.climb_previous_rate = 0.0;
+    this.climb_requests = 0L;
+    this.climb_hits = 0L;
+    this.events = null;
+  }
+
+  /**
+   * Offer the least recently used object in the window to the main space,
+   * evicting objects from the main space or evicting the candidate,
+   * depending on their estimated frequencies.
+   */
+
+  private void cacheAdmitCandidate(
+    final Node<K, TCACHE> candidate,
+    final long main_max)
+  {
+    assert candidate.getRegion() == Region.REGION_WINDOW;
+
+    while ((this.main_used + candidate.getSize()) > main_max) {
+      final Node<K, TCACHE> victim = this.cacheMainVictim();
+      if ((victim == null) || (this.cacheShouldAdmit(candidate, victim) == false)) {
+        this.statistics.evicted(candidate.getSize());
+        this.cacheRemove(candidate);
+        return;
+      }
+      this.statistics.evicted(victim.getSize());
+      this.cacheRemove(victim);
+    }
+
+    this.window.remove(candidate);
+    this.window_used = this.window_used - candidate.getSize();
+    candidate.setRegion(Region.REGION_PROBATION);
+    this.main_probation.addLast(candidate);
+    this.main_used = this.main_used + candidate.getSize();
+  }
+
+  private void cacheCheckOverflow()
+    throws JCacheException
+  {
+    if (this.items.size() == Integer.MAX_VALUE) {
+      throw JCacheException.errorInternalCacheOverflow(this.items.size());
+    }
+  }
+
+  /**
+   * Adjust the size of the admission window by hill climbing, once per
+   * sample period.
+   */
+
+  private void cacheClimb()
+  {
+    if (this.climb_requests < this.sketch.sampleSize()) {
+      return;
+    }
+
+    final double rate = (double) this.climb_hits / (double) this.climb_requests;
+    final double change = rate - this.climb_previous_rate;
+
+    double amount = this.climb_step;
+    if (change < 0.0) {
+      amount = -this.climb_step;
+    }
+
+    if (Math.abs(change) >= LUCacheWTinyLFU.CLIMB_RESTART_THRESHOLD) {
+      this.climb_step =
+        Math.copySign(LUCacheWTinyLFU.CLIMB_STEP_INITIAL, amount);
+    } else {
+      this.climb_step = amount * LUCacheWTinyLFU.CLIMB_STEP_DECAY;
+    }
+
+    this.window_fraction =
+      Math.max(0.0, Math.min(
+        LUCacheWTinyLFU.WINDOW_FRACTION_MAXIMUM,
+        this.window_fraction + amount));
+
+    this.climb_previous_rate = rate;
+    this.climb_requests = 0L;
+    this.climb_hits = 0L;
+  }
+
+  @Override public void cacheDelete()
+  {
+    this.cacheDeleteList(this.window);
+    this.cacheDeleteList(this.main_probation);
+    this.cacheDeleteList(this.main_protected);
+    this.evicting.flush(this.loader, this.statistics, this.events);
+
+    assert this.items.size() == 0;
+    assert this.used == 0L;
+  }
+
+  private void cacheDeleteList(
+    final JCacheList<Node<K, TCACHE>> list)
+  {
+    while (list.isEmpty() == false) {
+      final Node<K, TCACHE> n = list.first();
+      assert n != null;
+      this.cacheRemove(n);
+    }
+  }
+
+  @Override public void cacheEventsSubscribe(
+    final JCacheEventsType<K, TCACHE> e)
+  {
+    this.events = NullCheck.notNull(e, "Events");
+  }
+
+  @Override public void cacheEventsUnsubscribe()
+  {
+    this.events = null;
+  }
+
+  /**
+   * Evict objects so that the regions respect their limits. The object
+   * <code>added</code> is never evicted.
+   */
+
+  private void cacheEvict(
+    final Node<K, TCACHE> added,
+    final long maximum)
+  {
+    /**
+     * The window is allowed to exceed its limit if it contains only
+     * <code>added</code>, so the main space must leave room for whichever
+     * is larger.
+     */
+
+    final long window_max = (long) (maximum * this.window_fraction);
+    final long main_max = maximum - Math.max(window_max, added.getSize());
+
+    /**
+     * The main space may exceed its limit if the capacity of the cache has
+     * been reduced, or if the window has grown. Rather than being evicted
+     * outright, the excess objects are returned to the head of the window,
+     * from where they must compete for readmission.
+     */
+
+    while (this.main_used > main_max) {
+      final Node<K, TCACHE> victim = this.cacheMainVictim();
+      assert victim != null;
+      this.cacheMoveToWindow(victim);
+    }
+
+    while (this.window_used > window_max) {
+      final Node<K, TCACHE> candidate = this.window.first();
+      assert candidate != null;
+      if (candidate == added) {
+        break;
+      }
+      this.cacheAdmitCandidate(candidate, main_max);
+    }
+    this.evicting.flush(this.loader, this.statistics, this.events);
+
+    assert this.used <= maximum;
+    this.cacheDemoteProtected(maximum - window_max);
+  }
+
+  private void cacheDemoteProtected(
+    final long main_max)
+  {
+    final long protected_max =
+      (long) (main_max * LUCacheWTinyLFU.PROTECTED_FRACTION);
+
+    while (this.main_protected_used > protected_max) {
+      final Node<K, TCACHE> n = this.main_protected.first();
+      assert n != null;
+      this.main_protected.remove(n);
+      this.main_protected_used = this.main_protected_used - n.getSize();
+      n.setRegion(Region.REGION_PROBATION);
+      this.main_probation.addLast(n);
+    }
+  }
+
+  private Node<K, TCACHE> cacheGetAddingNew(
+    final K key)
+    throws E,
+      JCacheException
+  {
+    boolean failed = true;
+    TCACHE new_value = null;
+
+    this.cacheCheckOverflow();
+
+    try {
+      new_value = this.statistics.load(this.loader, key);
+      this.checkLoaderReturnForNull(key, new_value);
+
+      final long size =
+        JCacheAccounting.sizeOf(this.loader, this.loader_long, new_value);
+      this.eventObjectLoaded(key, new_value, size);
+
+      if (size < 1L) {
+        throw JCacheException.errorObjectTooSmall(key, size);
+      }
+
+      final long maximum = this.config.getMaximumCapacityLong();
+      if (size > maximum) {
+        throw JCacheException.errorObjectTooLarge(key, size, maximum);
+      }
+
+      this.used = JCacheAccounting.add(this.used, size);
+
+      failed = false;
+      final Node<K, TCACHE> n = new Node<K, TCACHE>(key, new_value, size);
+      this.items.put(key, n);
+      this.window.addLast(n);
+      this.window_used = this.window_used + size;
+      this.cacheEvict(n, maximum);
+      this.sketch.ensureCapacity(this.items.size());
+      return n;
+    } finally {
+      if (failed) {
+        if (new_value != null) {
+          this.statistics.close(this.loader, new_value);
+        }
+      }
+    }
+  }
+
+  @Override public TVIEW cacheGetLU(
+    final K key)
+    throws E,
+      JCacheException
+  {
+    final long start = this.statistics.requestStarted();
+    try {
+      NullCheck.notNull(key, "Key");
+
+      this.sketch.increment(key);
+      ++this.climb_requests;
+
+      Node<K, TCACHE> n = this.items.get(key);
+      if (n != null) {
+        ++this.climb_hits;
+        this.statistics.hit();
+        this.cacheTouch(n);
+      } else {
+        this.statistics.miss();
+        n = this.cacheGetAddingNew(key);
+      }
+
+      this.cacheClimb();
+      this.eventObjectRetrieved(key, n);
+      return n.getValue();
+    } finally {
+      this.statistics.requestFinished(start);
+    }
+  }
+
+  @Override public boolean cacheIsCached(
+    final K key)
+  {
+    return this.items.containsKey(NullCheck.notNull(key, "Key"));
+  }
+
+  @Override public BigInteger cacheItemCount()
+  {
+    return BigInteger.valueOf(this.items.size());
+  }
+
+  @Override public long cacheItemCountLong()
+  {
+    return this.items.size();
+  }
+
+  private @Nullable Node<K, TCACHE> cacheMainVictim()
+  {
+    final Node<K, TCACHE> n = this.main_probation.first();
+    if (n != null) {
+      return n;
+    }
+    return this.main_protected.first();
+  }
+
+  private void cacheMoveToWindow(
+    final Node<K, TCACHE> n)
+  {
+    final long size = n.getSize();
+    if (n.getRegion() == Region.REGION_PROTECTED) {
+      this.main_protected.remove(n);
+      this.main_protected_used = this.main_protected_used - size;
+    } else {
+      assert n.getRegion() == Region.REGION_PROBATION;
+      this.main_probation.remove(n);
+    }
+
+    this.main_used = this.main_used - size;
+    n.setRegion(Region.REGION_WINDOW);
+    this.window.addFirst(n);
+    this.window_used = this.window_used + size;
+  }
+
+  private void cacheRemove(
+    final Node<K, TCACHE> existing)
+  {
+    final K key = existing.getKey();
+    final long size = existing.getSize();
+    this.evicting.add(key, existing.getValue(), size);
+
+    switch (existing.getRegion()) {
+      case REGION_WINDOW:
+      {
+        this.window.remove(existing);
+        this.window_used = this.window_used - size;
+        break;
+      }
+      case REGION_PROBATION:
+      {
+        this.main_probation.remove(existing);
+        this.main_used = this.main_used - size;
+        break;
+      }
+      case REGION_PROTECTED:
+      {
+        this.main_protected.remove(existing);
+        this.main_protected_used = this.main_protected_used - size;
+        this.main_used = this.main_used - size;
+        break;
+      }
+    }
+
+    this.items.remove(key);
+    this.used = this.used - size;
+  }
+
+  private boolean cacheShouldAdmit(
+    final Node<K, TCACHE> candidate,
+    final Node<K, TCACHE> victim)
+  {
+    final int cf = this.sketch.frequency(candidate.getKey());
+    final int vf = this.sketch.frequency(victim.getKey());
+    if (cf > vf) {
+      return true;
+    }
+
+    /**
+     * Occasionally admit warm candidates that do not beat the victim, so
+     * that an attacker cannot pin objects in the main space by raising the
+     * frequency of victims artificially.
+     */
+
+    if (cf <= LUCacheWTinyLFU.ADMIT_WARM_FREQUENCY) {
+      return false;
+    }
+    return this.random.nextInt(LUCacheWTinyLFU.ADMIT_RANDOM_BOUND) == 0;
+  }
+
+  @Override public BigInteger cacheSize()
+  {
+    return BigInteger.valueOf(this.used);
+  }
+
+  @Override public long cacheSizeLong()
+  {
+    return this.used;
+  }
+
+  @Override public JCacheStatistics cacheStatistics()
+  {
+    return this.statistics.snapshot();
+  }
+
+  @Override public void cacheStatisticsReset()
+  {
+    this.statistics.reset();
+  }
+
+  @Override public void cacheStatisticsSetHistogramsEnabled(
+    final boolean enabled)
+  {
+    this.statistics.setHistogramsEnabled(enabled);
+  }
+
+  private void cacheTouch(
+    final Node<K, TCACHE> n)
+  {
+    switch (n.getRegion()) {
+      case REGION_WINDOW:
+      {
+        this.window.moveToLast(n);
+        break;
+      }
+      case REGION_PROBATION:
+      {
+        this.main_probation.remove(n);
+        n.setRegion(Region.REGION_PROTECTED);
+        this.main_protected.addLast(n);
+        this.main_protected_used = this.main_protected_used + n.getSize();
+
+        final long maximum = this.config.getMaximumCapacityLong();
+        final long window_max = (long) (maximum * this.window_fraction);
+        this.cacheDemoteProtected(maximum - window_max);
+        break;
+      }
+      case REGION_PROTECTED:
+      {
+        this.main_protected.moveToLast(n);
+        break;
+      }
+    }
+  }
+
+  private void checkLoaderReturnForNull(
+    final K key,
+    final @Nullable TCACHE new_value)
+    throws JCacheException
+  {
+    if (new_value == null) {
+      throw JCacheException.errorLoaderReturnedNull(key);
+    }
+  }
+
+  private void eventObjectLoaded(
+    final K key,
+    final TCACHE new_value,
+    final long size)
+  {
+    if (this.events != null) {
+      try {
+        this.events.cacheEventValueLoaded(
+          key,
+          new_value,
+          BigInteger.valueOf(size));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  private void eventObjectRetrieved(
+    final K key,
+    final Node<K, TCACHE> cv)
+  {
+    if (this.events != null) {
+      try {
+        this.events.cacheEventValueRetrieved(
+          key,
+          cv.getValue(),
+          BigInteger.valueOf(cv.getSize()));
+      } catch (final Throwable _) {
+        // Ignore
+      }
+    }
+  }
+
+  @Override public LRUCacheConfig cacheGetConfiguration()
+  {
+    return this.config;
+  }
+
+  @Override public void cacheSetConfiguration(
+    final LRUCacheConfig c)
+  {
+    this.config = NullCheck.notNull(c, "Configuration");
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("[LUCacheWTinyLFU ");
+    builder.append("[size ");
+    builder.append(this.used);
+    builder.append("] [window ");
+    builder.append(this.window_used);
+    builder.append("] [probation ");
+    builder.append(this.main_used - this.main_protected_used);
+    builder.append("] [protected ");
+    builder.append(this.main_protected_used);
+    builder.append("]");
+    builder.append("]");
+    return builder.toString();
+  }
+}
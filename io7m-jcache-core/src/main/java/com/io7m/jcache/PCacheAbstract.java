@@ -127,6 +127,11 @@ public abstract class PCacheAbstract<K, TVIEW, TCACHE extends TVIEW, E extends T
     return this.cache.cacheItemCount();
   }
 
+  @Override public final long cacheItemCountLong()
+  {
+    return this.cache.cacheItemCountLong();
+  }
+
   @Override public final void cachePeriodEnd()
   {
     this.cache.cachePeriodEnd();
@@ -142,6 +147,27 @@ public abstract class PCacheAbstract<K, TVIEW, TCACHE extends TVIEW, E extends T
     return this.cache.cacheSize();
   }
 
+  @Override public final long cacheSizeLong()
+  {
+    return this.cache.cacheSizeLong();
+  }
+
+  @Override public final JCacheStatistics cacheStatistics()
+  {
+    return this.cache.cacheStatistics();
+  }
+
+  @Override public final void cacheStatisticsReset()
+  {
+    this.cache.cacheStatisticsReset();
+  }
+
+  @Override public final void cacheStatisticsSetHistogramsEnabled(
+    final boolean enabled)
+  {
+    this.cache.cacheStatisticsSetHistogramsEnabled(enabled);
+  }
+
   @Override protected final void finalize()
     throws Throwable
   {
@@ -46,12 +46,24 @@ import com.io7m.jranges.RangeCheck;
 
     BigInteger getMaximumAge();
 
+    /**
+     * @return The current maximum lifetime.
+     */
+
+    BigInteger getMaximumLifetime();
+
     /**
      * @return The current maximum size, in units.
      */
 
     BigInteger getMaximumSize();
 
+    /**
+     * @return The current refresh-ahead period count.
+     */
+
+    BigInteger getRefreshAhead();
+
     /**
      * Set the current maximum age. Must be <code>>= 1</code>.
      * 
@@ -62,6 +74,16 @@ import com.io7m.jranges.RangeCheck;
     void setMaximumAge(
       final BigInteger age);
 
+    /**
+     * Set the current maximum lifetime. Must be <code>>= 1</code>.
+     *
+     * @param lifetime
+     *          The new maximum lifetime
+     */
+
+    void setMaximumLifetime(
+      final BigInteger lifetime);
+
     /**
      * Set the current maximum size. Must be <code>>= 1</code>.
      * 
@@ -78,84 +100,177 @@ import com.io7m.jranges.RangeCheck;
 
     void setNoMaximumAge();
 
+    /**
+     * Remove any limit on the maximum lifetime of cached items.
+     */
+
+    void setNoMaximumLifetime();
+
     /**
      * Remove any limit on the maximum size of the cache.
      */
 
     void setNoMaximumSize();
-  }
 
-  /**
-   * @return A new builder from which to create configurations.
-   */
+    /**
+     * Disable refresh-ahead.
+     */
 
-  public static BuilderType newBuilder()
+    void setNoRefreshAhead();
+
+    /**
+     * Set the number of periods before the end of their lifetime that items
+     * will be refreshed. Must be <code>>= 1</code>, and less than the
+     * maximum lifetime.
+     *
+     * @param periods
+     *          The number of periods
+     */
+
+    void setRefreshAhead(
+      final BigInteger periods);
+  }
+
+  private static final class Builder implements BuilderType
   {
-    return new BuilderType() {
-      private BigInteger maximum_age  = BigInteger.ONE;
-      private BigInteger maximum_size = BigInteger.ONE;
+    private BigInteger maximum_age;
+    private BigInteger maximum_lifetime;
+    private BigInteger maximum_size;
+    private BigInteger refresh_ahead;
+
+    Builder()
+    {
+      this.maximum_age = BigInteger.ONE;
+      this.maximum_lifetime = BigInteger.ZERO;
+      this.maximum_size = BigInteger.ONE;
+      this.refresh_ahead = BigInteger.ZERO;
+    }
 
-      @SuppressWarnings("synthetic-access") @Override public
-        PCacheConfig
-        create()
+    @SuppressWarnings("synthetic-access") @Override public
+      PCacheConfig
+      create()
 
-      {
-        return new PCacheConfig(this.maximum_size, this.maximum_age);
-      }
+    {
+      return new PCacheConfig(
+        this.maximum_size,
+        this.maximum_age,
+        this.maximum_lifetime,
+        this.refresh_ahead);
+    }
 
-      @Override public BigInteger getMaximumAge()
-      {
-        return this.maximum_age;
-      }
+    @Override public BigInteger getMaximumAge()
+    {
+      return this.maximum_age;
+    }
 
-      @Override public BigInteger getMaximumSize()
-      {
-        return this.maximum_size;
-      }
+    @Override public BigInteger getMaximumLifetime()
+    {
+      return this.maximum_lifetime;
+    }
 
-      @Override public void setMaximumAge(
-        final BigInteger age)
-      {
-        this.maximum_age =
-          RangeCheck.checkGreaterBig(
-            age,
-            "Maximum age",
-            NullCheck.notNull(BigInteger.ZERO),
-            "Smallest age");
-      }
+    @Override public BigInteger getMaximumSize()
+    {
+      return this.maximum_size;
+    }
 
-      @Override public void setMaximumSize(
-        final BigInteger size)
-      {
-        this.maximum_size =
-          RangeCheck.checkGreaterBig(
-            size,
-            "Maximum size",
-            NullCheck.notNull(BigInteger.ZERO),
-            "Smallest size");
-      }
+    @Override public BigInteger getRefreshAhead()
+    {
+      return this.refresh_ahead;
+    }
 
-      @Override public void setNoMaximumAge()
-      {
-        this.maximum_age = NullCheck.notNull(BigInteger.ZERO);
-      }
+    @Override public void setMaximumAge(
+      final BigInteger age)
+    {
+      this.maximum_age =
+        RangeCheck.checkGreaterBig(
+          age,
+          "Maximum age",
+          NullCheck.notNull(BigInteger.ZERO),
+          "Smallest age");
+    }
 
-      @Override public void setNoMaximumSize()
-      {
-        this.maximum_size = NullCheck.notNull(BigInteger.ZERO);
-      }
-    };
+    @Override public void setMaximumLifetime(
+      final BigInteger lifetime)
+    {
+      this.maximum_lifetime =
+        RangeCheck.checkGreaterBig(
+          lifetime,
+          "Maximum lifetime",
+          NullCheck.notNull(BigInteger.ZERO),
+          "Smallest lifetime");
+    }
+
+    @Override public void setMaximumSize(
+      final BigInteger size)
+    {
+      this.maximum_size =
+        RangeCheck.checkGreaterBig(
+          size,
+          "Maximum size",
+          NullCheck.notNull(BigInteger.ZERO),
+          "Smallest size");
+    }
+
+    @Override public void setNoMaximumAge()
+    {
+      this.maximum_age = NullCheck.notNull(BigInteger.ZERO);
+    }
+
+    @Override public void setNoMaximumLifetime()
+    {
+      this.maximum_lifetime = NullCheck.notNull(BigInteger.ZERO);
+    }
+
+    @Override public void setNoMaximumSize()
+    {
+      this.maximum_size = NullCheck.notNull(BigInteger.ZERO);
+    }
+
+    @Override public void setNoRefreshAhead()
+    {
+      this.refresh_ahead = NullCheck.notNull(BigInteger.ZERO);
+    }
+
+    @Override public void setRefreshAhead(
+      final BigInteger periods)
+    {
+      this.refresh_ahead =
+        RangeCheck.checkGreaterBig(
+          periods,
+          "Refresh-ahead periods",
+          NullCheck.notNull(BigInteger.ZERO),
+          "Smallest period count");
+    }
+  }
+
+  /**
+   * @return A new builder from which to create configurations.
+   */
+
+  public static BuilderType newBuilder()
+  {
+    return new Builder();
   }
 
   private final BigInteger maximum_age;
+  private final long       maximum_age_long;
+  private final BigInteger maximum_lifetime;
+  private final long       maximum_lifetime_long;
   private final BigInteger maximum_size;
+  private final long       maximum_size_long;
+  private final BigInteger refresh_ahead;
+  private final long       refresh_ahead_long;
 
   private PCacheConfig(
     final BigInteger max_size,
-    final BigInteger max_age)
+    final BigInteger max_age,
+    final BigInteger max_lifetime,
+    final BigInteger in_refresh_ahead)
   {
     NullCheck.notNull(max_age, "Maximum age");
     NullCheck.notNull(max_size, "Maximum size");
+    NullCheck.notNull(max_lifetime, "Maximum lifetime");
+    NullCheck.notNull(in_refresh_ahead, "Refresh-ahead periods");
 
     final boolean ok =
       (max_age.compareTo(BigInteger.ZERO) > 0)
@@ -165,8 +280,21 @@ import com.io7m.jranges.RangeCheck;
         "Either maximum age or size must be non-zero");
     }
 
+    if (in_refresh_ahead.compareTo(BigInteger.ZERO) > 0) {
+      if (in_refresh_ahead.compareTo(max_lifetime) >= 0) {
+        throw new IllegalArgumentException(
+          "Refresh-ahead requires a maximum lifetime greater than the number of refresh-ahead periods");
+      }
+    }
+
     this.maximum_age = max_age;
     this.maximum_size = max_size;
+    this.maximum_lifetime = max_lifetime;
+    this.refresh_ahead = in_refresh_ahead;
+    this.maximum_age_long = JCacheAccounting.saturate(max_age);
+    this.maximum_size_long = JCacheAccounting.saturate(max_size);
+    this.maximum_lifetime_long = JCacheAccounting.saturate(max_lifetime);
+    this.refresh_ahead_long = JCacheAccounting.saturate(in_refresh_ahead);
   }
 
   @Override public boolean equals(
@@ -182,10 +310,16 @@ import com.io7m.jranges.RangeCheck;
       return false;
     }
     final PCacheConfig other = (PCacheConfig) obj;
-    if (this.maximum_age != other.maximum_age) {
+    if (this.maximum_age.equals(other.maximum_age) == false) {
+      return false;
+    }
+    if (this.maximum_lifetime.equals(other.maximum_lifetime) == false) {
+      return false;
+    }
+    if (this.maximum_size.equals(other.maximum_size) == false) {
       return false;
     }
-    if (this.maximum_size != other.maximum_size) {
+    if (this.refresh_ahead.equals(other.refresh_ahead) == false) {
       return false;
     }
     return true;
@@ -207,6 +341,47 @@ import com.io7m.jranges.RangeCheck;
     return this.maximum_age;
   }
 
+  /**
+   * @return The maximum age of items in the cache, saturated to
+   *         {@link Long#MAX_VALUE}, or <code>0</code> if there is no maximum
+   *         age.
+   * @see #getMaximumAge()
+   */
+
+  public long getMaximumAgeLong()
+  {
+    return this.maximum_age_long;
+  }
+
+  /**
+   * <p>
+   * Retrieve the current maximum lifetime <code>L</code> of items in the
+   * cache. Items that were loaded at least <code>L</code> periods ago will be
+   * removed from the cache at the end of the current period, even if they
+   * have been referenced recently.
+   * </p>
+   *
+   * @return The maximum lifetime of items in the cache, or <code>0</code> if
+   *         there is no maximum lifetime.
+   */
+
+  public BigInteger getMaximumLifetime()
+  {
+    return this.maximum_lifetime;
+  }
+
+  /**
+   * @return The maximum lifetime of items in the cache, saturated to
+   *         {@link Long#MAX_VALUE}, or <code>0</code> if there is no maximum
+   *         lifetime.
+   * @see #getMaximumLifetime()
+   */
+
+  public long getMaximumLifetimeLong()
+  {
+    return this.maximum_lifetime_long;
+  }
+
   /**
    * @return The maximum size of the cache, in units, or <code>0</code> if
    *         there is no maximum size.
@@ -217,12 +392,55 @@ import com.io7m.jranges.RangeCheck;
     return this.maximum_size;
   }
 
+  /**
+   * @return The maximum size of the cache, in units, saturated to
+   *         {@link Long#MAX_VALUE}, or <code>0</code> if there is no maximum
+   *         size.
+   */
+
+  public long getMaximumSizeLong()
+  {
+    return this.maximum_size_long;
+  }
+
+  /**
+   * <p>
+   * Retrieve the current number of refresh-ahead periods <code>R</code>.
+   * Items that are referenced during a period, and whose lifetime will end
+   * within <code>R</code> periods, are reloaded in the background and
+   * replaced with the reloaded value before the end of their lifetime.
+   * </p>
+   *
+   * @return The number of refresh-ahead periods, or <code>0</code> if
+   *         refresh-ahead is disabled.
+   * @see #getMaximumLifetime()
+   */
+
+  public BigInteger getRefreshAhead()
+  {
+    return this.refresh_ahead;
+  }
+
+  /**
+   * @return The number of refresh-ahead periods, saturated to
+   *         {@link Long#MAX_VALUE}, or <code>0</code> if refresh-ahead is
+   *         disabled.
+   * @see #getRefreshAhead()
+   */
+
+  public long getRefreshAheadLong()
+  {
+    return this.refresh_ahead_long;
+  }
+
   @Override public int hashCode()
   {
     final int prime = 31;
     int result = 1;
     result = (prime * result) + this.maximum_age.hashCode();
+    result = (prime * result) + this.maximum_lifetime.hashCode();
     result = (prime * result) + this.maximum_size.hashCode();
+    result = (prime * result) + this.refresh_ahead.hashCode();
     return result;
   }
 
@@ -233,6 +451,10 @@ import com.io7m.jranges.RangeCheck;
     builder2.append(this.maximum_size);
     builder2.append(" maximum_age=");
     builder2.append(this.maximum_age);
+    builder2.append(" maximum_lifetime=");
+    builder2.append(this.maximum_lifetime);
+    builder2.append(" refresh_ahead=");
+    builder2.append(this.refresh_ahead);
     builder2.append("]");
     return builder2.toString();
   }
@@ -16,20 +16,51 @@
 
 package com.io7m.jcache;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.io7m.jnull.NullCheck;
 import com.io7m.jnull.Nullable;
 
 /**
+ * <p>
  * A trivial implementation of the {@link PCacheType} interface.
+ * </p>
+ * <p>
+ * If the configuration specifies a number of refresh-ahead periods (see
+ * {@link PCacheConfig#getRefreshAhead()}), then at the end of each period,
+ * every item that was referenced during the period and whose lifetime will
+ * end within that number of periods is reloaded using the executor given to
+ * {@link #newCache(JCacheLoaderType, PCacheConfig, Executor)}. Reloaded
+ * values replace the existing values at the start of the next period, so
+ * that values returned during a period are never closed during that period;
+ * each replaced value is then closed with
+ * {@link JCacheLoaderType#cacheValueClose(Object)}. If a reload fails, the
+ * existing value is kept and is removed at the end of its lifetime as
+ * usual. If the executor runs tasks on other threads, the loader must be
+ * thread-safe.
+ * </p>
+ * <p>
+ * The contents of the cache can be saved and restored with
+ * {@link #cacheSnapshotWrite(Path, JCacheCodecType, JCacheCodecType)} and
+ * {@link #cacheSnapshotRestore(Path, JCacheCodecType, JCacheCodecType, Executor, int)}
+ * . Restored objects are treated as having been loaded and used in the
+ * current period.
+ * </p>
  *
  * @param <K>
  *          The type of keys
@@ -42,30 +73,39 @@ import com.io7m.jnull.Nullable;
  */
 
 public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> implements
-  PCacheType<K, TVIEW, TCACHE, E>
+  PCacheType<K, TVIEW, TCACHE, E>,
+  JCacheSnapshotType<K, TCACHE>
 {
   private static final class CachedValue<V>
   {
-    private final BigInteger size;
-    private final BigInteger time;
-    private final V          value;
+    private final long loaded;
+    private final long size;
+    private final long time;
+    private final V    value;
 
     public CachedValue(
       final V in_value,
-      final BigInteger in_time,
-      final BigInteger in_size)
+      final long in_time,
+      final long in_loaded,
+      final long in_size)
     {
       this.value = in_value;
       this.time = in_time;
+      this.loaded = in_loaded;
       this.size = in_size;
     }
 
-    public BigInteger getSize()
+    public long getLoaded()
+    {
+      return this.loaded;
+    }
+
+    public long getSize()
     {
       return this.size;
     }
 
-    public BigInteger getTime()
+    public long getTime()
     {
       return this.time;
     }
@@ -76,8 +116,74 @@ public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throw
     }
   }
 
+  private static final class Refreshed<K, V>
+  {
+    private final K           key;
+    private final @Nullable V value;
+
+    Refreshed(
+      final K in_key,
+      final @Nullable V in_value)
+    {
+      this.key = in_key;
+      this.value = in_value;
+    }
+
+    public K getKey()
+    {
+      return this.key;
+    }
+
+    public @Nullable V getValue()
+    {
+      return this.value;
+    }
+  }
+
+  private static final Executor DIRECT_EXECUTOR;
+
+  static {
+    DIRECT_EXECUTOR = new Executor() {
+      @Override public void execute(
+        final @Nullable Runnable r)
+      {
+        NullCheck.notNull(r, "Runnable").run();
+      }
+    };
+  }
+
+  private static <K> void cacheIndexAddKey(
+    final NavigableMap<Long, Set<K>> index,
+    final K key,
+    final long t)
+  {
+    final Long tk = Long.valueOf(t);
+    Set<K> keys = index.get(tk);
+    if (keys == null) {
+      keys = new HashSet<K>();
+      index.put(tk, keys);
+    }
+    keys.add(key);
+  }
+
+  private static <K> void cacheIndexRemoveKey(
+    final NavigableMap<Long, Set<K>> index,
+    final K key,
+    final long t)
+  {
+    final Long tk = Long.valueOf(t);
+    final Set<K> keys = index.get(tk);
+    assert keys != null;
+    assert keys.isEmpty() == false;
+    keys.remove(key);
+    if (keys.isEmpty()) {
+      index.remove(tk);
+    }
+  }
+
   /**
-   * Construct a new <tt>PCache</tt>.
+   * Construct a new <tt>PCache</tt>. Refreshes, if enabled, are performed
+   * synchronously by {@link #cachePeriodEnd()}.
    *
    * @param loader
    *          The class that will load instances when given keys
@@ -97,35 +203,88 @@ public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throw
 
   public static
     <K, TVIEW, TCACHE extends TVIEW, E extends Throwable>
-    PCacheType<K, TVIEW, TCACHE, E>
+    PCacheTrivial<K, TVIEW, TCACHE, E>
     newCache(
       final JCacheLoaderType<K, TCACHE, E> loader,
       final PCacheConfig config)
   {
-    return new PCacheTrivial<K, TVIEW, TCACHE, E>(loader, config);
+    return new PCacheTrivial<K, TVIEW, TCACHE, E>(
+      loader,
+      config,
+      PCacheTrivial.DIRECT_EXECUTOR);
   }
 
-  private final PCacheConfig                     config;
-  private @Nullable JCacheEventsType<K, TCACHE>  events;
-  private final Set<K>                           item_removals;
-  private final Map<K, CachedValue<TCACHE>>      items;
-  private final NavigableMap<BigInteger, Set<K>> items_by_time;
-  private final JCacheLoaderType<K, TCACHE, E>   loader;
-  private boolean                                period;
-  private BigInteger                             time;
-  private BigInteger                             used;
+  /**
+   * Construct a new <tt>PCache</tt> that performs refreshes, if enabled,
+   * using <code>executor</code>.
+   *
+   * @param loader
+   *          The class that will load instances when given keys
+   * @param config
+   *          The cache configuration
+   * @param executor
+   *          The executor used to reload items in the background. If the
+   *          executor rejects a refresh, the item is simply not refreshed in
+   *          that period.
+   * @return A new cache instance
+   *
+   * @param <K>
+   *          The type of keys
+   * @param <TVIEW>
+   *          The type of cached values, as visible to users of the cache
+   * @param <TCACHE>
+   *          The type of cached values, as visible to cache implementations
+   * @param <E>
+   *          The type of exceptions raised by the loader
+   */
+
+  public static
+    <K, TVIEW, TCACHE extends TVIEW, E extends Throwable>
+    PCacheTrivial<K, TVIEW, TCACHE, E>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, E> loader,
+      final PCacheConfig config,
+      final Executor executor)
+  {
+    return new PCacheTrivial<K, TVIEW, TCACHE, E>(loader, config, executor);
+  }
+
+  private final PCacheConfig                                 config;
+  private @Nullable JCacheEventsType<K, TCACHE>              events;
+  private final JCacheEvictionBatch<K, TCACHE>               evicting;
+  private final Set<K>                                       item_removals;
+  private final Map<K, CachedValue<TCACHE>>                  items;
+  private final NavigableMap<Long, Set<K>>                   items_by_load;
+  private final NavigableMap<Long, Set<K>>                   items_by_time;
+  private final JCacheLoaderType<K, TCACHE, E>               loader;
+  private final @Nullable JCacheLoaderLongType<K, TCACHE, E> loader_long;
+  private boolean                                            period;
+  private final Queue<Refreshed<K, TCACHE>>                  refresh_done;
+  private final Executor                                     refresh_executor;
+  private final Set<K>                                       refreshing;
+  private final JCacheStatisticsCounters                     statistics;
+  private long                                               time;
+  private long                                               used;
 
   private PCacheTrivial(
     final JCacheLoaderType<K, TCACHE, E> in_loader,
-    final PCacheConfig in_config)
+    final PCacheConfig in_config,
+    final Executor in_executor)
   {
     this.loader = NullCheck.notNull(in_loader, "Loader");
+    this.loader_long = JCacheAccounting.supportsLong(in_loader);
     this.config = NullCheck.notNull(in_config, "Configuration");
+    this.refresh_executor = NullCheck.notNull(in_executor, "Executor");
     this.items = new HashMap<K, CachedValue<TCACHE>>();
     this.item_removals = new HashSet<K>();
-    this.items_by_time = new TreeMap<BigInteger, Set<K>>();
-    this.used = BigInteger.ZERO;
-    this.time = BigInteger.ZERO;
+    this.items_by_time = new TreeMap<Long, Set<K>>();
+    this.items_by_load = new TreeMap<Long, Set<K>>();
+    this.refresh_done = new ConcurrentLinkedQueue<Refreshed<K, TCACHE>>();
+    this.refreshing = new HashSet<K>();
+    this.used = 0L;
+    this.statistics = new JCacheStatisticsCounters();
+    this.evicting = new JCacheEvictionBatch<K, TCACHE>();
+    this.time = 0L;
     this.period = false;
     this.events = null;
   }
@@ -133,16 +292,35 @@ public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throw
   private CachedValue<TCACHE> cacheAdd(
     final K key,
     final TCACHE new_value,
-    final BigInteger size)
+    final long size)
   {
-    this.used = this.used.add(size);
-    return this.cachePut(key, new_value, size);
+    this.used = JCacheAccounting.add(this.used, size);
+    return this.cachePut(key, new_value, size, this.time);
+  }
+
+  private void cacheClose(
+    final K key,
+    final CachedValue<TCACHE> existing)
+  {
+    try {
+      this.statistics.close(this.loader, existing.getValue());
+    } catch (final Throwable x) {
+      this.eventObjectCloseError(key, existing, x);
+    }
   }
 
   @Override public void cacheDelete()
   {
     this.item_removals.addAll(this.items.keySet());
     this.cachePerformRemovals();
+    this.evicting.flush(this.loader, this.statistics, this.events);
+
+    /**
+     * Any refreshes that have already completed are discarded (and their
+     * values closed), because their keys are no longer cached.
+     */
+
+    this.cacheRefreshApply();
   }
 
   @Override public void cacheEventsSubscribe(
@@ -159,34 +337,50 @@ public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throw
   private void cacheEvictItems()
   {
     this.cacheEvictItemsByAgeIfNecessary();
+    this.cacheEvictItemsByLifetimeIfNecessary();
     this.cacheEvictItemsBySizeIfNecessary();
+    this.evicting.flush(this.loader, this.statistics, this.events);
   }
 
   private void cacheEvictItemsByAgeIfNecessary()
   {
-    if (this.config.getMaximumAge().compareTo(BigInteger.ZERO) > 0) {
-      final BigInteger minimum =
-        this.time.subtract(this.config.getMaximumAge());
-      final NavigableMap<BigInteger, Set<K>> head =
+    final long maximum = this.config.getMaximumAgeLong();
+    if (maximum > 0L) {
+      final Long minimum = Long.valueOf(this.time - maximum);
+      final NavigableMap<Long, Set<K>> head =
         this.items_by_time.headMap(minimum, true);
-      for (final Entry<BigInteger, Set<K>> e : head.entrySet()) {
+      for (final Entry<Long, Set<K>> e : head.entrySet()) {
         this.item_removals.addAll(e.getValue());
       }
-      this.cachePerformRemovals();
+      this.cachePerformEvictions();
+    }
+  }
+
+  private void cacheEvictItemsByLifetimeIfNecessary()
+  {
+    final long maximum = this.config.getMaximumLifetimeLong();
+    if (maximum > 0L) {
+      final Long minimum = Long.valueOf(this.time - maximum);
+      final NavigableMap<Long, Set<K>> head =
+        this.items_by_load.headMap(minimum, true);
+      for (final Entry<Long, Set<K>> e : head.entrySet()) {
+        this.item_removals.addAll(e.getValue());
+      }
+      this.cachePerformEvictions();
     }
   }
 
   private void cacheEvictItemsBySizeIfNecessary()
   {
-    final BigInteger maximum = this.config.getMaximumSize();
-    if (maximum.compareTo(BigInteger.ZERO) > 0) {
-      while (this.used.compareTo(maximum) > 0) {
+    final long maximum = this.config.getMaximumSizeLong();
+    if (maximum > 0L) {
+      while (this.used > maximum) {
         final Set<K> keys =
           this.items_by_time.get(this.items_by_time.firstKey());
         assert keys.isEmpty() == false;
         final K k = keys.iterator().next();
         this.item_removals.add(k);
-        this.cachePerformRemovals();
+        this.cachePerformEvictions();
       }
     }
   }
@@ -202,29 +396,32 @@ public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throw
     this.checkOverflow();
 
     try {
-      new_value = this.loader.cacheValueLoad(key);
+      new_value = this.statistics.load(this.loader, key);
       this.checkLoaderReturnForNull(key, new_value);
 
-      final BigInteger size = this.loader.cacheValueSizeOf(new_value);
+      final long size =
+        JCacheAccounting.sizeOf(this.loader, this.loader_long, new_value);
       this.eventObjectLoaded(key, new_value, size);
 
-      if (size.compareTo(BigInteger.ONE) < 0) {
+      if (size < 1L) {
         throw JCacheException.errorObjectTooSmall(key, size);
       }
 
-      final BigInteger maximum = this.config.getMaximumSize();
-      if (maximum.compareTo(BigInteger.ZERO) > 0) {
-        if (size.compareTo(maximum) > 0) {
+      final long maximum = this.config.getMaximumSizeLong();
+      if (maximum > 0L) {
+        if (size > maximum) {
           throw JCacheException.errorObjectTooLarge(key, size, maximum);
         }
       }
 
+      JCacheAccounting.checkAdd(this.used, size);
+
       failed = false;
       return this.cacheAdd(key, new_value, size);
     } finally {
       if (failed) {
         if (new_value != null) {
-          this.loader.cacheValueClose(new_value);
+          this.statistics.close(this.loader, new_value);
         }
       }
     }
@@ -235,15 +432,20 @@ public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throw
     throws E,
       JCacheException
   {
-    NullCheck.notNull(key, "Key");
+    final long start = this.statistics.requestStarted();
+    try {
+      NullCheck.notNull(key, "Key");
 
-    if (this.period == false) {
-      throw new IllegalStateException("Period is not in progress");
-    }
+      if (this.period == false) {
+        throw new IllegalStateException("Period is not in progress");
+      }
 
-    final CachedValue<TCACHE> cv = this.pcCacheGetActual(key);
-    this.eventObjectRetrieved(key, cv);
-    return cv.getValue();
+      final CachedValue<TCACHE> cv = this.pcCacheGetActual(key);
+      this.eventObjectRetrieved(key, cv);
+      return cv.getValue();
+    } finally {
+      this.statistics.requestFinished(start);
+    }
   }
 
   private CachedValue<TCACHE> cacheGetReplace(
@@ -251,7 +453,8 @@ public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throw
   {
     final CachedValue<TCACHE> v = this.items.get(key);
     this.cacheTimeRemoveKey(key, v.getTime());
-    return this.cachePut(key, v.getValue(), v.getSize());
+    this.cacheLoadRemoveKey(key, v.getLoaded());
+    return this.cachePut(key, v.getValue(), v.getSize(), v.getLoaded());
   }
 
   @Override public boolean cacheIsCached(
@@ -266,6 +469,27 @@ public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throw
     return BigInteger.valueOf(this.items.size());
   }
 
+  @Override public long cacheItemCountLong()
+  {
+    return this.items.size();
+  }
+
+  private void cacheLoadRemoveKey(
+    final K key,
+    final long t)
+  {
+    PCacheTrivial.cacheIndexRemoveKey(this.items_by_load, key, t);
+  }
+
+  private void cachePerformEvictions()
+  {
+    for (final K key : this.item_removals) {
+      this.statistics.evicted(this.items.get(key).getSize());
+    }
+
+    this.cachePerformRemovals();
+  }
+
   private void cachePerformRemovals()
   {
     for (final K key : this.item_removals) {
@@ -282,8 +506,17 @@ public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throw
         "Period has already ended (or has not begun)");
     }
 
+    final @Nullable Object flight = JCacheFlightRecorder.periodEndStarted();
+    final long count = this.items.size();
+
     this.period = false;
-    this.cacheEvictItems();
+    try {
+      this.cacheRefreshSchedule();
+    } finally {
+      this.cacheEvictItems();
+    }
+
+    JCacheFlightRecorder.periodEndFinished(flight, count - this.items.size());
   }
 
   @Override public void cachePeriodStart()
@@ -293,62 +526,260 @@ public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throw
     }
 
     this.period = true;
-    this.time = this.time.add(BigInteger.ONE);
+    ++this.time;
+
+    /**
+     * Completed refreshes are applied before any values are returned during
+     * the new period. Replacing values may exceed the maximum size.
+     */
+
+    this.cacheRefreshApply();
+    this.cacheEvictItemsBySizeIfNecessary();
+    this.evicting.flush(this.loader, this.statistics, this.events);
   }
 
   private CachedValue<TCACHE> cachePut(
     final K key,
     final TCACHE value,
-    final BigInteger size)
+    final long size,
+    final long loaded)
   {
     final CachedValue<TCACHE> cv =
-      new CachedValue<TCACHE>(value, this.time, size);
+      new CachedValue<TCACHE>(value, this.time, loaded, size);
     this.items.put(key, cv);
+    PCacheTrivial.cacheIndexAddKey(this.items_by_time, key, this.time);
+    PCacheTrivial.cacheIndexAddKey(this.items_by_load, key, loaded);
+    return cv;
+  }
 
-    Set<K> keys;
-    if (this.items_by_time.containsKey(this.time)) {
-      keys = this.items_by_time.get(this.time);
-    } else {
-      keys = new HashSet<K>();
-      this.items_by_time.put(this.time, keys);
-    }
-    keys.add(key);
+  private void cacheRefreshApply()
+  {
+    while (true) {
+      final Refreshed<K, TCACHE> r = this.refresh_done.poll();
+      if (r == null) {
+        return;
+      }
 
-    return cv;
+      this.refreshing.remove(r.getKey());
+      final TCACHE new_value = r.getValue();
+      if (new_value != null) {
+        this.cacheRefreshReplace(r.getKey(), new_value);
+      }
+    }
   }
 
-  private void cacheRemove(
+  private void cacheRefreshReplace(
     final K key,
-    final CachedValue<TCACHE> existing)
+    final TCACHE new_value)
   {
-    this.eventObjectEvicted(key, existing);
+    long size = 0L;
+    boolean failed = true;
+
     try {
-      this.loader.cacheValueClose(existing.getValue());
-    } catch (final Throwable x) {
-      this.eventObjectCloseError(key, existing, x);
+      size = JCacheAccounting.sizeOf(this.loader, this.loader_long, new_value);
+      this.eventObjectLoaded(key, new_value, size);
+
+      /**
+       * The refreshed value is discarded if the item has been removed in
+       * the meantime, or if it can no longer be cached.
+       */
+
+      final CachedValue<TCACHE> existing = this.items.get(key);
+      if ((existing != null) && this.cacheRefreshSizeAcceptable(size)) {
+        JCacheAccounting.checkAdd(this.used - existing.getSize(), size);
+        this.cacheTimeRemoveKey(key, existing.getTime());
+        this.cacheLoadRemoveKey(key, existing.getLoaded());
+        this.used = (this.used - existing.getSize()) + size;
+
+        final CachedValue<TCACHE> cv =
+          new CachedValue<TCACHE>(
+            new_value,
+            existing.getTime(),
+            this.time,
+            size);
+        this.items.put(key, cv);
+        PCacheTrivial.cacheIndexAddKey(this.items_by_time, key, cv.getTime());
+        PCacheTrivial.cacheIndexAddKey(this.items_by_load, key, this.time);
+        failed = false;
+
+        this.eventObjectEvicted(key, existing);
+        this.cacheClose(key, existing);
+      }
+    } catch (final JCacheException x) {
+      // Discard the refreshed value
+    } finally {
+      if (failed) {
+        this.cacheClose(key, new CachedValue<TCACHE>(new_value, 0L, 0L, size));
+      }
     }
+  }
+
+  private void cacheRefreshSchedule()
+  {
+    final long ahead = this.config.getRefreshAheadLong();
+    if (ahead > 0L) {
+      final Set<K> referenced = this.items_by_time.get(Long.valueOf(this.time));
+      if (referenced != null) {
+        final long lifetime = this.config.getMaximumLifetimeLong();
+        final long expiring = this.time - lifetime;
+        final long window = expiring + ahead;
+
+        for (final K key : referenced) {
+          final long loaded = this.items.get(key).getLoaded();
+          if ((loaded > expiring) && (loaded <= window)) {
+            this.cacheRefreshStart(key);
+          }
+        }
+      }
+    }
+  }
 
+  private boolean cacheRefreshSizeAcceptable(
+    final long size)
+  {
+    if (size < 1L) {
+      return false;
+    }
+    final long maximum = this.config.getMaximumSizeLong();
+    return (maximum == 0L) || (size <= maximum);
+  }
+
+  private void cacheRefreshStart(
+    final K key)
+  {
+    if (this.refreshing.add(key)) {
+      final JCacheLoaderType<K, TCACHE, E> l = this.loader;
+      final JCacheStatisticsCounters s = this.statistics;
+      final Queue<Refreshed<K, TCACHE>> done = this.refresh_done;
+
+      try {
+        this.refresh_executor.execute(new Runnable() {
+          @Override public void run()
+          {
+            TCACHE v = null;
+            try {
+              v = s.load(l, key);
+            } catch (final Throwable x) {
+              v = null;
+            }
+            done.add(new Refreshed<K, TCACHE>(key, v));
+          }
+        });
+      } catch (final RejectedExecutionException x) {
+
+        /**
+         * The refresh will never complete, so the key must not be left
+         * marked as refreshing, or it could never be refreshed again.
+         */
+
+        this.refreshing.remove(key);
+      }
+    }
+  }
+
+  private void cacheRemove(
+    final K key,
+    final CachedValue<TCACHE> existing)
+  {
+    this.evicting.add(key, existing.getValue(), existing.getSize());
     this.cacheTimeRemoveKey(key, existing.getTime());
+    this.cacheLoadRemoveKey(key, existing.getLoaded());
     this.items.remove(key);
-    this.used = this.used.subtract(existing.getSize());
+    this.used = this.used - existing.getSize();
+  }
+
+  @Override public long cacheSnapshotRestore(
+    final Path file,
+    final JCacheCodecType<K> keys,
+    final @Nullable JCacheCodecType<TCACHE> values,
+    final Executor executor,
+    final int parallelism)
+    throws IOException
+  {
+    final List<JCacheSnapshots.Entry<K>> entries =
+      JCacheSnapshots.read(file, keys);
+    final List<JCacheSnapshots.Entry<K>> missing =
+      new ArrayList<JCacheSnapshots.Entry<K>>(entries.size());
+    final Set<K> seen = new HashSet<K>(entries.size());
+    for (final JCacheSnapshots.Entry<K> e : entries) {
+      final K key = e.getKey();
+      if ((this.items.containsKey(key) == false) && seen.add(key)) {
+        missing.add(e);
+      }
+    }
+
+    final long maximum = this.config.getMaximumSizeLong();
+    final long budget =
+      (maximum > 0L) ? maximum - this.used : Long.MAX_VALUE - this.used;
+
+    final List<JCacheSnapshots.Item<K, TCACHE>> restored =
+      JCacheSnapshots.restore(
+        missing,
+        this.loader,
+        this.loader_long,
+        values,
+        executor,
+        parallelism,
+        budget);
+
+    for (final JCacheSnapshots.Item<K, TCACHE> i : restored) {
+      this.eventObjectLoaded(i.getKey(), i.getValue(), i.getSize());
+      this.cacheAdd(i.getKey(), i.getValue(), i.getSize());
+    }
+    return restored.size();
+  }
+
+  @Override public long cacheSnapshotWrite(
+    final Path file,
+    final JCacheCodecType<K> keys,
+    final @Nullable JCacheCodecType<TCACHE> values)
+    throws IOException
+  {
+    final List<JCacheSnapshots.Item<K, TCACHE>> entries =
+      new ArrayList<JCacheSnapshots.Item<K, TCACHE>>(this.items.size());
+    for (final Set<K> group : this.items_by_time.descendingMap().values()) {
+      for (final K key : group) {
+        final CachedValue<TCACHE> cv = this.items.get(key);
+        entries.add(new JCacheSnapshots.Item<K, TCACHE>(
+          key,
+          cv.getValue(),
+          cv.getSize()));
+      }
+    }
+    return JCacheSnapshots.write(file, keys, values, entries);
   }
 
   @Override public BigInteger cacheSize()
+  {
+    return BigInteger.valueOf(this.used);
+  }
+
+  @Override public long cacheSizeLong()
   {
     return this.used;
   }
 
+  @Override public JCacheStatistics cacheStatistics()
+  {
+    return this.statistics.snapshot();
+  }
+
+  @Override public void cacheStatisticsReset()
+  {
+    this.statistics.reset();
+  }
+
+  @Override public void cacheStatisticsSetHistogramsEnabled(
+    final boolean enabled)
+  {
+    this.statistics.setHistogramsEnabled(enabled);
+  }
+
   private void cacheTimeRemoveKey(
     final K key,
-    final BigInteger t)
+    final long t)
   {
-    final Set<K> time_keys = this.items_by_time.get(t);
-    assert time_keys != null;
-    assert time_keys.isEmpty() == false;
-    time_keys.remove(key);
-    if (time_keys.isEmpty()) {
-      this.items_by_time.remove(t);
-    }
+    PCacheTrivial.cacheIndexRemoveKey(this.items_by_time, key, t);
   }
 
   private void checkLoaderReturnForNull(
@@ -379,7 +810,7 @@ public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throw
         this.events.cacheEventValueCloseError(
           key,
           existing.getValue(),
-          existing.getSize(),
+          BigInteger.valueOf(existing.getSize()),
           x);
       } catch (final Throwable _) {
         // Ignore
@@ -396,7 +827,7 @@ public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throw
         this.events.cacheEventValueEvicted(
           key,
           existing.getValue(),
-          existing.getSize());
+          BigInteger.valueOf(existing.getSize()));
       } catch (final Throwable _) {
         // Ignore
       }
@@ -406,11 +837,14 @@ public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throw
   private void eventObjectLoaded(
     final K key,
     final TCACHE new_value,
-    final BigInteger size)
+    final long size)
   {
     if (this.events != null) {
       try {
-        this.events.cacheEventValueLoaded(key, new_value, size);
+        this.events.cacheEventValueLoaded(
+          key,
+          new_value,
+          BigInteger.valueOf(size));
       } catch (final Throwable _) {
         // Ignore
       }
@@ -423,8 +857,10 @@ public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throw
   {
     if (this.events != null) {
       try {
-        this.events
-          .cacheEventValueRetrieved(key, cv.getValue(), cv.getSize());
+        this.events.cacheEventValueRetrieved(
+          key,
+          cv.getValue(),
+          BigInteger.valueOf(cv.getSize()));
       } catch (final Throwable _) {
         // Ignore
       }
@@ -437,9 +873,11 @@ public final class PCacheTrivial<K, TVIEW, TCACHE extends TVIEW, E extends Throw
       JCacheException
   {
     if (this.cacheIsCached(key)) {
+      this.statistics.hit();
       return this.cacheGetReplace(key);
     }
 
+    this.statistics.miss();
     return this.cacheGetAddingNew(key);
   }
 }
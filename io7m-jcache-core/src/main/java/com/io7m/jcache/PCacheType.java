@@ -46,7 +46,8 @@ package com.io7m.jcache;
 public interface PCacheType<K, TVIEW, TCACHE extends TVIEW, E extends Throwable> extends
   JCacheReadableType<K>,
   JCacheDeletableType,
-  JCacheEventsSubscriptionType<K, TCACHE>
+  JCacheEventsSubscriptionType<K, TCACHE>,
+  JCacheStatisticsType
 {
   /**
    * <p>
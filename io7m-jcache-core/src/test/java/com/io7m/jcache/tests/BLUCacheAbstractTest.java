@@ -30,6 +30,7 @@ import com.io7m.jcache.BLUCacheReceiptType;
 import com.io7m.jcache.BLUCacheType;
 import com.io7m.jcache.JCacheEventsType;
 import com.io7m.jcache.JCacheException;
+import com.io7m.jcache.JCacheStatistics;
 import com.io7m.jnull.NonNull;
 
 public class BLUCacheAbstractTest
@@ -132,6 +133,40 @@ public class BLUCacheAbstractTest
             Assert.assertFalse(calls.get(10));
             calls.set(10);
           }
+
+          @Override public long cacheItemCountLong()
+          {
+            Assert.assertFalse(calls.get(11));
+            calls.set(11);
+            return 1L;
+          }
+
+          @Override public long cacheSizeLong()
+          {
+            Assert.assertFalse(calls.get(12));
+            calls.set(12);
+            return 1L;
+          }
+
+          @Override public JCacheStatistics cacheStatistics()
+          {
+            Assert.assertFalse(calls.get(13));
+            calls.set(13);
+            return TestUtilities.actuallyNull();
+          }
+
+          @Override public void cacheStatisticsReset()
+          {
+            Assert.assertFalse(calls.get(14));
+            calls.set(14);
+          }
+
+          @Override public void cacheStatisticsSetHistogramsEnabled(
+            final boolean enabled)
+          {
+            Assert.assertFalse(calls.get(15));
+            calls.set(15);
+          }
         });
 
     c.cacheSize();
@@ -146,8 +181,13 @@ public class BLUCacheAbstractTest
     c.cacheDelete();
     c.cacheGetConfiguration();
     c.cacheSetConfiguration(BLUCacheConfig.empty());
+    c.cacheItemCountLong();
+    c.cacheSizeLong();
+    c.cacheStatistics();
+    c.cacheStatisticsReset();
+    c.cacheStatisticsSetHistogramsEnabled(true);
 
-    for (int index = 0; index <= 10; ++index) {
+    for (int index = 0; index <= 15; ++index) {
       Assert.assertTrue(calls.get(index));
     }
   }
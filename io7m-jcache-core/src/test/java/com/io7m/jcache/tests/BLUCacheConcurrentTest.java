@@ -0,0 +1,1081 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcache.BLUCacheConcurrent;
+import com.io7m.jcache.BLUCacheConfig;
+import com.io7m.jcache.BLUCacheReceiptType;
+import com.io7m.jcache.JCacheException;
+import com.io7m.jcache.JCacheException.JCacheExceptionTooManyBorrows;
+import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
+
+@SuppressWarnings("static-method") public final class BLUCacheConcurrentTest
+{
+  private static void awaitBlocked(
+    final Thread t)
+    throws InterruptedException
+  {
+    for (;;) {
+      final Thread.State s = t.getState();
+      if ((s == Thread.State.WAITING) || (s == Thread.State.TIMED_WAITING)) {
+        return;
+      }
+      Thread.sleep(1L);
+    }
+  }
+
+  private static BLUCacheConfig newConfig(
+    final long capacity,
+    final long max_borrows)
+  {
+    return BLUCacheConfig
+      .empty()
+      .withMaximumCapacity(BigInteger.valueOf(capacity))
+      .withMaximumBorrowsPerKey(BigInteger.valueOf(max_borrows));
+  }
+
+  private static Thread startBorrower(
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache,
+    final String key,
+    final List<String> order,
+    final String name,
+    final AtomicReference<Throwable> error)
+  {
+    final Thread t = new Thread(new Runnable() {
+      @Override public void run()
+      {
+        try {
+          final BLUCacheReceiptType<String, Long> r =
+            cache.bluCacheGetWaiting(key, 10L, TimeUnit.SECONDS);
+          order.add(name);
+          r.returnToCache();
+        } catch (final Throwable x) {
+          error.set(x);
+        }
+      }
+    });
+    t.start();
+    return t;
+  }
+
+  /**
+   * Asynchronous borrows of an available object complete immediately.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncAvailable()
+    throws Exception
+  {
+    final LUCacheLoaderAsync<String> loader = new LUCacheLoaderAsync<String>();
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCache(loader, BLUCacheConcurrentTest.newConfig(
+        8L,
+        1L));
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("a");
+    r0.returnToCache();
+
+    final CompletableFuture<BLUCacheReceiptType<String, Long>> f =
+      cache.bluCacheGetAsync("a");
+    Assert.assertTrue(f.isDone());
+    Assert.assertSame(r0.getValue(), f.get().getValue());
+    Assert.assertEquals(1L, loader.getLoads());
+    Assert.assertEquals(1L, cache.cacheStatistics().getHits());
+  }
+
+  /**
+   * Asynchronous borrows of a key with no available objects load a new
+   * object with the asynchronous loader, or with the synchronous loader on
+   * another thread.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncLoad()
+    throws Exception
+  {
+    final LUCacheLoaderAsync<String> loader = new LUCacheLoaderAsync<String>();
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCache(loader, BLUCacheConcurrentTest.newConfig(
+        8L,
+        1L));
+
+    final CompletableFuture<BLUCacheReceiptType<String, Long>> f =
+      cache.bluCacheGetAsync("a");
+    Assert.assertFalse(f.isDone());
+    Assert.assertTrue(loader.isPending("a"));
+    loader.complete("a", 23L);
+
+    Assert.assertEquals(Long.valueOf(23L), f.get().getValue());
+    Assert.assertTrue(cache.cacheIsBorrowed("a"));
+    Assert.assertEquals(1L, cache.cacheItemCountLong());
+    f.get().returnToCache();
+    Assert.assertTrue(cache.cacheIsAvailable("a"));
+
+    final LUCacheLoaderCounting<String> loader_sync =
+      new LUCacheLoaderCounting<String>();
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache_sync =
+      BLUCacheConcurrent.newCache(
+        loader_sync,
+        BLUCacheConcurrentTest.newConfig(8L, 1L));
+    Assert.assertEquals(
+      Long.valueOf(1L),
+      cache_sync.bluCacheGetAsync("a").get().getValue());
+    Assert.assertEquals(1L, loader_sync.getLoads());
+  }
+
+  /**
+   * A failed asynchronous load is reported through the future, and does not
+   * count against the borrowing limit of the key.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncLoadFailure()
+    throws Exception
+  {
+    final LUCacheLoaderAsync<String> loader = new LUCacheLoaderAsync<String>();
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCache(loader, BLUCacheConcurrentTest.newConfig(
+        8L,
+        1L));
+
+    final CompletableFuture<BLUCacheReceiptType<String, Long>> f0 =
+      cache.bluCacheGetAsync("a");
+    final CompletableFuture<BLUCacheReceiptType<String, Long>> f1 =
+      cache.bluCacheGetAsync("a");
+    Assert.assertFalse(f1.isDone());
+
+    loader.fail("a");
+    try {
+      f0.get();
+      Assert.fail();
+    } catch (final ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof Failure);
+    }
+
+    /**
+     * The waiting caller takes over the reservation of the failed load.
+     */
+
+    Assert.assertFalse(f1.isDone());
+    Assert.assertTrue(loader.isPending("a"));
+    loader.complete("a", 23L);
+    Assert.assertEquals(Long.valueOf(23L), f1.get().getValue());
+    Assert.assertEquals(1L, cache.cacheStatistics().getLoadFailures());
+  }
+
+  /**
+   * Asynchronous borrows of a key that has reached its limit complete when
+   * objects are returned, in the order in which they were made.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncWaiting()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCache(loader, BLUCacheConcurrentTest.newConfig(
+        8L,
+        1L));
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("a");
+    final CompletableFuture<BLUCacheReceiptType<String, Long>> f1 =
+      cache.bluCacheGetAsync("a");
+    final CompletableFuture<BLUCacheReceiptType<String, Long>> f2 =
+      cache.bluCacheGetAsync("a");
+    Assert.assertFalse(f1.isDone());
+    Assert.assertFalse(f2.isDone());
+
+    r0.returnToCache();
+    Assert.assertTrue(f1.isDone());
+    Assert.assertFalse(f2.isDone());
+    Assert.assertSame(r0.getValue(), f1.get().getValue());
+
+    f1.get().returnToCache();
+    Assert.assertTrue(f2.isDone());
+    Assert.assertSame(r0.getValue(), f2.get().getValue());
+    Assert.assertFalse(cache.cacheIsAvailable("a"));
+
+    f2.get().returnToCache();
+    Assert.assertTrue(cache.cacheIsAvailable("a"));
+    Assert.assertEquals(1L, loader.getLoads());
+  }
+
+  /**
+   * Cancelled asynchronous borrows are skipped, and objects delivered to
+   * futures that have already completed are returned to the cache.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncCancelled()
+    throws Exception
+  {
+    final LUCacheLoaderAsync<String> loader = new LUCacheLoaderAsync<String>();
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCacheWithBorrowLimit(
+        loader,
+        BLUCacheConcurrentTest.newConfig(8L, 1L),
+        2);
+
+    final CompletableFuture<BLUCacheReceiptType<String, Long>> f0 =
+      cache.bluCacheGetAsync("a");
+    final CompletableFuture<BLUCacheReceiptType<String, Long>> f1 =
+      cache.bluCacheGetAsync("a");
+    f0.cancel(false);
+    f1.cancel(false);
+
+    loader.complete("a", 23L);
+    Assert.assertTrue(cache.cacheIsAvailable("a"));
+    Assert.assertFalse(cache.cacheIsBorrowed("a"));
+
+    /**
+     * Both permits were released.
+     */
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("a");
+    final BLUCacheReceiptType<String, Long> r1 = cache.bluCacheGet("b");
+    Assert.assertEquals(Long.valueOf(23L), r0.getValue());
+    r0.returnToCache();
+    r1.returnToCache();
+  }
+
+  /**
+   * Asynchronous borrows fail immediately if the global limit has been
+   * reached.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncGlobalLimit()
+    throws Exception
+  {
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCacheWithBorrowLimit(
+        new LUCacheLoaderCounting<String>(),
+        BLUCacheConcurrentTest.newConfig(8L, 0L),
+        1);
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("a");
+    final CompletableFuture<BLUCacheReceiptType<String, Long>> f =
+      cache.bluCacheGetAsync("b");
+    Assert.assertTrue(f.isCompletedExceptionally());
+    try {
+      f.get();
+      Assert.fail();
+    } catch (final ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof JCacheExceptionTooManyBorrows);
+    }
+    r0.returnToCache();
+  }
+
+  /**
+   * Deleting the cache makes waiting asynchronous borrows start again.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncDeleteWaiting()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCache(loader, BLUCacheConcurrentTest.newConfig(
+        8L,
+        1L));
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("a");
+    final CompletableFuture<BLUCacheReceiptType<String, Long>> f =
+      cache.bluCacheGetAsync("a");
+    Assert.assertFalse(f.isDone());
+
+    cache.cacheDelete();
+    Assert.assertEquals(Long.valueOf(2L), f.get().getValue());
+    r0.returnToCache();
+    f.get().returnToCache();
+    Assert.assertEquals(1L, loader.getCloses());
+    Assert.assertEquals(1L, cache.cacheItemCountLong());
+  }
+
+  /**
+   * Borrowing and returning behaves as it does for the trivial cache.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testBorrowReturn()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCache(loader, BLUCacheConcurrentTest.newConfig(
+        2L,
+        2L));
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("a");
+    Assert.assertTrue(cache.cacheIsBorrowed("a"));
+    Assert.assertFalse(cache.cacheIsAvailable("a"));
+    r0.returnToCache();
+    Assert.assertFalse(cache.cacheIsBorrowed("a"));
+    Assert.assertTrue(cache.cacheIsAvailable("a"));
+
+    final BLUCacheReceiptType<String, Long> r1 = cache.bluCacheGet("a");
+    Assert.assertSame(r0.getValue(), r1.getValue());
+    Assert.assertEquals(1L, loader.getLoads());
+    r1.returnToCache();
+
+    try {
+      r1.returnToCache();
+      Assert.fail();
+    } catch (final IllegalStateException e) {
+      // Expected
+    }
+
+    cache.bluCacheGet("b").returnToCache();
+    cache.bluCacheGet("c").returnToCache();
+    Assert.assertFalse(cache.cacheIsCached("a"));
+    Assert.assertEquals(2L, cache.cacheItemCountLong());
+    Assert.assertEquals(2L, cache.cacheSizeLong());
+    Assert.assertEquals(1L, loader.getCloses());
+    Assert.assertEquals(1L, cache.cacheStatistics().getEvictions());
+  }
+
+  /**
+   * Borrowing and returning the same object repeatedly does not disturb the
+   * eviction order, as for the trivial cache.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testEvictRetouched()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCache(loader, BLUCacheConcurrentTest.newConfig(
+        2L,
+        1L));
+
+    cache.bluCacheGet("key0").returnToCache();
+    cache.bluCacheGet("key0").returnToCache();
+    cache.bluCacheGet("key0").returnToCache();
+    cache.bluCacheGet("key1").returnToCache();
+    cache.bluCacheGet("key2").returnToCache();
+    Assert.assertFalse(cache.cacheIsCached("key0"));
+
+    cache.bluCacheGet("key0").returnToCache();
+    Assert.assertFalse(cache.cacheIsCached("key1"));
+    cache.bluCacheGet("key3").returnToCache();
+
+    Assert.assertTrue(cache.cacheIsCached("key0"));
+    Assert.assertFalse(cache.cacheIsCached("key2"));
+    Assert.assertTrue(cache.cacheIsCached("key3"));
+    Assert.assertEquals(2L, cache.cacheItemCountLong());
+    Assert.assertEquals(2L, cache.cacheSizeLong());
+    Assert.assertEquals(3L, loader.getCloses());
+  }
+
+  /**
+   * Borrowing an object of a key that has reached its limit fails
+   * immediately, unless the caller asked to wait.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testLimitImmediate()
+    throws Exception
+  {
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCache(
+        new LUCacheLoaderCounting<String>(),
+        BLUCacheConcurrentTest.newConfig(8L, 1L));
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("a");
+    try {
+      cache.bluCacheGet("a");
+      Assert.fail();
+    } catch (final JCacheExceptionTooManyBorrows e) {
+      // Expected
+    }
+
+    final long then = System.nanoTime();
+    try {
+      cache.bluCacheGetWaiting("a", 50L, TimeUnit.MILLISECONDS);
+      Assert.fail();
+    } catch (final JCacheExceptionTooManyBorrows e) {
+      Assert.assertTrue(System.nanoTime() - then >= 50000000L);
+    }
+
+    r0.returnToCache();
+    cache.bluCacheGetWaiting("a", 0L, TimeUnit.MILLISECONDS).returnToCache();
+    Assert.assertEquals(1L, cache.cacheItemCountLong());
+  }
+
+  /**
+   * Callers waiting for a key receive returned objects in the order in which
+   * they started waiting.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testWaitersFair()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCache(loader, BLUCacheConcurrentTest.newConfig(
+        8L,
+        1L));
+
+    final List<String> order =
+      Collections.synchronizedList(new ArrayList<String>());
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("a");
+    final Thread[] threads = new Thread[4];
+    for (int index = 0; index < threads.length; ++index) {
+      threads[index] =
+        BLUCacheConcurrentTest.startBorrower(
+          cache,
+          "a",
+          order,
+          Integer.toString(index),
+          error);
+      BLUCacheConcurrentTest.awaitBlocked(threads[index]);
+    }
+
+    r0.returnToCache();
+    for (final Thread t : threads) {
+      t.join();
+    }
+
+    Assert.assertNull(error.get());
+    Assert.assertEquals(
+      Arrays.asList("0", "1", "2", "3"),
+      order);
+    Assert.assertEquals(1L, loader.getLoads());
+    Assert.assertTrue(cache.cacheIsAvailable("a"));
+  }
+
+  /**
+   * Raising the limit of a key wakes waiting callers, which then load new
+   * objects.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testWaitersReconfigured()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCache(loader, BLUCacheConcurrentTest.newConfig(
+        8L,
+        1L));
+
+    final List<String> order =
+      Collections.synchronizedList(new ArrayList<String>());
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("a");
+    final Thread t = BLUCacheConcurrentTest.startBorrower(
+      cache,
+      "a",
+      order,
+      "waiter",
+      error);
+    BLUCacheConcurrentTest.awaitBlocked(t);
+
+    cache.cacheSetConfiguration(BLUCacheConcurrentTest.newConfig(8L, 2L));
+    t.join();
+
+    Assert.assertNull(error.get());
+    Assert.assertEquals(2L, loader.getLoads());
+    Assert.assertTrue(cache.cacheIsBorrowed("a"));
+    r0.returnToCache();
+  }
+
+  /**
+   * The global limit on borrowed objects applies across keys.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testGlobalLimit()
+    throws Exception
+  {
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCacheWithBorrowLimit(
+        new LUCacheLoaderCounting<String>(),
+        BLUCacheConcurrentTest.newConfig(8L, 0L),
+        2);
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("a");
+    final BLUCacheReceiptType<String, Long> r1 = cache.bluCacheGet("b");
+
+    try {
+      cache.bluCacheGet("c");
+      Assert.fail();
+    } catch (final JCacheExceptionTooManyBorrows e) {
+      // Expected
+    }
+    try {
+      cache.bluCacheGetWaiting("c", 10L, TimeUnit.MILLISECONDS);
+      Assert.fail();
+    } catch (final JCacheExceptionTooManyBorrows e) {
+      // Expected
+    }
+
+    final List<String> order =
+      Collections.synchronizedList(new ArrayList<String>());
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final Thread t = BLUCacheConcurrentTest.startBorrower(
+      cache,
+      "c",
+      order,
+      "c",
+      error);
+    BLUCacheConcurrentTest.awaitBlocked(t);
+    Assert.assertTrue(order.isEmpty());
+
+    r0.returnToCache();
+    t.join();
+    Assert.assertNull(error.get());
+    Assert.assertEquals(Collections.singletonList("c"), order);
+    r1.returnToCache();
+    Assert.assertEquals(3L, cache.cacheItemCountLong());
+  }
+
+  /**
+   * A place freed under the global limit goes to the caller already waiting
+   * for it, and callers that do not wait, including asynchronous callers,
+   * cannot take it first.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testGlobalLimitFair()
+    throws Exception
+  {
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCacheWithBorrowLimit(
+        new LUCacheLoaderCounting<String>(),
+        BLUCacheConcurrentTest.newConfig(8L, 0L),
+        1);
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("a");
+
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final Thread t = new Thread(new Runnable() {
+      @Override public void run()
+      {
+        try {
+          final BLUCacheReceiptType<String, Long> r =
+            cache.bluCacheGetWaiting("b", 10L, TimeUnit.SECONDS);
+          release.await();
+          r.returnToCache();
+        } catch (final Throwable x) {
+          error.set(x);
+        }
+      }
+    });
+    t.start();
+    BLUCacheConcurrentTest.awaitBlocked(t);
+
+    r0.returnToCache();
+    try {
+      cache.bluCacheGet("c");
+      Assert.fail();
+    } catch (final JCacheExceptionTooManyBorrows e) {
+      // Expected
+    }
+
+    final CompletableFuture<BLUCacheReceiptType<String, Long>> f =
+      cache.bluCacheGetAsync("d");
+    Assert.assertTrue(f.isDone());
+    try {
+      f.get();
+      Assert.fail();
+    } catch (final ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof JCacheExceptionTooManyBorrows);
+    }
+
+    release.countDown();
+    t.join();
+    Assert.assertNull(error.get());
+    Assert.assertTrue(cache.cacheIsAvailable("b"));
+    Assert.assertFalse(cache.cacheIsCached("c"));
+    Assert.assertFalse(cache.cacheIsCached("d"));
+  }
+
+  private static void borrowAndForget(
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache,
+    final String key)
+    throws Failure,
+      JCacheException
+  {
+    cache.bluCacheGet(key);
+  }
+
+  /**
+   * Tracked receipts that become unreachable are returned to the cache,
+   * releasing their share of the global borrowing limit.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testLeakReclaimed()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCacheWithBorrowLimit(
+        loader,
+        BLUCacheConcurrentTest.newConfig(8L, 0L).withLeakSamplingInterval(1L),
+        1);
+    final EventCountReceipts<String, Long> ec =
+      new EventCountReceipts<String, Long>();
+    cache.cacheEventsSubscribe(ec);
+
+    BLUCacheConcurrentTest.borrowAndForget(cache, "a");
+
+    BLUCacheReceiptType<String, Long> r = null;
+    for (int index = 0; index < 100; ++index) {
+      System.gc();
+      Thread.sleep(10L);
+      try {
+        r = cache.bluCacheGet("b");
+        break;
+      } catch (final JCacheExceptionTooManyBorrows e) {
+        // Not yet collected
+      }
+    }
+
+    Assert.assertNotNull(r);
+    Assert.assertEquals(1, ec.getLeaked());
+    Assert.assertFalse(cache.cacheIsBorrowed("a"));
+    Assert.assertTrue(cache.cacheIsAvailable("a"));
+    r.close();
+
+    try {
+      r.close();
+      Assert.fail();
+    } catch (final IllegalStateException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * A caller waiting on a key is served once a borrow of that key outlives
+   * the maximum lease time. The expired object is closed, and returning its
+   * receipt has no effect.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testLeaseExpiredWaiter()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCacheWithBorrowLimit(
+        loader,
+        BLUCacheConcurrentTest.newConfig(8L, 1L).withMaximumLeaseTime(
+          50L,
+          TimeUnit.MILLISECONDS),
+        1);
+    final EventCountReceipts<String, Long> ec =
+      new EventCountReceipts<String, Long>();
+    cache.cacheEventsSubscribe(ec);
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("a");
+    final BLUCacheReceiptType<String, Long> r1 =
+      cache.bluCacheGetWaiting("a", 5L, TimeUnit.SECONDS);
+
+    Assert.assertEquals(1, ec.getExpired());
+    Assert.assertEquals(2L, loader.getLoads());
+    Assert.assertEquals(1L, loader.getCloses());
+    Assert.assertNotSame(r0.getValue(), r1.getValue());
+
+    r0.returnToCache();
+    r0.close();
+    Assert.assertTrue(cache.cacheIsBorrowed("a"));
+
+    r1.returnToCache();
+    Assert.assertFalse(cache.cacheIsBorrowed("a"));
+    Assert.assertTrue(cache.cacheIsAvailable("a"));
+    Assert.assertEquals(1L, cache.cacheItemCountLong());
+  }
+
+  /**
+   * A lease expires on time even when it was started after leases that end
+   * later, because the maximum lease time was reduced in between.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testLeaseExpiredReconfigured()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final BLUCacheConfig config = BLUCacheConcurrentTest.newConfig(8L, 1L);
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCache(loader, config.withMaximumLeaseTime(
+        1L,
+        TimeUnit.HOURS));
+    final EventCountReceipts<String, Long> ec =
+      new EventCountReceipts<String, Long>();
+    cache.cacheEventsSubscribe(ec);
+
+    final BLUCacheReceiptType<String, Long> ra = cache.bluCacheGet("a");
+    cache.cacheSetConfiguration(config.withMaximumLeaseTime(
+      1L,
+      TimeUnit.MILLISECONDS));
+    cache.bluCacheGet("b");
+    Thread.sleep(10L);
+
+    cache.bluCacheGet("c").returnToCache();
+    Assert.assertEquals(1, ec.getExpired());
+    Assert.assertFalse(cache.cacheIsBorrowed("b"));
+    Assert.assertTrue(cache.cacheIsBorrowed("a"));
+    Assert.assertEquals(1L, loader.getCloses());
+
+    ra.returnToCache();
+    Assert.assertTrue(cache.cacheIsAvailable("a"));
+  }
+
+  /**
+   * Asynchronously borrowed receipts may be closed.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncClose()
+    throws Exception
+  {
+    final LUCacheLoaderAsync<String> loader = new LUCacheLoaderAsync<String>();
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCache(
+        loader,
+        BLUCacheConcurrentTest.newConfig(8L, 1L).withLeakSamplingInterval(1L));
+
+    final CompletableFuture<BLUCacheReceiptType<String, Long>> f =
+      cache.bluCacheGetAsync("a");
+    loader.complete("a", 23L);
+
+    try (final BLUCacheReceiptType<String, Long> r = f.get()) {
+      Assert.assertEquals(Long.valueOf(23L), r.getValue());
+      Assert.assertTrue(cache.cacheIsBorrowed("a"));
+    }
+    Assert.assertFalse(cache.cacheIsBorrowed("a"));
+    Assert.assertTrue(cache.cacheIsAvailable("a"));
+  }
+
+  /**
+   * Objects borrowed when the cache is deleted are closed immediately, and
+   * returning them has no effect. Callers waiting at the time are served
+   * with new objects.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testDeleteBorrowed()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final BLUCacheConcurrent<String, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCache(loader, BLUCacheConcurrentTest.newConfig(
+        8L,
+        1L));
+
+    final List<String> order =
+      Collections.synchronizedList(new ArrayList<String>());
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("a");
+    final Thread t = BLUCacheConcurrentTest.startBorrower(
+      cache,
+      "a",
+      order,
+      "waiter",
+      error);
+    BLUCacheConcurrentTest.awaitBlocked(t);
+
+    cache.cacheDelete();
+    Assert.assertEquals(1L, loader.getCloses());
+    t.join();
+    Assert.assertNull(error.get());
+
+    r0.returnToCache();
+    Assert.assertEquals(2L, loader.getLoads());
+    Assert.assertEquals(1L, loader.getCloses());
+    Assert.assertEquals(1L, cache.cacheItemCountLong());
+    Assert.assertTrue(cache.cacheIsAvailable("a"));
+  }
+
+  /**
+   * Many threads borrowing and returning overlapping keys leave the cache in
+   * a consistent state: limits are never exceeded, and every loaded value is
+   * either cached or closed.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testConcurrentConsistent()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<Integer> loader =
+      new LUCacheLoaderCounting<Integer>();
+    final BLUCacheConcurrent<Integer, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCacheWithBorrowLimit(
+        loader,
+        BLUCacheConfig
+          .empty()
+          .withMaximumCapacity(BigInteger.valueOf(32L))
+          .withMaximumBorrowsPerKey(BigInteger.valueOf(2L)),
+        6);
+
+    final int thread_count = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final Thread[] threads = new Thread[thread_count];
+
+    for (int t = 0; t < thread_count; ++t) {
+      final long seed = t;
+      threads[t] = new Thread(new Runnable() {
+        @Override public void run()
+        {
+          try {
+            final Random r = new Random(seed);
+            start.await();
+            for (int index = 0; index < 20000; ++index) {
+              final Integer key = Integer.valueOf(r.nextInt(48));
+              final BLUCacheReceiptType<Integer, Long> receipt =
+                cache.bluCacheGetWaiting(key, 10L, TimeUnit.SECONDS);
+              Assert.assertNotNull(receipt.getValue());
+              receipt.returnToCache();
+            }
+          } catch (final Throwable x) {
+            error.set(x);
+          }
+        }
+      });
+      threads[t].start();
+    }
+
+    start.countDown();
+    for (final Thread t : threads) {
+      t.join();
+    }
+
+    Assert.assertNull(error.get());
+    Assert.assertTrue(cache.cacheSizeLong() <= 32L);
+    Assert.assertEquals(cache.cacheItemCountLong(), cache.cacheSizeLong());
+    Assert.assertEquals(
+      loader.getLoads() - loader.getCloses(),
+      cache.cacheItemCountLong());
+
+    cache.cacheDelete();
+    Assert.assertEquals(0L, cache.cacheSizeLong());
+    Assert.assertEquals(0L, cache.cacheItemCountLong());
+    Assert.assertEquals(loader.getLoads(), loader.getCloses());
+  }
+
+  /**
+   * Borrowing and returning the objects of a single key, in varying order,
+   * while other keys force capacity evictions leaves the cache in a
+   * consistent state: eviction only ever removes the object it chose.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testConcurrentEvictSingleKey()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<Integer> loader =
+      new LUCacheLoaderCounting<Integer>();
+    final BLUCacheConcurrent<Integer, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCache(
+        loader,
+        BLUCacheConcurrentTest.newConfig(4L, 8L));
+
+    final int thread_count = 6;
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final Thread[] threads = new Thread[thread_count];
+    final Integer shared = Integer.valueOf(0);
+
+    for (int t = 0; t < thread_count; ++t) {
+      final int id = t;
+      threads[t] = new Thread(new Runnable() {
+        @Override public void run()
+        {
+          try {
+            final Random r = new Random(id);
+            start.await();
+            for (int index = 0; index < 20000; ++index) {
+              if ((id % 3) == 2) {
+                final Integer key = Integer.valueOf(1 + r.nextInt(8));
+                cache
+                  .bluCacheGetWaiting(key, 10L, TimeUnit.SECONDS)
+                  .returnToCache();
+                continue;
+              }
+
+              /**
+               * Return two objects of the same key in the opposite order to
+               * that in which they were borrowed, so that the order of the
+               * key's available objects keeps changing.
+               */
+
+              final BLUCacheReceiptType<Integer, Long> r0 =
+                cache.bluCacheGetWaiting(shared, 10L, TimeUnit.SECONDS);
+              final BLUCacheReceiptType<Integer, Long> r1 =
+                cache.bluCacheGetWaiting(shared, 10L, TimeUnit.SECONDS);
+              Assert.assertNotSame(r0.getValue(), r1.getValue());
+              if (r.nextBoolean()) {
+                r0.returnToCache();
+                r1.returnToCache();
+              } else {
+                r1.returnToCache();
+                r0.returnToCache();
+              }
+            }
+          } catch (final Throwable x) {
+            error.set(x);
+          }
+        }
+      });
+      threads[t].start();
+    }
+
+    start.countDown();
+    for (final Thread t : threads) {
+      t.join();
+    }
+
+    Assert.assertNull(error.get());
+    Assert.assertTrue(cache.cacheSizeLong() <= 4L);
+    Assert.assertEquals(cache.cacheItemCountLong(), cache.cacheSizeLong());
+    Assert.assertEquals(
+      loader.getLoads() - loader.getCloses(),
+      cache.cacheItemCountLong());
+
+    cache.cacheDelete();
+    Assert.assertEquals(0L, cache.cacheSizeLong());
+    Assert.assertEquals(0L, cache.cacheItemCountLong());
+    Assert.assertEquals(loader.getLoads(), loader.getCloses());
+  }
+
+  /**
+   * Mixing blocking and asynchronous borrows leaves the cache in a
+   * consistent state.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testConcurrentConsistentAsync()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<Integer> loader =
+      new LUCacheLoaderCounting<Integer>();
+    final BLUCacheConcurrent<Integer, Long, Long, Failure> cache =
+      BLUCacheConcurrent.newCache(
+        loader,
+        BLUCacheConcurrentTest.newConfig(32L, 2L));
+
+    final int thread_count = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final Thread[] threads = new Thread[thread_count];
+
+    for (int t = 0; t < thread_count; ++t) {
+      final long seed = t;
+      threads[t] = new Thread(new Runnable() {
+        @Override public void run()
+        {
+          try {
+            final Random r = new Random(seed);
+            start.await();
+            for (int index = 0; index < 20000; ++index) {
+              final Integer key = Integer.valueOf(r.nextInt(48));
+              final BLUCacheReceiptType<Integer, Long> receipt;
+              if ((index % 2) == 0) {
+                receipt = cache.bluCacheGetAsync(key).get();
+              } else {
+                receipt = cache.bluCacheGetWaiting(key, 10L, TimeUnit.SECONDS);
+              }
+              Assert.assertNotNull(receipt.getValue());
+              receipt.returnToCache();
+            }
+          } catch (final Throwable x) {
+            error.set(x);
+          }
+        }
+      });
+      threads[t].start();
+    }
+
+    start.countDown();
+    for (final Thread t : threads) {
+      t.join();
+    }
+
+    Assert.assertNull(error.get());
+    Assert.assertTrue(cache.cacheSizeLong() <= 32L);
+    Assert.assertEquals(cache.cacheItemCountLong(), cache.cacheSizeLong());
+    Assert.assertEquals(
+      loader.getLoads() - loader.getCloses(),
+      cache.cacheItemCountLong());
+
+    cache.cacheDelete();
+    Assert.assertEquals(0L, cache.cacheSizeLong());
+    Assert.assertEquals(0L, cache.cacheItemCountLong());
+    Assert.assertEquals(loader.getLoads(), loader.getCloses());
+  }
+}
@@ -18,6 +18,7 @@ package com.io7m.jcache.tests;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 
@@ -27,11 +28,14 @@ import org.junit.Test;
 import com.io7m.jcache.BLUCacheConfig;
 import com.io7m.jcache.BLUCacheReceiptType;
 import com.io7m.jcache.BLUCacheTrivial;
+import com.io7m.jcache.BLUCacheType;
 import com.io7m.jcache.JCacheEventsType;
 import com.io7m.jcache.JCacheException;
 import com.io7m.jcache.JCacheException.JCacheExceptionLoaderReturnedNull;
 import com.io7m.jcache.JCacheException.JCacheExceptionObjectTooLarge;
 import com.io7m.jcache.JCacheException.JCacheExceptionObjectTooSmall;
+import com.io7m.jcache.JCacheException.JCacheExceptionSizeOverflow;
+import com.io7m.jcache.JCacheStatistics;
 import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
 import com.io7m.jfunctional.Pair;
 
@@ -345,6 +349,134 @@ public class BLUCacheTrivialTest
     Assert.assertEquals(BigInteger.valueOf(4), cache.cacheItemCount());
   }
 
+  /**
+   * Regression test: borrowing and returning the same object repeatedly
+   * must not leave stale recency entries behind. Stale entries were later
+   * chosen for eviction, evicting the wrong object or failing with a
+   * {@link NullPointerException} when the entry's key had already gone.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testEvictRetouched()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+
+    final BLUCacheType<String, Long, Long, Failure> cache =
+      BLUCacheTrivial.newCache(
+        loader,
+        BLUCacheConfig
+          .empty()
+          .withMaximumCapacity(BigInteger.valueOf(2L))
+          .withMaximumBorrowsPerKey(BigInteger.ZERO));
+
+    cache.bluCacheGet("key0").returnToCache();
+    cache.bluCacheGet("key0").returnToCache();
+    cache.bluCacheGet("key0").returnToCache();
+    cache.bluCacheGet("key1").returnToCache();
+    cache.bluCacheGet("key2").returnToCache();
+    Assert.assertFalse(cache.cacheIsCached("key0"));
+
+    cache.bluCacheGet("key0").returnToCache();
+    Assert.assertFalse(cache.cacheIsCached("key1"));
+    cache.bluCacheGet("key3").returnToCache();
+
+    Assert.assertTrue(cache.cacheIsCached("key0"));
+    Assert.assertFalse(cache.cacheIsCached("key2"));
+    Assert.assertTrue(cache.cacheIsCached("key3"));
+    Assert.assertEquals(2L, cache.cacheItemCountLong());
+    Assert.assertEquals(2L, cache.cacheSizeLong());
+    Assert.assertEquals(3L, loader.getCloses());
+  }
+
+  @Test public void testEvictReturnOrder()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+
+    final BLUCacheType<String, Long, Long, Failure> cache =
+      BLUCacheTrivial.newCache(
+        loader,
+        BLUCacheConfig
+          .empty()
+          .withMaximumCapacity(BigInteger.valueOf(3L))
+          .withMaximumBorrowsPerKey(BigInteger.ZERO));
+
+    /**
+     * Available objects are evicted in the order in which they were
+     * returned, and borrowed objects are never evicted.
+     */
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("key0");
+    final BLUCacheReceiptType<String, Long> r1 = cache.bluCacheGet("key1");
+    final BLUCacheReceiptType<String, Long> r2 = cache.bluCacheGet("key2");
+    r1.returnToCache();
+    r2.returnToCache();
+
+    cache.bluCacheGet("key3").returnToCache();
+    Assert.assertFalse(cache.cacheIsCached("key1"));
+    Assert.assertTrue(cache.cacheIsBorrowed("key0"));
+    Assert.assertTrue(cache.cacheIsAvailable("key2"));
+
+    cache.bluCacheGet("key4").returnToCache();
+    Assert.assertFalse(cache.cacheIsCached("key2"));
+    Assert.assertTrue(cache.cacheIsBorrowed("key0"));
+
+    r0.returnToCache();
+    cache.bluCacheGet("key5").returnToCache();
+    Assert.assertFalse(cache.cacheIsCached("key3"));
+    Assert.assertTrue(cache.cacheIsAvailable("key0"));
+    Assert.assertTrue(cache.cacheIsAvailable("key4"));
+    Assert.assertTrue(cache.cacheIsAvailable("key5"));
+    Assert.assertEquals(3L, loader.getCloses());
+  }
+
+  @Test public void testEvictSameKey()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+
+    final BLUCacheType<String, Long, Long, Failure> cache =
+      BLUCacheTrivial.newCache(
+        loader,
+        BLUCacheConfig
+          .empty()
+          .withMaximumCapacity(BigInteger.valueOf(2L))
+          .withMaximumBorrowsPerKey(BigInteger.ZERO));
+
+    /**
+     * The most recently returned instance of a key is borrowed first, and
+     * the least recently returned instance is evicted first.
+     */
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("key0");
+    final BLUCacheReceiptType<String, Long> r1 = cache.bluCacheGet("key0");
+    Assert.assertEquals(Long.valueOf(1L), r0.getValue());
+    Assert.assertEquals(Long.valueOf(2L), r1.getValue());
+    r0.returnToCache();
+    r1.returnToCache();
+
+    final BLUCacheReceiptType<String, Long> r2 = cache.bluCacheGet("key0");
+    Assert.assertEquals(Long.valueOf(2L), r2.getValue());
+    r2.returnToCache();
+
+    cache.bluCacheGet("key1").returnToCache();
+    Assert.assertEquals(1L, loader.getCloses());
+
+    final BLUCacheReceiptType<String, Long> r3 = cache.bluCacheGet("key0");
+    Assert.assertEquals(Long.valueOf(2L), r3.getValue());
+    Assert.assertFalse(cache.cacheIsAvailable("key0"));
+    r3.returnToCache();
+    Assert.assertEquals(2L, cache.cacheItemCountLong());
+  }
+
   @Test(expected = JCacheExceptionLoaderReturnedNull.class) public
     void
     testLoaderReturnedNull()
@@ -403,6 +535,71 @@ public class BLUCacheTrivialTest
     pair.getRight().bluCacheGet("key0");
   }
 
+  @Test public void testLongAccounting()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    loader.setSize(3L);
+
+    final BLUCacheTrivial<String, Long, Long, Failure> cache =
+      BLUCacheTrivial.newCache(
+        loader,
+        BLUCacheConfig
+          .empty()
+          .withMaximumCapacity(BigInteger.valueOf(6L))
+          .withMaximumBorrowsPerKey(BigInteger.ZERO));
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("key0");
+    final BLUCacheReceiptType<String, Long> r1 = cache.bluCacheGet("key0");
+    final BLUCacheReceiptType<String, Long> r2 = cache.bluCacheGet("key1");
+
+    Assert.assertEquals(3L, cache.cacheItemCountLong());
+    Assert.assertEquals(9L, cache.cacheSizeLong());
+    Assert.assertEquals(BigInteger.valueOf(9L), cache.cacheSize());
+
+    r0.returnToCache();
+    r1.returnToCache();
+    r2.returnToCache();
+
+    Assert.assertEquals(2L, cache.cacheItemCountLong());
+    Assert.assertEquals(6L, cache.cacheSizeLong());
+    Assert.assertEquals(BigInteger.valueOf(2L), cache.cacheItemCount());
+    Assert.assertEquals(1L, loader.getCloses());
+    Assert.assertEquals(0L, loader.getSizeBigCalls());
+  }
+
+  @Test public void testLongSizeOverflow()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    loader.setSize(Long.MAX_VALUE);
+
+    final BLUCacheTrivial<String, Long, Long, Failure> cache =
+      BLUCacheTrivial.newCache(
+        loader,
+        BLUCacheConfig
+          .empty()
+          .withMaximumCapacity(BigInteger.ONE.shiftLeft(80))
+          .withMaximumBorrowsPerKey(BigInteger.ZERO));
+
+    cache.bluCacheGet("key0");
+
+    try {
+      cache.bluCacheGet("key0");
+      Assert.fail();
+    } catch (final JCacheExceptionSizeOverflow e) {
+      // Expected
+    }
+
+    Assert.assertEquals(1L, cache.cacheItemCountLong());
+    Assert.assertEquals(Long.MAX_VALUE, cache.cacheSizeLong());
+    Assert.assertEquals(1L, loader.getCloses());
+  }
+
   @Test public void testNew()
   {
     final Pair<LUCacheLoaderFaultInjectable<String, BigInteger>, BLUCacheTrivial<String, BigInteger, BigInteger, Failure>> pair =
@@ -434,4 +631,334 @@ public class BLUCacheTrivialTest
     r.returnToCache();
     r.returnToCache();
   }
+
+  /**
+   * Borrowing an available value is a hit; borrowing when no value is
+   * available is a miss.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testReceiptReused()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+
+    final BLUCacheType<String, Long, Long, Failure> cache =
+      BLUCacheTrivial.newCache(
+        loader,
+        BLUCacheConfig
+          .empty()
+          .withMaximumCapacity(BigInteger.valueOf(2L))
+          .withMaximumBorrowsPerKey(BigInteger.ONE));
+
+    /**
+     * Borrowing an available object hands out the receipt that was used for
+     * the previous borrow.
+     */
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("key0");
+    r0.returnToCache();
+    Assert.assertTrue(cache.cacheIsAvailable("key0"));
+
+    for (int index = 0; index < 100; ++index) {
+      final BLUCacheReceiptType<String, Long> r = cache.bluCacheGet("key0");
+      Assert.assertSame(r0, r);
+      Assert.assertTrue(cache.cacheIsBorrowed("key0"));
+      Assert.assertFalse(cache.cacheIsAvailable("key0"));
+      r.returnToCache();
+      Assert.assertFalse(cache.cacheIsBorrowed("key0"));
+      Assert.assertTrue(cache.cacheIsAvailable("key0"));
+    }
+
+    Assert.assertEquals(1L, loader.getLoads());
+    Assert.assertEquals(1L, cache.cacheItemCountLong());
+  }
+
+  @Test public void testReturnAfterDelete()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+
+    final BLUCacheType<String, Long, Long, Failure> cache =
+      BLUCacheTrivial.newCache(
+        loader,
+        BLUCacheConfig
+          .empty()
+          .withMaximumCapacity(BigInteger.valueOf(2L))
+          .withMaximumBorrowsPerKey(BigInteger.ONE));
+
+    /**
+     * Returning an object that was deleted while borrowed has no effect.
+     */
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("key0");
+    cache.cacheDelete();
+    Assert.assertEquals(1L, loader.getCloses());
+
+    r0.returnToCache();
+    Assert.assertFalse(cache.cacheIsCached("key0"));
+    Assert.assertEquals(0L, cache.cacheItemCountLong());
+    Assert.assertEquals(0L, cache.cacheSizeLong());
+    Assert.assertEquals(1L, loader.getCloses());
+  }
+
+  /**
+   * Closing a receipt returns it, so receipts work with
+   * <code>try</code>-with-resources.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testReceiptClose()
+    throws Exception
+  {
+    final BLUCacheType<String, Long, Long, Failure> cache =
+      BLUCacheTrivial.newCache(
+        new LUCacheLoaderCounting<String>(),
+        BLUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(2L)));
+
+    try (final BLUCacheReceiptType<String, Long> r = cache.bluCacheGet("a")) {
+      Assert.assertEquals("a", r.getKey());
+      Assert.assertTrue(cache.cacheIsBorrowed("a"));
+    }
+    Assert.assertFalse(cache.cacheIsBorrowed("a"));
+    Assert.assertTrue(cache.cacheIsAvailable("a"));
+  }
+
+  /**
+   * The lease and leak options are part of the configuration value.
+   */
+
+  @Test public void testConfigReceipts()
+  {
+    final BLUCacheConfig c0 = BLUCacheConfig.empty();
+    Assert.assertEquals(0L, c0.getMaximumLeaseTimeNanos());
+    Assert.assertEquals(0L, c0.getLeakSamplingInterval());
+
+    final BLUCacheConfig c1 =
+      c0.withMaximumLeaseTime(2L, TimeUnit.SECONDS).withLeakSamplingInterval(
+        100L);
+    Assert.assertEquals(2000000000L, c1.getMaximumLeaseTimeNanos());
+    Assert.assertEquals(100L, c1.getLeakSamplingInterval());
+    Assert.assertNotEquals(c0, c1);
+    Assert.assertNotEquals(c0.hashCode(), c1.hashCode());
+    Assert.assertEquals(c1, BLUCacheConfig.withConfig(c1));
+    Assert.assertEquals(
+      c1,
+      c1.withMaximumCapacity(BigInteger.ZERO).withMaximumBorrowsPerKey(
+        BigInteger.ONE));
+  }
+
+  private static void borrowAndForget(
+    final BLUCacheType<String, Long, Long, Failure> cache,
+    final String key)
+    throws Failure,
+      JCacheException
+  {
+    cache.bluCacheGet(key);
+  }
+
+  /**
+   * A tracked receipt that becomes unreachable is returned to the cache on
+   * the next borrow, and reported.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testLeakReclaimed()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final BLUCacheType<String, Long, Long, Failure> cache =
+      BLUCacheTrivial.newCache(
+        loader,
+        BLUCacheConfig
+          .empty()
+          .withMaximumCapacity(BigInteger.valueOf(8L))
+          .withLeakSamplingInterval(1L));
+    final EventCountReceipts<String, Long> ec =
+      new EventCountReceipts<String, Long>();
+    cache.cacheEventsSubscribe(ec);
+
+    BLUCacheTrivialTest.borrowAndForget(cache, "a");
+    Assert.assertTrue(cache.cacheIsBorrowed("a"));
+
+    for (int index = 0; index < 100; ++index) {
+      if (ec.getLeaked() > 0) {
+        break;
+      }
+      System.gc();
+      Thread.sleep(10L);
+      cache.bluCacheGet("b").returnToCache();
+    }
+
+    Assert.assertEquals(1, ec.getLeaked());
+    Assert.assertFalse(cache.cacheIsBorrowed("a"));
+    Assert.assertTrue(cache.cacheIsAvailable("a"));
+    Assert.assertEquals(0L, loader.getCloses());
+  }
+
+  /**
+   * Tracked receipts behave as untracked receipts, and may not be returned
+   * twice.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testLeakTracked()
+    throws Exception
+  {
+    final BLUCacheType<String, Long, Long, Failure> cache =
+      BLUCacheTrivial.newCache(
+        new LUCacheLoaderCounting<String>(),
+        BLUCacheConfig
+          .empty()
+          .withMaximumCapacity(BigInteger.valueOf(8L))
+          .withMaximumBorrowsPerKey(BigInteger.valueOf(2L))
+          .withLeakSamplingInterval(2L));
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("a");
+    final BLUCacheReceiptType<String, Long> r1 = cache.bluCacheGet("a");
+    Assert.assertNotEquals(r0.getClass(), r1.getClass());
+    Assert.assertEquals("a", r1.getKey());
+    Assert.assertEquals(Long.valueOf(2L), r1.getValue());
+    r0.returnToCache();
+    r1.returnToCache();
+    Assert.assertFalse(cache.cacheIsBorrowed("a"));
+
+    try {
+      r1.close();
+      Assert.fail();
+    } catch (final IllegalStateException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * An object borrowed for longer than the maximum lease time is removed
+   * from the cache and closed on the next borrow, and returning its receipt
+   * has no effect.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testLeaseExpired()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final BLUCacheType<String, Long, Long, Failure> cache =
+      BLUCacheTrivial.newCache(
+        loader,
+        BLUCacheConfig
+          .empty()
+          .withMaximumCapacity(BigInteger.valueOf(8L))
+          .withMaximumBorrowsPerKey(BigInteger.ONE)
+          .withMaximumLeaseTime(1L, TimeUnit.MILLISECONDS));
+    final EventCountReceipts<String, Long> ec =
+      new EventCountReceipts<String, Long>();
+    cache.cacheEventsSubscribe(ec);
+
+    final BLUCacheReceiptType<String, Long> r0 = cache.bluCacheGet("a");
+    Thread.sleep(10L);
+
+    final BLUCacheReceiptType<String, Long> r1 = cache.bluCacheGet("b");
+    Assert.assertEquals(1, ec.getExpired());
+    Assert.assertEquals(1, ec.getEvictions());
+    Assert.assertFalse(cache.cacheIsCached("a"));
+    Assert.assertEquals(1L, loader.getCloses());
+    Assert.assertEquals(1L, cache.cacheItemCountLong());
+    Assert.assertEquals(1L, cache.cacheSizeLong());
+
+    r0.returnToCache();
+    r0.close();
+    Assert.assertFalse(cache.cacheIsCached("a"));
+
+    /**
+     * The borrowing limit of the key no longer counts the expired borrow.
+     */
+
+    cache.bluCacheGet("a").returnToCache();
+    r1.returnToCache();
+    Assert.assertTrue(cache.cacheIsAvailable("a"));
+    Assert.assertTrue(cache.cacheIsAvailable("b"));
+    Assert.assertEquals(1, ec.getExpired());
+  }
+
+  /**
+   * A lease expires on time even when it was started after unleased borrows
+   * and after leases that end later, because the maximum lease time was
+   * changed in between.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testLeaseExpiredReconfigured()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final BLUCacheConfig config =
+      BLUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(8L));
+    final BLUCacheType<String, Long, Long, Failure> cache =
+      BLUCacheTrivial.newCache(loader, config);
+    final EventCountReceipts<String, Long> ec =
+      new EventCountReceipts<String, Long>();
+    cache.cacheEventsSubscribe(ec);
+
+    final BLUCacheReceiptType<String, Long> ra = cache.bluCacheGet("a");
+    cache.cacheSetConfiguration(config.withMaximumLeaseTime(
+      1L,
+      TimeUnit.HOURS));
+    final BLUCacheReceiptType<String, Long> rb = cache.bluCacheGet("b");
+    cache.cacheSetConfiguration(config.withMaximumLeaseTime(
+      1L,
+      TimeUnit.MILLISECONDS));
+    cache.bluCacheGet("c");
+    Thread.sleep(10L);
+
+    cache.bluCacheGet("d").returnToCache();
+    Assert.assertEquals(1, ec.getExpired());
+    Assert.assertFalse(cache.cacheIsCached("c"));
+    Assert.assertTrue(cache.cacheIsBorrowed("a"));
+    Assert.assertTrue(cache.cacheIsBorrowed("b"));
+    Assert.assertEquals(1L, loader.getCloses());
+
+    ra.returnToCache();
+    rb.returnToCache();
+    Assert.assertTrue(cache.cacheIsAvailable("a"));
+    Assert.assertTrue(cache.cacheIsAvailable("b"));
+    Assert.assertEquals(3L, cache.cacheItemCountLong());
+  }
+
+  @Test public void testStatistics()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final BLUCacheType<String, Long, Long, Failure> cache =
+      BLUCacheTrivial.newCache(
+        loader,
+        BLUCacheConfig
+          .empty()
+          .withMaximumCapacity(BigInteger.ONE)
+          .withMaximumBorrowsPerKey(BigInteger.ZERO));
+
+    cache.bluCacheGet("key0").returnToCache();
+    cache.bluCacheGet("key0").returnToCache();
+    cache.bluCacheGet("key1").returnToCache();
+
+    final JCacheStatistics s = cache.cacheStatistics();
+    Assert.assertEquals(1L, s.getHits());
+    Assert.assertEquals(2L, s.getMisses());
+    Assert.assertEquals(2L, s.getLoads());
+    Assert.assertEquals(1L, s.getEvictions());
+    Assert.assertEquals(1L, s.getEvictedSize());
+  }
 }
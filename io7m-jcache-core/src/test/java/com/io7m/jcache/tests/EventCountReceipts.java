@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.io7m.jcache.BLUCacheEventsType;
+
+/**
+ * Thread-safe event receiver that counts expired and leaked receipts.
+ */
+
+final class EventCountReceipts<K, V> extends EventCount<K, V> implements
+  BLUCacheEventsType<K, V>
+{
+  private final AtomicInteger expired;
+  private final AtomicInteger leaked;
+
+  public EventCountReceipts()
+  {
+    this.expired = new AtomicInteger();
+    this.leaked = new AtomicInteger();
+  }
+
+  @Override public void cacheEventReceiptExpired(
+    final K key,
+    final V value,
+    final BigInteger size)
+  {
+    this.expired.incrementAndGet();
+  }
+
+  @Override public void cacheEventReceiptLeaked(
+    final K key,
+    final V value,
+    final BigInteger size)
+  {
+    this.leaked.incrementAndGet();
+  }
+
+  public int getExpired()
+  {
+    return this.expired.get();
+  }
+
+  public int getLeaked()
+  {
+    return this.leaked.get();
+  }
+}
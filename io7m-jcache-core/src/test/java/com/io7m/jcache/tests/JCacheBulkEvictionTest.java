@@ -0,0 +1,460 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcache.BLUCacheConfig;
+import com.io7m.jcache.BLUCacheReceiptType;
+import com.io7m.jcache.BLUCacheTrivial;
+import com.io7m.jcache.JCacheBulkCloserType;
+import com.io7m.jcache.JCacheEventsBulkType;
+import com.io7m.jcache.JCacheLoaderLongType;
+import com.io7m.jcache.LRUCacheClock;
+import com.io7m.jcache.LRUCacheConcurrent;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheLinked;
+import com.io7m.jcache.LRUCacheOffHeap;
+import com.io7m.jcache.LRUCacheTrivial;
+import com.io7m.jcache.LUCacheGDSF;
+import com.io7m.jcache.LUCachePolicied;
+import com.io7m.jcache.LUCacheType;
+import com.io7m.jcache.LUCacheWTinyLFU;
+import com.io7m.jcache.PCacheConfig;
+import com.io7m.jcache.PCacheConfig.BuilderType;
+import com.io7m.jcache.PCacheTrivial;
+import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
+
+@SuppressWarnings("static-method") public final class JCacheBulkEvictionTest
+{
+  /**
+   * An event receiver that accepts bulk evictions, and logs every call.
+   */
+
+  private static final class BulkEvents<K, V> extends EventLog<K, V> implements
+    JCacheEventsBulkType<K, V>
+  {
+    final List<List<K>>    batches;
+    final List<String>     log;
+    final List<BigInteger> sizes;
+
+    BulkEvents()
+    {
+      this.batches = new ArrayList<List<K>>();
+      this.sizes = new ArrayList<BigInteger>();
+      this.log = new ArrayList<String>();
+    }
+
+    @Override public void cacheEventValueEvicted(
+      final K key,
+      final V value,
+      final BigInteger size)
+    {
+      super.cacheEventValueEvicted(key, value, size);
+      this.log.add("evicted " + key);
+    }
+
+    @Override public void cacheEventValuesEvicted(
+      final List<K> keys,
+      final List<V> values,
+      final BigInteger size)
+    {
+      Assert.assertEquals(keys.size(), values.size());
+      this.batches.add(new ArrayList<K>(keys));
+      this.sizes.add(size);
+      this.log.add("evicted " + keys);
+    }
+  }
+
+  /**
+   * A loader that closes values in bulk, and can be told to fail.
+   */
+
+  private static final class BulkLoader implements
+    JCacheLoaderLongType<String, Long, Failure>,
+    JCacheBulkCloserType<String, Long, Failure>
+  {
+    final List<List<Long>> batches;
+    final List<Long>       closed;
+    boolean                fail;
+    long                   loads;
+    long                   size;
+
+    BulkLoader()
+    {
+      this.batches = new ArrayList<List<Long>>();
+      this.closed = new ArrayList<Long>();
+      this.size = 1L;
+    }
+
+    @Override public void cacheValueClose(
+      final Long v)
+    {
+      this.closed.add(v);
+    }
+
+    @Override public void cacheValueCloseAll(
+      final List<Long> values)
+      throws Failure
+    {
+      if (this.fail) {
+        throw new Failure();
+      }
+      this.batches.add(new ArrayList<Long>(values));
+    }
+
+    @Override public Long cacheValueLoad(
+      final String key)
+    {
+      this.loads = this.loads + 1L;
+      return Long.valueOf(this.loads);
+    }
+
+    @Override public BigInteger cacheValueSizeOf(
+      final Long v)
+    {
+      return BigInteger.valueOf(this.size);
+    }
+
+    @Override public long cacheValueSizeOfLong(
+      final Long v)
+    {
+      return this.size;
+    }
+  }
+
+  /**
+   * A loader that closes values one at a time, logging each close into the
+   * same log as the events.
+   */
+
+  private static final class OrderedLoader implements
+    JCacheLoaderLongType<String, Long, Failure>
+  {
+    private final List<String> log;
+    private long               loads;
+
+    OrderedLoader(
+      final List<String> in_log)
+    {
+      this.log = in_log;
+    }
+
+    @Override public void cacheValueClose(
+      final Long v)
+    {
+      this.log.add("closed " + v);
+    }
+
+    @Override public Long cacheValueLoad(
+      final String key)
+    {
+      this.loads = this.loads + 1L;
+      return Long.valueOf(this.loads);
+    }
+
+    @Override public BigInteger cacheValueSizeOf(
+      final Long v)
+    {
+      return BigInteger.ONE;
+    }
+
+    @Override public long cacheValueSizeOfLong(
+      final Long v)
+    {
+      return 1L;
+    }
+  }
+
+  private static LRUCacheConfig newConfig(
+    final long capacity)
+  {
+    return LRUCacheConfig.empty().withMaximumCapacity(
+      BigInteger.valueOf(capacity));
+  }
+
+  private static List<LUCacheType<String, Long, Long, Failure>> newCaches(
+    final BulkLoader loader,
+    final long capacity)
+  {
+    final LRUCacheConfig c = JCacheBulkEvictionTest.newConfig(capacity);
+    final List<LUCacheType<String, Long, Long, Failure>> caches =
+      new ArrayList<LUCacheType<String, Long, Long, Failure>>();
+    caches.add(LRUCacheTrivial.<String, Long, Long, Failure> newCache(
+      loader,
+      c));
+    caches.add(LRUCacheLinked.<String, Long, Long, Failure> newCache(
+      loader,
+      c));
+    caches.add(LRUCacheClock.<String, Long, Long, Failure> newCache(
+      loader,
+      c));
+    caches.add(LRUCacheConcurrent.<String, Long, Long, Failure> newCache(
+      loader,
+      c));
+    caches.add(LUCachePolicied.<String, Long, Long, Failure> newCache(
+      loader,
+      c));
+    caches.add(LUCacheWTinyLFU.<String, Long, Long, Failure> newCache(
+      loader,
+      c));
+    caches.add(LUCacheGDSF.<String, Long, Long, Failure> newCache(
+      loader,
+      c));
+    return caches;
+  }
+
+  /**
+   * Deleting a bounded borrowing cache produces a single batch.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testBLUDelete()
+    throws Exception
+  {
+    final BulkLoader loader = new BulkLoader();
+    final BLUCacheTrivial<String, Long, Long, Failure> cache =
+      BLUCacheTrivial.newCache(
+        loader,
+        BLUCacheConfig
+          .empty()
+          .withMaximumCapacity(BigInteger.valueOf(8L))
+          .withMaximumBorrowsPerKey(BigInteger.ONE));
+    final BulkEvents<String, Long> events = new BulkEvents<String, Long>();
+    cache.cacheEventsSubscribe(events);
+
+    for (final String key : Arrays.asList("a", "b", "c")) {
+      final BLUCacheReceiptType<String, Long> r = cache.bluCacheGet(key);
+      r.returnToCache();
+    }
+
+    cache.cacheDelete();
+    Assert.assertEquals(1, events.batches.size());
+    Assert.assertEquals(3, events.batches.get(0).size());
+    Assert.assertEquals(BigInteger.valueOf(3L), events.sizes.get(0));
+    Assert.assertEquals(1, loader.batches.size());
+    Assert.assertEquals(3, loader.batches.get(0).size());
+    Assert.assertEquals(0, loader.closed.size());
+  }
+
+  /**
+   * A failing bulk close is reported as a close error for every value.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testCloseAllError()
+    throws Exception
+  {
+    final BulkLoader loader = new BulkLoader();
+    final LRUCacheTrivial<String, Long, Long, Failure> cache =
+      LRUCacheTrivial.newCache(loader, JCacheBulkEvictionTest.newConfig(8L));
+    final EventCount<String, Long> events = new EventCount<String, Long>();
+    cache.cacheEventsSubscribe(events);
+
+    cache.cacheGetLU("a");
+    cache.cacheGetLU("b");
+    cache.cacheGetLU("c");
+
+    loader.fail = true;
+    cache.cacheDelete();
+    Assert.assertEquals(3, events.getCloseErrors());
+    Assert.assertEquals(3, events.getEvictions());
+    Assert.assertEquals(BigInteger.ZERO, cache.cacheSize());
+  }
+
+  /**
+   * Deleting any cache produces a single batch containing every object.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testDelete()
+    throws Exception
+  {
+    final BulkLoader loader = new BulkLoader();
+    for (final LUCacheType<String, Long, Long, Failure> cache : JCacheBulkEvictionTest
+      .newCaches(loader, 8L)) {
+      final String name = cache.getClass().getSimpleName();
+      final BulkEvents<String, Long> events = new BulkEvents<String, Long>();
+      cache.cacheEventsSubscribe(events);
+      loader.batches.clear();
+
+      for (final String key : Arrays.asList("a", "b", "c", "d")) {
+        cache.cacheGetLU(key);
+      }
+
+      cache.cacheDelete();
+      Assert.assertEquals(name, 1, events.batches.size());
+      Assert.assertEquals(name, 4, events.batches.get(0).size());
+      Assert.assertEquals(name, BigInteger.valueOf(4L), events.sizes.get(0));
+      Assert.assertFalse(name, events.evicted);
+      Assert.assertEquals(name, 1, loader.batches.size());
+      Assert.assertEquals(name, 4, loader.batches.get(0).size());
+      Assert.assertEquals(name, 0, loader.closed.size());
+    }
+  }
+
+  /**
+   * Evicting room for a large object produces a single batch.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testEvictLarge()
+    throws Exception
+  {
+    final BulkLoader loader = new BulkLoader();
+    for (final LUCacheType<String, Long, Long, Failure> cache : JCacheBulkEvictionTest
+      .newCaches(loader, 4L)) {
+      final String name = cache.getClass().getSimpleName();
+      final BulkEvents<String, Long> events = new BulkEvents<String, Long>();
+      cache.cacheEventsSubscribe(events);
+      loader.batches.clear();
+      loader.size = 1L;
+
+      for (final String key : Arrays.asList("a", "b", "c", "d")) {
+        cache.cacheGetLU(key);
+      }
+      Assert.assertEquals(name, 0, events.batches.size());
+
+      loader.size = 4L;
+      cache.cacheGetLU("e");
+      Assert.assertEquals(name, 1, events.batches.size());
+      Assert.assertEquals(name, 4, events.batches.get(0).size());
+      Assert.assertEquals(name, BigInteger.valueOf(4L), events.sizes.get(0));
+      Assert.assertEquals(name, 1, loader.batches.size());
+      Assert.assertEquals(name, 4, loader.batches.get(0).size());
+      Assert.assertEquals(name, BigInteger.valueOf(4L), cache.cacheSize());
+    }
+  }
+
+  /**
+   * Receivers and loaders that do not accept batches see each object
+   * announced and then closed, in eviction order.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testNonBulkOrder()
+    throws Exception
+  {
+    final List<String> log = new ArrayList<String>();
+    final OrderedLoader loader = new OrderedLoader(log);
+    final LRUCacheTrivial<String, Long, Long, Failure> cache =
+      LRUCacheTrivial.newCache(loader, JCacheBulkEvictionTest.newConfig(8L));
+    final BulkEvents<String, Long> bulk = new BulkEvents<String, Long>();
+    final EventLog<String, Long> events = new EventLog<String, Long>() {
+      @Override public void cacheEventValueEvicted(
+        final String key,
+        final Long value,
+        final BigInteger size)
+      {
+        log.add("evicted " + key);
+      }
+    };
+    cache.cacheEventsSubscribe(events);
+
+    cache.cacheGetLU("a");
+    cache.cacheGetLU("b");
+    cache.cacheDelete();
+    Assert.assertEquals(
+      Arrays.asList("evicted a", "closed 1", "evicted b", "closed 2"),
+      log);
+
+    /**
+     * A bulk receiver is called once, before the values are closed.
+     */
+
+    log.clear();
+    cache.cacheEventsSubscribe(bulk);
+    cache.cacheGetLU("c");
+    cache.cacheGetLU("d");
+    cache.cacheDelete();
+    Assert.assertEquals(Arrays.asList("closed 3", "closed 4"), log);
+    Assert.assertEquals(Arrays.asList("evicted [c, d]"), bulk.log);
+  }
+
+  /**
+   * The off-heap cache announces batches, but has nothing to close.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testOffHeapDelete()
+    throws Exception
+  {
+    final LRUCacheOffHeap<String, String, String, Failure> cache =
+      LRUCacheOffHeap.newCache(
+        new LUCacheLoaderStrings(),
+        new LUCacheCodecString(),
+        JCacheBulkEvictionTest.newConfig(1 << 20));
+    final BulkEvents<String, String> events =
+      new BulkEvents<String, String>();
+    cache.cacheEventsSubscribe(events);
+
+    cache.cacheGetLU("a");
+    cache.cacheGetLU("b");
+    cache.cacheDelete();
+    Assert.assertEquals(1, events.batches.size());
+    Assert.assertEquals(Arrays.asList("a", "b"), events.batches.get(0));
+  }
+
+  /**
+   * Expiring objects from a periodic cache produces a single batch per
+   * period.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testPeriodicEnd()
+    throws Exception
+  {
+    final BuilderType b = PCacheConfig.newBuilder();
+    b.setNoMaximumAge();
+    b.setMaximumSize(BigInteger.valueOf(1L));
+    final BulkLoader loader = new BulkLoader();
+    final PCacheTrivial<String, Long, Long, Failure> cache =
+      PCacheTrivial.newCache(loader, b.create());
+    final BulkEvents<String, Long> events = new BulkEvents<String, Long>();
+    cache.cacheEventsSubscribe(events);
+
+    cache.cachePeriodStart();
+    cache.cacheGetPeriodic("a");
+    cache.cacheGetPeriodic("b");
+    cache.cacheGetPeriodic("c");
+    cache.cachePeriodEnd();
+
+    Assert.assertEquals(1, events.batches.size());
+    Assert.assertEquals(2, events.batches.get(0).size());
+    Assert.assertEquals(BigInteger.valueOf(2L), events.sizes.get(0));
+    Assert.assertEquals(1, loader.batches.size());
+    Assert.assertEquals(0, loader.closed.size());
+
+    cache.cacheDelete();
+    Assert.assertEquals(2, events.batches.size());
+    Assert.assertEquals(Arrays.asList("c"), events.batches.get(1));
+  }
+}
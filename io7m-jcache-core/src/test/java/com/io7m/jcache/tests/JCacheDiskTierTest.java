@@ -0,0 +1,410 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.io7m.jcache.JCacheDiskTier;
+import com.io7m.jnull.NullCheckException;
+import com.io7m.jranges.RangeCheckException;
+
+@SuppressWarnings("static-method") public final class JCacheDiskTierTest
+{
+  private static final Executor DIRECT;
+
+  static {
+    DIRECT = new Executor() {
+      @Override public void execute(
+        final Runnable r)
+      {
+        r.run();
+      }
+    };
+  }
+
+  private static List<Path> listSegments(
+    final Path directory)
+    throws IOException
+  {
+    final List<Path> r = new ArrayList<Path>();
+    final DirectoryStream<Path> s =
+      Files.newDirectoryStream(directory, "segment-*.log");
+    try {
+      for (final Path p : s) {
+        r.add(p);
+      }
+    } finally {
+      s.close();
+    }
+    return r;
+  }
+
+  /**
+   * Records of 32 bytes each: an 8 byte header, and a 24 byte value.
+   */
+
+  private static String value(
+    final String key)
+  {
+    return LUCacheLoaderStrings.valueFor(key, 24);
+  }
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private JCacheDiskTier<String, String> newTier(
+    final long maximum,
+    final long segment,
+    final Executor compactor)
+    throws IOException
+  {
+    return JCacheDiskTier.newTier(
+      this.folder.getRoot().toPath().resolve("tier"),
+      new LUCacheCodecString(),
+      maximum,
+      segment,
+      compactor);
+  }
+
+  /**
+   * Compaction runs on the given executor.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testCompactionBackground()
+    throws Exception
+  {
+    final List<Runnable> tasks = new ArrayList<Runnable>();
+    final JCacheDiskTier<String, String> t =
+      this.newTier(1024L, 96L, new Executor() {
+        @Override public void execute(
+          final Runnable r)
+        {
+          tasks.add(r);
+        }
+      });
+
+    for (final String k : new String[] { "a", "b", "c", "d", "e", "f" }) {
+      t.tierPut(k, JCacheDiskTierTest.value(k));
+    }
+    t.tierTake("a");
+    t.tierTake("b");
+    t.tierTake("d");
+
+    Assert.assertEquals(1, tasks.size());
+    Assert.assertEquals(0L, t.getCompactions());
+    Assert.assertEquals(192L, t.tierReservedLong());
+
+    tasks.get(0).run();
+    Assert.assertEquals(1L, t.getCompactions());
+    Assert.assertEquals(96L + 32L, t.tierReservedLong());
+    Assert.assertEquals(96L, t.tierSizeLong());
+    Assert.assertEquals(JCacheDiskTierTest.value("c"), t.tierTake("c"));
+    Assert.assertEquals(JCacheDiskTierTest.value("e"), t.tierTake("e"));
+    Assert.assertEquals(JCacheDiskTierTest.value("f"), t.tierTake("f"));
+  }
+
+  /**
+   * Segments that are less than half live are compacted, and their live
+   * values remain readable.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testCompactionDirect()
+    throws Exception
+  {
+    final JCacheDiskTier<String, String> t =
+      this.newTier(1024L, 96L, JCacheDiskTierTest.DIRECT);
+
+    for (final String k : new String[] { "a", "b", "c", "d", "e", "f" }) {
+      t.tierPut(k, JCacheDiskTierTest.value(k));
+    }
+    Assert.assertEquals(192L, t.tierReservedLong());
+
+    t.tierTake("a");
+    Assert.assertEquals(0L, t.getCompactions());
+    t.tierTake("b");
+    Assert.assertEquals(1L, t.getCompactions());
+
+    Assert.assertEquals(96L + 32L, t.tierReservedLong());
+    Assert.assertEquals(2, JCacheDiskTierTest.listSegments(
+      this.folder.getRoot().toPath().resolve("tier")).size());
+    Assert.assertEquals(JCacheDiskTierTest.value("c"), t.tierTake("c"));
+  }
+
+  /**
+   * Corrupt records are treated as absent.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testCorrupt()
+    throws Exception
+  {
+    final JCacheDiskTier<String, String> t =
+      this.newTier(1024L, 96L, JCacheDiskTierTest.DIRECT);
+    t.tierPut("a", JCacheDiskTierTest.value("a"));
+
+    final List<Path> segments =
+      JCacheDiskTierTest.listSegments(this.folder
+        .getRoot()
+        .toPath()
+        .resolve("tier"));
+    Assert.assertEquals(1, segments.size());
+
+    final FileChannel c =
+      FileChannel.open(segments.get(0), StandardOpenOption.WRITE);
+    try {
+      c.write(ByteBuffer.wrap(new byte[] { 'x' }), 12L);
+    } finally {
+      c.close();
+    }
+
+    Assert.assertNull(t.tierTake("a"));
+    Assert.assertFalse(t.tierContains("a"));
+  }
+
+  /**
+   * Records that the codec fails to decode are treated as absent.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testDecodeFailure()
+    throws Exception
+  {
+    final LUCacheCodecString codec = new LUCacheCodecString();
+    final JCacheDiskTier<String, String> t =
+      JCacheDiskTier.newTier(
+        this.folder.getRoot().toPath().resolve("tier"),
+        codec,
+        1024L,
+        96L,
+        JCacheDiskTierTest.DIRECT);
+    t.tierPut("a", JCacheDiskTierTest.value("a"));
+
+    codec.setDecodeFailure(true);
+    Assert.assertNull(t.tierTake("a"));
+    Assert.assertFalse(t.tierContains("a"));
+    Assert.assertEquals(1L, codec.getDecodes());
+  }
+
+  /**
+   * Deleting the tier removes all values and files.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testDelete()
+    throws Exception
+  {
+    final JCacheDiskTier<String, String> t =
+      this.newTier(1024L, 96L, JCacheDiskTierTest.DIRECT);
+    for (final String k : new String[] { "a", "b", "c", "d" }) {
+      t.tierPut(k, JCacheDiskTierTest.value(k));
+    }
+
+    t.tierDelete();
+    Assert.assertEquals(0L, t.tierItemCountLong());
+    Assert.assertEquals(0L, t.tierReservedLong());
+    Assert.assertEquals(0L, t.tierSizeLong());
+    Assert.assertEquals(0, JCacheDiskTierTest.listSegments(
+      this.folder.getRoot().toPath().resolve("tier")).size());
+
+    t.tierPut("a", JCacheDiskTierTest.value("a"));
+    Assert.assertEquals(JCacheDiskTierTest.value("a"), t.tierTake("a"));
+  }
+
+  /**
+   * The oldest segments are dropped when the tier exceeds its maximum size.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testMaximumSize()
+    throws Exception
+  {
+    final JCacheDiskTier<String, String> t =
+      this.newTier(192L, 96L, JCacheDiskTierTest.DIRECT);
+
+    final String[] keys =
+      new String[] { "a", "b", "c", "d", "e", "f", "g", "h", "i" };
+    for (final String k : keys) {
+      t.tierPut(k, JCacheDiskTierTest.value(k));
+      Assert.assertTrue(t.tierReservedLong() <= 192L);
+    }
+
+    Assert.assertEquals(3L, t.getDropped());
+    Assert.assertFalse(t.tierContains("a"));
+    Assert.assertFalse(t.tierContains("b"));
+    Assert.assertFalse(t.tierContains("c"));
+    for (int index = 3; index < keys.length; ++index) {
+      Assert.assertEquals(
+        JCacheDiskTierTest.value(keys[index]),
+        t.tierTake(keys[index]));
+    }
+  }
+
+  @Test(expected = RangeCheckException.class) public
+    void
+    testMaximumSmallerThanSegment()
+      throws Exception
+  {
+    this.newTier(64L, 96L, JCacheDiskTierTest.DIRECT);
+  }
+
+  @Test(expected = NullCheckException.class) public void testNullCodec()
+    throws Exception
+  {
+    JCacheDiskTier.newTier(
+      this.folder.getRoot().toPath(),
+      null,
+      1024L,
+      96L,
+      JCacheDiskTierTest.DIRECT);
+  }
+
+  /**
+   * Values can be stored and taken.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testPutTake()
+    throws Exception
+  {
+    final JCacheDiskTier<String, String> t =
+      this.newTier(1024L, 96L, JCacheDiskTierTest.DIRECT);
+
+    Assert.assertNull(t.tierTake("a"));
+    Assert.assertTrue(t.tierPut("a", JCacheDiskTierTest.value("a")));
+    Assert.assertTrue(t.tierContains("a"));
+    Assert.assertEquals(1L, t.tierItemCountLong());
+    Assert.assertEquals(32L, t.tierSizeLong());
+
+    Assert.assertEquals(JCacheDiskTierTest.value("a"), t.tierTake("a"));
+    Assert.assertFalse(t.tierContains("a"));
+    Assert.assertNull(t.tierTake("a"));
+    Assert.assertEquals(0L, t.tierItemCountLong());
+    Assert.assertEquals(0L, t.tierSizeLong());
+  }
+
+  /**
+   * Storing a value for an existing key replaces the old value.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testReplace()
+    throws Exception
+  {
+    final JCacheDiskTier<String, String> t =
+      this.newTier(1024L, 96L, JCacheDiskTierTest.DIRECT);
+
+    t.tierPut("a", JCacheDiskTierTest.value("a"));
+    t.tierPut("a", JCacheDiskTierTest.value("x"));
+    Assert.assertEquals(1L, t.tierItemCountLong());
+    Assert.assertEquals(32L, t.tierSizeLong());
+    Assert.assertEquals(64L, t.tierReservedLong());
+    Assert.assertEquals(JCacheDiskTierTest.value("x"), t.tierTake("a"));
+  }
+
+  /**
+   * Segments that contain no live values are deleted.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testSegmentDeletedWhenDead()
+    throws Exception
+  {
+    final JCacheDiskTier<String, String> t =
+      this.newTier(1024L, 64L, JCacheDiskTierTest.DIRECT);
+
+    t.tierPut("a", JCacheDiskTierTest.value("a"));
+    t.tierPut("b", JCacheDiskTierTest.value("b"));
+    t.tierPut("c", JCacheDiskTierTest.value("c"));
+    Assert.assertEquals(96L, t.tierReservedLong());
+
+    t.tierTake("a");
+    t.tierTake("b");
+    Assert.assertEquals(32L, t.tierReservedLong());
+    Assert.assertEquals(1, JCacheDiskTierTest.listSegments(
+      this.folder.getRoot().toPath().resolve("tier")).size());
+  }
+
+  /**
+   * Segment files left by a previous tier are deleted.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testStaleSegmentsDeleted()
+    throws Exception
+  {
+    final Path dir = this.folder.getRoot().toPath().resolve("tier");
+    Files.createDirectories(dir);
+    final Path stale = dir.resolve("segment-0000000000000000.log");
+    final Path other = dir.resolve("other.txt");
+    Files.write(stale, new byte[] { 1, 2, 3 });
+    Files.write(other, new byte[] { 1, 2, 3 });
+
+    final JCacheDiskTier<String, String> t =
+      this.newTier(1024L, 96L, JCacheDiskTierTest.DIRECT);
+    Assert.assertFalse(Files.exists(stale));
+    Assert.assertTrue(Files.exists(other));
+
+    t.tierPut("a", JCacheDiskTierTest.value("a"));
+    Assert.assertEquals(JCacheDiskTierTest.value("a"), t.tierTake("a"));
+  }
+
+  /**
+   * Values larger than a segment are not stored, and remove any existing
+   * value.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testTooLarge()
+    throws Exception
+  {
+    final JCacheDiskTier<String, String> t =
+      this.newTier(1024L, 64L, JCacheDiskTierTest.DIRECT);
+
+    Assert.assertTrue(t.tierPut("a", JCacheDiskTierTest.value("a")));
+    Assert.assertFalse(t.tierPut(
+      "a",
+      LUCacheLoaderStrings.valueFor("a", 57)));
+    Assert.assertFalse(t.tierContains("a"));
+    Assert.assertTrue(t.tierPut("b", LUCacheLoaderStrings.valueFor("b", 56)));
+  }
+}
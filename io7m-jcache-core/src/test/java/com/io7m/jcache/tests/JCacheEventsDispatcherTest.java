@@ -0,0 +1,401 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcache.JCacheEventsDispatcher;
+import com.io7m.jcache.JCacheEventsOverflow;
+import com.io7m.jcache.JCacheEventsSubscriberType;
+import com.io7m.jcache.JCacheEventsType;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheTrivial;
+import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
+import com.io7m.jnull.NullCheckException;
+
+@SuppressWarnings("static-method") public final class JCacheEventsDispatcherTest
+{
+  /**
+   * An executor that runs nothing until told to.
+   */
+
+  private static final class ManualExecutor implements Executor
+  {
+    private final List<Runnable> tasks;
+
+    ManualExecutor()
+    {
+      this.tasks = new ArrayList<Runnable>();
+    }
+
+    @Override public void execute(
+      final Runnable command)
+    {
+      this.tasks.add(command);
+    }
+
+    void runAll()
+    {
+      while (this.tasks.isEmpty() == false) {
+        this.tasks.remove(0).run();
+      }
+    }
+  }
+
+  private static final class KeyLog implements JCacheEventsType<Integer, Long>
+  {
+    private final List<String> log;
+
+    KeyLog()
+    {
+      this.log = new ArrayList<String>();
+    }
+
+    @Override public void cacheEventValueCloseError(
+      final Integer key,
+      final Long value,
+      final BigInteger size,
+      final Throwable x)
+    {
+      this.log.add("close-error " + key);
+    }
+
+    @Override public void cacheEventValueEvicted(
+      final Integer key,
+      final Long value,
+      final BigInteger size)
+    {
+      this.log.add("evicted " + key);
+    }
+
+    @Override public void cacheEventValueLoaded(
+      final Integer key,
+      final Long value,
+      final BigInteger size)
+    {
+      this.log.add("loaded " + key);
+    }
+
+    @Override public void cacheEventValueRetrieved(
+      final Integer key,
+      final Long value,
+      final BigInteger size)
+    {
+      this.log.add("retrieved " + key);
+    }
+
+    List<String> getLog()
+    {
+      return this.log;
+    }
+  }
+
+  private static void awaitDelivered(
+    final JCacheEventsSubscriberType s,
+    final long count)
+    throws InterruptedException
+  {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (s.subscriberGetDelivered() < count) {
+      Assert.assertTrue(System.nanoTime() < deadline);
+      Thread.sleep(1L);
+    }
+  }
+
+  private static void publish(
+    final JCacheEventsDispatcher<Integer, Long> d,
+    final int count)
+  {
+    for (int index = 0; index < count; ++index) {
+      d.cacheEventValueRetrieved(
+        Integer.valueOf(index),
+        Long.valueOf(index),
+        BigInteger.ONE);
+    }
+  }
+
+  /**
+   * A subscriber that blocks stalls the producer until it has made room,
+   * and receives every event.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testBlock()
+    throws Exception
+  {
+    final ExecutorService exec = Executors.newSingleThreadExecutor();
+    try {
+      final CountDownLatch release = new CountDownLatch(1);
+      final EventCount<Integer, Long> count = new EventCount<Integer, Long>();
+      final JCacheEventsDispatcher<Integer, Long> d =
+        JCacheEventsDispatcher.newDispatcher(exec);
+      final JCacheEventsSubscriberType s =
+        d.dispatcherSubscribe(new JCacheEventsType<Integer, Long>() {
+          @Override public void cacheEventValueCloseError(
+            final Integer key,
+            final Long value,
+            final BigInteger size,
+            final Throwable x)
+          {
+            // Nothing
+          }
+
+          @Override public void cacheEventValueEvicted(
+            final Integer key,
+            final Long value,
+            final BigInteger size)
+          {
+            // Nothing
+          }
+
+          @Override public void cacheEventValueLoaded(
+            final Integer key,
+            final Long value,
+            final BigInteger size)
+          {
+            // Nothing
+          }
+
+          @Override public void cacheEventValueRetrieved(
+            final Integer key,
+            final Long value,
+            final BigInteger size)
+          {
+            try {
+              release.await();
+            } catch (final InterruptedException e) {
+              throw new AssertionError(e);
+            }
+            count.cacheEventValueRetrieved(key, value, size);
+          }
+        }, JCacheEventsOverflow.OVERFLOW_BLOCK, 4);
+
+      final Thread producer = new Thread(new Runnable() {
+        @Override public void run()
+        {
+          JCacheEventsDispatcherTest.publish(d, 32);
+        }
+      });
+      producer.start();
+      producer.join(100L);
+      Assert.assertTrue(producer.isAlive());
+
+      release.countDown();
+      producer.join();
+      JCacheEventsDispatcherTest.awaitDelivered(s, 32L);
+      Assert.assertEquals(0L, s.subscriberGetDropped());
+      Assert.assertEquals(32, count.getRetrievals());
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+  /**
+   * Cancelled subscribers receive nothing further.
+   */
+
+  @Test public void testCancel()
+  {
+    final ManualExecutor exec = new ManualExecutor();
+    final EventCount<Integer, Long> count = new EventCount<Integer, Long>();
+    final JCacheEventsDispatcher<Integer, Long> d =
+      JCacheEventsDispatcher.newDispatcher(exec);
+    final JCacheEventsSubscriberType s =
+      d.dispatcherSubscribe(count, JCacheEventsOverflow.OVERFLOW_DROP, 8);
+    Assert.assertEquals(1, d.dispatcherSubscriberCount());
+
+    JCacheEventsDispatcherTest.publish(d, 4);
+    s.subscriberCancel();
+    Assert.assertEquals(0, d.dispatcherSubscriberCount());
+    JCacheEventsDispatcherTest.publish(d, 4);
+    exec.runAll();
+
+    Assert.assertEquals(0, count.getRetrievals());
+    Assert.assertEquals(0L, s.subscriberGetDelivered());
+  }
+
+  /**
+   * A subscriber that falls behind under the drop policy loses the events
+   * that do not fit, and the producer never waits.
+   */
+
+  @Test public void testDrop()
+  {
+    final ManualExecutor exec = new ManualExecutor();
+    final EventCount<Integer, Long> count = new EventCount<Integer, Long>();
+    final JCacheEventsDispatcher<Integer, Long> d =
+      JCacheEventsDispatcher.newDispatcher(exec);
+    final JCacheEventsSubscriberType s =
+      d.dispatcherSubscribe(count, JCacheEventsOverflow.OVERFLOW_DROP, 4);
+    Assert.assertEquals(
+      JCacheEventsOverflow.OVERFLOW_DROP,
+      s.subscriberGetOverflow());
+
+    JCacheEventsDispatcherTest.publish(d, 10);
+    exec.runAll();
+    Assert.assertEquals(4, count.getRetrievals());
+    Assert.assertEquals(4L, s.subscriberGetDelivered());
+    Assert.assertEquals(6L, s.subscriberGetDropped());
+
+    JCacheEventsDispatcherTest.publish(d, 2);
+    exec.runAll();
+    Assert.assertEquals(6, count.getRetrievals());
+  }
+
+  /**
+   * Exceptions raised by subscribers do not prevent further deliveries.
+   */
+
+  @Test public void testException()
+  {
+    final ManualExecutor exec = new ManualExecutor();
+    final JCacheEventsDispatcher<Integer, Long> d =
+      JCacheEventsDispatcher.newDispatcher(exec);
+    final JCacheEventsSubscriberType s =
+      d.dispatcherSubscribe(
+        new EventThrown<Integer, Long>(),
+        JCacheEventsOverflow.OVERFLOW_DROP,
+        8);
+
+    JCacheEventsDispatcherTest.publish(d, 4);
+    exec.runAll();
+    Assert.assertEquals(4L, s.subscriberGetDelivered());
+  }
+
+  /**
+   * Every subscriber receives every event from a cache, in order.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testMultipleSubscribers()
+    throws Exception
+  {
+    final ManualExecutor exec = new ManualExecutor();
+    final JCacheEventsDispatcher<Integer, Long> d =
+      JCacheEventsDispatcher.newDispatcher(exec);
+    final KeyLog log0 = new KeyLog();
+    final KeyLog log1 = new KeyLog();
+    d.dispatcherSubscribe(log0, JCacheEventsOverflow.OVERFLOW_BLOCK, 64);
+    d.dispatcherSubscribe(log1, JCacheEventsOverflow.OVERFLOW_DROP, 64);
+
+    final LRUCacheTrivial<Integer, Long, Long, Failure> cache =
+      LRUCacheTrivial.newCache(
+        new LUCacheLoaderCounting<Integer>(),
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.ONE));
+    cache.cacheEventsSubscribe(d);
+    cache.cacheGetLU(Integer.valueOf(0));
+    cache.cacheGetLU(Integer.valueOf(1));
+
+    Assert.assertTrue(log0.getLog().isEmpty());
+    exec.runAll();
+
+    final List<String> expected = new ArrayList<String>();
+    expected.add("loaded 0");
+    expected.add("retrieved 0");
+    expected.add("loaded 1");
+    expected.add("evicted 0");
+    expected.add("retrieved 1");
+    Assert.assertEquals(expected, log0.getLog());
+    Assert.assertEquals(expected, log1.getLog());
+  }
+
+  /**
+   * Events produced by many threads at once are all delivered when the
+   * subscriber keeps up.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testParallel()
+    throws Exception
+  {
+    final ExecutorService exec = Executors.newFixedThreadPool(2);
+    try {
+      final EventCount<Integer, Long> count = new EventCount<Integer, Long>();
+      final JCacheEventsDispatcher<Integer, Long> d =
+        JCacheEventsDispatcher.newDispatcher(exec);
+      final JCacheEventsSubscriberType s =
+        d.dispatcherSubscribe(count, JCacheEventsOverflow.OVERFLOW_BLOCK, 16);
+
+      final Thread[] threads = new Thread[4];
+      for (int index = 0; index < threads.length; ++index) {
+        threads[index] = new Thread(new Runnable() {
+          @Override public void run()
+          {
+            JCacheEventsDispatcherTest.publish(d, 10000);
+          }
+        });
+        threads[index].start();
+      }
+      for (final Thread t : threads) {
+        t.join();
+      }
+
+      JCacheEventsDispatcherTest.awaitDelivered(s, 40000L);
+      Assert.assertEquals(40000, count.getRetrievals());
+      Assert.assertEquals(0L, s.subscriberGetDropped());
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+  /**
+   * A subscriber that falls behind under the sample policy receives one in
+   * every {@link JCacheEventsDispatcher#SAMPLE_INTERVAL} events once its
+   * buffer is half full.
+   */
+
+  @Test public void testSample()
+  {
+    final ManualExecutor exec = new ManualExecutor();
+    final EventCount<Integer, Long> count = new EventCount<Integer, Long>();
+    final JCacheEventsDispatcher<Integer, Long> d =
+      JCacheEventsDispatcher.newDispatcher(exec);
+    final JCacheEventsSubscriberType s =
+      d.dispatcherSubscribe(count, JCacheEventsOverflow.OVERFLOW_SAMPLE, 8);
+
+    final int sampled = (int) (2 * JCacheEventsDispatcher.SAMPLE_INTERVAL);
+    JCacheEventsDispatcherTest.publish(d, 4 + sampled);
+    exec.runAll();
+    Assert.assertEquals(6, count.getRetrievals());
+    Assert.assertEquals(sampled - 2, s.subscriberGetDropped());
+  }
+
+  @Test(expected = NullCheckException.class) public
+    void
+    testSubscribeNull()
+  {
+    final JCacheEventsDispatcher<Integer, Long> d =
+      JCacheEventsDispatcher.newDispatcher(new ManualExecutor());
+    d.dispatcherSubscribe(
+      (JCacheEventsType<Integer, Long>) TestUtilities.actuallyNull(),
+      JCacheEventsOverflow.OVERFLOW_DROP,
+      8);
+  }
+}
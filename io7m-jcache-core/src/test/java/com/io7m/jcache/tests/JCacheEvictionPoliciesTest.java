@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcache.JCacheEvictionPolicies;
+import com.io7m.jcache.JCacheEvictionPolicyType;
+import com.io7m.jcache.JCacheException.JCacheExceptionPolicyError;
+
+@SuppressWarnings("static-method") public final class JCacheEvictionPoliciesTest
+{
+  /**
+   * Compare a policy against a straightforward model, in which each key is
+   * associated with an access count and the time of its last use (or
+   * insertion, if <code>recency_on_access</code> is <code>false</code>).
+   */
+
+  private static void checkAgainstModel(
+    final JCacheEvictionPolicyType<Integer> policy,
+    final boolean frequency,
+    final boolean recency_on_access)
+  {
+    final Map<Integer, long[]> model = new HashMap<Integer, long[]>();
+    final Random r = new Random(0x20304050L);
+    long time = 0;
+
+    for (int index = 0; index < 20000; ++index) {
+      ++time;
+      final Integer key = Integer.valueOf(r.nextInt(32));
+      final long[] m = model.get(key);
+
+      if (m != null) {
+        if (r.nextInt(8) == 0) {
+          policy.policyRecordRemove(key);
+          model.remove(key);
+        } else {
+          policy.policyRecordAccess(key);
+          m[0] = m[0] + 1;
+          if (recency_on_access) {
+            m[1] = time;
+          }
+        }
+      } else {
+        policy.policyRecordInsert(key, 1L);
+        model.put(key, new long[] { 1L, time });
+      }
+
+      if (model.size() > 16) {
+        Integer expected = null;
+        long[] best = null;
+        for (final Map.Entry<Integer, long[]> e : model.entrySet()) {
+          final long[] v = e.getValue();
+          if ((best == null)
+            || (frequency && (v[0] < best[0]))
+            || (((frequency == false) || (v[0] == best[0])) && (v[1] < best[1]))) {
+            best = v;
+            expected = e.getKey();
+          }
+        }
+
+        final Integer victim = policy.policyChooseVictim();
+        Assert.assertEquals(expected, victim);
+        policy.policyRecordRemove(victim);
+        model.remove(victim);
+      }
+    }
+
+    final List<Integer> keys = new ArrayList<Integer>(model.keySet());
+    for (final Integer k : keys) {
+      policy.policyRecordRemove(k);
+    }
+  }
+
+  @Test public void testFIFOModel()
+  {
+    JCacheEvictionPoliciesTest.checkAgainstModel(JCacheEvictionPolicies
+      .fifo()
+      .<Integer> newPolicy(), false, false);
+  }
+
+  @Test(expected = JCacheExceptionPolicyError.class) public
+    void
+    testFIFOEmpty()
+  {
+    JCacheEvictionPolicies.fifo().newPolicy().policyChooseVictim();
+  }
+
+  @Test public void testLFUModel()
+  {
+    JCacheEvictionPoliciesTest.checkAgainstModel(JCacheEvictionPolicies
+      .lfu()
+      .<Integer> newPolicy(), true, true);
+  }
+
+  @Test(expected = JCacheExceptionPolicyError.class) public
+    void
+    testLFUEmpty()
+  {
+    final JCacheEvictionPolicyType<Integer> p =
+      JCacheEvictionPolicies.lfu().newPolicy();
+    p.policyRecordInsert(Integer.valueOf(0), 1L);
+    p.policyRecordAccess(Integer.valueOf(0));
+    p.policyRecordRemove(Integer.valueOf(0));
+    p.policyChooseVictim();
+  }
+
+  @Test public void testLRUModel()
+  {
+    JCacheEvictionPoliciesTest.checkAgainstModel(JCacheEvictionPolicies
+      .lru()
+      .<Integer> newPolicy(), false, true);
+  }
+
+  @Test(expected = JCacheExceptionPolicyError.class) public
+    void
+    testLRUEmpty()
+  {
+    JCacheEvictionPolicies.lru().newPolicy().policyChooseVictim();
+  }
+
+  @Test public void testToString()
+  {
+    Assert.assertEquals("lru", JCacheEvictionPolicies.lru().toString());
+    Assert.assertEquals("lfu", JCacheEvictionPolicies.lfu().toString());
+    Assert.assertEquals("fifo", JCacheEvictionPolicies.fifo().toString());
+  }
+}
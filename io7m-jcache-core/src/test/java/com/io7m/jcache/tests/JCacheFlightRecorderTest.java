@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcache.BLUCacheConfig;
+import com.io7m.jcache.BLUCacheReceiptType;
+import com.io7m.jcache.BLUCacheTrivial;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheTrivial;
+import com.io7m.jcache.PCacheConfig;
+import com.io7m.jcache.PCacheConfig.BuilderType;
+import com.io7m.jcache.PCacheTrivial;
+import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
+
+@SuppressWarnings("static-method") public final class JCacheFlightRecorderTest
+{
+  private static Map<String, Integer> countEvents(
+    final Recording r)
+    throws Exception
+  {
+    final File file = File.createTempFile("jcache-", ".jfr");
+    try {
+      r.dump(file.toPath());
+      final List<RecordedEvent> events =
+        RecordingFile.readAllEvents(file.toPath());
+      final Map<String, Integer> counts = new HashMap<String, Integer>();
+      for (final RecordedEvent e : events) {
+        final String name = e.getEventType().getName();
+        if (name.startsWith("com.io7m.jcache.")) {
+          final Integer c = counts.get(name);
+          counts.put(name, Integer.valueOf((c == null) ? 1 : c.intValue() + 1));
+        }
+      }
+      return counts;
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static Recording newRecording()
+  {
+    final Recording r = new Recording();
+    r.enable("com.io7m.jcache.Load").withoutThreshold();
+    r.enable("com.io7m.jcache.Eviction");
+    r.enable("com.io7m.jcache.Borrow").withoutThreshold();
+    r.enable("com.io7m.jcache.PeriodEnd").withoutThreshold();
+    return r;
+  }
+
+  /**
+   * Borrowing and returning an object produces a borrow event.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testBorrow()
+    throws Exception
+  {
+    final LUCacheLoaderFaultInjectable<Integer, Integer> loader =
+      new LUCacheLoaderFaultInjectable<Integer, Integer>();
+    loader.setLoadedValue(Integer.valueOf(23));
+    loader.setLoadedValueSize(BigInteger.ONE);
+
+    final BLUCacheTrivial<Integer, Integer, Integer, Failure> cache =
+      BLUCacheTrivial.newCache(loader, BLUCacheConfig
+        .empty()
+        .withMaximumCapacity(BigInteger.valueOf(8L)));
+
+    final Recording r = JCacheFlightRecorderTest.newRecording();
+    try {
+      r.start();
+      final BLUCacheReceiptType<Integer, Integer> receipt =
+        cache.bluCacheGet(Integer.valueOf(0));
+      receipt.returnToCache();
+
+      /**
+       * A receipt that is never returned produces no borrow event.
+       */
+
+      cache.bluCacheGet(Integer.valueOf(1));
+      r.stop();
+
+      final Map<String, Integer> counts =
+        JCacheFlightRecorderTest.countEvents(r);
+      Assert.assertEquals(
+        Integer.valueOf(1),
+        counts.get("com.io7m.jcache.Borrow"));
+      Assert.assertEquals(
+        Integer.valueOf(2),
+        counts.get("com.io7m.jcache.Load"));
+    } finally {
+      r.close();
+    }
+  }
+
+  /**
+   * Loads and evictions produce events whilst a recording is running, and
+   * not otherwise.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testLoadEvict()
+    throws Exception
+  {
+    final LRUCacheTrivial<Integer, Long, Long, Failure> cache =
+      LRUCacheTrivial.newCache(
+        new LUCacheLoaderCounting<Integer>(),
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(2L)));
+
+    cache.cacheGetLU(Integer.valueOf(100));
+
+    final Recording r = JCacheFlightRecorderTest.newRecording();
+    try {
+      r.start();
+      for (int index = 0; index < 4; ++index) {
+        cache.cacheGetLU(Integer.valueOf(index));
+      }
+      r.stop();
+
+      cache.cacheGetLU(Integer.valueOf(200));
+
+      final Map<String, Integer> counts =
+        JCacheFlightRecorderTest.countEvents(r);
+      Assert.assertEquals(
+        Integer.valueOf(4),
+        counts.get("com.io7m.jcache.Load"));
+      Assert.assertEquals(
+        Integer.valueOf(3),
+        counts.get("com.io7m.jcache.Eviction"));
+    } finally {
+      r.close();
+    }
+  }
+
+  /**
+   * Ending a period produces a period end event carrying the number of
+   * objects evicted in that period.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testPeriodEnd()
+    throws Exception
+  {
+    final BuilderType b = PCacheConfig.newBuilder();
+    b.setMaximumAge(BigInteger.ONE);
+    b.setNoMaximumSize();
+
+    final LUCacheLoaderFaultInjectable<String, Integer> loader =
+      new LUCacheLoaderFaultInjectable<String, Integer>();
+    loader.setLoadedValue(Integer.valueOf(23));
+    loader.setLoadedValueSize(BigInteger.ONE);
+
+    final PCacheTrivial<String, Integer, Integer, Failure> cache =
+      PCacheTrivial.newCache(loader, b.create());
+
+    final Recording r = JCacheFlightRecorderTest.newRecording();
+    try {
+      r.start();
+      cache.cachePeriodStart();
+      cache.cacheGetPeriodic("a");
+      cache.cacheGetPeriodic("b");
+      cache.cachePeriodEnd();
+      for (int index = 0; index < 3; ++index) {
+        cache.cachePeriodStart();
+        cache.cacheGetPeriodic("a");
+        cache.cachePeriodEnd();
+      }
+      r.stop();
+
+      final File file = File.createTempFile("jcache-", ".jfr");
+      try {
+        r.dump(file.toPath());
+        long evicted = 0L;
+        int periods = 0;
+        for (final RecordedEvent e : RecordingFile.readAllEvents(file
+          .toPath())) {
+          if ("com.io7m.jcache.PeriodEnd".equals(e.getEventType().getName())) {
+            evicted = evicted + e.getLong("evicted");
+            ++periods;
+          }
+        }
+        Assert.assertEquals(4, periods);
+        Assert.assertTrue(evicted > 0L);
+        Assert.assertEquals(cache.cacheStatistics().getEvictions(), evicted);
+      } finally {
+        file.delete();
+      }
+    } finally {
+      r.close();
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcache.JCacheHistogram;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheTrivial;
+import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
+
+@SuppressWarnings("static-method") public final class JCacheHistogramTest
+{
+  /**
+   * Buckets are contiguous, cover every non-negative long, and every value
+   * falls into the bucket whose bounds contain it.
+   */
+
+  @Test public void testBucketsContiguous()
+  {
+    Assert.assertEquals(0L, JCacheHistogram.bucketLowerBound(0));
+    for (int index = 1; index < JCacheHistogram.BUCKETS; ++index) {
+      final long lower = JCacheHistogram.bucketLowerBound(index);
+      Assert.assertEquals(
+        JCacheHistogram.bucketUpperBound(index - 1) + 1L,
+        lower);
+      Assert.assertEquals(index, JCacheHistogram.bucketIndex(lower));
+      Assert.assertEquals(
+        index,
+        JCacheHistogram.bucketIndex(JCacheHistogram.bucketUpperBound(index)));
+    }
+    Assert.assertEquals(
+      Long.MAX_VALUE,
+      JCacheHistogram.bucketUpperBound(JCacheHistogram.BUCKETS - 1));
+  }
+
+  /**
+   * Every bucket is narrow relative to the values it counts.
+   */
+
+  @Test public void testBucketsPrecision()
+  {
+    for (int index = JCacheHistogram.SUB_BUCKETS; index < JCacheHistogram.BUCKETS; ++index) {
+      final long lower = JCacheHistogram.bucketLowerBound(index);
+      final long width =
+        (JCacheHistogram.bucketUpperBound(index) - lower) + 1L;
+      Assert.assertTrue((width * JCacheHistogram.SUB_BUCKETS) <= lower);
+    }
+  }
+
+  @Test public void testBucketIndexNegative()
+  {
+    Assert.assertEquals(0, JCacheHistogram.bucketIndex(-1L));
+    Assert.assertEquals(0, JCacheHistogram.bucketIndex(Long.MIN_VALUE));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class) public
+    void
+    testBucketOutOfRange()
+  {
+    JCacheHistogram.bucketLowerBound(JCacheHistogram.BUCKETS);
+  }
+
+  @Test public void testEmpty()
+  {
+    final JCacheHistogram h = JCacheHistogram.empty();
+    Assert.assertEquals(0L, h.getCount());
+    Assert.assertEquals(0L, h.getMinimum());
+    Assert.assertEquals(0L, h.getMaximum());
+    Assert.assertEquals(0L, h.getTotal());
+    Assert.assertEquals(0.0, h.getMean(), 0.0);
+    Assert.assertEquals(0L, h.getValueAtQuantile(0.99));
+    Assert.assertEquals(h, JCacheHistogram.empty());
+  }
+
+  /**
+   * Quantiles are monotonic and lie between the exact minimum and maximum.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testQuantiles()
+    throws Exception
+  {
+    final LRUCacheTrivial<Integer, Long, Long, Failure> cache =
+      LRUCacheTrivial.newCache(
+        new LUCacheLoaderCounting<Integer>(),
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(16L)));
+    cache.cacheStatisticsSetHistogramsEnabled(true);
+
+    for (int index = 0; index < 10000; ++index) {
+      cache.cacheGetLU(Integer.valueOf(index % 32));
+    }
+
+    final JCacheHistogram h = cache.cacheStatistics().getLatencyRequest();
+    Assert.assertEquals(10000L, h.getCount());
+    Assert.assertTrue(h.getMinimum() <= h.getMaximum());
+    Assert.assertTrue(h.getMean() >= h.getMinimum());
+    Assert.assertTrue(h.getMean() <= h.getMaximum());
+    Assert.assertEquals(h.getMaximum(), h.getValueAtQuantile(1.0));
+
+    long previous = h.getValueAtQuantile(0.0);
+    Assert.assertTrue(previous >= h.getMinimum());
+    for (int q = 1; q <= 1000; ++q) {
+      final long v = h.getValueAtQuantile(q / 1000.0);
+      Assert.assertTrue(v >= previous);
+      Assert.assertTrue(v <= h.getMaximum());
+      previous = v;
+    }
+
+    long total = 0L;
+    for (int index = 0; index < JCacheHistogram.BUCKETS; ++index) {
+      total = total + h.getBucketCount(index);
+    }
+    Assert.assertEquals(h.getCount(), total);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public
+    void
+    testQuantileInvalid()
+  {
+    JCacheHistogram.empty().getValueAtQuantile(1.5);
+  }
+}
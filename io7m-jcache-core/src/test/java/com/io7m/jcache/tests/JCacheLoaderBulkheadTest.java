@@ -0,0 +1,497 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcache.JCacheException.JCacheExceptionLoadRejected;
+import com.io7m.jcache.JCacheLoaderBulkhead;
+import com.io7m.jcache.JCacheLoaderLongType;
+import com.io7m.jcache.LRUCacheConcurrent;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheTrivial;
+import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
+import com.io7m.jnull.NullCheckException;
+import com.io7m.jranges.RangeCheckException;
+
+@SuppressWarnings("static-method") public final class JCacheLoaderBulkheadTest
+{
+  /**
+   * A loader that blocks every load until it is released, and records the
+   * largest number of loads that were in progress at the same time.
+   */
+
+  private static final class GatedLoader implements
+    JCacheLoaderLongType<String, Long, Failure>
+  {
+    private final AtomicLong     active;
+    private final AtomicLong     closes;
+    private final CountDownLatch gate;
+    private final AtomicLong     loads;
+    private final AtomicLong     peak;
+
+    GatedLoader()
+    {
+      this.active = new AtomicLong();
+      this.closes = new AtomicLong();
+      this.gate = new CountDownLatch(1);
+      this.loads = new AtomicLong();
+      this.peak = new AtomicLong();
+    }
+
+    @Override public void cacheValueClose(
+      final Long v)
+    {
+      this.closes.incrementAndGet();
+    }
+
+    @Override public Long cacheValueLoad(
+      final String key)
+      throws Failure
+    {
+      final long now = this.active.incrementAndGet();
+      for (;;) {
+        final long p = this.peak.get();
+        if (now <= p || this.peak.compareAndSet(p, now)) {
+          break;
+        }
+      }
+
+      try {
+        this.gate.await();
+        if ("fail".equals(key)) {
+          throw new Failure();
+        }
+        return Long.valueOf(this.loads.incrementAndGet());
+      } catch (final InterruptedException x) {
+        throw new AssertionError(x);
+      } finally {
+        this.active.decrementAndGet();
+      }
+    }
+
+    @Override public BigInteger cacheValueSizeOf(
+      final Long v)
+    {
+      return BigInteger.valueOf(this.cacheValueSizeOfLong(v));
+    }
+
+    @Override public long cacheValueSizeOfLong(
+      final Long v)
+    {
+      return 3L;
+    }
+
+    void open()
+    {
+      this.gate.countDown();
+    }
+  }
+
+  private static final Executor DIRECT;
+
+  static {
+    DIRECT = new Executor() {
+      @Override public void execute(
+        final Runnable r)
+      {
+        r.run();
+      }
+    };
+  }
+
+  private static void awaitQueueDepth(
+    final JCacheLoaderBulkhead<?, ?, ?> b,
+    final long depth)
+    throws InterruptedException
+  {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (b.getQueueDepth() != depth) {
+      Assert.assertTrue(System.nanoTime() < deadline);
+      Thread.sleep(1L);
+    }
+  }
+
+  private static Thread startLoad(
+    final JCacheLoaderBulkhead<String, Long, Failure> b,
+    final String key,
+    final AtomicReference<Throwable> error)
+  {
+    final Thread t = new Thread(new Runnable() {
+      @Override public void run()
+      {
+        try {
+          b.cacheValueLoad(key);
+        } catch (final Throwable x) {
+          error.set(x);
+        }
+      }
+    });
+    t.start();
+    return t;
+  }
+
+  /**
+   * Asynchronous loads through a concurrent cache are capped and queued.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncCache()
+    throws Exception
+  {
+    final ExecutorService exec = Executors.newCachedThreadPool();
+    try {
+      final GatedLoader loader = new GatedLoader();
+      final JCacheLoaderBulkhead<String, Long, Failure> b =
+        JCacheLoaderBulkhead.newBulkhead(
+          loader,
+          exec,
+          2,
+          10L,
+          TimeUnit.SECONDS);
+      final LRUCacheConcurrent<String, Long, Long, Failure> cache =
+        LRUCacheConcurrent.newCache(
+          b,
+          LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(30L)));
+
+      final CompletableFuture<Long> f0 = cache.cacheGetLUAsync("a");
+      final CompletableFuture<Long> f1 = cache.cacheGetLUAsync("b");
+      final CompletableFuture<Long> f2 = cache.cacheGetLUAsync("c");
+      final CompletableFuture<Long> f3 = cache.cacheGetLUAsync("d");
+      JCacheLoaderBulkheadTest.awaitQueueDepth(b, 2L);
+
+      Assert.assertEquals(2L, b.getActive());
+      Assert.assertFalse(f0.isDone() || f1.isDone());
+      Assert.assertFalse(f2.isDone() || f3.isDone());
+
+      loader.open();
+      f0.get();
+      f1.get();
+      f2.get();
+      f3.get();
+
+      Assert.assertEquals(2L, loader.peak.get());
+      Assert.assertEquals(4L, loader.loads.get());
+      Assert.assertEquals(0L, b.getQueueDepth());
+      Assert.assertEquals(0L, b.getRejections());
+      Assert.assertEquals(BigInteger.valueOf(12L), cache.cacheSize());
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+  /**
+   * Failures of the underlying loader are propagated to asynchronous
+   * callers, and release capacity.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncFailure()
+    throws Exception
+  {
+    final ExecutorService exec = Executors.newCachedThreadPool();
+    try {
+      final GatedLoader loader = new GatedLoader();
+      loader.open();
+      final JCacheLoaderBulkhead<String, Long, Failure> b =
+        JCacheLoaderBulkhead.newBulkhead(
+          loader,
+          exec,
+          1,
+          10L,
+          TimeUnit.SECONDS);
+
+      try {
+        b.cacheValueLoadAsync("fail").get();
+        Assert.fail();
+      } catch (final ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof Failure);
+      }
+
+      Assert.assertEquals(Long.valueOf(1L), b.cacheValueLoadAsync("a").get());
+      Assert.assertEquals(0L, b.getActive());
+      Assert.assertEquals(0L, b.getRejections());
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+  /**
+   * An asynchronous load rejected by the executor fails its future instead
+   * of raising an exception.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncRejected()
+    throws Exception
+  {
+    final JCacheLoaderBulkhead<String, Long, Failure> b =
+      JCacheLoaderBulkhead.newBulkhead(
+        new GatedLoader(),
+        new Executor() {
+          @Override public void execute(
+            final Runnable r)
+          {
+            throw new RejectedExecutionException();
+          }
+        },
+        1,
+        0L,
+        TimeUnit.SECONDS);
+
+    final CompletableFuture<Long> f = b.cacheValueLoadAsync("a");
+    try {
+      f.get();
+      Assert.fail();
+    } catch (final ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+    Assert.assertEquals(0L, b.getActive());
+  }
+
+  /**
+   * Bulk loads are passed to an underlying bulk loader as a single call.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testBulk()
+    throws Exception
+  {
+    final LUCacheLoaderBulk<String> loader = new LUCacheLoaderBulk<String>();
+    final JCacheLoaderBulkhead<String, Long, Failure> b =
+      JCacheLoaderBulkhead.newBulkhead(
+        loader,
+        JCacheLoaderBulkheadTest.DIRECT,
+        1,
+        0L,
+        TimeUnit.SECONDS);
+    final LRUCacheTrivial<String, Long, Long, Failure> cache =
+      LRUCacheTrivial.newCache(
+        b,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.TEN));
+
+    final Map<String, Long> r = cache.cacheGetLUAll(Arrays.asList("a", "b"));
+    Assert.assertEquals(2, r.size());
+    Assert.assertEquals(1, loader.getBatches().size());
+    Assert.assertEquals(0L, b.getActive());
+  }
+
+  /**
+   * Bulk loads and closes through a loader that cannot load or close in
+   * bulk are performed one at a time. A failed bulk load closes the objects
+   * it had already loaded.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testBulkFallback()
+    throws Exception
+  {
+    final GatedLoader loader = new GatedLoader();
+    loader.open();
+    final JCacheLoaderBulkhead<String, Long, Failure> b =
+      JCacheLoaderBulkhead.newBulkhead(
+        loader,
+        JCacheLoaderBulkheadTest.DIRECT,
+        1,
+        0L,
+        TimeUnit.SECONDS);
+
+    final Map<String, Long> r = b.cacheValueLoadAll(Arrays.asList("a", "b"));
+    Assert.assertEquals(2, r.size());
+    Assert.assertEquals(2L, loader.loads.get());
+
+    b.cacheValueCloseAll(new ArrayList<Long>(r.values()));
+    Assert.assertEquals(2L, loader.closes.get());
+
+    try {
+      b.cacheValueLoadAll(Arrays.asList("c", "fail"));
+      Assert.fail();
+    } catch (final Failure e) {
+      // Expected
+    }
+    Assert.assertEquals(3L, loader.closes.get());
+    Assert.assertEquals(0L, b.getActive());
+  }
+
+  /**
+   * Closing and sizing are delegated to the underlying loader.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testDelegation()
+    throws Exception
+  {
+    final GatedLoader loader = new GatedLoader();
+    final JCacheLoaderBulkhead<String, Long, Failure> b =
+      JCacheLoaderBulkhead.newBulkhead(
+        loader,
+        JCacheLoaderBulkheadTest.DIRECT,
+        1,
+        0L,
+        TimeUnit.SECONDS);
+
+    b.cacheValueClose(Long.valueOf(1L));
+    Assert.assertEquals(1L, loader.closes.get());
+    Assert.assertEquals(3L, b.cacheValueSizeOfLong(Long.valueOf(1L)));
+    Assert.assertEquals(
+      BigInteger.valueOf(3L),
+      b.cacheValueSizeOf(Long.valueOf(1L)));
+    Assert.assertEquals(1, b.getMaximumConcurrent());
+
+    final LUCacheLoaderFaultInjectable<String, Long> big =
+      new LUCacheLoaderFaultInjectable<String, Long>();
+    big.setLoadedValueSize(BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE));
+    final JCacheLoaderBulkhead<String, Long, Failure> bb =
+      JCacheLoaderBulkhead.newBulkhead(
+        big,
+        JCacheLoaderBulkheadTest.DIRECT,
+        1,
+        0L,
+        TimeUnit.SECONDS);
+    Assert.assertEquals(Long.MAX_VALUE, bb.cacheValueSizeOfLong(1L));
+  }
+
+  /**
+   * Waiting loads that are interrupted are rejected.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testInterrupted()
+    throws Exception
+  {
+    final GatedLoader loader = new GatedLoader();
+    final JCacheLoaderBulkhead<String, Long, Failure> b =
+      JCacheLoaderBulkhead.newBulkhead(
+        loader,
+        JCacheLoaderBulkheadTest.DIRECT,
+        1,
+        10L,
+        TimeUnit.SECONDS);
+
+    final AtomicReference<Throwable> e0 = new AtomicReference<Throwable>();
+    final AtomicReference<Throwable> e1 = new AtomicReference<Throwable>();
+    final Thread t0 = JCacheLoaderBulkheadTest.startLoad(b, "a", e0);
+    while (b.getActive() != 1L) {
+      Thread.sleep(1L);
+    }
+
+    final Thread t1 = JCacheLoaderBulkheadTest.startLoad(b, "b", e1);
+    JCacheLoaderBulkheadTest.awaitQueueDepth(b, 1L);
+    t1.interrupt();
+    t1.join();
+
+    Assert.assertTrue(e1.get() instanceof JCacheExceptionLoadRejected);
+    Assert.assertEquals(1L, b.getRejections());
+    Assert.assertEquals(0L, b.getQueueDepth());
+
+    loader.open();
+    t0.join();
+    Assert.assertNull(e0.get());
+  }
+
+  @Test(expected = RangeCheckException.class) public
+    void
+    testMaximumInvalid()
+  {
+    JCacheLoaderBulkhead.newBulkhead(
+      new GatedLoader(),
+      JCacheLoaderBulkheadTest.DIRECT,
+      0,
+      1L,
+      TimeUnit.SECONDS);
+  }
+
+  @Test(expected = NullCheckException.class) public
+    void
+    testNullExecutor()
+  {
+    JCacheLoaderBulkhead.newBulkhead(
+      new GatedLoader(),
+      null,
+      1,
+      1L,
+      TimeUnit.SECONDS);
+  }
+
+  /**
+   * Loads that cannot start within the timeout are rejected and counted,
+   * and capacity returns once the running load finishes.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testTimeout()
+    throws Exception
+  {
+    final GatedLoader loader = new GatedLoader();
+    final JCacheLoaderBulkhead<String, Long, Failure> b =
+      JCacheLoaderBulkhead.newBulkhead(
+        loader,
+        JCacheLoaderBulkheadTest.DIRECT,
+        1,
+        10L,
+        TimeUnit.MILLISECONDS);
+
+    final AtomicReference<Throwable> e0 = new AtomicReference<Throwable>();
+    final Thread t0 = JCacheLoaderBulkheadTest.startLoad(b, "a", e0);
+    while (b.getActive() != 1L) {
+      Thread.sleep(1L);
+    }
+
+    for (int index = 0; index < 3; ++index) {
+      try {
+        b.cacheValueLoad("b");
+        Assert.fail();
+      } catch (final JCacheExceptionLoadRejected x) {
+        Assert.assertTrue(x.getMessage().contains("'b'"));
+      }
+    }
+
+    Assert.assertEquals(3L, b.getRejections());
+    Assert.assertEquals(0L, b.getQueueDepth());
+
+    loader.open();
+    t0.join();
+    Assert.assertNull(e0.get());
+    Assert.assertEquals(0L, b.getActive());
+    Assert.assertEquals(Long.valueOf(2L), b.cacheValueLoad("c"));
+    Assert.assertEquals(3L, b.getRejections());
+  }
+}
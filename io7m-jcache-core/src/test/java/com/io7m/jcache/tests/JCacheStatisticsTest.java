@@ -0,0 +1,314 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcache.JCacheHistogram;
+import com.io7m.jcache.JCacheStatistics;
+import com.io7m.jcache.LRUCacheClock;
+import com.io7m.jcache.LRUCacheConcurrent;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheLinked;
+import com.io7m.jcache.LRUCacheTrivial;
+import com.io7m.jcache.LRUCacheType;
+import com.io7m.jcache.LUCacheGDSF;
+import com.io7m.jcache.LUCachePolicied;
+import com.io7m.jcache.LUCacheType;
+import com.io7m.jcache.LUCacheWTinyLFU;
+import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
+
+@SuppressWarnings("static-method") public final class JCacheStatisticsTest
+{
+  private static LRUCacheConfig newConfig(
+    final long capacity)
+  {
+    return LRUCacheConfig.empty().withMaximumCapacity(
+      BigInteger.valueOf(capacity));
+  }
+
+  private static List<LUCacheType<String, Long, Long, Failure>> newCaches(
+    final long capacity)
+  {
+    final LRUCacheConfig c = JCacheStatisticsTest.newConfig(capacity);
+    final List<LUCacheType<String, Long, Long, Failure>> caches =
+      new ArrayList<LUCacheType<String, Long, Long, Failure>>();
+    caches.add(LRUCacheTrivial.<String, Long, Long, Failure> newCache(
+      new LUCacheLoaderCounting<String>(),
+      c));
+    caches.add(LRUCacheLinked.<String, Long, Long, Failure> newCache(
+      new LUCacheLoaderCounting<String>(),
+      c));
+    caches.add(LRUCacheClock.<String, Long, Long, Failure> newCache(
+      new LUCacheLoaderCounting<String>(),
+      c));
+    caches.add(LRUCacheConcurrent.<String, Long, Long, Failure> newCache(
+      new LUCacheLoaderCounting<String>(),
+      c));
+    caches.add(LUCachePolicied.<String, Long, Long, Failure> newCache(
+      new LUCacheLoaderCounting<String>(),
+      c));
+    caches.add(LUCacheWTinyLFU.<String, Long, Long, Failure> newCache(
+      new LUCacheLoaderCounting<String>(),
+      c));
+    caches.add(LUCacheGDSF.<String, Long, Long, Failure> newCache(
+      new LUCacheLoaderCounting<String>(),
+      c));
+    return caches;
+  }
+
+  /**
+   * Every cache counts hits, misses, loads, and evictions in the same way.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testCounts()
+    throws Exception
+  {
+    for (final LUCacheType<String, Long, Long, Failure> cache : JCacheStatisticsTest
+      .newCaches(2L)) {
+      cache.cacheGetLU("a");
+      cache.cacheGetLU("a");
+      cache.cacheGetLU("b");
+      cache.cacheGetLU("c");
+
+      final JCacheStatistics s = cache.cacheStatistics();
+      final String name = cache.getClass().getSimpleName();
+      Assert.assertEquals(name, 1L, s.getHits());
+      Assert.assertEquals(name, 3L, s.getMisses());
+      Assert.assertEquals(name, 4L, s.getRequests());
+      Assert.assertEquals(name, 3L, s.getLoads());
+      Assert.assertEquals(name, 0L, s.getLoadFailures());
+      Assert.assertEquals(name, 1L, s.getEvictions());
+      Assert.assertEquals(name, 1L, s.getEvictedSize());
+      Assert.assertEquals(name, 0.25, s.getHitRatio(), 0.0);
+      Assert.assertEquals(name, 0.75, s.getMissRatio(), 0.0);
+      Assert.assertTrue(name, s.getLoadTime() >= 0L);
+
+      /**
+       * Deleting the cache is not eviction.
+       */
+
+      cache.cacheDelete();
+      Assert.assertEquals(name, 1L, cache.cacheStatistics().getEvictions());
+    }
+  }
+
+  /**
+   * A cache that has never been used has a hit ratio of one.
+   */
+
+  @Test public void testEmpty()
+  {
+    for (final LUCacheType<String, Long, Long, Failure> cache : JCacheStatisticsTest
+      .newCaches(2L)) {
+      final JCacheStatistics s = cache.cacheStatistics();
+      Assert.assertEquals(0L, s.getRequests());
+      Assert.assertEquals(1.0, s.getHitRatio(), 0.0);
+      Assert.assertEquals(0.0, s.getMissRatio(), 0.0);
+      Assert.assertEquals(0L, s.getLoadTime());
+    }
+  }
+
+  /**
+   * Snapshots are values.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testEquals()
+    throws Exception
+  {
+    final LRUCacheType<String, Long, Long, Failure> cache =
+      LRUCacheTrivial.newCache(
+        new LUCacheLoaderCounting<String>(),
+        JCacheStatisticsTest.newConfig(2L));
+
+    final JCacheStatistics s0 = cache.cacheStatistics();
+    final JCacheStatistics s1 = cache.cacheStatistics();
+    Assert.assertEquals(s0, s0);
+    Assert.assertEquals(s0, s1);
+    Assert.assertEquals(s0.hashCode(), s1.hashCode());
+    Assert.assertEquals(s0.toString(), s1.toString());
+    Assert.assertNotEquals(s0, null);
+    Assert.assertNotEquals(s0, Integer.valueOf(23));
+
+    cache.cacheGetLU("a");
+    final JCacheStatistics s2 = cache.cacheStatistics();
+    Assert.assertNotEquals(s0, s2);
+    Assert.assertEquals(0L, s0.getMisses());
+    Assert.assertEquals(1L, s2.getMisses());
+  }
+
+  /**
+   * Bulk retrievals count each key, and each loaded object.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testBulk()
+    throws Exception
+  {
+    final LUCacheLoaderBulk<String> loader = new LUCacheLoaderBulk<String>();
+    final LRUCacheTrivial<String, Long, Long, Failure> cache =
+      LRUCacheTrivial.newCache(loader, JCacheStatisticsTest.newConfig(8L));
+
+    cache.cacheGetLUAll(Arrays.asList("a", "b"));
+    cache.cacheGetLUAll(Arrays.asList("a", "c"));
+
+    final JCacheStatistics s = cache.cacheStatistics();
+    Assert.assertEquals(1L, s.getHits());
+    Assert.assertEquals(3L, s.getMisses());
+    Assert.assertEquals(3L, s.getLoads());
+    Assert.assertEquals(0L, s.getLoadFailures());
+  }
+
+  /**
+   * Loads that raise exceptions or return <code>null</code> are failures.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testLoadFailures()
+    throws Exception
+  {
+    final LUCacheLoaderFaultInjectable<String, Long> loader =
+      new LUCacheLoaderFaultInjectable<String, Long>();
+    final LRUCacheTrivial<String, Long, Long, Failure> cache =
+      LRUCacheTrivial.newCache(loader, JCacheStatisticsTest.newConfig(8L));
+
+    loader.setFailure(true);
+    try {
+      cache.cacheGetLU("a");
+      Assert.fail();
+    } catch (final Failure e) {
+      // Expected
+    }
+
+    loader.setFailure(false);
+    try {
+      cache.cacheGetLU("b");
+      Assert.fail();
+    } catch (final Exception e) {
+      // Expected: the loader returned null
+    }
+
+    loader.setLoadedValue(Long.valueOf(23L));
+    loader.setLoadedValueSize(BigInteger.ONE);
+    cache.cacheGetLU("c");
+
+    final JCacheStatistics s = cache.cacheStatistics();
+    Assert.assertEquals(0L, s.getHits());
+    Assert.assertEquals(3L, s.getMisses());
+    Assert.assertEquals(1L, s.getLoads());
+    Assert.assertEquals(2L, s.getLoadFailures());
+  }
+
+  /**
+   * Histograms are disabled by default.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testHistogramsDisabled()
+    throws Exception
+  {
+    for (final LUCacheType<String, Long, Long, Failure> cache : JCacheStatisticsTest
+      .newCaches(1L)) {
+      cache.cacheGetLU("a");
+      cache.cacheGetLU("b");
+
+      final JCacheStatistics s = cache.cacheStatistics();
+      Assert.assertEquals(JCacheHistogram.empty(), s.getLatencyLoad());
+      Assert.assertEquals(JCacheHistogram.empty(), s.getLatencyClose());
+      Assert.assertEquals(JCacheHistogram.empty(), s.getLatencyRequest());
+    }
+  }
+
+  /**
+   * Every cache records a latency for each request, load and close, once
+   * histograms are enabled.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testHistogramsEnabled()
+    throws Exception
+  {
+    for (final LUCacheType<String, Long, Long, Failure> cache : JCacheStatisticsTest
+      .newCaches(1L)) {
+      final String name = cache.getClass().getSimpleName();
+      cache.cacheStatisticsSetHistogramsEnabled(true);
+      cache.cacheGetLU("a");
+      cache.cacheGetLU("a");
+      cache.cacheGetLU("b");
+
+      final JCacheStatistics s = cache.cacheStatistics();
+      Assert.assertEquals(name, 3L, s.getLatencyRequest().getCount());
+      Assert.assertEquals(name, 2L, s.getLatencyLoad().getCount());
+      Assert.assertEquals(name, 1L, s.getLatencyClose().getCount());
+      Assert.assertEquals(name, s.getLoadTime(), s
+        .getLatencyLoad()
+        .getTotal());
+
+      cache.cacheStatisticsReset();
+      Assert.assertEquals(name, 0L, cache
+        .cacheStatistics()
+        .getLatencyRequest()
+        .getCount());
+
+      cache.cacheGetLU("c");
+      cache.cacheStatisticsSetHistogramsEnabled(false);
+      Assert.assertEquals(name, JCacheHistogram.empty(), cache
+        .cacheStatistics()
+        .getLatencyRequest());
+    }
+  }
+
+  /**
+   * Resetting the statistics sets all counters to zero.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testReset()
+    throws Exception
+  {
+    for (final LUCacheType<String, Long, Long, Failure> cache : JCacheStatisticsTest
+      .newCaches(1L)) {
+      cache.cacheGetLU("a");
+      cache.cacheGetLU("b");
+      Assert.assertEquals(2L, cache.cacheStatistics().getMisses());
+
+      cache.cacheStatisticsReset();
+      final JCacheStatistics s = cache.cacheStatistics();
+      Assert.assertEquals(0L, s.getHits());
+      Assert.assertEquals(0L, s.getMisses());
+      Assert.assertEquals(0L, s.getLoads());
+      Assert.assertEquals(0L, s.getLoadTime());
+      Assert.assertEquals(0L, s.getEvictions());
+      Assert.assertEquals(0L, s.getEvictedSize());
+    }
+  }
+}
@@ -26,6 +26,7 @@ import org.junit.Test;
 
 import com.io7m.jcache.JCacheEventsType;
 import com.io7m.jcache.JCacheException;
+import com.io7m.jcache.JCacheStatistics;
 import com.io7m.jcache.LRUCacheAbstract;
 import com.io7m.jcache.LRUCacheConfig;
 import com.io7m.jcache.LRUCacheType;
@@ -115,6 +116,40 @@ public final class LRUCacheAbstractTest
             Assert.assertFalse(calls.get(8));
             calls.set(8);
           }
+
+          @Override public long cacheItemCountLong()
+          {
+            Assert.assertFalse(calls.get(9));
+            calls.set(9);
+            return 1L;
+          }
+
+          @Override public long cacheSizeLong()
+          {
+            Assert.assertFalse(calls.get(10));
+            calls.set(10);
+            return 1L;
+          }
+
+          @Override public JCacheStatistics cacheStatistics()
+          {
+            Assert.assertFalse(calls.get(11));
+            calls.set(11);
+            return TestUtilities.actuallyNull();
+          }
+
+          @Override public void cacheStatisticsReset()
+          {
+            Assert.assertFalse(calls.get(12));
+            calls.set(12);
+          }
+
+          @Override public void cacheStatisticsSetHistogramsEnabled(
+            final boolean enabled)
+          {
+            Assert.assertFalse(calls.get(13));
+            calls.set(13);
+          }
         });
 
     c.cacheDelete();
@@ -127,8 +162,13 @@ public final class LRUCacheAbstractTest
     c.cacheSize();
     c.cacheGetConfiguration();
     c.cacheSetConfiguration(LRUCacheConfig.empty());
+    c.cacheItemCountLong();
+    c.cacheSizeLong();
+    c.cacheStatistics();
+    c.cacheStatisticsReset();
+    c.cacheStatisticsSetHistogramsEnabled(true);
 
-    for (int index = 0; index <= 8; ++index) {
+    for (int index = 0; index <= 13; ++index) {
       Assert.assertTrue(calls.get(index));
     }
   }
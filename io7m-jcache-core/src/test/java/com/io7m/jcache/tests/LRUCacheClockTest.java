@@ -0,0 +1,387 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcache.JCacheException;
+import com.io7m.jcache.JCacheLoaderType;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheClock;
+import com.io7m.jcache.LRUCacheTrivial;
+import com.io7m.jcache.LRUCacheType;
+import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
+
+@SuppressWarnings("static-method") public final class LRUCacheClockTest extends
+  LRUCacheContractTest
+{
+  @Override protected boolean isEvictionExact()
+  {
+    return false;
+  }
+
+  @Override protected
+    <K, TVIEW, TCACHE extends TVIEW>
+    LRUCacheType<K, TVIEW, TCACHE, Failure>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, Failure> loader,
+      final LRUCacheConfig config)
+  {
+    return LRUCacheClock.newCache(loader, config);
+  }
+
+  /**
+   * Many threads retrieving objects concurrently leave the cache in a
+   * consistent state.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testConcurrentConsistent()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<Integer> loader =
+      new LUCacheLoaderCounting<Integer>();
+    final LRUCacheClock<Integer, Long, Long, Failure> cache =
+      LRUCacheClock.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(64L)));
+
+    final int thread_count = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final Thread[] threads = new Thread[thread_count];
+
+    for (int t = 0; t < thread_count; ++t) {
+      final long seed = t;
+      threads[t] = new Thread(new Runnable() {
+        @Override public void run()
+        {
+          try {
+            final Random r = new Random(seed);
+            start.await();
+            for (int index = 0; index < 20000; ++index) {
+              final Integer key = Integer.valueOf(r.nextInt(256));
+              Assert.assertNotNull(cache.cacheGetLU(key));
+              Assert.assertTrue(cache.cacheSizeLong() <= 64L);
+            }
+          } catch (final Throwable x) {
+            error.set(x);
+          }
+        }
+      });
+      threads[t].start();
+    }
+
+    start.countDown();
+    for (final Thread t : threads) {
+      t.join();
+    }
+
+    Assert.assertNull(error.get());
+    Assert.assertTrue(cache.cacheSizeLong() <= 64L);
+    Assert.assertEquals(cache.cacheItemCountLong(), cache.cacheSizeLong());
+    Assert.assertEquals(
+      loader.getLoads() - loader.getCloses(),
+      cache.cacheItemCountLong());
+
+    cache.cacheDelete();
+    Assert.assertEquals(0L, cache.cacheSizeLong());
+    Assert.assertEquals(loader.getLoads(), loader.getCloses());
+  }
+
+  /**
+   * Run the same sequence of keys against a CLOCK cache and an LRU cache, and
+   * check that the CLOCK cache loads at most 5% more objects than the LRU
+   * cache.
+   */
+
+  private static void checkHitRatioParity(
+    final int[] keys)
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<Integer> loader_c =
+      new LUCacheLoaderCounting<Integer>();
+    final LUCacheLoaderCounting<Integer> loader_l =
+      new LUCacheLoaderCounting<Integer>();
+    final LRUCacheConfig config =
+      LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(100L));
+
+    final LRUCacheClock<Integer, Long, Long, Failure> clock =
+      LRUCacheClock.newCache(loader_c, config);
+    final LRUCacheTrivial<Integer, Long, Long, Failure> lru =
+      LRUCacheTrivial.newCache(loader_l, config);
+
+    for (final int k : keys) {
+      final Integer key = Integer.valueOf(k);
+      clock.cacheGetLU(key);
+      lru.cacheGetLU(key);
+    }
+
+    Assert.assertTrue(
+      loader_c.getLoads() + " <= " + loader_l.getLoads(),
+      (loader_c.getLoads() * 100L) <= (loader_l.getLoads() * 105L));
+  }
+
+  /**
+   * A cyclic scan over more objects than the cache can hold misses on every
+   * access with both CLOCK and LRU.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testHitRatioParityLoop()
+    throws Exception
+  {
+    final int[] keys = new int[20000];
+    for (int index = 0; index < keys.length; ++index) {
+      keys[index] = index % 150;
+    }
+    LRUCacheClockTest.checkHitRatioParity(keys);
+  }
+
+  /**
+   * A skewed workload hits about as often with CLOCK as with LRU.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testHitRatioParitySkewed()
+    throws Exception
+  {
+    final Random r = new Random(0x10203040L);
+    final int[] keys = new int[200000];
+    for (int index = 0; index < keys.length; ++index) {
+      final double u = r.nextDouble();
+      keys[index] = (int) (1000 * u * u * u);
+    }
+    LRUCacheClockTest.checkHitRatioParity(keys);
+  }
+
+  /**
+   * A uniformly random workload hits about as often with CLOCK as with LRU.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testHitRatioParityUniform()
+    throws Exception
+  {
+    final Random r = new Random(0x50607080L);
+    final int[] keys = new int[200000];
+    for (int index = 0; index < keys.length; ++index) {
+      keys[index] = r.nextInt(200);
+    }
+    LRUCacheClockTest.checkHitRatioParity(keys);
+  }
+
+  /**
+   * A slow load delays only the callers that requested the same key: other
+   * keys are loaded and retrieved in the meantime, and concurrent requests
+   * for the slow key share its load.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testLoadsParallel()
+    throws Exception
+  {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch gate = new CountDownLatch(1);
+    final AtomicLong slow_loads = new AtomicLong();
+    final JCacheLoaderType<String, Long, Failure> loader =
+      new JCacheLoaderType<String, Long, Failure>() {
+        @Override public void cacheValueClose(
+          final Long v)
+        {
+          // Nothing
+        }
+
+        @Override public Long cacheValueLoad(
+          final String key)
+          throws Failure
+        {
+          if ("slow".equals(key)) {
+            slow_loads.incrementAndGet();
+            entered.countDown();
+            try {
+              gate.await();
+            } catch (final InterruptedException x) {
+              throw new Failure();
+            }
+          }
+          return Long.valueOf(key.length());
+        }
+
+        @Override public BigInteger cacheValueSizeOf(
+          final Long v)
+        {
+          return BigInteger.ONE;
+        }
+      };
+
+    final LRUCacheClock<String, Long, Long, Failure> cache =
+      LRUCacheClock.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.TEN));
+
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final Thread[] threads = new Thread[2];
+    for (int index = 0; index < threads.length; ++index) {
+      threads[index] = new Thread(new Runnable() {
+        @Override public void run()
+        {
+          try {
+            Assert.assertEquals(Long.valueOf(4L), cache.cacheGetLU("slow"));
+          } catch (final Throwable x) {
+            error.set(x);
+          }
+        }
+      });
+      threads[index].start();
+    }
+
+    entered.await();
+    Assert.assertEquals(Long.valueOf(4L), cache.cacheGetLU("fast"));
+    Assert.assertEquals(Long.valueOf(4L), cache.cacheGetLU("fast"));
+    Assert.assertTrue(cache.cacheIsCached("fast"));
+    Assert.assertFalse(cache.cacheIsCached("slow"));
+
+    gate.countDown();
+    for (final Thread t : threads) {
+      t.join();
+    }
+
+    Assert.assertNull(error.get());
+    Assert.assertEquals(1L, slow_loads.get());
+    Assert.assertTrue(cache.cacheIsCached("slow"));
+    Assert.assertEquals(2L, cache.cacheItemCountLong());
+  }
+
+  /**
+   * A value that finishes loading after the cache is deleted is returned to
+   * its caller, but not cached.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testLoadsDeleted()
+    throws Exception
+  {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch gate = new CountDownLatch(1);
+    final AtomicLong closes = new AtomicLong();
+    final JCacheLoaderType<String, Long, Failure> loader =
+      new JCacheLoaderType<String, Long, Failure>() {
+        @Override public void cacheValueClose(
+          final Long v)
+        {
+          closes.incrementAndGet();
+        }
+
+        @Override public Long cacheValueLoad(
+          final String key)
+          throws Failure
+        {
+          entered.countDown();
+          try {
+            gate.await();
+          } catch (final InterruptedException x) {
+            throw new Failure();
+          }
+          return Long.valueOf(23L);
+        }
+
+        @Override public BigInteger cacheValueSizeOf(
+          final Long v)
+        {
+          return BigInteger.ONE;
+        }
+      };
+
+    final LRUCacheClock<String, Long, Long, Failure> cache =
+      LRUCacheClock.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.TEN));
+
+    final AtomicReference<Long> result = new AtomicReference<Long>();
+    final Thread t = new Thread(new Runnable() {
+      @Override public void run()
+      {
+        try {
+          result.set(cache.cacheGetLU("key"));
+        } catch (final Throwable x) {
+          throw new AssertionError(x);
+        }
+      }
+    });
+    t.start();
+
+    entered.await();
+    cache.cacheDelete();
+    gate.countDown();
+    t.join();
+
+    Assert.assertEquals(Long.valueOf(23L), result.get());
+    Assert.assertFalse(cache.cacheIsCached("key"));
+    Assert.assertEquals(0L, cache.cacheSizeLong());
+    Assert.assertEquals(1L, closes.get());
+  }
+
+  /**
+   * An object retrieved since the hand last passed it survives the next
+   * eviction, and the hand evicts the next unreferenced object instead.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testSecondChance()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<Integer> loader =
+      new LUCacheLoaderCounting<Integer>();
+    final LRUCacheClock<Integer, Long, Long, Failure> cache =
+      LRUCacheClock.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(3L)));
+
+    for (int k = 0; k < 3; ++k) {
+      cache.cacheGetLU(Integer.valueOf(k));
+    }
+
+    cache.cacheGetLU(Integer.valueOf(0));
+    cache.cacheGetLU(Integer.valueOf(3));
+
+    Assert.assertTrue(cache.cacheIsCached(Integer.valueOf(0)));
+    Assert.assertFalse(cache.cacheIsCached(Integer.valueOf(1)));
+    Assert.assertTrue(cache.cacheIsCached(Integer.valueOf(2)));
+    Assert.assertTrue(cache.cacheIsCached(Integer.valueOf(3)));
+
+    cache.cacheGetLU(Integer.valueOf(4));
+    Assert.assertTrue(cache.cacheIsCached(Integer.valueOf(0)));
+    Assert.assertFalse(cache.cacheIsCached(Integer.valueOf(2)));
+    Assert.assertEquals(3L, cache.cacheItemCountLong());
+  }
+}
@@ -0,0 +1,494 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcache.JCacheException.JCacheExceptionObjectTooLarge;
+import com.io7m.jcache.JCacheLoaderType;
+import com.io7m.jcache.JCacheStatistics;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheConcurrent;
+import com.io7m.jcache.LRUCacheType;
+import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
+
+@SuppressWarnings("static-method") public final class LRUCacheConcurrentTest extends
+  LRUCacheContractTest
+{
+  @Override protected
+    <K, TVIEW, TCACHE extends TVIEW>
+    LRUCacheType<K, TVIEW, TCACHE, Failure>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, Failure> loader,
+      final LRUCacheConfig config)
+  {
+    return LRUCacheConcurrent.newCache(loader, config);
+  }
+
+  /**
+   * Asynchronous requests for a key that is cached complete immediately.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncCached()
+    throws Exception
+  {
+    final LUCacheLoaderAsync<String> loader = new LUCacheLoaderAsync<String>();
+    final LRUCacheConcurrent<String, Long, Long, Failure> cache =
+      LRUCacheConcurrent.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(8L)));
+
+    final Long x = cache.cacheGetLU("a");
+    final CompletableFuture<Long> f = cache.cacheGetLUAsync("a");
+    Assert.assertTrue(f.isDone());
+    Assert.assertSame(x, f.get());
+    Assert.assertEquals(1L, loader.getLoads());
+  }
+
+  /**
+   * A value that finishes loading after the cache is deleted is delivered,
+   * but not cached, and is closed.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncDeletedWhileLoading()
+    throws Exception
+  {
+    final LUCacheLoaderAsync<String> loader = new LUCacheLoaderAsync<String>();
+    final LRUCacheConcurrent<String, Long, Long, Failure> cache =
+      LRUCacheConcurrent.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(8L)));
+
+    final EventCount<String, Long> ec = new EventCount<String, Long>();
+    cache.cacheEventsSubscribe(ec);
+
+    final CompletableFuture<Long> f = cache.cacheGetLUAsync("a");
+    cache.cacheDelete();
+    loader.complete("a", 23L);
+
+    Assert.assertEquals(Long.valueOf(23L), f.get());
+    Assert.assertFalse(cache.cacheIsCached("a"));
+    Assert.assertEquals(0L, cache.cacheSizeLong());
+    Assert.assertEquals(1L, loader.getCloses());
+    Assert.assertEquals(1, ec.getLoads());
+    Assert.assertEquals(1, ec.getEvictions());
+  }
+
+  /**
+   * A failed asynchronous load is reported to every caller and is not
+   * cached.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncFailureNotCached()
+    throws Exception
+  {
+    final LUCacheLoaderAsync<String> loader = new LUCacheLoaderAsync<String>();
+    final LRUCacheConcurrent<String, Long, Long, Failure> cache =
+      LRUCacheConcurrent.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(8L)));
+
+    final CompletableFuture<Long> f0 = cache.cacheGetLUAsync("a");
+    final CompletableFuture<Long> f1 = cache.cacheGetLUAsync("a");
+    loader.fail("a");
+
+    for (final CompletableFuture<Long> f : Arrays.asList(f0, f1)) {
+      try {
+        f.get();
+        Assert.fail();
+      } catch (final ExecutionException x) {
+        Assert.assertTrue(x.getCause() instanceof Failure);
+      }
+    }
+
+    Assert.assertFalse(cache.cacheIsCached("a"));
+
+    final CompletableFuture<Long> f2 = cache.cacheGetLUAsync("a");
+    Assert.assertFalse(f2.isDone());
+    Assert.assertEquals(2L, loader.getLoads());
+    loader.complete("a", 1L);
+    Assert.assertEquals(Long.valueOf(1L), f2.get());
+    Assert.assertTrue(cache.cacheIsCached("a"));
+  }
+
+  /**
+   * Asynchronous requests work with loaders that only load synchronously.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncSynchronousLoader()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final LRUCacheConcurrent<String, Long, Long, Failure> cache =
+      LRUCacheConcurrent.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(8L)));
+
+    final Long x = cache.cacheGetLUAsync("a").get();
+    Assert.assertTrue(cache.cacheIsCached("a"));
+    Assert.assertSame(x, cache.cacheGetLU("a"));
+    Assert.assertEquals(1L, loader.getLoads());
+  }
+
+  /**
+   * Concurrent requests for a key that is being loaded share the load, and
+   * synchronous requests wait for it.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncShared()
+    throws Exception
+  {
+    final LUCacheLoaderAsync<String> loader = new LUCacheLoaderAsync<String>();
+    final LRUCacheConcurrent<String, Long, Long, Failure> cache =
+      LRUCacheConcurrent.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(8L)));
+
+    final CompletableFuture<Long> f0 = cache.cacheGetLUAsync("a");
+    final CompletableFuture<Long> f1 = cache.cacheGetLUAsync("a");
+    Assert.assertFalse(f0.isDone());
+    Assert.assertFalse(f1.isDone());
+    Assert.assertTrue(loader.isPending("a"));
+
+    final AtomicReference<Long> sync = new AtomicReference<Long>();
+    final Thread t = new Thread(new Runnable() {
+      @Override public void run()
+      {
+        try {
+          sync.set(cache.cacheGetLU("a"));
+        } catch (final Throwable x) {
+          throw new AssertionError(x);
+        }
+      }
+    });
+    t.start();
+
+    f1.cancel(false);
+    loader.complete("a", 23L);
+    t.join();
+
+    Assert.assertEquals(Long.valueOf(23L), f0.get());
+    Assert.assertEquals(Long.valueOf(23L), sync.get());
+    Assert.assertTrue(cache.cacheIsCached("a"));
+    Assert.assertEquals(1L, loader.getLoads());
+    Assert.assertEquals(0L, loader.getCloses());
+  }
+
+  /**
+   * A value that is too large to cache fails the request and is closed.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testAsyncTooLarge()
+    throws Exception
+  {
+    final LUCacheLoaderAsync<String> loader = new LUCacheLoaderAsync<String>();
+    final LRUCacheConcurrent<String, Long, Long, Failure> cache =
+      LRUCacheConcurrent.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(8L)));
+
+    loader.setSize(9L);
+    final CompletableFuture<Long> f = cache.cacheGetLUAsync("a");
+    loader.complete("a", 1L);
+
+    try {
+      f.get();
+      Assert.fail();
+    } catch (final ExecutionException x) {
+      Assert.assertTrue(x.getCause() instanceof JCacheExceptionObjectTooLarge);
+    }
+
+    Assert.assertFalse(cache.cacheIsCached("a"));
+    Assert.assertEquals(1L, loader.getCloses());
+  }
+
+  /**
+   * Many threads requesting overlapping keys leave the cache in a consistent
+   * state: every loaded value is either cached or closed, and the capacity
+   * is never exceeded.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testConcurrentConsistent()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<Integer> loader =
+      new LUCacheLoaderCounting<Integer>();
+    final LRUCacheConcurrent<Integer, Long, Long, Failure> cache =
+      LRUCacheConcurrent.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(64L)));
+
+    final int thread_count = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final Thread[] threads = new Thread[thread_count];
+
+    for (int t = 0; t < thread_count; ++t) {
+      final long seed = t;
+      threads[t] = new Thread(new Runnable() {
+        @Override public void run()
+        {
+          try {
+            final Random r = new Random(seed);
+            start.await();
+            for (int index = 0; index < 20000; ++index) {
+              final Integer key = Integer.valueOf(r.nextInt(256));
+              Assert.assertNotNull(cache.cacheGetLU(key));
+              Assert.assertTrue(cache.cacheSizeLong() <= 64L);
+            }
+          } catch (final Throwable x) {
+            error.set(x);
+          }
+        }
+      });
+      threads[t].start();
+    }
+
+    start.countDown();
+    for (final Thread t : threads) {
+      t.join();
+    }
+
+    Assert.assertNull(error.get());
+    Assert.assertTrue(cache.cacheSizeLong() <= 64L);
+    Assert.assertEquals(cache.cacheItemCountLong(), cache.cacheSizeLong());
+    Assert.assertEquals(
+      loader.getLoads() - loader.getCloses(),
+      cache.cacheItemCountLong());
+
+    cache.cacheDelete();
+    Assert.assertEquals(0L, cache.cacheSizeLong());
+    Assert.assertEquals(loader.getLoads(), loader.getCloses());
+  }
+
+  /**
+   * Concurrent requests for the same uncached key result in exactly one
+   * load, and all callers receive the same value.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testSingleFlight()
+    throws Exception
+  {
+    final CountDownLatch gate = new CountDownLatch(1);
+    final AtomicLong loads = new AtomicLong();
+    final JCacheLoaderType<String, Long, Failure> loader =
+      new JCacheLoaderType<String, Long, Failure>() {
+        @Override public void cacheValueClose(
+          final Long v)
+        {
+          // Nothing
+        }
+
+        @Override public Long cacheValueLoad(
+          final String key)
+          throws Failure
+        {
+          try {
+            gate.await();
+          } catch (final InterruptedException x) {
+            throw new Failure();
+          }
+          return Long.valueOf(loads.incrementAndGet());
+        }
+
+        @Override public BigInteger cacheValueSizeOf(
+          final Long v)
+        {
+          return BigInteger.ONE;
+        }
+      };
+
+    final LRUCacheConcurrent<String, Long, Long, Failure> cache =
+      LRUCacheConcurrent.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.TEN));
+
+    final int thread_count = 8;
+    final CountDownLatch started = new CountDownLatch(thread_count);
+    final AtomicReferenceArray<Long> results =
+      new AtomicReferenceArray<Long>(thread_count);
+    final Thread[] threads = new Thread[thread_count];
+
+    for (int t = 0; t < thread_count; ++t) {
+      final int index = t;
+      threads[t] = new Thread(new Runnable() {
+        @Override public void run()
+        {
+          try {
+            started.countDown();
+            results.set(index, cache.cacheGetLU("key"));
+          } catch (final Throwable x) {
+            throw new AssertionError(x);
+          }
+        }
+      });
+      threads[t].start();
+    }
+
+    started.await();
+    Thread.sleep(100L);
+    gate.countDown();
+
+    for (final Thread t : threads) {
+      t.join();
+    }
+
+    Assert.assertEquals(1L, loads.get());
+    for (int t = 0; t < thread_count; ++t) {
+      Assert.assertEquals(Long.valueOf(1L), results.get(t));
+    }
+    Assert.assertEquals(1L, cache.cacheItemCountLong());
+  }
+
+  /**
+   * A failed load is reported to every waiting caller, and nothing is
+   * cached.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testSingleFlightFailure()
+    throws Exception
+  {
+    final CountDownLatch gate = new CountDownLatch(1);
+    final AtomicLong loads = new AtomicLong();
+    final JCacheLoaderType<String, Long, Failure> loader =
+      new JCacheLoaderType<String, Long, Failure>() {
+        @Override public void cacheValueClose(
+          final Long v)
+        {
+          // Nothing
+        }
+
+        @Override public Long cacheValueLoad(
+          final String key)
+          throws Failure
+        {
+          try {
+            gate.await();
+          } catch (final InterruptedException x) {
+            throw new Failure();
+          }
+          loads.incrementAndGet();
+          throw new Failure();
+        }
+
+        @Override public BigInteger cacheValueSizeOf(
+          final Long v)
+        {
+          return BigInteger.ONE;
+        }
+      };
+
+    final LRUCacheConcurrent<String, Long, Long, Failure> cache =
+      LRUCacheConcurrent.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.TEN));
+
+    final int thread_count = 8;
+    final CountDownLatch started = new CountDownLatch(thread_count);
+    final AtomicLong failures = new AtomicLong();
+    final Thread[] threads = new Thread[thread_count];
+
+    for (int t = 0; t < thread_count; ++t) {
+      threads[t] = new Thread(new Runnable() {
+        @Override public void run()
+        {
+          try {
+            started.countDown();
+            cache.cacheGetLU("key");
+          } catch (final Failure x) {
+            failures.incrementAndGet();
+          }
+        }
+      });
+      threads[t].start();
+    }
+
+    started.await();
+    Thread.sleep(100L);
+    gate.countDown();
+
+    for (final Thread t : threads) {
+      t.join();
+    }
+
+    Assert.assertEquals(thread_count, failures.get());
+    Assert.assertTrue(loads.get() >= 1L);
+    Assert.assertFalse(cache.cacheIsCached("key"));
+    Assert.assertEquals(0L, cache.cacheItemCountLong());
+  }
+
+  /**
+   * Asynchronous retrievals are counted, and asynchronous loads are timed
+   * until they complete.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testStatisticsAsync()
+    throws Exception
+  {
+    final LUCacheLoaderAsync<String> loader = new LUCacheLoaderAsync<String>();
+    final LRUCacheConcurrent<String, Long, Long, Failure> cache =
+      LRUCacheConcurrent.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(8L)));
+
+    cache.cacheGetLUAsync("a");
+    Assert.assertEquals(0L, cache.cacheStatistics().getLoads());
+    loader.complete("a", 23L);
+    cache.cacheGetLUAsync("a");
+
+    cache.cacheGetLUAsync("b");
+    loader.fail("b");
+
+    final JCacheStatistics s = cache.cacheStatistics();
+    Assert.assertEquals(1L, s.getHits());
+    Assert.assertEquals(2L, s.getMisses());
+    Assert.assertEquals(1L, s.getLoads());
+    Assert.assertEquals(1L, s.getLoadFailures());
+  }
+}
@@ -24,6 +24,7 @@ import net.java.quickcheck.characteristic.AbstractCharacteristic;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.io7m.jcache.JCacheEvictionPolicies;
 import com.io7m.jcache.LRUCacheConfig;
 
 public class LRUCacheConfigTest
@@ -47,6 +48,16 @@ public class LRUCacheConfigTest
               BigInteger.ONE));
           Assert.assertFalse(config.equals(diff));
 
+          final LRUCacheConfig diff_policy =
+            config.withEvictionPolicy(JCacheEvictionPolicies.fifo());
+          Assert.assertFalse(config.equals(diff_policy));
+          Assert.assertEquals(
+            config.getMaximumCapacity(),
+            diff_policy.getMaximumCapacity());
+          Assert.assertEquals(
+            JCacheEvictionPolicies.lru(),
+            config.getEvictionPolicy());
+
           Assert.assertTrue(config.hashCode() == config.hashCode());
         }
       });
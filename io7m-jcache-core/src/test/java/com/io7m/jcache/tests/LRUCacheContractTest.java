@@ -0,0 +1,224 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.io7m.jcache.JCacheException;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheTrivial;
+import com.io7m.jcache.LRUCacheType;
+import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
+import com.io7m.jfunctional.Pair;
+
+/**
+ * The contract shared by LU cache implementations that evict the least
+ * recently used objects first.
+ */
+
+public abstract class LRUCacheContractTest extends LUCacheContractTest
+{
+  /**
+   * @return <code>true</code> if the cache evicts in exactly the same order
+   *         as {@link LRUCacheTrivial}, rather than approximating it
+   */
+
+  protected boolean isEvictionExact()
+  {
+    return true;
+  }
+
+  /**
+   * Events are delivered.
+   *
+   * @throws JCacheException
+   */
+
+  @SuppressWarnings("boxing") @Test public void testEvents()
+    throws Failure,
+      JCacheException
+  {
+    final Pair<LUCacheLoaderFaultInjectable<String, Long>, LRUCacheType<String, Long, Long, Failure>> pair =
+      this.newFaultInjectedCache(2L);
+
+    final EventLog<String, Long> ev = new EventLog<String, Long>();
+    pair.getRight().cacheEventsSubscribe(ev);
+
+    pair.getLeft().setFailure(false);
+    pair.getLeft().setLoadedValue(0L);
+    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+    ev.reset();
+    pair.getRight().cacheGetLU("key0");
+    Assert.assertTrue(ev.loaded);
+    Assert.assertEquals("key0", ev.loaded_key);
+    Assert.assertEquals(Long.valueOf(0L), ev.loaded_value);
+    Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
+    Assert.assertTrue(ev.retrieved);
+    Assert.assertEquals("key0", ev.retrieved_key);
+    Assert.assertEquals(Long.valueOf(0L), ev.retrieved_value);
+    Assert.assertEquals(BigInteger.ONE, ev.retrieved_size);
+
+    pair.getLeft().setFailure(false);
+    pair.getLeft().setLoadedValue(1L);
+    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+    ev.reset();
+    pair.getRight().cacheGetLU("key1");
+    Assert.assertTrue(ev.loaded);
+    Assert.assertEquals("key1", ev.loaded_key);
+    Assert.assertEquals(Long.valueOf(1L), ev.loaded_value);
+    Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
+    Assert.assertTrue(ev.retrieved);
+    Assert.assertEquals("key1", ev.retrieved_key);
+    Assert.assertEquals(Long.valueOf(1L), ev.retrieved_value);
+    Assert.assertEquals(BigInteger.ONE, ev.retrieved_size);
+
+    for (long i = 2; i < 10; ++i) {
+      pair.getLeft().setFailure(false);
+      pair.getLeft().setLoadedValue(i);
+      pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+      ev.reset();
+      pair.getRight().cacheGetLU("key" + i);
+
+      Assert.assertTrue(ev.loaded);
+      Assert.assertEquals("key" + i, ev.loaded_key);
+      Assert.assertEquals(Long.valueOf(i), ev.loaded_value);
+      Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
+
+      Assert.assertTrue(ev.retrieved);
+      Assert.assertEquals("key" + i, ev.retrieved_key);
+      Assert.assertEquals(Long.valueOf(i), ev.retrieved_value);
+      Assert.assertEquals(BigInteger.ONE, ev.retrieved_size);
+
+      Assert.assertTrue(ev.evicted);
+      Assert.assertEquals("key" + (i - 2), ev.evicted_key);
+      Assert.assertEquals(Long.valueOf(i - 2), ev.evicted_value);
+      Assert.assertEquals(BigInteger.ONE, ev.evicted_size);
+    }
+
+    pair.getRight().cacheEventsUnsubscribe();
+
+    for (long i = 2; i < 10; ++i) {
+      pair.getLeft().setFailure(false);
+      pair.getLeft().setLoadedValue(i);
+      pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+      ev.reset();
+      pair.getRight().cacheGetLU("key" + i);
+
+      Assert.assertFalse(ev.loaded);
+      Assert.assertFalse(ev.retrieved);
+      Assert.assertFalse(ev.evicted);
+    }
+  }
+
+  /**
+   * Caching items evicts the oldest items first.
+   *
+   * @throws JCacheException
+   */
+
+  @SuppressWarnings("boxing") @Test public void testEviction()
+    throws Failure,
+      JCacheException
+  {
+    final Pair<LUCacheLoaderFaultInjectable<String, Long>, LRUCacheType<String, Long, Long, Failure>> pair =
+      this.newFaultInjectedCache(2L);
+
+    pair.getLeft().setFailure(false);
+    pair.getLeft().setLoadedValue(0L);
+    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+    pair.getRight().cacheGetLU("key0");
+    pair.getRight().cacheGetLU("key1");
+    Assert.assertTrue(pair.getRight().cacheIsCached("key0"));
+    Assert.assertTrue(pair.getRight().cacheIsCached("key1"));
+    Assert.assertEquals(BigInteger.valueOf(2), pair
+      .getRight()
+      .cacheItemCount());
+    Assert.assertEquals(BigInteger.valueOf(2), pair.getRight().cacheSize());
+
+    for (long i = 2; i < 10; ++i) {
+      pair.getLeft().setFailure(false);
+      pair.getLeft().setLoadedValue(i);
+      pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+      Assert.assertEquals(BigInteger.valueOf(2), pair
+        .getRight()
+        .cacheItemCount());
+      Assert.assertEquals(BigInteger.valueOf(2), pair.getRight().cacheSize());
+
+      final Long r = pair.getRight().cacheGetLU("key" + i);
+      for (long k = 0; k < (i - 2); ++k) {
+        Assert.assertFalse(pair.getRight().cacheIsCached("key" + k));
+      }
+      final Long q = pair.getRight().cacheGetLU("key" + i);
+      Assert.assertEquals(r, q);
+
+      Assert.assertTrue(pair.getRight().cacheIsCached("key" + (i - 1)));
+      Assert.assertTrue(pair.getRight().cacheIsCached("key" + i));
+      Assert.assertEquals(BigInteger.valueOf(2), pair
+        .getRight()
+        .cacheItemCount());
+      Assert.assertEquals(BigInteger.valueOf(2), pair.getRight().cacheSize());
+    }
+  }
+
+  /**
+   * The cache evicts exactly the same objects as the trivial cache for an
+   * arbitrary sequence of requests.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testEvictionTrivialEquivalent()
+    throws Failure,
+      JCacheException
+  {
+    Assume.assumeTrue(this.isEvictionExact());
+
+    final LUCacheLoaderCounting<Integer> loader_c =
+      new LUCacheLoaderCounting<Integer>();
+    final LUCacheLoaderCounting<Integer> loader_t =
+      new LUCacheLoaderCounting<Integer>();
+    final LRUCacheConfig config =
+      LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(32L));
+
+    final LRUCacheType<Integer, Long, Long, Failure> cache =
+      this.newCache(loader_c, config);
+    final LRUCacheTrivial<Integer, Long, Long, Failure> trivial =
+      LRUCacheTrivial.newCache(loader_t, config);
+
+    final Random r = new Random(0x10203040L);
+    for (int index = 0; index < 10000; ++index) {
+      final Integer key = Integer.valueOf(r.nextInt(64));
+      Assert.assertEquals(trivial.cacheIsCached(key), cache.cacheIsCached(key));
+      cache.cacheGetLU(key);
+      trivial.cacheGetLU(key);
+      Assert.assertEquals(loader_t.getLoads(), loader_c.getLoads());
+      Assert.assertEquals(loader_t.getCloses(), loader_c.getCloses());
+      Assert.assertEquals(trivial.cacheSizeLong(), cache.cacheSizeLong());
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcache.JCacheException;
+import com.io7m.jcache.JCacheLoaderType;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheLinked;
+import com.io7m.jcache.LRUCacheType;
+import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
+
+@SuppressWarnings("static-method") public final class LRUCacheLinkedTest extends
+  LRUCacheContractTest
+{
+  @Override protected
+    <K, TVIEW, TCACHE extends TVIEW>
+    LRUCacheType<K, TVIEW, TCACHE, Failure>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, Failure> loader,
+      final LRUCacheConfig config)
+  {
+    return LRUCacheLinked.newCache(loader, config);
+  }
+
+  /**
+   * Retrieving a cached object marks it as the most recently used, so that
+   * it survives the next eviction.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testEvictionTouched()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final LRUCacheLinked<String, Long, Long, Failure> cache =
+      LRUCacheLinked.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(3L)));
+
+    cache.cacheGetLU("key0");
+    cache.cacheGetLU("key1");
+    cache.cacheGetLU("key2");
+    cache.cacheGetLU("key0");
+    cache.cacheGetLU("key3");
+
+    Assert.assertTrue(cache.cacheIsCached("key0"));
+    Assert.assertFalse(cache.cacheIsCached("key1"));
+    Assert.assertTrue(cache.cacheIsCached("key2"));
+    Assert.assertTrue(cache.cacheIsCached("key3"));
+
+    cache.cacheGetLU("key2");
+    cache.cacheGetLU("key4");
+
+    Assert.assertFalse(cache.cacheIsCached("key0"));
+    Assert.assertTrue(cache.cacheIsCached("key2"));
+    Assert.assertTrue(cache.cacheIsCached("key3"));
+    Assert.assertTrue(cache.cacheIsCached("key4"));
+    Assert.assertEquals(5L, loader.getLoads());
+    Assert.assertEquals(2L, loader.getCloses());
+  }
+}
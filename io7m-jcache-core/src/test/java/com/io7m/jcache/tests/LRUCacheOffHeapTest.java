@@ -0,0 +1,470 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcache.JCacheException;
+import com.io7m.jcache.JCacheException.JCacheExceptionLoaderReturnedNull;
+import com.io7m.jcache.JCacheException.JCacheExceptionObjectTooLarge;
+import com.io7m.jcache.JCacheStatistics;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheOffHeap;
+import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
+import com.io7m.jnull.NullCheckException;
+import com.io7m.jranges.RangeCheckException;
+
+@SuppressWarnings("static-method") public final class LRUCacheOffHeapTest
+{
+  private static LRUCacheOffHeap<String, String, String, Failure> newCache(
+    final LUCacheLoaderStrings loader,
+    final LUCacheCodecString codec,
+    final long capacity)
+  {
+    return LRUCacheOffHeap.newCache(
+      loader,
+      codec,
+      LRUCacheOffHeapTest.newConfig(capacity),
+      256);
+  }
+
+  private static LRUCacheConfig newConfig(
+    final long capacity)
+  {
+    return LRUCacheConfig.empty().withMaximumCapacity(
+      BigInteger.valueOf(capacity));
+  }
+
+  /**
+   * Values are stored once, and decoded on every retrieval. The loaded value
+   * is closed as soon as it has been encoded.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testCachedDecoded()
+    throws Exception
+  {
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LUCacheCodecString codec = new LUCacheCodecString();
+    final LRUCacheOffHeap<String, String, String, Failure> cache =
+      LRUCacheOffHeapTest.newCache(loader, codec, 1024L);
+
+    loader.setLength(10);
+    final String v0 = cache.cacheGetLU("a");
+    final String v1 = cache.cacheGetLU("a");
+    Assert.assertEquals("a.........", v0);
+    Assert.assertEquals(v0, v1);
+    Assert.assertNotSame(v0, v1);
+
+    Assert.assertEquals(1L, loader.getLoads());
+    Assert.assertEquals(1L, loader.getCloses());
+    Assert.assertEquals(2L, codec.getDecodes());
+    Assert.assertEquals(1L, cache.cacheItemCountLong());
+    Assert.assertEquals(64L, cache.cacheSizeLong());
+    Assert.assertEquals(BigInteger.valueOf(64L), cache.cacheSize());
+    Assert.assertEquals(256L, cache.cacheReservedLong());
+  }
+
+  /**
+   * A value that is larger than the cache's maximum capacity, but smaller
+   * than a slab, cannot be cached.
+   *
+   * @throws Exception
+   */
+
+  @Test(expected = JCacheExceptionObjectTooLarge.class) public
+    void
+    testCapacitySmallerThanSlab()
+      throws Exception
+  {
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheOffHeap<String, String, String, Failure> cache =
+      LRUCacheOffHeapTest.newCache(loader, new LUCacheCodecString(), 100L);
+    cache.cacheGetLU("a");
+  }
+
+  /**
+   * A failure to encode is propagated, the loaded value is closed, and the
+   * memory reserved for it is released.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testCodecFailure()
+    throws Exception
+  {
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LUCacheCodecString codec = new LUCacheCodecString();
+    final LRUCacheOffHeap<String, String, String, Failure> cache =
+      LRUCacheOffHeapTest.newCache(loader, codec, 256L);
+
+    codec.setFailure(true);
+    try {
+      cache.cacheGetLU("a");
+      Assert.fail();
+    } catch (final IllegalStateException e) {
+      // Expected
+    }
+
+    Assert.assertFalse(cache.cacheIsCached("a"));
+    Assert.assertEquals(0L, cache.cacheSizeLong());
+    Assert.assertEquals(1L, loader.getCloses());
+
+    codec.setFailure(false);
+    for (int index = 0; index < 4; ++index) {
+      cache.cacheGetLU("k" + index);
+    }
+    Assert.assertEquals(4L, cache.cacheItemCountLong());
+    Assert.assertEquals(256L, cache.cacheSizeLong());
+    Assert.assertEquals(256L, cache.cacheReservedLong());
+  }
+
+  /**
+   * Deleting the cache evicts everything and releases all memory.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testDelete()
+    throws Exception
+  {
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheOffHeap<String, String, String, Failure> cache =
+      LRUCacheOffHeapTest.newCache(loader, new LUCacheCodecString(), 1024L);
+
+    final EventCount<String, String> ec = new EventCount<String, String>();
+    cache.cacheEventsSubscribe(ec);
+
+    for (int index = 0; index < 8; ++index) {
+      loader.setLength(index * 30);
+      cache.cacheGetLU("k" + index);
+    }
+
+    cache.cacheDelete();
+    Assert.assertEquals(0L, cache.cacheItemCountLong());
+    Assert.assertEquals(0L, cache.cacheSizeLong());
+    Assert.assertEquals(0L, cache.cacheReservedLong());
+    Assert.assertEquals(8, ec.getEvictions());
+    Assert.assertEquals(8, ec.getLoads());
+    Assert.assertEquals(8, ec.getRetrievals());
+    Assert.assertEquals(0, ec.getCloseErrors());
+  }
+
+  /**
+   * Events are delivered with decoded values. Loaded values are reported
+   * with their encoded size, and cached values with the size of the memory
+   * that holds them.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testEvents()
+    throws Exception
+  {
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheOffHeap<String, String, String, Failure> cache =
+      LRUCacheOffHeapTest.newCache(loader, new LUCacheCodecString(), 256L);
+
+    final EventLog<String, String> ev = new EventLog<String, String>();
+    cache.cacheEventsSubscribe(ev);
+
+    loader.setLength(100);
+    final String v = LUCacheLoaderStrings.valueFor("a", 100);
+    ev.reset();
+    cache.cacheGetLU("a");
+    Assert.assertTrue(ev.loaded);
+    Assert.assertEquals("a", ev.loaded_key);
+    Assert.assertEquals(v, ev.loaded_value);
+    Assert.assertEquals(BigInteger.valueOf(100L), ev.loaded_size);
+    Assert.assertTrue(ev.retrieved);
+    Assert.assertEquals(v, ev.retrieved_value);
+    Assert.assertEquals(BigInteger.valueOf(128L), ev.retrieved_size);
+
+    loader.setLength(200);
+    ev.reset();
+    cache.cacheGetLU("b");
+    Assert.assertTrue(ev.evicted);
+    Assert.assertEquals("a", ev.evicted_key);
+    Assert.assertEquals(v, ev.evicted_value);
+    Assert.assertEquals(BigInteger.valueOf(128L), ev.evicted_size);
+  }
+
+  /**
+   * The least recently used value is evicted first.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testEvictionLRU()
+    throws Exception
+  {
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheOffHeap<String, String, String, Failure> cache =
+      LRUCacheOffHeapTest.newCache(loader, new LUCacheCodecString(), 256L);
+
+    cache.cacheGetLU("a");
+    cache.cacheGetLU("b");
+    cache.cacheGetLU("c");
+    cache.cacheGetLU("d");
+    cache.cacheGetLU("a");
+    cache.cacheGetLU("e");
+
+    Assert.assertTrue(cache.cacheIsCached("a"));
+    Assert.assertFalse(cache.cacheIsCached("b"));
+    Assert.assertTrue(cache.cacheIsCached("c"));
+    Assert.assertTrue(cache.cacheIsCached("d"));
+    Assert.assertTrue(cache.cacheIsCached("e"));
+    Assert.assertEquals(256L, cache.cacheSizeLong());
+    Assert.assertEquals(5L, loader.getLoads());
+  }
+
+  /**
+   * Loader failures are propagated and nothing is cached.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testLoaderFailure()
+    throws Exception
+  {
+    final LUCacheLoaderFaultInjectable<String, String> loader =
+      new LUCacheLoaderFaultInjectable<String, String>();
+    final LRUCacheOffHeap<String, String, String, Failure> cache =
+      LRUCacheOffHeap.newCache(
+        loader,
+        new LUCacheCodecString(),
+        LRUCacheOffHeapTest.newConfig(256L),
+        256);
+
+    loader.setFailure(true);
+    try {
+      cache.cacheGetLU("a");
+      Assert.fail();
+    } catch (final Failure e) {
+      // Expected
+    }
+
+    loader.setFailure(false);
+    try {
+      cache.cacheGetLU("a");
+      Assert.fail();
+    } catch (final JCacheExceptionLoaderReturnedNull e) {
+      // Expected
+    }
+
+    Assert.assertEquals(0L, cache.cacheItemCountLong());
+    Assert.assertEquals(0L, cache.cacheReservedLong());
+  }
+
+  @Test(expected = NullCheckException.class) public void testNullCodec()
+  {
+    LRUCacheOffHeap.newCache(
+      new LUCacheLoaderStrings(),
+      null,
+      LRUCacheOffHeapTest.newConfig(256L));
+  }
+
+  /**
+   * Random workloads never exceed the capacity, and always return the value
+   * that was loaded.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testRandomConsistent()
+    throws Exception
+  {
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheOffHeap<String, String, String, Failure> cache =
+      LRUCacheOffHeapTest.newCache(loader, new LUCacheCodecString(), 4096L);
+
+    final Map<String, String> expected = new HashMap<String, String>();
+    final Random r = new Random(0x5eedL);
+    for (int index = 0; index < 20000; ++index) {
+      final String key = "k" + r.nextInt(64);
+      final int length = r.nextInt(257);
+      loader.setLength(length);
+
+      final long loads = loader.getLoads();
+      final String v = cache.cacheGetLU(key);
+      if (loader.getLoads() != loads) {
+        expected.put(key, LUCacheLoaderStrings.valueFor(key, length));
+      }
+
+      Assert.assertEquals(expected.get(key), v);
+      Assert.assertTrue(cache.cacheSizeLong() <= 4096L);
+      Assert.assertTrue(cache.cacheReservedLong() <= 4096L);
+      Assert.assertTrue(cache.cacheSizeLong() <= cache.cacheReservedLong());
+    }
+
+    Assert.assertEquals(loader.getLoads(), loader.getCloses());
+  }
+
+  /**
+   * Shrinking the capacity evicts values and releases memory.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testSetConfigurationShrinks()
+    throws Exception
+  {
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheOffHeap<String, String, String, Failure> cache =
+      LRUCacheOffHeapTest.newCache(loader, new LUCacheCodecString(), 512L);
+
+    for (int index = 0; index < 8; ++index) {
+      cache.cacheGetLU("k" + index);
+    }
+    Assert.assertEquals(512L, cache.cacheReservedLong());
+
+    cache.cacheSetConfiguration(LRUCacheOffHeapTest.newConfig(256L));
+    Assert.assertEquals(256L, cache.cacheReservedLong());
+    Assert.assertEquals(4L, cache.cacheItemCountLong());
+    for (int index = 4; index < 8; ++index) {
+      Assert.assertTrue(cache.cacheIsCached("k" + index));
+    }
+  }
+
+  /**
+   * Values are accounted using the size of the chunk that holds them.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testSizeClasses()
+    throws Exception
+  {
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheOffHeap<String, String, String, Failure> cache =
+      LRUCacheOffHeapTest.newCache(loader, new LUCacheCodecString(), 1024L);
+
+    loader.setLength(64);
+    cache.cacheGetLU("a");
+    Assert.assertEquals(64L, cache.cacheSizeLong());
+
+    loader.setLength(65);
+    cache.cacheGetLU("b");
+    Assert.assertEquals(64L + 128L, cache.cacheSizeLong());
+
+    loader.setLength(200);
+    cache.cacheGetLU("c");
+    Assert.assertEquals(64L + 128L + 256L, cache.cacheSizeLong());
+    Assert.assertEquals(768L, cache.cacheReservedLong());
+  }
+
+  /**
+   * Empty slabs are reused for other size classes.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testSlabReused()
+    throws Exception
+  {
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheOffHeap<String, String, String, Failure> cache =
+      LRUCacheOffHeapTest.newCache(loader, new LUCacheCodecString(), 512L);
+
+    final EventCount<String, String> ec = new EventCount<String, String>();
+    cache.cacheEventsSubscribe(ec);
+
+    for (int index = 0; index < 8; ++index) {
+      cache.cacheGetLU("k" + index);
+    }
+
+    loader.setLength(200);
+    cache.cacheGetLU("large");
+
+    Assert.assertEquals(4, ec.getEvictions());
+    Assert.assertEquals(5L, cache.cacheItemCountLong());
+    Assert.assertEquals(512L, cache.cacheSizeLong());
+    Assert.assertEquals(512L, cache.cacheReservedLong());
+    Assert.assertTrue(cache.cacheIsCached("large"));
+  }
+
+  @Test(expected = RangeCheckException.class) public
+    void
+    testSlabSizeTooSmall()
+  {
+    LRUCacheOffHeap.newCache(
+      new LUCacheLoaderStrings(),
+      new LUCacheCodecString(),
+      LRUCacheOffHeapTest.newConfig(256L),
+      63);
+  }
+
+  /**
+   * Evictions are accounted using the size of the chunks released.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testStatistics()
+    throws Exception
+  {
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheOffHeap<String, String, String, Failure> cache =
+      LRUCacheOffHeapTest.newCache(loader, new LUCacheCodecString(), 256L);
+
+    loader.setLength(10);
+    for (int index = 0; index < 5; ++index) {
+      cache.cacheGetLU("k" + index);
+    }
+    cache.cacheGetLU("k4");
+
+    final JCacheStatistics s = cache.cacheStatistics();
+    Assert.assertEquals(1L, s.getHits());
+    Assert.assertEquals(5L, s.getMisses());
+    Assert.assertEquals(5L, s.getLoads());
+    Assert.assertEquals(1L, s.getEvictions());
+    Assert.assertEquals(64L, s.getEvictedSize());
+  }
+
+  /**
+   * A value that is larger than a slab cannot be cached, and is closed.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testTooLarge()
+    throws Exception
+  {
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheOffHeap<String, String, String, Failure> cache =
+      LRUCacheOffHeapTest.newCache(loader, new LUCacheCodecString(), 1024L);
+
+    loader.setLength(257);
+    try {
+      cache.cacheGetLU("a");
+      Assert.fail();
+    } catch (final JCacheException e) {
+      Assert.assertTrue(e instanceof JCacheExceptionObjectTooLarge);
+    }
+
+    Assert.assertFalse(cache.cacheIsCached("a"));
+    Assert.assertEquals(1L, loader.getCloses());
+    Assert.assertEquals(0L, cache.cacheReservedLong());
+  }
+}
@@ -16,639 +16,608 @@
 
 package com.io7m.jcache.tests;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
-import com.io7m.jcache.JCacheEventsType;
-import com.io7m.jcache.JCacheException;
+import com.io7m.jcache.JCacheDiskTier;
 import com.io7m.jcache.JCacheException.JCacheExceptionLoaderReturnedNull;
 import com.io7m.jcache.JCacheException.JCacheExceptionObjectTooLarge;
-import com.io7m.jcache.JCacheException.JCacheExceptionObjectTooSmall;
 import com.io7m.jcache.JCacheLoaderType;
 import com.io7m.jcache.LRUCacheConfig;
 import com.io7m.jcache.LRUCacheTrivial;
+import com.io7m.jcache.LRUCacheType;
 import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
-import com.io7m.jfunctional.Pair;
-import com.io7m.jnull.NullCheckException;
 
-@SuppressWarnings("static-method") public final class LRUCacheTrivialTest
+@SuppressWarnings("static-method") public final class LRUCacheTrivialTest extends
+  LRUCacheContractTest
 {
-  private
-    <K, TVIEW, TCACHE extends TVIEW>
-    Pair<LUCacheLoaderFaultInjectable<K, TCACHE>, LRUCacheTrivial<K, TVIEW, TCACHE, Failure>>
-    newCache(
-      final long capacity)
-  {
-    final LRUCacheConfig config =
-      LRUCacheConfig
-        .empty()
-        .withMaximumCapacity(BigInteger.valueOf(capacity));
-    final LUCacheLoaderFaultInjectable<K, TCACHE> loader =
-      new LUCacheLoaderFaultInjectable<K, TCACHE>();
-    final LRUCacheTrivial<K, TVIEW, TCACHE, Failure> cache =
-      LRUCacheTrivial.newCache(loader, config);
-    return Pair.pair(loader, cache);
+  private static final Executor DIRECT;
+
+  static {
+    DIRECT = new Executor() {
+      @Override public void execute(
+        final Runnable r)
+      {
+        r.run();
+      }
+    };
   }
 
-  /**
-   * Clearing a cache deletes all of the items.
-   *
-   * @throws JCacheException
-   */
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
 
-  @SuppressWarnings("boxing") @Test public void testDelete()
-    throws Failure,
-      JCacheException
+  @Override protected
+    <K, TVIEW, TCACHE extends TVIEW>
+    LRUCacheType<K, TVIEW, TCACHE, Failure>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, Failure> loader,
+      final LRUCacheConfig config)
   {
-    final Pair<LUCacheLoaderFaultInjectable<String, Long>, LRUCacheTrivial<String, Long, Long, Failure>> pair =
-      this.newCache(8L);
-
-    final EventCount<String, Long> ec = new EventCount<String, Long>();
-    pair.getRight().cacheEventsSubscribe(ec);
-
-    for (long i = 0; i < 8; ++i) {
-      pair.getLeft().setFailure(false);
-      pair.getLeft().setLoadedValue(i);
-      pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
-
-      pair.getRight().cacheGetLU("k" + i);
-      Assert.assertTrue(pair.getRight().cacheIsCached("k" + i));
-      Assert.assertEquals(BigInteger.valueOf(i + 1), pair
-        .getRight()
-        .cacheItemCount());
-      Assert.assertEquals(BigInteger.valueOf(i + 1), pair
-        .getRight()
-        .cacheSize());
-    }
-
-    pair.getRight().cacheDelete();
-    Assert.assertEquals(BigInteger.ZERO, pair.getRight().cacheItemCount());
-    Assert.assertEquals(BigInteger.ZERO, pair.getRight().cacheSize());
-
-    Assert.assertEquals(8, ec.getEvictions());
-    Assert.assertEquals(8, ec.getLoads());
-    Assert.assertEquals(0, ec.getCloseErrors());
-    Assert.assertEquals(8, ec.getRetrievals());
+    return LRUCacheTrivial.newCache(loader, config);
   }
 
-  /**
-   * Events are delivered.
-   *
-   * @throws JCacheException
-   */
-
-  @SuppressWarnings("boxing") @Test public void testEvents()
-    throws Failure,
-      JCacheException
+  private static LRUCacheTrivial<String, Long, Long, Failure> newBulkCache(
+    final LUCacheLoaderBulk<String> loader,
+    final long size)
   {
-    final Pair<LUCacheLoaderFaultInjectable<String, Long>, LRUCacheTrivial<String, Long, Long, Failure>> pair =
-      this.newCache(2L);
-
-    final EventLog<String, Long> ev = new EventLog<String, Long>();
-    pair.getRight().cacheEventsSubscribe(ev);
-
-    pair.getLeft().setFailure(false);
-    pair.getLeft().setLoadedValue(0L);
-    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
-
-    ev.reset();
-    pair.getRight().cacheGetLU("key0");
-    Assert.assertTrue(ev.loaded);
-    Assert.assertEquals("key0", ev.loaded_key);
-    Assert.assertEquals(Long.valueOf(0L), ev.loaded_value);
-    Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
-    Assert.assertTrue(ev.retrieved);
-    Assert.assertEquals("key0", ev.retrieved_key);
-    Assert.assertEquals(Long.valueOf(0L), ev.retrieved_value);
-    Assert.assertEquals(BigInteger.ONE, ev.retrieved_size);
-
-    pair.getLeft().setFailure(false);
-    pair.getLeft().setLoadedValue(1L);
-    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
-
-    ev.reset();
-    pair.getRight().cacheGetLU("key1");
-    Assert.assertTrue(ev.loaded);
-    Assert.assertEquals("key1", ev.loaded_key);
-    Assert.assertEquals(Long.valueOf(1L), ev.loaded_value);
-    Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
-    Assert.assertTrue(ev.retrieved);
-    Assert.assertEquals("key1", ev.retrieved_key);
-    Assert.assertEquals(Long.valueOf(1L), ev.retrieved_value);
-    Assert.assertEquals(BigInteger.ONE, ev.retrieved_size);
-
-    for (long i = 2; i < 10; ++i) {
-      pair.getLeft().setFailure(false);
-      pair.getLeft().setLoadedValue(i);
-      pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
-
-      ev.reset();
-      pair.getRight().cacheGetLU("key" + i);
-
-      Assert.assertTrue(ev.loaded);
-      Assert.assertEquals("key" + i, ev.loaded_key);
-      Assert.assertEquals(Long.valueOf(i), ev.loaded_value);
-      Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
-
-      Assert.assertTrue(ev.retrieved);
-      Assert.assertEquals("key" + i, ev.retrieved_key);
-      Assert.assertEquals(Long.valueOf(i), ev.retrieved_value);
-      Assert.assertEquals(BigInteger.ONE, ev.retrieved_size);
-
-      Assert.assertTrue(ev.evicted);
-      Assert.assertEquals("key" + (i - 2), ev.evicted_key);
-      Assert.assertEquals(Long.valueOf(i - 2), ev.evicted_value);
-      Assert.assertEquals(BigInteger.ONE, ev.evicted_size);
-    }
-
-    pair.getRight().cacheEventsUnsubscribe();
-
-    for (long i = 2; i < 10; ++i) {
-      pair.getLeft().setFailure(false);
-      pair.getLeft().setLoadedValue(i);
-      pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
-
-      ev.reset();
-      pair.getRight().cacheGetLU("key" + i);
-
-      Assert.assertFalse(ev.loaded);
-      Assert.assertFalse(ev.retrieved);
-      Assert.assertFalse(ev.evicted);
-    }
+    return LRUCacheTrivial.newCache(
+      loader,
+      LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(size)));
   }
 
   /**
-   * Exceptions raised during closing are delivered.
+   * Requesting the same key many times in one batch loads it once.
    *
-   * @throws JCacheException
+   * @throws Exception
    */
 
-  @SuppressWarnings("boxing") @Test public void testEventsCloseError()
-    throws Failure,
-      JCacheException
+  @Test public void testBulkDuplicates()
+    throws Exception
   {
-    final Pair<LUCacheLoaderFaultInjectable<String, Long>, LRUCacheTrivial<String, Long, Long, Failure>> pair =
-      this.newCache(1L);
-
-    final EventLog<String, Long> ev = new EventLog<String, Long>();
-    pair.getRight().cacheEventsSubscribe(ev);
-
-    ev.reset();
-    pair.getLeft().setFailure(false);
-    pair.getLeft().setLoadedValue(0L);
-    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
-    pair.getRight().cacheGetLU("key0");
-    Assert.assertTrue(ev.loaded);
-    Assert.assertEquals("key0", ev.loaded_key);
-    Assert.assertEquals(Long.valueOf(0L), ev.loaded_value);
-    Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
-
-    ev.reset();
-    pair.getLeft().setFailure(false);
-    pair.getLeft().setLoadedValue(1L);
-    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
-    pair.getLeft().setCloseFailure(true);
-    pair.getRight().cacheGetLU("key1");
-    Assert.assertTrue(ev.close_error);
-    Assert.assertEquals("key0", ev.close_error_key);
-    Assert.assertEquals(Long.valueOf(0L), ev.close_error_value);
-    Assert.assertTrue(ev.loaded);
-    Assert.assertEquals("key1", ev.loaded_key);
-    Assert.assertEquals(Long.valueOf(1L), ev.loaded_value);
-    Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
+    final LUCacheLoaderBulk<String> loader = new LUCacheLoaderBulk<String>();
+    final LRUCacheTrivial<String, Long, Long, Failure> cache =
+      LRUCacheTrivialTest.newBulkCache(loader, 8L);
+
+    final Map<String, Long> r =
+      cache.cacheGetLUAll(Arrays.asList("a", "a", "a"));
+    Assert.assertEquals(1, r.size());
+    Assert.assertEquals(1L, loader.getLoads());
+    Assert.assertEquals(1L, cache.cacheSizeLong());
   }
 
   /**
-   * Exceptions are not propagated.
+   * Loading the misses for a batch evicts the least recently used objects,
+   * but never the hits of the same batch.
    *
-   * @throws JCacheException
+   * @throws Exception
    */
 
-  @SuppressWarnings("boxing") @Test public void testEventsExceptions()
-    throws Failure,
-      JCacheException
+  @Test public void testBulkEviction()
+    throws Exception
   {
-    final Pair<LUCacheLoaderFaultInjectable<String, Long>, LRUCacheTrivial<String, Long, Long, Failure>> pair =
-      this.newCache(2L);
-
-    pair.getRight().cacheEventsSubscribe(new EventThrown<String, Long>());
-    pair.getLeft().setFailure(false);
-    pair.getLeft().setLoadedValue(0L);
-    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
-
-    pair.getRight().cacheGetLU("key0");
-    pair.getLeft().setFailure(false);
-    pair.getLeft().setLoadedValue(1L);
-    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
-
-    pair.getRight().cacheGetLU("key1");
-
-    for (long i = 2; i < 10; ++i) {
-      pair.getLeft().setFailure(false);
-      pair.getLeft().setLoadedValue(i);
-      pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
-
-      pair.getRight().cacheGetLU("key" + i);
-    }
+    final LUCacheLoaderBulk<String> loader = new LUCacheLoaderBulk<String>();
+    final LRUCacheTrivial<String, Long, Long, Failure> cache =
+      LRUCacheTrivialTest.newBulkCache(loader, 4L);
 
-    for (long i = 2; i < 10; ++i) {
-      pair.getLeft().setFailure(false);
-      pair.getLeft().setCloseFailure(true);
-      pair.getLeft().setLoadedValue(i);
-      pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+    cache.cacheGetLU("w");
+    cache.cacheGetLU("x");
+    cache.cacheGetLU("y");
+    cache.cacheGetLU("z");
 
-      pair.getRight().cacheGetLU("key" + i);
-    }
+    final EventCount<String, Long> ec = new EventCount<String, Long>();
+    cache.cacheEventsSubscribe(ec);
+
+    cache.cacheGetLUAll(Arrays.asList("n2", "w", "n1", "n0"));
+    Assert.assertTrue(cache.cacheIsCached("w"));
+    Assert.assertFalse(cache.cacheIsCached("x"));
+    Assert.assertFalse(cache.cacheIsCached("y"));
+    Assert.assertFalse(cache.cacheIsCached("z"));
+    Assert.assertTrue(cache.cacheIsCached("n0"));
+    Assert.assertTrue(cache.cacheIsCached("n1"));
+    Assert.assertTrue(cache.cacheIsCached("n2"));
+    Assert.assertEquals(4L, cache.cacheSizeLong());
+
+    Assert.assertEquals(3, ec.getLoads());
+    Assert.assertEquals(3, ec.getEvictions());
+    Assert.assertEquals(4, ec.getRetrievals());
+    Assert.assertEquals(3L, loader.getCloses());
   }
 
   /**
-   * Trying to subscribe with TestUtilities.actuallyNull() fails.
+   * A failing bulk load caches nothing.
    *
-   * @throws JCacheException
+   * @throws Exception
    */
 
-  @Test(expected = NullCheckException.class) public void testEventsNull()
-    throws JCacheException
+  @Test public void testBulkFailure()
+    throws Exception
   {
-    final Pair<LUCacheLoaderFaultInjectable<String, Long>, LRUCacheTrivial<String, Long, Long, Failure>> pair =
-      this.newCache(2L);
-    pair.getRight().cacheEventsSubscribe(
-      (JCacheEventsType<String, Long>) TestUtilities.actuallyNull());
-  }
-
-  /**
-   * Caching items evicts the oldest items first.
-   *
-   * @throws JCacheException
-   */
+    final LUCacheLoaderBulk<String> loader = new LUCacheLoaderBulk<String>();
+    final LRUCacheTrivial<String, Long, Long, Failure> cache =
+      LRUCacheTrivialTest.newBulkCache(loader, 8L);
 
-  @SuppressWarnings("boxing") @Test public void testEviction()
-    throws Failure,
-      JCacheException
-  {
-    final Pair<LUCacheLoaderFaultInjectable<String, Long>, LRUCacheTrivial<String, Long, Long, Failure>> pair =
-      this.newCache(2L);
-
-    pair.getLeft().setFailure(false);
-    pair.getLeft().setLoadedValue(0L);
-    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
-
-    pair.getRight().cacheGetLU("key0");
-    pair.getRight().cacheGetLU("key1");
-    Assert.assertTrue(pair.getRight().cacheIsCached("key0"));
-    Assert.assertTrue(pair.getRight().cacheIsCached("key1"));
-    Assert.assertEquals(BigInteger.valueOf(2), pair
-      .getRight()
-      .cacheItemCount());
-    Assert.assertEquals(BigInteger.valueOf(2), pair.getRight().cacheSize());
-
-    for (long i = 2; i < 10; ++i) {
-      pair.getLeft().setFailure(false);
-      pair.getLeft().setLoadedValue(i);
-      pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
-
-      Assert.assertEquals(BigInteger.valueOf(2), pair
-        .getRight()
-        .cacheItemCount());
-      Assert.assertEquals(BigInteger.valueOf(2), pair.getRight().cacheSize());
-
-      final Long r = pair.getRight().cacheGetLU("key" + i);
-      for (long k = 0; k < (i - 2); ++k) {
-        Assert.assertFalse(pair.getRight().cacheIsCached("key" + k));
-      }
-      final Long q = pair.getRight().cacheGetLU("key" + i);
-      Assert.assertEquals(r, q);
-
-      Assert.assertTrue(pair.getRight().cacheIsCached("key" + (i - 1)));
-      Assert.assertTrue(pair.getRight().cacheIsCached("key" + i));
-      Assert.assertEquals(BigInteger.valueOf(2), pair
-        .getRight()
-        .cacheItemCount());
-      Assert.assertEquals(BigInteger.valueOf(2), pair.getRight().cacheSize());
+    loader.setFailure(true);
+    try {
+      cache.cacheGetLUAll(Arrays.asList("a", "b"));
+      Assert.fail();
+    } catch (final Failure x) {
+      // Expected
     }
+
+    Assert.assertEquals(0L, cache.cacheItemCountLong());
+    Assert.assertEquals(0L, cache.cacheSizeLong());
   }
 
   /**
-   * Caching items evicts the oldest items first after resizing.
+   * Loaders that cannot load in bulk are called once per missing key.
    *
-   * @throws JCacheException
+   * @throws Exception
    */
 
-  @SuppressWarnings("boxing") @Test public void testEvictionResized_0()
-    throws Failure,
-      JCacheException
+  @Test public void testBulkFallback()
+    throws Exception
   {
-    final Pair<LUCacheLoaderFaultInjectable<String, Long>, LRUCacheTrivial<String, Long, Long, Failure>> pair =
-      this.newCache(100L);
-
-    final LUCacheLoaderFaultInjectable<String, Long> faults = pair.getLeft();
-    faults.setFailure(false);
-    faults.setLoadedValue(0L);
-    faults.setLoadedValueSize(BigInteger.valueOf(1));
-
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
     final LRUCacheTrivial<String, Long, Long, Failure> cache =
-      pair.getRight();
-    for (long i = 0; i < 100; ++i) {
-      faults.setFailure(false);
-      faults.setLoadedValue(i);
-      faults.setLoadedValueSize(BigInteger.valueOf(1));
-      cache.cacheGetLU("key" + i);
-      Assert.assertEquals(i + 1, cache.cacheSize().intValue());
-    }
-
-    Assert.assertEquals(100, cache.cacheSize().intValue());
-
-    final LRUCacheConfig config =
-      LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(10));
-    cache.cacheSetConfiguration(config);
+      LRUCacheTrivial.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(8L)));
 
-    faults.setFailure(false);
-    faults.setLoadedValue(101L);
-    faults.setLoadedValueSize(BigInteger.valueOf(1));
-    cache.cacheGetLU("key" + 101);
+    cache.cacheGetLU("b");
+    final Map<String, Long> r =
+      cache.cacheGetLUAll(Arrays.asList("a", "b", "c"));
 
-    Assert.assertEquals(10, cache.cacheSize().intValue());
+    Assert.assertEquals(3, r.size());
+    Assert.assertEquals(3L, loader.getLoads());
+    Assert.assertEquals(Long.valueOf(1L), r.get("b"));
+    Assert.assertEquals(3L, cache.cacheItemCountLong());
   }
 
   /**
-   * Check that eviction is correct when the cache configuration is changed
-   * and an object exists in the cache with a size greater than the new
-   * maximum.
+   * Hits are served from the cache, and the misses are loaded in one sorted
+   * batch; the results follow the order of the request.
    *
-   * @throws JCacheException
+   * @throws Exception
    */
 
-  @SuppressWarnings("boxing") @Test public void testEvictionResized_1()
-    throws Failure,
-      JCacheException
+  @Test public void testBulkHitsAndMisses()
+    throws Exception
   {
-    final LRUCacheConfig config =
-      LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(10L));
-
-    final LUCacheLoaderFaultInjectable<Long, String> loader =
-      new LUCacheLoaderFaultInjectable<Long, String>();
-    final LRUCacheTrivial<Long, String, String, Failure> cache =
-      LRUCacheTrivial.newCache(loader, config);
-
-    loader.setLoadedValueSize(BigInteger.valueOf("hellohello".length()));
-    loader.setLoadedValue("hellohello");
-
-    cache.cacheGetLU(Long.valueOf(0));
+    final LUCacheLoaderBulk<String> loader = new LUCacheLoaderBulk<String>();
+    final LRUCacheTrivial<String, Long, Long, Failure> cache =
+      LRUCacheTrivialTest.newBulkCache(loader, 8L);
 
-    Assert.assertEquals(10, cache.cacheSize().intValue());
-    Assert.assertTrue(cache.cacheIsCached(Long.valueOf(0)));
+    final Long a = cache.cacheGetLU("a");
+    final Long b = cache.cacheGetLU("b");
 
-    final LRUCacheConfig config_after =
-      LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(5L));
+    final Map<String, Long> r =
+      cache.cacheGetLUAll(Arrays.asList("e", "a", "c", "b", "d"));
 
-    cache.cacheSetConfiguration(config_after);
+    Assert.assertEquals(1, loader.getBatches().size());
+    Assert.assertEquals(
+      Arrays.asList("c", "d", "e"),
+      loader.getBatches().get(0));
 
-    loader.setLoadedValueSize(BigInteger.valueOf("hello".length()));
-    loader.setLoadedValue("hello");
-    cache.cacheGetLU(Long.valueOf(1));
+    final List<String> order = new ArrayList<String>(r.keySet());
+    Assert.assertEquals(Arrays.asList("e", "a", "c", "b", "d"), order);
+    Assert.assertSame(a, r.get("a"));
+    Assert.assertSame(b, r.get("b"));
+    Assert.assertEquals(5L, cache.cacheItemCountLong());
+    Assert.assertEquals(5L, loader.getLoads());
+    Assert.assertEquals(0L, loader.getCloses());
 
-    Assert.assertEquals(5, cache.cacheSize().intValue());
-    Assert.assertTrue(cache.cacheIsCached(Long.valueOf(1)));
-    Assert.assertFalse(cache.cacheIsCached(Long.valueOf(0)));
+    cache.cacheGetLUAll(Arrays.asList("a", "b", "c"));
+    Assert.assertEquals(1, loader.getBatches().size());
   }
 
   /**
-   * A cache of size 1 can hold one object of size 1.
+   * A bulk load that does not return every requested value caches nothing,
+   * and closes the values that it did return.
    *
-   * @throws JCacheException
+   * @throws Exception
    */
 
-  @SuppressWarnings("boxing") @Test public void testEvictSize()
-    throws Failure,
-      JCacheException
+  @Test(expected = JCacheExceptionLoaderReturnedNull.class) public
+    void
+    testBulkMissingValue()
+      throws Exception
   {
-    final Pair<LUCacheLoaderFaultInjectable<String, Long>, LRUCacheTrivial<String, Long, Long, Failure>> pair =
-      this.newCache(1L);
-
-    final EventLog<String, Long> ev = new EventLog<String, Long>();
-    pair.getRight().cacheEventsSubscribe(ev);
-
-    ev.reset();
-    pair.getLeft().setFailure(false);
-    pair.getLeft().setLoadedValue(0L);
-    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
-    pair.getRight().cacheGetLU("key0");
-    Assert.assertTrue(ev.loaded);
-    Assert.assertEquals("key0", ev.loaded_key);
-    Assert.assertEquals(Long.valueOf(0L), ev.loaded_value);
-    Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
-    Assert.assertTrue(ev.retrieved);
-    Assert.assertEquals("key0", ev.retrieved_key);
-    Assert.assertEquals(Long.valueOf(0L), ev.retrieved_value);
-    Assert.assertEquals(BigInteger.ONE, ev.retrieved_size);
-
-    ev.reset();
-    pair.getLeft().setFailure(false);
-    pair.getLeft().setLoadedValue(1L);
-    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
-    pair.getRight().cacheGetLU("key1");
-    Assert.assertTrue(ev.loaded);
-    Assert.assertEquals("key1", ev.loaded_key);
-    Assert.assertEquals(Long.valueOf(1L), ev.loaded_value);
-    Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
-    Assert.assertTrue(ev.retrieved);
-    Assert.assertEquals("key1", ev.retrieved_key);
-    Assert.assertEquals(Long.valueOf(1L), ev.retrieved_value);
-    Assert.assertEquals(BigInteger.ONE, ev.retrieved_size);
+    final LUCacheLoaderBulk<String> loader = new LUCacheLoaderBulk<String>();
+    final LRUCacheTrivial<String, Long, Long, Failure> cache =
+      LRUCacheTrivialTest.newBulkCache(loader, 8L);
+
+    loader.setOmitted("b");
+    try {
+      cache.cacheGetLUAll(Arrays.asList("a", "b", "c"));
+    } finally {
+      Assert.assertEquals(0L, cache.cacheItemCountLong());
+      Assert.assertEquals(2L, loader.getCloses());
+    }
   }
 
   /**
-   * Checking if a TestUtilities.actuallyNull() key is cached fails.
+   * A batch that cannot fit in the cache at once is rejected as a whole.
+   *
+   * @throws Exception
    */
 
-  @Test(expected = NullCheckException.class) public void testIsCachedNull()
+  @Test(expected = JCacheExceptionObjectTooLarge.class) public
+    void
+    testBulkTooLarge()
+      throws Exception
   {
-    LRUCacheTrivial<Long, Long, Long, Failure> cache =
-      TestUtilities.actuallyNull();
+    final LUCacheLoaderBulk<String> loader = new LUCacheLoaderBulk<String>();
+    final LRUCacheTrivial<String, Long, Long, Failure> cache =
+      LRUCacheTrivialTest.newBulkCache(loader, 4L);
 
+    cache.cacheGetLU("x");
     try {
-      final LRUCacheConfig config = LRUCacheConfig.empty();
-      cache =
-        LRUCacheTrivial.newCache(
-          new LUCacheLoaderFaultInjectable<Long, Long>(),
-          config);
-    } catch (final Throwable x) {
-      Assert.fail(x.getMessage());
+      cache.cacheGetLUAll(Arrays.asList("a", "b", "c", "d", "x"));
+    } finally {
+      Assert.assertEquals(1L, cache.cacheItemCountLong());
+      Assert.assertTrue(cache.cacheIsCached("x"));
+      Assert.assertEquals(4L, loader.getCloses());
     }
+  }
 
-    assert cache != TestUtilities.actuallyNull();
-    cache.cacheIsCached((Long) TestUtilities.actuallyNull());
+  private LRUCacheTrivial<String, String, String, Failure> newTieredCache(
+    final LUCacheLoaderStrings loader,
+    final LUCacheCodecString codec)
+    throws IOException
+  {
+    final JCacheDiskTier<String, String> tier =
+      JCacheDiskTier.newTier(
+        this.folder.getRoot().toPath(),
+        codec,
+        4096L,
+        1024L,
+        LRUCacheTrivialTest.DIRECT);
+    return LRUCacheTrivial.newCache(
+      loader,
+      LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(2L)),
+      tier);
   }
 
   /**
-   * Failing to load an item is signalled.
+   * Objects retrieved in bulk are recovered from the disk tier.
+   *
+   * @throws Exception
    */
 
-  @Test(expected = Failure.class) public void testLoadFailure()
-    throws Failure,
-      JCacheException
+  @Test public void testDiskTierBulk()
+    throws Exception
   {
-    final Pair<LUCacheLoaderFaultInjectable<Long, Long>, LRUCacheTrivial<Long, Long, Long, Failure>> pair =
-      this.newCache(32L);
-
-    pair.getLeft().setFailure(true);
-    pair.getLeft().setLoadedValue(Long.valueOf(23));
-    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(4));
-    pair.getRight().cacheGetLU(Long.valueOf(23));
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheTrivial<String, String, String, Failure> cache =
+      this.newTieredCache(loader, new LUCacheCodecString());
+
+    cache.cacheGetLU("a");
+    cache.cacheGetLU("b");
+    cache.cacheGetLU("c");
+    cache.cacheGetLU("d");
+    Assert.assertEquals(4L, loader.getLoads());
+
+    final Map<String, String> r = cache.cacheGetLUAll(Arrays.asList("a", "b"));
+    Assert.assertEquals("a", r.get("a"));
+    Assert.assertEquals("b", r.get("b"));
+    Assert.assertEquals(4L, loader.getLoads());
   }
 
   /**
-   * A loader returning an object that cannot fit in the cache is an error.
+   * Objects that cannot be decoded from the disk tier are loaded again.
    *
-   * @throws JCacheException
+   * @throws Exception
    */
 
-  @Test(expected = JCacheExceptionObjectTooLarge.class) public
-    void
-    testLoadHugeSize()
-      throws Failure,
-        JCacheException
+  @Test public void testDiskTierDecodeFailure()
+    throws Exception
   {
-    final Pair<LUCacheLoaderFaultInjectable<Long, Long>, LRUCacheTrivial<Long, Long, Long, Failure>> pair =
-      this.newCache(32L);
-
-    pair.getLeft().setFailure(false);
-    pair.getLeft().setLoadedValue(Long.valueOf(1));
-    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(33L));
-    pair.getRight().cacheGetLU(Long.valueOf(23));
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LUCacheCodecString codec = new LUCacheCodecString();
+    final LRUCacheTrivial<String, String, String, Failure> cache =
+      this.newTieredCache(loader, codec);
+
+    cache.cacheGetLU("a");
+    cache.cacheGetLU("b");
+    cache.cacheGetLU("c");
+    Assert.assertFalse(cache.cacheIsCached("a"));
+
+    codec.setDecodeFailure(true);
+    Assert.assertEquals("a", cache.cacheGetLU("a"));
+    Assert.assertTrue(cache.cacheIsCached("a"));
+    Assert.assertEquals(4L, loader.getLoads());
   }
 
   /**
-   * A loader returning a negative size is a cache error.
+   * Deleting the cache does not write objects to the disk tier, and deletes
+   * the objects already there.
    *
-   * @throws JCacheException
+   * @throws Exception
    */
 
-  @Test(expected = JCacheExceptionObjectTooSmall.class) public
-    void
-    testLoadNegativeSize()
-      throws Failure,
-        JCacheException
+  @Test public void testDiskTierDelete()
+    throws Exception
   {
-    final Pair<LUCacheLoaderFaultInjectable<Long, Long>, LRUCacheTrivial<Long, Long, Long, Failure>> pair =
-      this.newCache(32L);
-
-    pair.getLeft().setFailure(false);
-    pair.getLeft().setLoadedValue(Long.valueOf(1));
-    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(-1));
-    pair.getRight().cacheGetLU(Long.valueOf(23));
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheTrivial<String, String, String, Failure> cache =
+      this.newTieredCache(loader, new LUCacheCodecString());
+
+    cache.cacheGetLU("a");
+    cache.cacheGetLU("b");
+    cache.cacheGetLU("c");
+    cache.cacheDelete();
+
+    cache.cacheGetLU("a");
+    cache.cacheGetLU("b");
+    Assert.assertEquals(5L, loader.getLoads());
   }
 
   /**
-   * A loader returning <code>TestUtilities.actuallyNull()</code> is a cache
-   * error.
+   * Objects that cannot be written to the disk tier are loaded again.
    *
-   * @throws JCacheException
+   * @throws Exception
    */
 
-  @Test(expected = JCacheExceptionLoaderReturnedNull.class) public
-    void
-    testLoadNull()
-      throws Failure,
-        JCacheException
+  @Test public void testDiskTierFailure()
+    throws Exception
   {
-    final Pair<LUCacheLoaderFaultInjectable<Long, Long>, LRUCacheTrivial<Long, Long, Long, Failure>> pair =
-      this.newCache(32L);
-
-    pair.getLeft().setFailure(false);
-    pair.getLeft().setLoadedValue((Long) TestUtilities.actuallyNull());
-    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(4));
-    pair.getRight().cacheGetLU(Long.valueOf(23));
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LUCacheCodecString codec = new LUCacheCodecString();
+    final LRUCacheTrivial<String, String, String, Failure> cache =
+      this.newTieredCache(loader, codec);
+
+    codec.setFailure(true);
+    cache.cacheGetLU("a");
+    cache.cacheGetLU("b");
+    cache.cacheGetLU("c");
+    Assert.assertEquals(1L, loader.getCloses());
+
+    codec.setFailure(false);
+    Assert.assertEquals("a", cache.cacheGetLU("a"));
+    Assert.assertEquals(4L, loader.getLoads());
   }
 
   /**
-   * Passing a null configuration is an error.
+   * Evicted objects are written to the disk tier, and recovered from it
+   * instead of being loaded again.
    *
-   * @throws JCacheException
+   * @throws Exception
    */
 
-  @Test(expected = NullCheckException.class) public
-    void
-    testNullConfiguration()
-      throws JCacheException
+  @Test public void testDiskTierRecovers()
+    throws Exception
   {
-    final Pair<LUCacheLoaderFaultInjectable<Long, Long>, LRUCacheTrivial<Long, Long, Long, Failure>> pair =
-      this.newCache(32L);
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheTrivial<String, String, String, Failure> cache =
+      this.newTieredCache(loader, new LUCacheCodecString());
+
+    final EventCount<String, String> ec = new EventCount<String, String>();
+    cache.cacheEventsSubscribe(ec);
+
+    loader.setLength(100);
+    cache.cacheGetLU("a");
+    cache.cacheGetLU("b");
+    cache.cacheGetLU("c");
+    Assert.assertFalse(cache.cacheIsCached("a"));
+    Assert.assertEquals(1L, loader.getCloses());
+
+    Assert.assertEquals(
+      LUCacheLoaderStrings.valueFor("a", 100),
+      cache.cacheGetLU("a"));
+    Assert.assertTrue(cache.cacheIsCached("a"));
+    Assert.assertFalse(cache.cacheIsCached("b"));
+    Assert.assertEquals(3L, loader.getLoads());
+    Assert.assertEquals(4, ec.getLoads());
+    Assert.assertEquals(2, ec.getEvictions());
+  }
 
-    pair.getRight().cacheSetConfiguration(
-      (LRUCacheConfig) TestUtilities.actuallyNull());
+  private static String[] snapshotOrder(
+    final LRUCacheTrivial<String, String, String, Failure> cache,
+    final int count)
+    throws Exception
+  {
+    /**
+     * Insert new keys one at a time, recording the order in which existing
+     * keys are evicted (least recently used first).
+     */
+
+    final List<String> evicted = new ArrayList<String>();
+    cache.cacheEventsSubscribe(new EventCount<String, String>() {
+      @Override public void cacheEventValueEvicted(
+        final String key,
+        final String value,
+        final BigInteger size)
+      {
+        evicted.add(key);
+      }
+    });
+    for (int index = 0; index < count; ++index) {
+      cache.cacheGetLU("new" + index);
+    }
+    cache.cacheEventsUnsubscribe();
+    return evicted.toArray(new String[evicted.size()]);
+  }
+
+  private LRUCacheTrivial<String, String, String, Failure> newSnapshotCache(
+    final LUCacheLoaderStrings loader,
+    final long capacity)
+  {
+    return LRUCacheTrivial.newCache(
+      loader,
+      LRUCacheConfig.empty().withMaximumCapacity(
+        BigInteger.valueOf(capacity)));
   }
 
   /**
-   * Creating a cache succeeds.
+   * Restoring stops when the cache is full, keeping the hottest objects.
+   *
+   * @throws Exception
    */
 
-  @Test public void testNew()
+  @Test public void testSnapshotCapacity()
+    throws Exception
   {
-    final LRUCacheConfig config = LRUCacheConfig.empty();
-    final LRUCacheTrivial<Long, Long, Long, Failure> cache =
-      LRUCacheTrivial.newCache(
-        new LUCacheLoaderFaultInjectable<Long, Long>(),
-        config);
-    Assert.assertEquals(BigInteger.ZERO, cache.cacheItemCount());
-    Assert.assertEquals(BigInteger.ZERO, cache.cacheSize());
-    Assert.assertEquals(config, cache.cacheGetConfiguration());
-
-    for (long e = 2; e <= 32; e *= 2) {
-      Assert.assertFalse(cache.cacheIsCached(Long.valueOf((long) Math.pow(
-        2,
-        32))));
+    final Path file = this.folder.getRoot().toPath().resolve("snapshot");
+    final LUCacheCodecString codec = new LUCacheCodecString();
+
+    final LRUCacheTrivial<String, String, String, Failure> c0 =
+      this.newSnapshotCache(new LUCacheLoaderStrings(), 8L);
+    for (final String k : new String[] { "a", "b", "c", "d", "e" }) {
+      c0.cacheGetLU(k);
     }
+    c0.cacheSnapshotWrite(file, codec, null);
+
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheTrivial<String, String, String, Failure> c1 =
+      this.newSnapshotCache(loader, 3L);
+    Assert.assertEquals(
+      3L,
+      c1.cacheSnapshotRestore(file, codec, null, LRUCacheTrivialTest.DIRECT, 1));
+
+    Assert.assertTrue(c1.cacheIsCached("e"));
+    Assert.assertTrue(c1.cacheIsCached("d"));
+    Assert.assertTrue(c1.cacheIsCached("c"));
+    Assert.assertFalse(c1.cacheIsCached("b"));
+    Assert.assertEquals(4L, loader.getLoads());
+    Assert.assertEquals(1L, loader.getCloses());
   }
 
   /**
-   * Creating a cache with a TestUtilities.actuallyNull() loader fails.
+   * Restoring an invalid snapshot fails.
+   *
+   * @throws Exception
    */
 
-  @Test(expected = NullCheckException.class) public void testNullConfig()
+  @Test(expected = IOException.class) public void testSnapshotInvalid()
+    throws Exception
   {
-    LRUCacheTrivial.newCache(
-      new LUCacheLoaderFaultInjectable<Long, Long>(),
-      (LRUCacheConfig) TestUtilities.actuallyNull());
+    final Path file = this.folder.getRoot().toPath().resolve("snapshot");
+    Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+
+    final LRUCacheTrivial<String, String, String, Failure> c =
+      this.newSnapshotCache(new LUCacheLoaderStrings(), 8L);
+    c.cacheSnapshotRestore(
+      file,
+      new LUCacheCodecString(),
+      null,
+      LRUCacheTrivialTest.DIRECT,
+      1);
   }
 
   /**
-   * Creating a cache with a TestUtilities.actuallyNull() loader fails.
+   * Objects are restored in parallel, and keep their recency order.
+   *
+   * @throws Exception
    */
 
-  @SuppressWarnings("unchecked") @Test(expected = NullCheckException.class) public
-    void
-    testNullLoader()
+  @Test public void testSnapshotParallel()
+    throws Exception
   {
-    final LRUCacheConfig config = LRUCacheConfig.empty();
-    LRUCacheTrivial.newCache(
-      (JCacheLoaderType<Object, Object, JCacheException>) TestUtilities
-        .actuallyNull(),
-      config);
+    final Path file = this.folder.getRoot().toPath().resolve("snapshot");
+    final LUCacheCodecString codec = new LUCacheCodecString();
+
+    final LRUCacheTrivial<String, String, String, Failure> c0 =
+      this.newSnapshotCache(new LUCacheLoaderStrings(), 100L);
+    for (int index = 0; index < 100; ++index) {
+      c0.cacheGetLU("k" + index);
+    }
+    Assert.assertEquals(100L, c0.cacheSnapshotWrite(file, codec, null));
+
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheTrivial<String, String, String, Failure> c1 =
+      this.newSnapshotCache(loader, 100L);
+    final ExecutorService exec = Executors.newFixedThreadPool(4);
+    try {
+      Assert.assertEquals(
+        100L,
+        c1.cacheSnapshotRestore(file, codec, null, exec, 8));
+    } finally {
+      exec.shutdown();
+    }
+
+    Assert.assertEquals(100L, loader.getLoads());
+    final String[] order = LRUCacheTrivialTest.snapshotOrder(c1, 100);
+    for (int index = 0; index < 100; ++index) {
+      Assert.assertEquals("k" + index, order[index]);
+    }
   }
 
   /**
-   * Basic toString tests.
+   * Snapshots without values are restored with the loader, in recency order,
+   * skipping keys that are already cached.
+   *
+   * @throws Exception
    */
 
-  @SuppressWarnings("boxing") @Test public void testToString()
-    throws Failure,
-      JCacheException
+  @Test public void testSnapshotRoundTrip()
+    throws Exception
   {
-    final Pair<LUCacheLoaderFaultInjectable<String, Long>, LRUCacheTrivial<String, Long, Long, Failure>> pair =
-      this.newCache(32L);
-
-    final String s0 = pair.getRight().toString();
+    final Path file = this.folder.getRoot().toPath().resolve("snapshot");
+    final LUCacheCodecString codec = new LUCacheCodecString();
 
-    pair.getLeft().setFailure(false);
-    pair.getLeft().setLoadedValue(0L);
-    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
-    pair.getRight().cacheGetLU("key0");
+    final LRUCacheTrivial<String, String, String, Failure> c0 =
+      this.newSnapshotCache(new LUCacheLoaderStrings(), 8L);
+    for (final String k : new String[] { "a", "b", "c", "d", "a" }) {
+      c0.cacheGetLU(k);
+    }
+    Assert.assertEquals(4L, c0.cacheSnapshotWrite(file, codec, null));
+
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheTrivial<String, String, String, Failure> c1 =
+      this.newSnapshotCache(loader, 4L);
+    c1.cacheGetLU("c");
+    Assert.assertEquals(
+      3L,
+      c1.cacheSnapshotRestore(file, codec, null, LRUCacheTrivialTest.DIRECT, 2));
+    Assert.assertEquals(4L, loader.getLoads());
+    Assert.assertEquals(4L, c1.cacheItemCountLong());
+
+    final String[] order = LRUCacheTrivialTest.snapshotOrder(c1, 4);
+    Assert.assertArrayEquals(new String[] { "c", "b", "d", "a" }, order);
+  }
 
-    final String s1 = pair.getRight().toString();
+  /**
+   * Snapshots with values are restored without the loader.
+   *
+   * @throws Exception
+   */
 
-    Assert.assertFalse(s0.equals(s1));
+  @Test public void testSnapshotValues()
+    throws Exception
+  {
+    final Path file = this.folder.getRoot().toPath().resolve("snapshot");
+    final LUCacheCodecString codec = new LUCacheCodecString();
+
+    final LUCacheLoaderStrings l0 = new LUCacheLoaderStrings();
+    l0.setLength(20);
+    final LRUCacheTrivial<String, String, String, Failure> c0 =
+      this.newSnapshotCache(l0, 8L);
+    c0.cacheGetLU("a");
+    c0.cacheGetLU("b");
+    c0.cacheSnapshotWrite(file, codec, codec);
+
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final LRUCacheTrivial<String, String, String, Failure> c1 =
+      this.newSnapshotCache(loader, 8L);
+    Assert.assertEquals(
+      2L,
+      c1.cacheSnapshotRestore(file, codec, codec, LRUCacheTrivialTest.DIRECT, 2));
+    Assert.assertEquals(0L, loader.getLoads());
+    Assert.assertEquals(LUCacheLoaderStrings.valueFor("a", 20), c1.cacheGetLU("a"));
+    Assert.assertEquals(LUCacheLoaderStrings.valueFor("b", 20), c1.cacheGetLU("b"));
   }
 }
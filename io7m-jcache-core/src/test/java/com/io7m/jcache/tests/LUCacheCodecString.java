@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.io7m.jcache.JCacheCodecType;
+
+/**
+ * Codec that stores strings as UTF-8, fails to encode or decode on demand,
+ * and counts the calls made to it.
+ */
+
+public final class LUCacheCodecString implements JCacheCodecType<String>
+{
+  private static final Charset UTF8;
+
+  static {
+    UTF8 = Charset.forName("UTF-8");
+  }
+
+  private final AtomicLong decodes;
+  private volatile boolean fail;
+  private volatile boolean fail_decode;
+
+  public LUCacheCodecString()
+  {
+    this.decodes = new AtomicLong();
+  }
+
+  @Override public String cacheCodecDecode(
+    final ByteBuffer source)
+  {
+    this.decodes.incrementAndGet();
+    if (this.fail_decode) {
+      throw new IllegalStateException("Decoding failed");
+    }
+    final byte[] data = new byte[source.remaining()];
+    source.get(data);
+    return new String(data, LUCacheCodecString.UTF8);
+  }
+
+  @Override public void cacheCodecEncode(
+    final String value,
+    final ByteBuffer target)
+  {
+    if (this.fail) {
+      throw new IllegalStateException("Encoding failed");
+    }
+    target.put(value.getBytes(LUCacheCodecString.UTF8));
+  }
+
+  @Override public int cacheCodecSizeOf(
+    final String value)
+  {
+    return value.getBytes(LUCacheCodecString.UTF8).length;
+  }
+
+  public long getDecodes()
+  {
+    return this.decodes.get();
+  }
+
+  public void setDecodeFailure(
+    final boolean in_fail)
+  {
+    this.fail_decode = in_fail;
+  }
+
+  public void setFailure(
+    final boolean in_fail)
+  {
+    this.fail = in_fail;
+  }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcache.JCacheException;
+import com.io7m.jcache.JCacheLoaderType;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheTrivial;
+import com.io7m.jcache.LUCacheGDSF;
+import com.io7m.jcache.LRUCacheType;
+import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
+import com.io7m.jfunctional.Pair;
+
+@SuppressWarnings("static-method") public final class LUCacheGDSFTest extends
+  LUCacheContractTest
+{
+  @Override protected
+    <K, TVIEW, TCACHE extends TVIEW>
+    LRUCacheType<K, TVIEW, TCACHE, Failure>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, Failure> loader,
+      final LRUCacheConfig config)
+  {
+    return LUCacheGDSF.newCache(loader, config);
+  }
+
+  private
+    <K, TVIEW, TCACHE extends TVIEW>
+    Pair<LUCacheLoaderFaultInjectable<K, TCACHE>, LUCacheGDSF<K, TVIEW, TCACHE, Failure>>
+    newCache(
+      final long capacity)
+  {
+    final LRUCacheConfig config =
+      LRUCacheConfig
+        .empty()
+        .withMaximumCapacity(BigInteger.valueOf(capacity));
+    final LUCacheLoaderFaultInjectable<K, TCACHE> loader =
+      new LUCacheLoaderFaultInjectable<K, TCACHE>();
+    final LUCacheGDSF<K, TVIEW, TCACHE, Failure> cache =
+      LUCacheGDSF.newCache(loader, config);
+    return Pair.pair(loader, cache);
+  }
+
+  /**
+   * Objects that are expensive to reload are kept in preference to objects
+   * that are cheap to reload.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testCostPreferred()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCosted<String> loader =
+      new LUCacheLoaderCosted<String>();
+    final LUCacheGDSF<String, Long, Long, Failure> cache =
+      LUCacheGDSF.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(2L)));
+
+    loader.setCost("expensive", 1000L);
+    loader.setCost("cheap", 1L);
+
+    cache.cacheGetLU("expensive");
+    cache.cacheGetLU("cheap");
+    cache.cacheGetLU("other");
+
+    Assert.assertTrue(cache.cacheIsCached("expensive"));
+    Assert.assertFalse(cache.cacheIsCached("cheap"));
+    Assert.assertTrue(cache.cacheIsCached("other"));
+  }
+
+  /**
+   * On a workload where a few objects are expensive to reload, the total
+   * reload cost is lower than that of an LRU cache.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testCostLowerThanLRU()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCosted<Integer> loader_g =
+      new LUCacheLoaderCosted<Integer>();
+    final LUCacheLoaderCosted<Integer> loader_l =
+      new LUCacheLoaderCosted<Integer>();
+    final LRUCacheConfig config =
+      LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(100L));
+
+    for (int k = 0; k < 1000; k += 10) {
+      loader_g.setCost(Integer.valueOf(k), 100L);
+      loader_l.setCost(Integer.valueOf(k), 100L);
+    }
+
+    final LUCacheGDSF<Integer, Long, Long, Failure> gdsf =
+      LUCacheGDSF.newCache(loader_g, config);
+    final LRUCacheTrivial<Integer, Long, Long, Failure> lru =
+      LRUCacheTrivial.newCache(loader_l, config);
+
+    final Random r = new Random(0x11223344L);
+    for (int index = 0; index < 100000; ++index) {
+      final Integer key = Integer.valueOf(r.nextInt(1000));
+      gdsf.cacheGetLU(key);
+      lru.cacheGetLU(key);
+    }
+
+    Assert.assertTrue(
+      loader_g.getTotalCost() + " < " + loader_l.getTotalCost(),
+      (loader_g.getTotalCost() * 2L) < loader_l.getTotalCost());
+  }
+
+  /**
+   * Events are delivered.
+   *
+   * @throws JCacheException
+   */
+
+  @SuppressWarnings("boxing") @Test public void testEvents()
+    throws Failure,
+      JCacheException
+  {
+    final Pair<LUCacheLoaderFaultInjectable<String, Long>, LUCacheGDSF<String, Long, Long, Failure>> pair =
+      this.newCache(2L);
+
+    final EventLog<String, Long> ev = new EventLog<String, Long>();
+    pair.getRight().cacheEventsSubscribe(ev);
+
+    pair.getLeft().setFailure(false);
+    pair.getLeft().setLoadedValue(0L);
+    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+    ev.reset();
+    pair.getRight().cacheGetLU("key0");
+    Assert.assertTrue(ev.loaded);
+    Assert.assertEquals("key0", ev.loaded_key);
+    Assert.assertEquals(Long.valueOf(0L), ev.loaded_value);
+    Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
+    Assert.assertTrue(ev.retrieved);
+    Assert.assertEquals("key0", ev.retrieved_key);
+    Assert.assertEquals(Long.valueOf(0L), ev.retrieved_value);
+    Assert.assertEquals(BigInteger.ONE, ev.retrieved_size);
+
+    pair.getLeft().setFailure(false);
+    pair.getLeft().setLoadedValue(1L);
+    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+    ev.reset();
+    pair.getRight().cacheGetLU("key1");
+    Assert.assertTrue(ev.loaded);
+    Assert.assertEquals("key1", ev.loaded_key);
+    Assert.assertEquals(Long.valueOf(1L), ev.loaded_value);
+    Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
+    Assert.assertTrue(ev.retrieved);
+    Assert.assertEquals("key1", ev.retrieved_key);
+    Assert.assertEquals(Long.valueOf(1L), ev.retrieved_value);
+    Assert.assertEquals(BigInteger.ONE, ev.retrieved_size);
+
+    for (long i = 2; i < 10; ++i) {
+      pair.getLeft().setFailure(false);
+      pair.getLeft().setLoadedValue(i);
+      pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+      ev.reset();
+      pair.getRight().cacheGetLU("key" + i);
+
+      Assert.assertTrue(ev.loaded);
+      Assert.assertEquals("key" + i, ev.loaded_key);
+      Assert.assertEquals(Long.valueOf(i), ev.loaded_value);
+      Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
+
+      Assert.assertTrue(ev.retrieved);
+      Assert.assertEquals("key" + i, ev.retrieved_key);
+      Assert.assertEquals(Long.valueOf(i), ev.retrieved_value);
+      Assert.assertEquals(BigInteger.ONE, ev.retrieved_size);
+
+      /**
+       * The loader does not report costs, so the victim depends on measured
+       * load times.
+       */
+
+      Assert.assertTrue(ev.evicted);
+      Assert.assertFalse(("key" + i).equals(ev.evicted_key));
+      Assert.assertFalse(pair.getRight().cacheIsCached(ev.evicted_key));
+      Assert.assertEquals(
+        Long.valueOf(ev.evicted_key.substring(3)),
+        ev.evicted_value);
+      Assert.assertEquals(BigInteger.ONE, ev.evicted_size);
+    }
+
+    pair.getRight().cacheEventsUnsubscribe();
+
+    for (long i = 2; i < 10; ++i) {
+      pair.getLeft().setFailure(false);
+      pair.getLeft().setLoadedValue(i);
+      pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+      ev.reset();
+      pair.getRight().cacheGetLU("key" + i);
+
+      Assert.assertFalse(ev.loaded);
+      Assert.assertFalse(ev.retrieved);
+      Assert.assertFalse(ev.evicted);
+    }
+  }
+
+  /**
+   * Caching items evicts items to make room.
+   *
+   * @throws JCacheException
+   */
+
+  @SuppressWarnings("boxing") @Test public void testEviction()
+    throws Failure,
+      JCacheException
+  {
+    final Pair<LUCacheLoaderFaultInjectable<String, Long>, LUCacheGDSF<String, Long, Long, Failure>> pair =
+      this.newCache(2L);
+
+    pair.getLeft().setFailure(false);
+    pair.getLeft().setLoadedValue(0L);
+    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+    pair.getRight().cacheGetLU("key0");
+    pair.getRight().cacheGetLU("key1");
+    Assert.assertTrue(pair.getRight().cacheIsCached("key0"));
+    Assert.assertTrue(pair.getRight().cacheIsCached("key1"));
+    Assert.assertEquals(BigInteger.valueOf(2), pair
+      .getRight()
+      .cacheItemCount());
+    Assert.assertEquals(BigInteger.valueOf(2), pair.getRight().cacheSize());
+
+    for (long i = 2; i < 10; ++i) {
+      pair.getLeft().setFailure(false);
+      pair.getLeft().setLoadedValue(i);
+      pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+      Assert.assertEquals(BigInteger.valueOf(2), pair
+        .getRight()
+        .cacheItemCount());
+      Assert.assertEquals(BigInteger.valueOf(2), pair.getRight().cacheSize());
+
+      final Long r = pair.getRight().cacheGetLU("key" + i);
+      final Long q = pair.getRight().cacheGetLU("key" + i);
+      Assert.assertEquals(r, q);
+
+      Assert.assertTrue(pair.getRight().cacheIsCached("key" + i));
+      Assert.assertEquals(BigInteger.valueOf(2), pair
+        .getRight()
+        .cacheItemCount());
+      Assert.assertEquals(BigInteger.valueOf(2), pair.getRight().cacheSize());
+    }
+  }
+
+  /**
+   * Objects that are requested often are kept in preference to objects that
+   * are requested rarely.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testFrequencyPreferred()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCosted<String> loader =
+      new LUCacheLoaderCosted<String>();
+    final LUCacheGDSF<String, Long, Long, Failure> cache =
+      LUCacheGDSF.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(2L)));
+
+    cache.cacheGetLU("frequent");
+    cache.cacheGetLU("rare");
+    cache.cacheGetLU("frequent");
+    cache.cacheGetLU("frequent");
+    cache.cacheGetLU("rare");
+    cache.cacheGetLU("other");
+
+    Assert.assertTrue(cache.cacheIsCached("frequent"));
+    Assert.assertFalse(cache.cacheIsCached("rare"));
+    Assert.assertTrue(cache.cacheIsCached("other"));
+  }
+
+  /**
+   * An expensive object that is never requested again is eventually evicted,
+   * because the priorities of newly loaded objects are inflated.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testInflationAges()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCosted<String> loader =
+      new LUCacheLoaderCosted<String>();
+    final LUCacheGDSF<String, Long, Long, Failure> cache =
+      LUCacheGDSF.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(2L)));
+
+    loader.setCost("expensive", 100L);
+    cache.cacheGetLU("expensive");
+
+    int index = 0;
+    while (cache.cacheIsCached("expensive")) {
+      cache.cacheGetLU("key" + index);
+      ++index;
+      Assert.assertTrue(index < 1000);
+    }
+
+    Assert.assertTrue(index > 50);
+  }
+
+  /**
+   * Large objects are evicted in preference to small objects of the same
+   * cost.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testLargePreferredForEviction()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCosted<String> loader =
+      new LUCacheLoaderCosted<String>();
+    final LUCacheGDSF<String, Long, Long, Failure> cache =
+      LUCacheGDSF.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(12L)));
+
+    loader.setSize("small", 1L);
+    loader.setSize("large", 10L);
+    loader.setSize("other", 2L);
+
+    cache.cacheGetLU("small");
+    cache.cacheGetLU("large");
+    cache.cacheGetLU("other");
+
+    Assert.assertTrue(cache.cacheIsCached("small"));
+    Assert.assertFalse(cache.cacheIsCached("large"));
+    Assert.assertTrue(cache.cacheIsCached("other"));
+    Assert.assertEquals(3L, cache.cacheSizeLong());
+  }
+
+  /**
+   * Without loader-reported costs, objects that are slow to load are kept in
+   * preference to objects that are fast to load.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testMeasuredCost()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<String> inner =
+      new LUCacheLoaderCounting<String>();
+    final JCacheLoaderType<String, Long, Failure> loader =
+      new JCacheLoaderType<String, Long, Failure>() {
+        @Override public void cacheValueClose(
+          final Long v)
+        {
+          inner.cacheValueClose(v);
+        }
+
+        @Override public Long cacheValueLoad(
+          final String key)
+        {
+          if ("slow".equals(key)) {
+            try {
+              Thread.sleep(50L);
+            } catch (final InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+          return inner.cacheValueLoad(key);
+        }
+
+        @Override public BigInteger cacheValueSizeOf(
+          final Long v)
+        {
+          return inner.cacheValueSizeOf(v);
+        }
+      };
+
+    final LUCacheGDSF<String, Long, Long, Failure> cache =
+      LUCacheGDSF.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(2L)));
+
+    cache.cacheGetLU("slow");
+    for (int index = 0; index < 10; ++index) {
+      cache.cacheGetLU("fast" + index);
+      Assert.assertTrue(cache.cacheIsCached("slow"));
+    }
+  }
+}
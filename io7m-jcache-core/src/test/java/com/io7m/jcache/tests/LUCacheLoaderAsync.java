@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.io7m.jcache.JCacheAsyncLoaderType;
+
+/**
+ * Thread-safe asynchronous loader whose loads are completed explicitly by
+ * the test, and that counts the calls made to it.
+ */
+
+public final class LUCacheLoaderAsync<K> implements
+  JCacheAsyncLoaderType<K, Long, LUCacheLoaderFaultInjectable.Failure>
+{
+  private final AtomicLong                            closes;
+  private final AtomicLong                            loads;
+  private final ConcurrentMap<K, CompletableFuture<Long>> pending;
+  private volatile long                               size;
+
+  public LUCacheLoaderAsync()
+  {
+    this.closes = new AtomicLong();
+    this.loads = new AtomicLong();
+    this.pending = new ConcurrentHashMap<K, CompletableFuture<Long>>();
+    this.size = 1L;
+  }
+
+  @Override public void cacheValueClose(
+    final Long v)
+  {
+    this.closes.incrementAndGet();
+  }
+
+  @Override public Long cacheValueLoad(
+    final K key)
+  {
+    return Long.valueOf(this.loads.incrementAndGet());
+  }
+
+  @Override public CompletableFuture<Long> cacheValueLoadAsync(
+    final K key)
+  {
+    this.loads.incrementAndGet();
+    final CompletableFuture<Long> f = new CompletableFuture<Long>();
+    this.pending.put(key, f);
+    return f;
+  }
+
+  @Override public BigInteger cacheValueSizeOf(
+    final Long v)
+  {
+    return BigInteger.valueOf(this.size);
+  }
+
+  public void complete(
+    final K key,
+    final long value)
+  {
+    this.pending.remove(key).complete(Long.valueOf(value));
+  }
+
+  public void fail(
+    final K key)
+  {
+    this.pending.remove(key).completeExceptionally(
+      new LUCacheLoaderFaultInjectable.Failure());
+  }
+
+  public long getCloses()
+  {
+    return this.closes.get();
+  }
+
+  public long getLoads()
+  {
+    return this.loads.get();
+  }
+
+  public boolean isPending(
+    final K key)
+  {
+    return this.pending.containsKey(key);
+  }
+
+  public void setSize(
+    final long in_size)
+  {
+    this.size = in_size;
+  }
+}
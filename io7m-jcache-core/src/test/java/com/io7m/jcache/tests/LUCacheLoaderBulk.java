@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.io7m.jcache.JCacheBulkLoaderType;
+import com.io7m.jcache.JCacheLoaderLongType;
+
+/**
+ * Loader that loads many values at once, and records the calls made to it.
+ */
+
+public final class LUCacheLoaderBulk<K> implements
+  JCacheBulkLoaderType<K, Long, LUCacheLoaderFaultInjectable.Failure>,
+  JCacheLoaderLongType<K, Long, LUCacheLoaderFaultInjectable.Failure>
+{
+  private final List<List<K>> batches;
+  private long                closes;
+  private boolean             fail;
+  private long                loads;
+  private K                   omit;
+  private long                size;
+
+  public LUCacheLoaderBulk()
+  {
+    this.batches = new ArrayList<List<K>>();
+    this.size = 1L;
+  }
+
+  @Override public void cacheValueClose(
+    final Long v)
+  {
+    ++this.closes;
+  }
+
+  @Override public Long cacheValueLoad(
+    final K key)
+    throws LUCacheLoaderFaultInjectable.Failure
+  {
+    if (this.fail) {
+      throw new LUCacheLoaderFaultInjectable.Failure();
+    }
+    ++this.loads;
+    return Long.valueOf(this.loads);
+  }
+
+  @Override public Map<K, Long> cacheValueLoadAll(
+    final List<K> keys)
+    throws LUCacheLoaderFaultInjectable.Failure
+  {
+    if (this.fail) {
+      throw new LUCacheLoaderFaultInjectable.Failure();
+    }
+
+    this.batches.add(new ArrayList<K>(keys));
+    final Map<K, Long> r = new HashMap<K, Long>();
+    for (final K k : keys) {
+      if (k.equals(this.omit) == false) {
+        ++this.loads;
+        r.put(k, Long.valueOf(this.loads));
+      }
+    }
+    return r;
+  }
+
+  @Override public BigInteger cacheValueSizeOf(
+    final Long v)
+  {
+    return BigInteger.valueOf(this.size);
+  }
+
+  @Override public long cacheValueSizeOfLong(
+    final Long v)
+  {
+    return this.size;
+  }
+
+  public List<List<K>> getBatches()
+  {
+    return this.batches;
+  }
+
+  public long getCloses()
+  {
+    return this.closes;
+  }
+
+  public long getLoads()
+  {
+    return this.loads;
+  }
+
+  public void setFailure(
+    final boolean f)
+  {
+    this.fail = f;
+  }
+
+  public void setOmitted(
+    final K k)
+  {
+    this.omit = k;
+  }
+
+  public void setSize(
+    final long s)
+  {
+    this.size = s;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.io7m.jcache.JCacheLoaderCostType;
+import com.io7m.jcache.JCacheLoaderLongType;
+
+/**
+ * Loader that reports per-key sizes and reload costs, and totals the cost of
+ * the loads made through it.
+ */
+
+public final class LUCacheLoaderCosted<K> implements
+  JCacheLoaderCostType<K, Long, LUCacheLoaderFaultInjectable.Failure>,
+  JCacheLoaderLongType<K, Long, LUCacheLoaderFaultInjectable.Failure>
+{
+  private final Map<K, Long> costs;
+  private long               loads;
+  private final Map<Long, K> loaded;
+  private final Map<K, Long> sizes;
+  private long               total_cost;
+
+  public LUCacheLoaderCosted()
+  {
+    this.costs = new HashMap<K, Long>();
+    this.sizes = new HashMap<K, Long>();
+    this.loaded = new HashMap<Long, K>();
+  }
+
+  private long costOfKey(
+    final K key)
+  {
+    final Long c = this.costs.get(key);
+    if (c == null) {
+      return 1L;
+    }
+    return c.longValue();
+  }
+
+  @Override public void cacheValueClose(
+    final Long v)
+  {
+    this.loaded.remove(v);
+  }
+
+  @Override public long cacheValueCostOf(
+    final K key,
+    final Long v)
+  {
+    return this.costOfKey(key);
+  }
+
+  @Override public Long cacheValueLoad(
+    final K key)
+  {
+    ++this.loads;
+    this.total_cost += this.costOfKey(key);
+    final Long v = Long.valueOf(this.loads);
+    this.loaded.put(v, key);
+    return v;
+  }
+
+  @Override public BigInteger cacheValueSizeOf(
+    final Long v)
+  {
+    return BigInteger.valueOf(this.cacheValueSizeOfLong(v));
+  }
+
+  @Override public long cacheValueSizeOfLong(
+    final Long v)
+  {
+    final Long s = this.sizes.get(this.loaded.get(v));
+    if (s == null) {
+      return 1L;
+    }
+    return s.longValue();
+  }
+
+  public long getLoads()
+  {
+    return this.loads;
+  }
+
+  public long getTotalCost()
+  {
+    return this.total_cost;
+  }
+
+  public void setCost(
+    final K key,
+    final long cost)
+  {
+    this.costs.put(key, Long.valueOf(cost));
+  }
+
+  public void setSize(
+    final K key,
+    final long size)
+  {
+    this.sizes.put(key, Long.valueOf(size));
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.io7m.jcache.JCacheLoaderLongType;
+
+/**
+ * Thread-safe loader that returns a fresh value for each load, reports sizes
+ * as <code>long</code> values, and counts the calls made to it.
+ */
+
+public final class LUCacheLoaderCounting<K> implements
+  JCacheLoaderLongType<K, Long, LUCacheLoaderFaultInjectable.Failure>
+{
+  private final AtomicLong closes;
+  private final AtomicLong loads;
+  private volatile long    size;
+  private final AtomicLong size_big_calls;
+
+  public LUCacheLoaderCounting()
+  {
+    this.closes = new AtomicLong();
+    this.loads = new AtomicLong();
+    this.size_big_calls = new AtomicLong();
+    this.size = 1L;
+  }
+
+  @Override public void cacheValueClose(
+    final Long v)
+  {
+    this.closes.incrementAndGet();
+  }
+
+  @Override public Long cacheValueLoad(
+    final K key)
+  {
+    return Long.valueOf(this.loads.incrementAndGet());
+  }
+
+  @Override public BigInteger cacheValueSizeOf(
+    final Long v)
+  {
+    this.size_big_calls.incrementAndGet();
+    return BigInteger.valueOf(this.size);
+  }
+
+  @Override public long cacheValueSizeOfLong(
+    final Long v)
+  {
+    return this.size;
+  }
+
+  public long getCloses()
+  {
+    return this.closes.get();
+  }
+
+  public long getLoads()
+  {
+    return this.loads.get();
+  }
+
+  public long getSizeBigCalls()
+  {
+    return this.size_big_calls.get();
+  }
+
+  public void setSize(
+    final long in_size)
+  {
+    this.size = in_size;
+  }
+}
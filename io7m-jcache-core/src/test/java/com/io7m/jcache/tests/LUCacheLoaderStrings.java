@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.io7m.jcache.JCacheLoaderType;
+
+/**
+ * Thread-safe loader that returns each key padded to a configurable length,
+ * and counts the calls made to it.
+ */
+
+public final class LUCacheLoaderStrings implements
+  JCacheLoaderType<String, String, LUCacheLoaderFaultInjectable.Failure>
+{
+  private final AtomicLong closes;
+  private volatile int     length;
+  private final AtomicLong loads;
+
+  public LUCacheLoaderStrings()
+  {
+    this.closes = new AtomicLong();
+    this.loads = new AtomicLong();
+    this.length = 1;
+  }
+
+  @Override public void cacheValueClose(
+    final String v)
+  {
+    this.closes.incrementAndGet();
+  }
+
+  @Override public String cacheValueLoad(
+    final String key)
+  {
+    this.loads.incrementAndGet();
+    return LUCacheLoaderStrings.valueFor(key, this.length);
+  }
+
+  @Override public BigInteger cacheValueSizeOf(
+    final String v)
+  {
+    return BigInteger.ONE;
+  }
+
+  public long getCloses()
+  {
+    return this.closes.get();
+  }
+
+  public long getLoads()
+  {
+    return this.loads.get();
+  }
+
+  public void setLength(
+    final int in_length)
+  {
+    this.length = in_length;
+  }
+
+  /**
+   * @return The value that is loaded for <code>key</code> when the length is
+   *         <code>length</code>
+   */
+
+  public static String valueFor(
+    final String key,
+    final int length)
+  {
+    final StringBuilder b = new StringBuilder(key);
+    while (b.length() < length) {
+      b.append('.');
+    }
+    return b.toString();
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcache.JCacheEvictionPolicies;
+import com.io7m.jcache.JCacheEvictionPolicyFactoryType;
+import com.io7m.jcache.JCacheEvictionPolicyType;
+import com.io7m.jcache.JCacheException;
+import com.io7m.jcache.JCacheException.JCacheExceptionPolicyError;
+import com.io7m.jcache.JCacheLoaderType;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LUCachePolicied;
+import com.io7m.jcache.LRUCacheType;
+import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
+
+@SuppressWarnings("static-method") public final class LUCachePoliciedTest extends
+  LRUCacheContractTest
+{
+  @Override protected
+    <K, TVIEW, TCACHE extends TVIEW>
+    LRUCacheType<K, TVIEW, TCACHE, Failure>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, Failure> loader,
+      final LRUCacheConfig config)
+  {
+    return LUCachePolicied.newCache(loader, config);
+  }
+
+  /**
+   * A FIFO policy evicts the oldest insertion, regardless of use.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testPolicyFIFO()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final LUCachePolicied<String, Long, Long, Failure> cache =
+      LUCachePolicied.newCache(loader, LRUCacheConfig
+        .empty()
+        .withMaximumCapacity(BigInteger.valueOf(2L))
+        .withEvictionPolicy(JCacheEvictionPolicies.fifo()));
+
+    cache.cacheGetLU("key0");
+    cache.cacheGetLU("key1");
+    cache.cacheGetLU("key0");
+    cache.cacheGetLU("key2");
+
+    Assert.assertFalse(cache.cacheIsCached("key0"));
+    Assert.assertTrue(cache.cacheIsCached("key1"));
+    Assert.assertTrue(cache.cacheIsCached("key2"));
+  }
+
+  /**
+   * A policy that chooses an uncached key is an error.
+   *
+   * @throws JCacheException
+   */
+
+  @Test(expected = JCacheExceptionPolicyError.class) public
+    void
+    testPolicyInvalidVictim()
+      throws Failure,
+        JCacheException
+  {
+    final JCacheEvictionPolicyFactoryType factory =
+      new JCacheEvictionPolicyFactoryType() {
+        @SuppressWarnings("unchecked") @Override public
+          <K>
+          JCacheEvictionPolicyType<K>
+          newPolicy()
+        {
+          return new JCacheEvictionPolicyType<K>() {
+            @Override public K policyChooseVictim()
+            {
+              return (K) "nonexistent";
+            }
+
+            @Override public void policyRecordAccess(
+              final K key)
+            {
+              // Nothing
+            }
+
+            @Override public void policyRecordInsert(
+              final K key,
+              final long size)
+            {
+              // Nothing
+            }
+
+            @Override public void policyRecordRemove(
+              final K key)
+            {
+              // Nothing
+            }
+          };
+        }
+      };
+
+    final LUCachePolicied<String, Long, Long, Failure> cache =
+      LUCachePolicied.newCache(
+        new LUCacheLoaderCounting<String>(),
+        LRUCacheConfig
+          .empty()
+          .withMaximumCapacity(BigInteger.ONE)
+          .withEvictionPolicy(factory));
+
+    cache.cacheGetLU("key0");
+    cache.cacheGetLU("key1");
+  }
+
+  /**
+   * An LFU policy evicts the least frequently used object.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testPolicyLFU()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final LUCachePolicied<String, Long, Long, Failure> cache =
+      LUCachePolicied.newCache(loader, LRUCacheConfig
+        .empty()
+        .withMaximumCapacity(BigInteger.valueOf(2L))
+        .withEvictionPolicy(JCacheEvictionPolicies.lfu()));
+
+    cache.cacheGetLU("key0");
+    cache.cacheGetLU("key0");
+    cache.cacheGetLU("key0");
+    cache.cacheGetLU("key1");
+    cache.cacheGetLU("key2");
+
+    Assert.assertTrue(cache.cacheIsCached("key0"));
+    Assert.assertFalse(cache.cacheIsCached("key1"));
+    Assert.assertTrue(cache.cacheIsCached("key2"));
+  }
+
+  /**
+   * Changing the policy of a populated cache keeps the cached objects.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testPolicySwitch()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final LRUCacheConfig config =
+      LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(3L));
+    final LUCachePolicied<String, Long, Long, Failure> cache =
+      LUCachePolicied.newCache(loader, config);
+
+    cache.cacheGetLU("key0");
+    cache.cacheGetLU("key1");
+    cache.cacheGetLU("key2");
+
+    cache.cacheSetConfiguration(config
+      .withEvictionPolicy(JCacheEvictionPolicies.lfu()));
+    Assert.assertEquals(
+      JCacheEvictionPolicies.lfu(),
+      cache.cacheGetConfiguration().getEvictionPolicy());
+
+    cache.cacheGetLU("key0");
+    cache.cacheGetLU("key2");
+    cache.cacheGetLU("key3");
+
+    Assert.assertTrue(cache.cacheIsCached("key0"));
+    Assert.assertFalse(cache.cacheIsCached("key1"));
+    Assert.assertTrue(cache.cacheIsCached("key2"));
+    Assert.assertTrue(cache.cacheIsCached("key3"));
+
+    cache.cacheDelete();
+    Assert.assertEquals(loader.getLoads(), loader.getCloses());
+  }
+}
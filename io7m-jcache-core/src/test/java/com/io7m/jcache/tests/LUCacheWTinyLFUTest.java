@@ -0,0 +1,359 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jcache.tests;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcache.JCacheException;
+import com.io7m.jcache.JCacheLoaderType;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcache.LRUCacheTrivial;
+import com.io7m.jcache.LUCacheWTinyLFU;
+import com.io7m.jcache.LRUCacheType;
+import com.io7m.jcache.tests.LUCacheLoaderFaultInjectable.Failure;
+import com.io7m.jfunctional.Pair;
+
+@SuppressWarnings("static-method") public final class LUCacheWTinyLFUTest extends
+  LUCacheContractTest
+{
+  @Override protected
+    <K, TVIEW, TCACHE extends TVIEW>
+    LRUCacheType<K, TVIEW, TCACHE, Failure>
+    newCache(
+      final JCacheLoaderType<K, TCACHE, Failure> loader,
+      final LRUCacheConfig config)
+  {
+    return LUCacheWTinyLFU.newCache(loader, config);
+  }
+
+  private
+    <K, TVIEW, TCACHE extends TVIEW>
+    Pair<LUCacheLoaderFaultInjectable<K, TCACHE>, LUCacheWTinyLFU<K, TVIEW, TCACHE, Failure>>
+    newCache(
+      final long capacity)
+  {
+    final LRUCacheConfig config =
+      LRUCacheConfig
+        .empty()
+        .withMaximumCapacity(BigInteger.valueOf(capacity));
+    final LUCacheLoaderFaultInjectable<K, TCACHE> loader =
+      new LUCacheLoaderFaultInjectable<K, TCACHE>();
+    final LUCacheWTinyLFU<K, TVIEW, TCACHE, Failure> cache =
+      LUCacheWTinyLFU.newCache(loader, config);
+    return Pair.pair(loader, cache);
+  }
+
+  /**
+   * Under random sizes, capacities and requests, the cache never exceeds its
+   * capacity, and every loaded value is either cached or closed.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testConsistentRandom()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<Integer> loader =
+      new LUCacheLoaderCounting<Integer>();
+    final LRUCacheConfig config =
+      LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(256L));
+    final LUCacheWTinyLFU<Integer, Long, Long, Failure> cache =
+      LUCacheWTinyLFU.newCache(loader, config);
+
+    final Random r = new Random(0x30405060L);
+    for (int index = 0; index < 100000; ++index) {
+      if ((index % 10000) == 0) {
+        final long capacity = 64L + r.nextInt(512);
+        cache.cacheSetConfiguration(config.withMaximumCapacity(BigInteger
+          .valueOf(capacity)));
+      }
+
+      loader.setSize(1L + r.nextInt(32));
+      final long loads = loader.getLoads();
+      final Long v = cache.cacheGetLU(Integer.valueOf(r.nextInt(1024)));
+      Assert.assertNotNull(v);
+
+      /**
+       * A reduced capacity only takes effect when an object is next loaded.
+       */
+
+      if (loader.getLoads() > loads) {
+        Assert.assertTrue(cache.cacheSizeLong() <= cache
+          .cacheGetConfiguration()
+          .getMaximumCapacityLong());
+      }
+      Assert.assertEquals(
+        loader.getLoads() - loader.getCloses(),
+        cache.cacheItemCountLong());
+    }
+
+    cache.cacheDelete();
+    Assert.assertEquals(0L, cache.cacheSizeLong());
+    Assert.assertEquals(0L, cache.cacheItemCountLong());
+    Assert.assertEquals(loader.getLoads(), loader.getCloses());
+  }
+
+  /**
+   * Events are delivered.
+   *
+   * @throws JCacheException
+   */
+
+  @SuppressWarnings("boxing") @Test public void testEvents()
+    throws Failure,
+      JCacheException
+  {
+    final Pair<LUCacheLoaderFaultInjectable<String, Long>, LUCacheWTinyLFU<String, Long, Long, Failure>> pair =
+      this.newCache(2L);
+
+    final EventLog<String, Long> ev = new EventLog<String, Long>();
+    pair.getRight().cacheEventsSubscribe(ev);
+
+    pair.getLeft().setFailure(false);
+    pair.getLeft().setLoadedValue(0L);
+    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+    ev.reset();
+    pair.getRight().cacheGetLU("key0");
+    Assert.assertTrue(ev.loaded);
+    Assert.assertEquals("key0", ev.loaded_key);
+    Assert.assertEquals(Long.valueOf(0L), ev.loaded_value);
+    Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
+    Assert.assertTrue(ev.retrieved);
+    Assert.assertEquals("key0", ev.retrieved_key);
+    Assert.assertEquals(Long.valueOf(0L), ev.retrieved_value);
+    Assert.assertEquals(BigInteger.ONE, ev.retrieved_size);
+
+    pair.getLeft().setFailure(false);
+    pair.getLeft().setLoadedValue(1L);
+    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+    ev.reset();
+    pair.getRight().cacheGetLU("key1");
+    Assert.assertTrue(ev.loaded);
+    Assert.assertEquals("key1", ev.loaded_key);
+    Assert.assertEquals(Long.valueOf(1L), ev.loaded_value);
+    Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
+    Assert.assertTrue(ev.retrieved);
+    Assert.assertEquals("key1", ev.retrieved_key);
+    Assert.assertEquals(Long.valueOf(1L), ev.retrieved_value);
+    Assert.assertEquals(BigInteger.ONE, ev.retrieved_size);
+
+    for (long i = 2; i < 10; ++i) {
+      pair.getLeft().setFailure(false);
+      pair.getLeft().setLoadedValue(i);
+      pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+      ev.reset();
+      pair.getRight().cacheGetLU("key" + i);
+
+      Assert.assertTrue(ev.loaded);
+      Assert.assertEquals("key" + i, ev.loaded_key);
+      Assert.assertEquals(Long.valueOf(i), ev.loaded_value);
+      Assert.assertEquals(BigInteger.ONE, ev.loaded_size);
+
+      Assert.assertTrue(ev.retrieved);
+      Assert.assertEquals("key" + i, ev.retrieved_key);
+      Assert.assertEquals(Long.valueOf(i), ev.retrieved_value);
+      Assert.assertEquals(BigInteger.ONE, ev.retrieved_size);
+
+      Assert.assertTrue(ev.evicted);
+      Assert.assertEquals("key" + (i - 1), ev.evicted_key);
+      Assert.assertEquals(Long.valueOf(i - 1), ev.evicted_value);
+      Assert.assertEquals(BigInteger.ONE, ev.evicted_size);
+    }
+
+    pair.getRight().cacheEventsUnsubscribe();
+
+    for (long i = 2; i < 10; ++i) {
+      pair.getLeft().setFailure(false);
+      pair.getLeft().setLoadedValue(i);
+      pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+      ev.reset();
+      pair.getRight().cacheGetLU("key" + i);
+
+      Assert.assertFalse(ev.loaded);
+      Assert.assertFalse(ev.retrieved);
+      Assert.assertFalse(ev.evicted);
+    }
+  }
+
+  /**
+   * Newly loaded items that are requested no more often than the item that
+   * would be evicted to make room for them are rejected, so a stream of
+   * items that are each requested once does not displace older items.
+   *
+   * @throws JCacheException
+   */
+
+  @SuppressWarnings("boxing") @Test public void testEviction()
+    throws Failure,
+      JCacheException
+  {
+    final Pair<LUCacheLoaderFaultInjectable<String, Long>, LUCacheWTinyLFU<String, Long, Long, Failure>> pair =
+      this.newCache(2L);
+
+    pair.getLeft().setFailure(false);
+    pair.getLeft().setLoadedValue(0L);
+    pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+    pair.getRight().cacheGetLU("key0");
+    pair.getRight().cacheGetLU("key1");
+    Assert.assertTrue(pair.getRight().cacheIsCached("key0"));
+    Assert.assertTrue(pair.getRight().cacheIsCached("key1"));
+    Assert.assertEquals(BigInteger.valueOf(2), pair
+      .getRight()
+      .cacheItemCount());
+    Assert.assertEquals(BigInteger.valueOf(2), pair.getRight().cacheSize());
+
+    for (long i = 2; i < 10; ++i) {
+      pair.getLeft().setFailure(false);
+      pair.getLeft().setLoadedValue(i);
+      pair.getLeft().setLoadedValueSize(BigInteger.valueOf(1));
+
+      Assert.assertEquals(BigInteger.valueOf(2), pair
+        .getRight()
+        .cacheItemCount());
+      Assert.assertEquals(BigInteger.valueOf(2), pair.getRight().cacheSize());
+
+      final Long r = pair.getRight().cacheGetLU("key" + i);
+      Assert.assertEquals(Long.valueOf(i), r);
+      for (long k = 1; k < i; ++k) {
+        Assert.assertFalse(pair.getRight().cacheIsCached("key" + k));
+      }
+
+      Assert.assertTrue(pair.getRight().cacheIsCached("key0"));
+      Assert.assertTrue(pair.getRight().cacheIsCached("key" + i));
+      Assert.assertEquals(BigInteger.valueOf(2), pair
+        .getRight()
+        .cacheItemCount());
+      Assert.assertEquals(BigInteger.valueOf(2), pair.getRight().cacheSize());
+    }
+  }
+
+  /**
+   * On a skewed workload interleaved with scans of keys that are requested
+   * only once, the cache performs fewer loads than an LRU cache of the same
+   * capacity.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testHitRatioBetterThanLRU()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<Integer> loader_w =
+      new LUCacheLoaderCounting<Integer>();
+    final LUCacheLoaderCounting<Integer> loader_l =
+      new LUCacheLoaderCounting<Integer>();
+    final LRUCacheConfig config =
+      LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(100L));
+
+    final LUCacheWTinyLFU<Integer, Long, Long, Failure> tiny =
+      LUCacheWTinyLFU.newCache(loader_w, config);
+    final LRUCacheTrivial<Integer, Long, Long, Failure> lru =
+      LRUCacheTrivial.newCache(loader_l, config);
+
+    final Random r = new Random(0x40506070L);
+    int scan = 100000;
+    for (int index = 0; index < 200000; ++index) {
+      final Integer key;
+      if (r.nextInt(4) == 0) {
+        key = Integer.valueOf(scan);
+        ++scan;
+      } else {
+        final double u = r.nextDouble();
+        key = Integer.valueOf((int) (1000 * u * u * u));
+      }
+      tiny.cacheGetLU(key);
+      lru.cacheGetLU(key);
+    }
+
+    Assert.assertTrue(
+      loader_w.getLoads() + " < " + loader_l.getLoads(),
+      loader_w.getLoads() < loader_l.getLoads());
+  }
+
+  /**
+   * An object as large as the cache is not closed before it is returned.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testLargeObjectReturnedOpen()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<Integer> loader =
+      new LUCacheLoaderCounting<Integer>();
+    final LUCacheWTinyLFU<Integer, Long, Long, Failure> cache =
+      LUCacheWTinyLFU.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(64L)));
+
+    for (int key = 0; key < 64; ++key) {
+      cache.cacheGetLU(Integer.valueOf(key));
+      cache.cacheGetLU(Integer.valueOf(key));
+    }
+
+    loader.setSize(64L);
+    cache.cacheGetLU(Integer.valueOf(1000));
+    Assert.assertTrue(cache.cacheIsCached(Integer.valueOf(1000)));
+    Assert.assertEquals(1L, cache.cacheItemCountLong());
+    Assert.assertEquals(64L, loader.getCloses());
+  }
+
+  /**
+   * A burst of keys that are requested only once does not flush frequently
+   * requested objects out of the cache.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testScanResistant()
+    throws Failure,
+      JCacheException
+  {
+    final LUCacheLoaderCounting<Integer> loader =
+      new LUCacheLoaderCounting<Integer>();
+    final LUCacheWTinyLFU<Integer, Long, Long, Failure> cache =
+      LUCacheWTinyLFU.newCache(
+        loader,
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(64L)));
+
+    for (int round = 0; round < 8; ++round) {
+      for (int key = 0; key < 16; ++key) {
+        cache.cacheGetLU(Integer.valueOf(key));
+      }
+    }
+
+    for (int key = 1000; key < 2000; ++key) {
+      cache.cacheGetLU(Integer.valueOf(key));
+    }
+
+    for (int key = 0; key < 16; ++key) {
+      Assert.assertTrue(cache.cacheIsCached(Integer.valueOf(key)));
+    }
+  }
+}
@@ -26,6 +26,7 @@ import org.junit.Test;
 
 import com.io7m.jcache.JCacheEventsType;
 import com.io7m.jcache.JCacheException;
+import com.io7m.jcache.JCacheStatistics;
 import com.io7m.jcache.PCacheAbstract;
 import com.io7m.jcache.PCacheType;
 import com.io7m.jnull.NonNull;
@@ -113,6 +114,40 @@ public class PCacheAbstractTest
             calls.set(0);
             return BigInteger.ONE;
           }
+
+          @Override public long cacheItemCountLong()
+          {
+            Assert.assertFalse(calls.get(9));
+            calls.set(9);
+            return 1L;
+          }
+
+          @Override public long cacheSizeLong()
+          {
+            Assert.assertFalse(calls.get(10));
+            calls.set(10);
+            return 1L;
+          }
+
+          @Override public JCacheStatistics cacheStatistics()
+          {
+            Assert.assertFalse(calls.get(11));
+            calls.set(11);
+            return TestUtilities.actuallyNull();
+          }
+
+          @Override public void cacheStatisticsReset()
+          {
+            Assert.assertFalse(calls.get(12));
+            calls.set(12);
+          }
+
+          @Override public void cacheStatisticsSetHistogramsEnabled(
+            final boolean enabled)
+          {
+            Assert.assertFalse(calls.get(13));
+            calls.set(13);
+          }
         });
 
     c.cacheGetPeriodic((Integer) TestUtilities.actuallyNull());
@@ -125,8 +160,13 @@ public class PCacheAbstractTest
       .actuallyNull());
     c.cacheEventsUnsubscribe();
     c.cacheDelete();
+    c.cacheItemCountLong();
+    c.cacheSizeLong();
+    c.cacheStatistics();
+    c.cacheStatisticsReset();
+    c.cacheStatisticsSetHistogramsEnabled(true);
 
-    for (int index = 0; index <= 8; ++index) {
+    for (int index = 0; index <= 13; ++index) {
       Assert.assertTrue(calls.get(index));
     }
   }
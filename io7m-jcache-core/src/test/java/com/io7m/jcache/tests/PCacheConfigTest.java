@@ -78,6 +78,31 @@ import com.io7m.jcache.PCacheConfig.BuilderType;
       });
   }
 
+  @Test public void testLifetime()
+  {
+    final BuilderType b = PCacheConfig.newBuilder();
+    Assert.assertEquals(BigInteger.ZERO, b.getMaximumLifetime());
+    Assert.assertEquals(BigInteger.ZERO, b.getRefreshAhead());
+
+    final PCacheConfig c = b.create();
+    b.setMaximumLifetime(BigInteger.valueOf(10L));
+    b.setRefreshAhead(BigInteger.valueOf(2L));
+    final PCacheConfig d = b.create();
+    final PCacheConfig e = b.create();
+
+    Assert.assertEquals(BigInteger.valueOf(10L), d.getMaximumLifetime());
+    Assert.assertEquals(10L, d.getMaximumLifetimeLong());
+    Assert.assertEquals(BigInteger.valueOf(2L), d.getRefreshAhead());
+    Assert.assertEquals(2L, d.getRefreshAheadLong());
+    Assert.assertEquals(d, e);
+    Assert.assertEquals(d.hashCode(), e.hashCode());
+    Assert.assertFalse(c.equals(d));
+
+    b.setNoRefreshAhead();
+    b.setNoMaximumLifetime();
+    Assert.assertEquals(c, b.create());
+  }
+
   @Test(expected = IllegalArgumentException.class) public void testNoLimit()
   {
     final BuilderType b = PCacheConfig.newBuilder();
@@ -85,4 +110,23 @@ import com.io7m.jcache.PCacheConfig.BuilderType;
     b.setNoMaximumSize();
     b.create();
   }
+
+  @Test(expected = IllegalArgumentException.class) public
+    void
+    testRefreshAheadNotLessThanLifetime()
+  {
+    final BuilderType b = PCacheConfig.newBuilder();
+    b.setMaximumLifetime(BigInteger.valueOf(2L));
+    b.setRefreshAhead(BigInteger.valueOf(2L));
+    b.create();
+  }
+
+  @Test(expected = IllegalArgumentException.class) public
+    void
+    testRefreshAheadWithoutLifetime()
+  {
+    final BuilderType b = PCacheConfig.newBuilder();
+    b.setRefreshAhead(BigInteger.ONE);
+    b.create();
+  }
 }
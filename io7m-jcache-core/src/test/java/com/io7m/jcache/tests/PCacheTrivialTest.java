@@ -17,16 +17,26 @@
 package com.io7m.jcache.tests;
 
 import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.io7m.jcache.JCacheEventsType;
 import com.io7m.jcache.JCacheException;
 import com.io7m.jcache.JCacheException.JCacheExceptionLoaderReturnedNull;
 import com.io7m.jcache.JCacheException.JCacheExceptionObjectTooLarge;
 import com.io7m.jcache.JCacheException.JCacheExceptionObjectTooSmall;
+import com.io7m.jcache.JCacheException.JCacheExceptionSizeOverflow;
 import com.io7m.jcache.JCacheLoaderType;
+import com.io7m.jcache.JCacheStatistics;
 import com.io7m.jcache.LRUCacheConfig;
 import com.io7m.jcache.LRUCacheTrivial;
 import com.io7m.jcache.PCacheConfig;
@@ -40,6 +50,8 @@ import com.io7m.junreachable.UnreachableCodeException;
 
 @SuppressWarnings("static-method") public final class PCacheTrivialTest
 {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
   private PCacheType<Integer, Integer, Integer, Failure> newCache()
   {
     PCacheType<Integer, Integer, Integer, Failure> pc;
@@ -52,6 +64,20 @@ import com.io7m.junreachable.UnreachableCodeException;
     return pc;
   }
 
+  private static PCacheConfig newConfigWithLifetime(
+    final long lifetime,
+    final long refresh)
+  {
+    final BuilderType b = PCacheConfig.newBuilder();
+    b.setNoMaximumAge();
+    b.setMaximumSize(BigInteger.valueOf(1000L));
+    b.setMaximumLifetime(BigInteger.valueOf(lifetime));
+    if (refresh > 0L) {
+      b.setRefreshAhead(BigInteger.valueOf(refresh));
+    }
+    return b.create();
+  }
+
   private
     Pair<PCacheType<String, Integer, Integer, Failure>, LUCacheLoaderFaultInjectable<String, Integer>>
     newCacheWithMaximumAge(
@@ -309,6 +335,41 @@ import com.io7m.junreachable.UnreachableCodeException;
     Assert.assertEquals(BigInteger.ZERO, p.getLeft().cacheSize());
   }
 
+  /**
+   * Items are removed at the end of their lifetime, even if they are
+   * referenced in every period.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testEvictionLifetime()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final PCacheType<String, Long, Long, Failure> pc =
+      PCacheTrivial.newCache(
+        loader,
+        PCacheTrivialTest.newConfigWithLifetime(3L, 0L));
+
+    for (int period = 1; period <= 3; ++period) {
+      pc.cachePeriodStart();
+      Assert.assertEquals(Long.valueOf(1L), pc.cacheGetPeriodic("a"));
+      pc.cachePeriodEnd();
+      Assert.assertTrue(pc.cacheIsCached("a"));
+    }
+
+    pc.cachePeriodStart();
+    Assert.assertEquals(Long.valueOf(1L), pc.cacheGetPeriodic("a"));
+    pc.cachePeriodEnd();
+    Assert.assertFalse(pc.cacheIsCached("a"));
+    Assert.assertEquals(1L, loader.getCloses());
+
+    pc.cachePeriodStart();
+    Assert.assertEquals(Long.valueOf(2L), pc.cacheGetPeriodic("a"));
+    pc.cachePeriodEnd();
+  }
+
   @Test public void testEvictionSize()
     throws Failure,
       JCacheException
@@ -470,6 +531,88 @@ import com.io7m.junreachable.UnreachableCodeException;
     pair.getLeft().cacheGetPeriodic("23");
   }
 
+  /**
+   * Loaders that report <code>long</code> sizes are never asked for
+   * {@link BigInteger} sizes, and both forms of accounting agree.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testLongAccounting()
+    throws Failure,
+      JCacheException
+  {
+    final BuilderType b = PCacheConfig.newBuilder();
+    b.setMaximumAge(BigInteger.valueOf(2L));
+    b.setMaximumSize(BigInteger.valueOf(9L));
+
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    loader.setSize(3L);
+    final PCacheType<String, Long, Long, Failure> pc =
+      PCacheTrivial.newCache(loader, b.create());
+
+    pc.cachePeriodStart();
+    for (int index = 0; index < 4; ++index) {
+      pc.cacheGetPeriodic("key" + index);
+    }
+    Assert.assertEquals(4L, pc.cacheItemCountLong());
+    Assert.assertEquals(12L, pc.cacheSizeLong());
+    Assert.assertEquals(BigInteger.valueOf(12L), pc.cacheSize());
+    pc.cachePeriodEnd();
+
+    Assert.assertEquals(3L, pc.cacheItemCountLong());
+    Assert.assertEquals(9L, pc.cacheSizeLong());
+    Assert.assertEquals(BigInteger.valueOf(3L), pc.cacheItemCount());
+    Assert.assertEquals(BigInteger.valueOf(9L), pc.cacheSize());
+
+    pc.cachePeriodStart();
+    pc.cachePeriodEnd();
+    pc.cachePeriodStart();
+    pc.cachePeriodEnd();
+
+    Assert.assertEquals(0L, pc.cacheItemCountLong());
+    Assert.assertEquals(0L, pc.cacheSizeLong());
+    Assert.assertEquals(4L, loader.getCloses());
+    Assert.assertEquals(0L, loader.getSizeBigCalls());
+  }
+
+  /**
+   * The total size of an unbounded cache cannot exceed the range of
+   * <code>long</code>, and values that cannot be added are closed.
+   *
+   * @throws JCacheException
+   */
+
+  @Test public void testLongSizeOverflow()
+    throws Failure,
+      JCacheException
+  {
+    final BuilderType b = PCacheConfig.newBuilder();
+    b.setMaximumAge(BigInteger.ONE);
+    b.setNoMaximumSize();
+
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    loader.setSize(Long.MAX_VALUE);
+    final PCacheType<String, Long, Long, Failure> pc =
+      PCacheTrivial.newCache(loader, b.create());
+
+    pc.cachePeriodStart();
+    pc.cacheGetPeriodic("key0");
+
+    try {
+      pc.cacheGetPeriodic("key1");
+      Assert.fail();
+    } catch (final JCacheExceptionSizeOverflow e) {
+      // Expected
+    }
+
+    Assert.assertEquals(1L, pc.cacheItemCountLong());
+    Assert.assertEquals(Long.MAX_VALUE, pc.cacheSizeLong());
+    Assert.assertEquals(1L, loader.getCloses());
+  }
+
   /**
    * A loader returning <code>TestUtilities.actuallyNull()</code> is a cache
    * error.
@@ -555,6 +698,330 @@ import com.io7m.junreachable.UnreachableCodeException;
    * @throws JCacheException
    */
 
+  /**
+   * Items that are referenced near the end of their lifetime are reloaded
+   * between periods, so that no load ever happens during a period after the
+   * first, and each replaced value is closed.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testRefreshAhead()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final PCacheType<String, Long, Long, Failure> pc =
+      PCacheTrivial.newCache(
+        loader,
+        PCacheTrivialTest.newConfigWithLifetime(3L, 1L));
+
+    pc.cachePeriodStart();
+    pc.cacheGetPeriodic("a");
+    pc.cachePeriodEnd();
+
+    for (int period = 2; period <= 20; ++period) {
+      pc.cachePeriodStart();
+      final long loads = loader.getLoads();
+      final Long x = pc.cacheGetPeriodic("a");
+      Assert.assertEquals(loads, loader.getLoads());
+      Assert.assertEquals(Long.valueOf(loads), x);
+      pc.cachePeriodEnd();
+      Assert.assertTrue(pc.cacheIsCached("a"));
+    }
+
+    Assert.assertTrue(loader.getLoads() > 5L);
+    Assert.assertEquals(loader.getLoads() - 1L, loader.getCloses());
+    Assert.assertEquals(1L, pc.cacheItemCountLong());
+    Assert.assertEquals(1L, pc.cacheSizeLong());
+
+    pc.cacheDelete();
+    Assert.assertEquals(loader.getLoads(), loader.getCloses());
+  }
+
+  /**
+   * Refreshes run on the given executor, and are applied at the start of the
+   * next period after they complete. Refreshes that complete after their
+   * item has been removed are discarded and closed.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testRefreshAheadExecutor()
+    throws Exception
+  {
+    final List<Runnable> tasks = new ArrayList<Runnable>();
+    final Executor exec = new Executor() {
+      @Override public void execute(
+        final Runnable r)
+      {
+        tasks.add(r);
+      }
+    };
+
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final PCacheType<String, Long, Long, Failure> pc =
+      PCacheTrivial.newCache(
+        loader,
+        PCacheTrivialTest.newConfigWithLifetime(3L, 2L),
+        exec);
+
+    pc.cachePeriodStart();
+    pc.cacheGetPeriodic("a");
+    pc.cachePeriodEnd();
+
+    pc.cachePeriodStart();
+    pc.cacheGetPeriodic("a");
+    pc.cachePeriodEnd();
+    Assert.assertEquals(1, tasks.size());
+    Assert.assertEquals(1L, loader.getLoads());
+
+    pc.cachePeriodStart();
+    Assert.assertEquals(Long.valueOf(1L), pc.cacheGetPeriodic("a"));
+    tasks.remove(0).run();
+    Assert.assertEquals(Long.valueOf(1L), pc.cacheGetPeriodic("a"));
+    pc.cachePeriodEnd();
+    Assert.assertEquals(0L, loader.getCloses());
+
+    pc.cachePeriodStart();
+    Assert.assertEquals(Long.valueOf(2L), pc.cacheGetPeriodic("a"));
+    Assert.assertEquals(1L, loader.getCloses());
+    pc.cachePeriodEnd();
+    Assert.assertEquals(0, tasks.size());
+
+    pc.cachePeriodStart();
+    pc.cacheGetPeriodic("a");
+    pc.cachePeriodEnd();
+    Assert.assertEquals(1, tasks.size());
+
+    pc.cacheDelete();
+    tasks.remove(0).run();
+    pc.cachePeriodStart();
+    Assert.assertFalse(pc.cacheIsCached("a"));
+    pc.cachePeriodEnd();
+    Assert.assertEquals(loader.getLoads(), loader.getCloses());
+  }
+
+  /**
+   * A refresh rejected by the executor does not prevent the item from being
+   * refreshed later, or the period from evicting expired items.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testRefreshAheadRejected()
+    throws Exception
+  {
+    final List<Runnable> tasks = new ArrayList<Runnable>();
+    final AtomicBoolean reject = new AtomicBoolean(true);
+    final Executor exec = new Executor() {
+      @Override public void execute(
+        final Runnable r)
+      {
+        if (reject.get()) {
+          throw new RejectedExecutionException();
+        }
+        tasks.add(r);
+      }
+    };
+
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final PCacheType<String, Long, Long, Failure> pc =
+      PCacheTrivial.newCache(
+        loader,
+        PCacheTrivialTest.newConfigWithLifetime(3L, 2L),
+        exec);
+
+    pc.cachePeriodStart();
+    pc.cacheGetPeriodic("b");
+    pc.cachePeriodEnd();
+
+    pc.cachePeriodStart();
+    pc.cacheGetPeriodic("a");
+    pc.cachePeriodEnd();
+
+    pc.cachePeriodStart();
+    pc.cacheGetPeriodic("a");
+    pc.cachePeriodEnd();
+    Assert.assertEquals(0, tasks.size());
+    Assert.assertTrue(pc.cacheIsCached("b"));
+
+    reject.set(false);
+    pc.cachePeriodStart();
+    pc.cacheGetPeriodic("a");
+    pc.cachePeriodEnd();
+    Assert.assertEquals(1, tasks.size());
+    Assert.assertFalse(pc.cacheIsCached("b"));
+  }
+
+  /**
+   * A refresh that fails leaves the existing value in place until the end of
+   * its lifetime.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testRefreshAheadFailure()
+    throws Exception
+  {
+    final LUCacheLoaderFaultInjectable<String, Integer> loader =
+      new LUCacheLoaderFaultInjectable<String, Integer>();
+    final PCacheType<String, Integer, Integer, Failure> pc =
+      PCacheTrivial.newCache(
+        loader,
+        PCacheTrivialTest.newConfigWithLifetime(3L, 1L));
+
+    loader.setLoadedValue(Integer.valueOf(0));
+    loader.setLoadedValueSize(BigInteger.ONE);
+
+    for (int period = 1; period <= 3; ++period) {
+      pc.cachePeriodStart();
+      pc.cacheGetPeriodic("a");
+      loader.setFailure(period == 3);
+      pc.cachePeriodEnd();
+    }
+
+    loader.setFailure(false);
+    loader.setLoadedValue(Integer.valueOf(1));
+
+    pc.cachePeriodStart();
+    Assert.assertEquals(Integer.valueOf(0), pc.cacheGetPeriodic("a"));
+    pc.cachePeriodEnd();
+    Assert.assertFalse(pc.cacheIsCached("a"));
+
+    pc.cachePeriodStart();
+    Assert.assertEquals(Integer.valueOf(1), pc.cacheGetPeriodic("a"));
+    pc.cachePeriodEnd();
+  }
+
+  /**
+   * Items that are not referenced near the end of their lifetime are not
+   * refreshed.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testRefreshAheadUnreferenced()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<String> loader =
+      new LUCacheLoaderCounting<String>();
+    final PCacheType<String, Long, Long, Failure> pc =
+      PCacheTrivial.newCache(
+        loader,
+        PCacheTrivialTest.newConfigWithLifetime(3L, 1L));
+
+    pc.cachePeriodStart();
+    pc.cacheGetPeriodic("a");
+    pc.cachePeriodEnd();
+
+    for (int period = 2; period <= 4; ++period) {
+      pc.cachePeriodStart();
+      pc.cachePeriodEnd();
+    }
+
+    Assert.assertFalse(pc.cacheIsCached("a"));
+    Assert.assertEquals(1L, loader.getLoads());
+    Assert.assertEquals(1L, loader.getCloses());
+  }
+
+  /**
+   * Snapshots of periodic caches can be restored, respecting the maximum
+   * size of the cache.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testSnapshotRoundTrip()
+    throws Exception
+  {
+    final Path file = this.folder.getRoot().toPath().resolve("snapshot");
+    final LUCacheCodecString codec = new LUCacheCodecString();
+    final Executor direct = new Executor() {
+      @Override public void execute(
+        final Runnable r)
+      {
+        r.run();
+      }
+    };
+
+    final PCacheTrivial<String, String, String, Failure> c0 =
+      PCacheTrivial.newCache(
+        new LUCacheLoaderStrings(),
+        PCacheTrivialTest.newConfigWithLifetime(100L, 0L));
+    c0.cachePeriodStart();
+    c0.cacheGetPeriodic("a");
+    c0.cacheGetPeriodic("b");
+    c0.cachePeriodEnd();
+    c0.cachePeriodStart();
+    c0.cacheGetPeriodic("c");
+    c0.cachePeriodEnd();
+    Assert.assertEquals(3L, c0.cacheSnapshotWrite(file, codec, null));
+
+    final BuilderType b = PCacheConfig.newBuilder();
+    b.setNoMaximumAge();
+    b.setMaximumSize(BigInteger.valueOf(1L));
+    final LUCacheLoaderStrings loader = new LUCacheLoaderStrings();
+    final PCacheTrivial<String, String, String, Failure> c1 =
+      PCacheTrivial.newCache(loader, b.create());
+    Assert.assertEquals(
+      1L,
+      c1.cacheSnapshotRestore(file, codec, null, direct, 1));
+    Assert.assertTrue(c1.cacheIsCached("c"));
+    Assert.assertEquals(1L, c1.cacheItemCountLong());
+
+    final PCacheTrivial<String, String, String, Failure> c2 =
+      PCacheTrivial.newCache(
+        new LUCacheLoaderStrings(),
+        PCacheTrivialTest.newConfigWithLifetime(100L, 0L));
+    Assert.assertEquals(
+      3L,
+      c2.cacheSnapshotRestore(file, codec, codec, direct, 2));
+    Assert.assertTrue(c2.cacheIsCached("a"));
+    Assert.assertTrue(c2.cacheIsCached("b"));
+    Assert.assertTrue(c2.cacheIsCached("c"));
+  }
+
+  /**
+   * Retrievals are counted as hits and misses, and objects removed at the
+   * end of a period are counted as evictions.
+   *
+   * @throws Exception
+   */
+
+  @Test public void testStatistics()
+    throws Exception
+  {
+    final LUCacheLoaderCounting<Integer> loader =
+      new LUCacheLoaderCounting<Integer>();
+    final BuilderType b = PCacheConfig.newBuilder();
+    b.setMaximumAge(BigInteger.ONE);
+    final PCacheType<Integer, Long, Long, Failure> cache =
+      PCacheTrivial.newCache(loader, b.create());
+
+    cache.cachePeriodStart();
+    cache.cacheGetPeriodic(Integer.valueOf(0));
+    cache.cacheGetPeriodic(Integer.valueOf(0));
+    cache.cachePeriodEnd();
+
+    cache.cachePeriodStart();
+    cache.cacheGetPeriodic(Integer.valueOf(1));
+    cache.cachePeriodEnd();
+
+    final JCacheStatistics s = cache.cacheStatistics();
+    Assert.assertEquals(1L, s.getHits());
+    Assert.assertEquals(2L, s.getMisses());
+    Assert.assertEquals(2L, s.getLoads());
+    Assert.assertEquals(1L, s.getEvictions());
+    Assert.assertFalse(cache.cacheIsCached(Integer.valueOf(0)));
+    Assert.assertTrue(cache.cacheIsCached(Integer.valueOf(1)));
+
+    cache.cacheDelete();
+    Assert.assertEquals(1L, cache.cacheStatistics().getEvictions());
+  }
+
   @Test public void testUpdateTime()
     throws Failure,
       JCacheException